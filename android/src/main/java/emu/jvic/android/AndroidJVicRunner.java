@@ -24,6 +24,7 @@ import emu.jvic.PixelData;
 import emu.jvic.Program;
 import emu.jvic.config.AppConfigItem;
 import emu.jvic.cpu.Cpu6502;
+import emu.jvic.memory.Memory;
 import emu.jvic.memory.RamType;
 import emu.jvic.sound.SoundGenerator;
 import emu.jvic.ui.MachineInputProcessor.ScreenSize;
@@ -67,6 +68,7 @@ public class AndroidJVicRunner extends JVicRunner {
         
         // Create the Machine instance that will run the VIC 20 program.
         machine = new Machine(soundGenerator, keyboardMatrix, pixelData);
+        machine.setBootStateCache(bootStateCache);
         
         // Load the ROM files.
         byte[] basicRom = Gdx.files.internal("roms/basic.rom").readBytes();
@@ -114,13 +116,13 @@ public class AndroidJVicRunner extends JVicRunner {
             
             // Check for BASIC program auto-load
             if (autoLoadProgram != null) {
-                int[] mem = machine.getMemory().getMemoryArray();
+                Memory memory = machine.getMemory();
                 
                 // We need to wait for BASIC to boot up before loading the program.
                 // The simplest way to wait for BASIC to be ready is to check for
                 // the starting cursor position.
                 
-                if (mem[0xD1] == 110) {
+                if (memory.peek(0xD1) == 110) {
                     // Now that the BASIC cursor is in the start position, let's load the
                     // program data in to memory.
                     try {
@@ -128,7 +130,7 @@ public class AndroidJVicRunner extends JVicRunner {
                     } catch (Exception e) {}
                     
                     // If there is an auto run command, then run it.
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     
                     if (autoRunCmdQueue.isEmpty()) {
                         autoLoadProgram = null;
@@ -136,8 +138,8 @@ public class AndroidJVicRunner extends JVicRunner {
                 }
                 
                 // If it is a DISK, then we run two commands, the second being the RUN.
-                if (mem[0xD1] == 220) {
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                if (memory.peek(0xD1) == 220) {
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     autoLoadProgram = null;
                 }
             }
@@ -157,18 +159,18 @@ public class AndroidJVicRunner extends JVicRunner {
         machine = null;
     }
     
-    private void runNextBasicCommand(Queue<char[]> cmdQueue, int[] mem) {
+    private void runNextBasicCommand(Queue<char[]> cmdQueue, Memory memory) {
         if ((cmdQueue != null) && (!cmdQueue.isEmpty())) {
             // Keyboard buffer, 10 bytes (631 - 640)
             char[] cmdChars = cmdQueue.remove();
             int cmdCharPos = 0;
             for (; cmdCharPos < cmdChars.length; cmdCharPos++) {
-                mem[631 + cmdCharPos] = cmdChars[cmdCharPos];
+                memory.poke(631 + cmdCharPos, cmdChars[cmdCharPos]);
             }
-            mem[631 + cmdCharPos] = 0x0D;
+            memory.poke(631 + cmdCharPos, 0x0D);
             
             // Num of chars in keyboard buffer.
-            mem[198] = cmdCharPos + 1;
+            memory.poke(198, cmdCharPos + 1);
         }
     }
 
@@ -9,32 +9,47 @@ import emu.jvic.PixelData;
 
 public class AndroidPixelData extends PixelData {
 
-    // This byte array is in exactly the format that we can copy into the Pixmap's buffer.
+    // One colour index per pixel, as output by the VIC chip.
+    private byte[] colourIndexes;
+
+    // These byte arrays are in exactly the format that we can copy into the Pixmaps' buffers,
+    // holding only the visible area of the screen.
     private byte[] imageData;
+    private byte[] visibleColourIndexes;
 
     @Override
     public void init(int width, int height) {
-        imageData = new byte[width * height * 4];
+        colourIndexes = new byte[width * height];
+        imageData = new byte[visibleWidth * visibleHeight * 4];
+        visibleColourIndexes = new byte[visibleWidth * visibleHeight];
     }
 
     @Override
-    public void putPixel(int ulaIndex, int rgba8888Colour) {
-        int index = (ulaIndex << 2);
-
-        // Adds RGBA8888 colour to byte array in expected R, G, B, A order.
-        imageData[index + 0] = (byte)((rgba8888Colour >> 24) & 0xFF);
-        imageData[index + 1] = (byte)((rgba8888Colour >> 16) & 0xFF);
-        imageData[index + 2] = (byte)((rgba8888Colour >>  8) & 0xFF);
-        imageData[index + 3] = (byte)((rgba8888Colour >>  0) & 0xFF);
+    public void putPixel(int ulaIndex, int colourIndex) {
+        colourIndexes[ulaIndex] = (byte)colourIndex;
     }
 
     @Override
     public void clearPixels() {
-        Arrays.fill(imageData, (byte)0);
+        Arrays.fill(colourIndexes, (byte)0);
     }
 
     @Override
     public void updatePixmap(Pixmap pixmap) {
-        BufferUtils.copy(imageData, 0, pixmap.getPixels(), imageData.length);
+        expandVisiblePixels(colourIndexes, imageData);
+        BufferUtils.copy(imageData, 0, pixmap.getPixels(), 
+                Math.min(imageData.length, pixmap.getPixels().remaining()));
+    }
+
+    @Override
+    public boolean isIndexPixmapSupported() {
+        return true;
+    }
+
+    @Override
+    public void updateIndexPixmap(Pixmap indexPixmap) {
+        copyVisibleColourIndexes(colourIndexes, visibleColourIndexes);
+        BufferUtils.copy(visibleColourIndexes, 0, indexPixmap.getPixels(), 
+                Math.min(visibleColourIndexes.length, indexPixmap.getPixels().remaining()));
     }
 }
@@ -5,178 +5,131 @@ import android.media.AudioManager;
 import android.media.AudioTrack;
 
 import emu.jvic.MachineType;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+import emu.jvic.sound.AudioOutputThread;
 import emu.jvic.sound.SoundGenerator;
+import emu.jvic.sound.VicSoundEngine;
 
 /**
- * An emulation of the VIC 20 sound that is tailored for the Android platform.
+ * An emulation of the VIC 20 sound that is tailored for the Android platform. The sound
+ * is rendered by the shared VicSoundEngine on the machine thread, and each block of
+ * samples is passed to an AudioOutputThread, which writes them out to an AudioTrack, so
+ * that the machine thread is never blocked by the AudioTrack.
  */
-public class AndroidSoundGenerator extends SoundGenerator {
-
-    private static final int SAMPLE_RATE = 22050;
-    private static final int VOLUME_DAC_BIAS = 192;
-    private static final float HIGH_PASS_CUTOFF_HZ = 120.0f;
-    
-    private static final int VIC_REG_10 = 0x900A;
-    private static final int VIC_REG_14 = 0x900E;
-    
-    private int cyclesPerSample;
-    private byte[] sampleBuffer;
-    private int sampleBufferOffset = 0;
-    private int cyclesToNextSample;
+public class AndroidSoundGenerator extends SoundGenerator 
+        implements VicSoundEngine.SampleBlockHandler, AudioOutputThread.SampleSink {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    // PCM SIGNED, 16 bit, mono, 2 bytes/frame, little-endian, 50ms buffer size (i.e. delay)
+    private static final int AUDIO_BUFFER_SIZE = ((((SAMPLE_RATE / 20) * 2) / 10) * 10);
+
+    // The AudioTrack is written to in blocks of a tenth of its buffer size.
+    private static final int SAMPLE_BLOCK_SIZE = (AUDIO_BUFFER_SIZE / 10) / 2;
+
+    // The number of samples to keep in the ring buffer, on top of the AudioTrack's buffer.
+    private static final int TARGET_RING_BUFFER_SAMPLES = SAMPLE_RATE / 50;
+
+    // The machine thread is paced by the host clock, so the output is resampled by up to
+    // this much to keep the ring buffer at its target, whatever the AudioTrack's clock is.
+    private static final double MAX_RATE_ADJUSTMENT = 0.005;
+    private static final double RATE_CORRECTION_SECONDS = 2.0;
+
+    private VicSoundEngine soundEngine = new VicSoundEngine(SAMPLE_RATE, SAMPLE_BLOCK_SIZE, this,
+            VicSoundEngine.Synthesis.BAND_LIMITED);
+    private AudioOutputThread audioOutputThread = new AudioOutputThread(SAMPLE_RATE, SAMPLE_BLOCK_SIZE, this);
     private AudioTrack audioLine;
-    private int soundClockDividerCounter;
-    private int[] voiceClockDividerTriggers;
-    private int[] voiceCounters;
-    private int[] voiceShiftRegisters;
-    private int noiseLFSR = 0xFFFF;
-    private int lastNoiseLFSR0 = 0x1;
-    private double accumulatedSample;
-    private int accumulatedCycles;
-    private float highPassAlpha;
-    private float highPassLastInput;
-    private float highPassLastOutput;
-    
+    private volatile boolean soundPaused;
+
+    // The smoothed difference between the ring buffer fill level and the target.
+    private double ringBufferError;
+
     @Override
     public void initSound(MachineType machineType) {
-        cyclesPerSample = (machineType.getCyclesPerSecond() / SAMPLE_RATE);
-        
-        // PCM SIGNED, 16 bit, mono, 2 bytes/frame, little-endian, 50ms buffer size (i.e. delay)
-        int audioBufferSize = ((((SAMPLE_RATE/ 20) * 2) / 10) * 10);
-        
-        audioLine = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
-                AudioFormat.ENCODING_PCM_16BIT, audioBufferSize, AudioTrack.MODE_STREAM);
-        
-        sampleBuffer = new byte[audioBufferSize / 10];
-        sampleBufferOffset = 0;
-        
-        audioLine.play();
-        
-        voiceCounters = new int[4];
-        voiceShiftRegisters = new int[4];
-        voiceClockDividerTriggers = new int[] { 0xF, 0x7, 0x3, 0x1 };
-
-        float dt = 1.0f / SAMPLE_RATE;
-        float rc = (float)(1.0 / (2.0 * Math.PI * HIGH_PASS_CUTOFF_HZ));
-        highPassAlpha = rc / (rc + dt);
-        resetSampleAccumulator();
-        highPassLastInput = 0.0f;
-        highPassLastOutput = 0.0f;
-    }
+        if (audioLine == null) {
+            audioLine = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, AUDIO_BUFFER_SIZE, AudioTrack.MODE_STREAM);
 
-    @Override
-    public void emulateCycle() {
-        // 5-bit counter in the 6561, but only bottom 4 bits are used. Other bit might have been used for 6562/3.
-        soundClockDividerCounter = ((soundClockDividerCounter + 1) & 0xF);
-
-        for (int i = 0; i < 4; i++) {
-            if ((voiceClockDividerTriggers[i] & soundClockDividerCounter) == 0) {
-                voiceCounters[i] = (voiceCounters[i] + 1) & 0x7F;
-                if (voiceCounters[i] == 0) {
-                    // Reload the voice counter from the control register.
-                    voiceCounters[i] = (mem[VIC_REG_10 + i] & 0x7F);
-
-                    if (i == 3) {
-                        // For Noise voice, we perform a shift of the LFSR whenever the counter is
-                        // reloaded, and only shift the main voice shift register when LFSR bit 0 changes 
-                        // from LOW to HIGH, i.e. on the positive edge.
-                        if ((lastNoiseLFSR0 == 0) && (noiseLFSR & 0x0001) > 0) {
-                            voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                    | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                            : 0));
-                        }
-
-                        // The LFSR taps are bits 3, 12, 14 and 15.
-                        int bit3 = (noiseLFSR >> 3) & 1;
-                        int bit12 = (noiseLFSR >> 12) & 1;
-                        int bit14 = (noiseLFSR >> 14) & 1;
-                        int bit15 = (noiseLFSR >> 15) & 1;
-                        int feedback = (((bit3 ^ bit12) ^ (bit14 ^ bit15)) ^ 1);
-                        lastNoiseLFSR0 = (noiseLFSR & 0x1);
-                        noiseLFSR = (((noiseLFSR << 1) | (((feedback & ((mem[VIC_REG_10 + i] & 0x80) >> 7)) ^ 1) & 0x1))
-                                & 0xFFFF);
-
-                    } else {
-                        // For the three other voices, we shift the voice shift register whenever the
-                        // counter is reloaded.
-                        voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                        : 0));
-                    }
-                }
-            }
+            audioLine.play();
+            audioOutputThread.start();
         }
 
-        accumulatedSample += getCurrentMixedOutput();
-        accumulatedCycles++;
+        ringBufferError = 0;
+        soundEngine.init(memory, machineType);
+    }
 
-        // If enough cycles have elapsed since the last sample, then output another.
-        if (--cyclesToNextSample <= 0) {
-            writeSample();
-            cyclesToNextSample += cyclesPerSample;
-        }
+    @Override
+    public void emulateCycles(int cycles) {
+        soundEngine.render(cycles);
     }
-    
+
     /**
-     * Writes a single sample to the sample buffer. If the buffer is full after
-     * writing the sample, then the whole buffer is written out.
+     * Pushes a block of samples from the VicSoundEngine to the AudioOutputThread, for the
+     * audio thread to write out to the AudioTrack. Invoked on the machine thread.
+     *
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples in the block.
      */
-    public void writeSample() {
-        float sample = 0.0f;
-
-        if (accumulatedCycles > 0) {
-            sample = (float)(accumulatedSample / accumulatedCycles);
+    @Override
+    public void writeSamples(short[] samples, int sampleCount) {
+        if (soundPaused) {
+            return;
         }
 
-        resetSampleAccumulator();
+        audioOutputThread.push(samples, sampleCount);
 
-        float filtered = applyHighPass(sample);
-        int filteredSample = Math.round(filtered);
-        if (filteredSample > 32767) {
-            filteredSample = 32767;
-        } else if (filteredSample < -32768) {
-            filteredSample = -32768;
-        }
-        short pcmSample = (short)filteredSample;
-
-        sampleBuffer[sampleBufferOffset + 0] = (byte)(pcmSample & 0x00FF);
-        sampleBuffer[sampleBufferOffset + 1] = (byte)((pcmSample & 0xFF00) >> 8);
-        
-        // If the sample buffer is full, write it out to the audio line.
-        if ((sampleBufferOffset += 2) == sampleBuffer.length) {
-            audioLine.write(sampleBuffer, 0, sampleBuffer.length);
-            sampleBufferOffset = 0;
-        }
+        // Resample to bring the ring buffer back to its target.
+        int error = audioOutputThread.getRingBufferSampleCount() - TARGET_RING_BUFFER_SAMPLES;
+        ringBufferError += (error - ringBufferError) * 0.125;
+        double rateAdjustment = -ringBufferError / (SAMPLE_RATE * RATE_CORRECTION_SECONDS);
+        soundEngine.setRateAdjustment(Math.max(-MAX_RATE_ADJUSTMENT, Math.min(rateAdjustment, MAX_RATE_ADJUSTMENT)));
     }
 
-    private int getCurrentMixedOutput() {
-        int mixedVoices = 0;
-
-        for (int i = 0; i < 4; i++) {
-            if ((mem[VIC_REG_10 + i] & 0x80) > 0) {
-                // Voice enabled. First bit of SR goes out.
-                mixedVoices += ((voiceShiftRegisters[i] & 0x01) << 11);
-            }
-        }
+    /**
+     * Writes a block of samples out to the AudioTrack. Invoked only on the audio thread,
+     * which is the only thread that writes to the AudioTrack, so it is the only thread that
+     * can be blocked by it.
+     *
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples in the block.
+     */
+    @Override
+    public void writeAudioSamples(short[] samples, int sampleCount) {
+        audioLine.write(samples, 0, sampleCount);
+    }
 
-        int masterVolume = (mem[VIC_REG_14] & 0x0F);
-        int sample = (((mixedVoices >> 2) + VOLUME_DAC_BIAS) * masterVolume);
-        return Math.min(sample, 0x7FFF);
+    /**
+     * Gets the number of samples in the ring buffer that the audio thread has yet to write
+     * to the AudioTrack.
+     *
+     * @return The number of samples in the ring buffer.
+     */
+    public int getRingBufferSampleCount() {
+        return audioOutputThread.getRingBufferSampleCount();
     }
 
-    private float applyHighPass(float input) {
-        float output = highPassAlpha * (highPassLastOutput + input - highPassLastInput);
-        highPassLastInput = input;
-        highPassLastOutput = output;
-        return output;
+    /**
+     * Gets the number of times that the AudioTrack has run out of samples to play.
+     *
+     * @return The number of underruns.
+     */
+    public long getUnderrunCount() {
+        return (audioLine != null ? audioLine.getUnderrunCount() : 0);
     }
 
-    private void resetSampleAccumulator() {
-        accumulatedSample = 0.0;
-        accumulatedCycles = 0;
+    /**
+     * Gets the number of samples that were dropped because the ring buffer was full.
+     *
+     * @return The number of overrun samples.
+     */
+    public long getOverrunSampleCount() {
+        return audioOutputThread.getOverrunSampleCount();
     }
-    
+
     @Override
     public void pauseSound() {
+        soundPaused = true;
         if (audioLine != null)  {
             audioLine.pause();
         }
@@ -184,6 +137,7 @@ public class AndroidSoundGenerator extends SoundGenerator {
 
     @Override
     public void resumeSound() {
+        soundPaused = false;
         if (audioLine != null) {
             audioLine.play();
         }
@@ -198,10 +152,25 @@ public class AndroidSoundGenerator extends SoundGenerator {
         }
     }
 
+    @Override
+    protected void saveVoiceState(StateWriter out) {
+        soundEngine.saveState(out);
+    }
+
+    @Override
+    protected void loadVoiceState(StateReader in) {
+        soundEngine.loadState(in);
+    }
+
     @Override
     public void dispose() {
         if (audioLine != null) {
+            // Pausing and flushing the AudioTrack releases the audio thread if it is
+            // blocked writing to it.
+            audioOutputThread.stop();
+            audioLine.pause();
             audioLine.flush();
+            audioOutputThread.join();
             audioLine.stop();
             audioLine.release();
         }
@@ -0,0 +1,60 @@
+package emu.jvic.benchmarks;
+
+import emu.jvic.Machine;
+import emu.jvic.MachineType;
+import emu.jvic.headless.HeadlessKeyboardMatrix;
+import emu.jvic.headless.HeadlessPixelData;
+import emu.jvic.headless.HeadlessResources;
+import emu.jvic.headless.HeadlessSoundGenerator;
+import emu.jvic.memory.RamType;
+
+/**
+ * Creates headless Machine instances for the benchmarks, loading the ROMs from the
+ * assets folder that is placed on the benchmark classpath.
+ * 
+ * @author Lance Ewing
+ */
+public final class BenchmarkMachines {
+
+    /**
+     * Number of frames to run after a reset so that the KERNAL has finished its RAM
+     * test and is sitting at the BASIC READY prompt before measuring starts.
+     */
+    private static final int BOOT_FRAMES = 150;
+    
+    private BenchmarkMachines() {
+    }
+    
+    /**
+     * Creates a new headless Machine of the given MachineType, booted in to BASIC.
+     * 
+     * @param machineType The type of VIC 20 machine to create.
+     * 
+     * @return The new Machine, ready for measurement.
+     */
+    public static Machine createMachine(MachineType machineType) {
+        HeadlessPixelData pixelData = new HeadlessPixelData();
+        pixelData.init(machineType);
+        
+        Machine machine = new Machine(new HeadlessSoundGenerator(), new HeadlessKeyboardMatrix(), pixelData);
+        machine.init(
+                HeadlessResources.loadBasicRom(machineType), HeadlessResources.loadKernalRom(machineType), 
+                HeadlessResources.loadCharRom(), HeadlessResources.loadDos1541Rom(),
+                null, machineType, RamType.RAM_UNEXPANDED, null);
+        
+        for (int i = 0; i < BOOT_FRAMES; i++) {
+            machine.update();
+        }
+        
+        return machine;
+    }
+    
+    /**
+     * Loads the blank .d64 disk image that is shipped with the assets.
+     * 
+     * @return The blank disk image data.
+     */
+    public static byte[] loadBlankDiskImage() {
+        return HeadlessResources.loadBlankDiskImage();
+    }
+}
@@ -0,0 +1,92 @@
+package emu.jvic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import emu.jvic.Machine;
+import emu.jvic.MachineType;
+import emu.jvic.cpu.Cpu6502;
+import emu.jvic.io.Via6522;
+import emu.jvic.io.disk.C1541Drive;
+import emu.jvic.io.disk.persistence.NoOpDiskImagePersistenceSession;
+import emu.jvic.video.Vic6561;
+
+/**
+ * Micro-benchmarks for the emulateCycle method of each of the individual chips. Each
+ * chip is taken from a PAL Machine that has been booted in to BASIC, so that it is
+ * in a realistic state, and is then clocked on its own. Scores are emulated cycles
+ * per second.
+ * 
+ * @author Lance Ewing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChipBenchmark {
+
+    /**
+     * Number of cycles emulated per benchmark invocation. This is one PAL frame.
+     */
+    private static final int CYCLES = 22152;
+    
+    private Cpu6502 cpu;
+    private Vic6561 vic;
+    private Via6522 via;
+    private C1541Drive c1541Drive;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        Machine machine = BenchmarkMachines.createMachine(MachineType.PAL);
+        cpu = machine.getCpu();
+        vic = (Vic6561)machine.getVic();
+        via = machine.getVia2();
+        
+        // The drive only runs when a disk is inserted, so insert the blank disk.
+        byte[] blankDisk = BenchmarkMachines.loadBlankDiskImage();
+        c1541Drive = machine.getC1541Drive();
+        c1541Drive.insertDisk(blankDisk, true, new NoOpDiskImagePersistenceSession(blankDisk), false);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void cpu6502() {
+        for (int i = 0; i < CYCLES; i++) {
+            cpu.emulateCycle();
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public boolean vic6561() {
+        boolean frameComplete = false;
+        for (int i = 0; i < CYCLES; i++) {
+            frameComplete |= vic.emulateCycle();
+        }
+        return frameComplete;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void via6522() {
+        for (int i = 0; i < CYCLES; i++) {
+            via.emulateCycle();
+        }
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public void c1541Drive() {
+        for (int i = 0; i < CYCLES; i++) {
+            c1541Drive.emulateCycle();
+        }
+    }
+}
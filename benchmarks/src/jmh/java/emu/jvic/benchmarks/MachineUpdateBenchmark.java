@@ -0,0 +1,61 @@
+package emu.jvic.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import emu.jvic.Machine;
+import emu.jvic.MachineType;
+
+/**
+ * Measures a whole headless Machine running frame by frame, for each MachineType. The
+ * primary score is frames per second. The "cycles" secondary score gives the number of
+ * emulated CPU cycles per second, which is directly comparable across machine types.
+ * 
+ * @author Lance Ewing
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MachineUpdateBenchmark {
+
+    @Param({ "PAL", "NTSC", "VIC44", "VIC44K" })
+    public MachineType machineType;
+    
+    private Machine machine;
+    
+    /**
+     * Counts the emulated cycles executed by each Machine.update() call.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class EmulatedCycles {
+        public long cycles;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            cycles = 0;
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        machine = BenchmarkMachines.createMachine(machineType);
+    }
+    
+    @Benchmark
+    public void update(EmulatedCycles counter) {
+        long startCycles = machine.getCpu().getTotalCycles();
+        machine.update();
+        counter.cycles += (machine.getCpu().getTotalCycles() - startCycles);
+    }
+}
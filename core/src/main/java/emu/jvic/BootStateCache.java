@@ -0,0 +1,121 @@
+package emu.jvic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import emu.jvic.memory.RamType;
+
+/**
+ * Holds the saved state of a Machine at the point where BASIC has finished booting and
+ * is waiting for input, for each combination of machine setup that has been booted.
+ * Booting the KERNAL and BASIC takes a couple of seconds of emulated time, and a DISK
+ * also needs the 1541 warmed up, so restoring the state instead means that an auto
+ * loaded program can start loading on the first frame.
+ *
+ * The state is captured before the program is injected, and at that point neither the
+ * disk nor the tape has been read, so the same state can be reused for any program
+ * with the same setup.
+ *
+ * @author Lance Ewing
+ */
+public class BootStateCache {
+
+    /**
+     * The saved state of a Machine when BASIC was ready, and the number of frames that it
+     * took to get there from the reset.
+     */
+    public static class BootState {
+
+        private final byte[] state;
+        private final int frameCount;
+
+        /**
+         * Constructor for BootState.
+         *
+         * @param state The saved state.
+         * @param frameCount The number of frames run from the reset until the state was saved.
+         */
+        public BootState(byte[] state, int frameCount) {
+            this.state = state;
+            this.frameCount = frameCount;
+        }
+
+        /**
+         * @return The saved state.
+         */
+        public byte[] getState() {
+            return state;
+        }
+
+        /**
+         * @return The number of frames run from the reset until the state was saved.
+         */
+        public int getFrameCount() {
+            return frameCount;
+        }
+    }
+
+    private Map<String, BootState> bootStates = new HashMap<String, BootState>();
+
+    /**
+     * Creates the key for the boot state of a Machine with the given setup. Two Machines
+     * with the same key reach the same state when BASIC is ready.
+     *
+     * @param machineType The MachineType, e.g. PAL, NTSC.
+     * @param ramType The resolved RamType, i.e. not RAM_AUTO.
+     * @param palette The name of the palette, which may be null.
+     * @param basicRom The BASIC ROM.
+     * @param kernalRom The KERNAL ROM.
+     * @param charRom The character ROM.
+     * @param dos1541Rom The 1541 DOS ROM.
+     * @param hasDisk true if a disk is mounted in the 1541.
+     * @param writeProtected true if the mounted disk is write protected.
+     * @param hasTape true if a tape is inserted in the datasette.
+     *
+     * @return The key for the boot state.
+     */
+    public static String createKey(MachineType machineType, RamType ramType, String palette,
+            byte[] basicRom, byte[] kernalRom, byte[] charRom, byte[] dos1541Rom,
+            boolean hasDisk, boolean writeProtected, boolean hasTape) {
+        StringBuilder key = new StringBuilder();
+        key.append(machineType.name()).append(':');
+        key.append(ramType.name()).append(':');
+        key.append(palette).append(':');
+        key.append(Arrays.hashCode(basicRom)).append(':');
+        key.append(Arrays.hashCode(kernalRom)).append(':');
+        key.append(Arrays.hashCode(charRom)).append(':');
+        key.append(Arrays.hashCode(dos1541Rom)).append(':');
+        key.append(hasDisk? (writeProtected? "DISK-WP" : "DISK") : "NODISK").append(':');
+        key.append(hasTape? "TAPE" : "NOTAPE");
+        return key.toString();
+    }
+
+    /**
+     * Gets the boot state stored for the given key.
+     *
+     * @param key The key, as returned by createKey.
+     *
+     * @return The saved BootState, or null if there isn't one yet.
+     */
+    public synchronized BootState get(String key) {
+        return bootStates.get(key);
+    }
+
+    /**
+     * Stores the boot state for the given key, replacing any that is already stored.
+     *
+     * @param key The key, as returned by createKey.
+     * @param bootState The saved BootState.
+     */
+    public synchronized void put(String key, BootState bootState) {
+        bootStates.put(key, bootState);
+    }
+
+    /**
+     * Removes all of the stored boot states.
+     */
+    public synchronized void clear() {
+        bootStates.clear();
+    }
+}
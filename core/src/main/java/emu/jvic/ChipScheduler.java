@@ -0,0 +1,127 @@
+package emu.jvic;
+
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
+/**
+ * Keeps the machine cycle count and catches up the ScheduledChips lazily. Rather than 
+ * emulating every chip on every cycle, each ScheduledChip is only emulated when the 
+ * cycle of its next externally visible event has been reached, or when the CPU is 
+ * about to access one of its registers. In between those points, the chip is able to
+ * skip over the idle cycles in one go, which means that idle VIA timers and sound 
+ * registers that are not being written to cost very little.
+ * 
+ * @author Lance Ewing
+ */
+public class ChipScheduler {
+
+    /**
+     * The maximum number of cycles between two reschedules. This guarantees that chips
+     * which have nothing scheduled still get to check their external inputs (such as 
+     * the RESTORE key) regularly.
+     */
+    public static final int MAX_CYCLES_BETWEEN_EVENTS = 0x10000;
+    
+    /**
+     * The chips that are being scheduled, in the order that they should be emulated 
+     * within a cycle.
+     */
+    private ScheduledChip[] chips;
+    
+    /**
+     * The current machine cycle, i.e. the number of cycles fully completed so far.
+     */
+    private int currentCycle;
+    
+    /**
+     * The earliest cycle at which any of the chips has an event due.
+     */
+    private int nextEventCycle;
+    
+    /**
+     * Constructor for ChipScheduler.
+     * 
+     * @param chips The chips to schedule, in the order they should be emulated within a cycle.
+     */
+    public ChipScheduler(ScheduledChip... chips) {
+        this.chips = chips;
+        this.currentCycle = 0;
+        this.nextEventCycle = 0;
+    }
+    
+    /**
+     * Invoked at the end of every machine cycle, after the CPU has done its work for the
+     * cycle. Any chip whose event is due in this cycle is emulated up to the end of it.
+     */
+    public void emulateCycle() {
+        if ((currentCycle - nextEventCycle) >= 0) {
+            runDueChips();
+        }
+        currentCycle++;
+    }
+    
+    /**
+     * Catches up all chips to the start of the current cycle. This is called before a
+     * register of a scheduled chip is read or written, and at the end of each frame. 
+     * As an access may change when the next event happens, the chips are rescheduled 
+     * at the end of the current cycle.
+     */
+    public void sync() {
+        for (int i = 0; i < chips.length; i++) {
+            chips[i].catchUp(currentCycle);
+        }
+        nextEventCycle = currentCycle;
+    }
+    
+    /**
+     * Emulates the chips that have an event due in the current cycle, then works out
+     * when the next event is due.
+     */
+    private void runDueChips() {
+        int cycle = currentCycle;
+        int earliestEventCycle = cycle + MAX_CYCLES_BETWEEN_EVENTS;
+        
+        for (int i = 0; i < chips.length; i++) {
+            ScheduledChip chip = chips[i];
+            if ((cycle - chip.getNextEventCycle()) >= 0) {
+                chip.catchUp(cycle + 1);
+            }
+            int chipEventCycle = chip.getNextEventCycle();
+            if ((chipEventCycle - earliestEventCycle) < 0) {
+                earliestEventCycle = chipEventCycle;
+            }
+        }
+        
+        nextEventCycle = earliestEventCycle;
+    }
+    
+    /**
+     * Gets the current machine cycle, i.e. the number of cycles completed so far.
+     * 
+     * @return The current machine cycle.
+     */
+    public int getCurrentCycle() {
+        return currentCycle;
+    }
+    
+    /**
+     * Writes the cycle counts of the scheduler to the given StateWriter. The chips must
+     * have been caught up with sync() first, since they save their own state.
+     * 
+     * @param out The StateWriter to write the scheduler state to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(currentCycle);
+        out.writeInt(nextEventCycle);
+    }
+    
+    /**
+     * Restores the cycle counts of the scheduler from the given StateReader.
+     * 
+     * @param in The StateReader to read the scheduler state from.
+     */
+    public void loadState(StateReader in) {
+        currentCycle = in.readInt();
+        nextEventCycle = in.readInt();
+    }
+}
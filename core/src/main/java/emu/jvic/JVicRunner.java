@@ -61,6 +61,12 @@ public abstract class JVicRunner {
     protected boolean paused = true;
     protected boolean warpSpeed = false;
     
+    /**
+     * The BASIC-ready states of the machine setups that have been booted so far, kept for
+     * as long as the runner is, so that launching another program starts straight away.
+     */
+    protected BootStateCache bootStateCache = new BootStateCache();
+    
     /**
      * Constructor for JVicRunner.
      * 
@@ -78,12 +84,12 @@ public abstract class JVicRunner {
      * Initialises the JVicRunner with anything that needs setting up before it starts.
      * 
      * @param machineScreen 
-     * @param pixmap
+     * @param machineType The MachineType that the PixelData is to be set up for.
      */
-    public void init(MachineScreen machineScreen, int width, int height) {
+    public void init(MachineScreen machineScreen, MachineType machineType) {
         this.machineScreen = machineScreen;
         
-        pixelData.init(width, height);
+        pixelData.init(machineType);
         
         // These are keys that we want to catch and not let the web browser 
         // respond to.
@@ -134,9 +140,55 @@ public abstract class JVicRunner {
     public void updatePixmap(Pixmap pixmap) {
         pixelData.updatePixmap(pixmap);
     }
+    
+    /**
+     * Updates Pixmap with the frame that is currently being shown, rather than with the
+     * latest frame.
+     * 
+     * @param pixmap
+     */
+    public void updateCurrentPixmap(Pixmap pixmap) {
+        pixelData.updateCurrentPixmap(pixmap);
+    }
+    
+    /**
+     * Returns whether the implementation specific PixelData can update an index Pixmap,
+     * so that the palette can be applied by a shader.
+     * 
+     * @return true if updateIndexPixmap is supported; otherwise false.
+     */
+    public boolean isIndexPixmapSupported() {
+        return pixelData.isIndexPixmapSupported();
+    }
+    
+    /**
+     * Updates the Alpha format index Pixmap with the colour indexes of the latest frame.
+     * 
+     * @param indexPixmap
+     */
+    public void updateIndexPixmap(Pixmap indexPixmap) {
+        pixelData.updateIndexPixmap(indexPixmap);
+    }
+    
+    /**
+     * Updates the palette Pixmap, if the palette has changed since it was last updated.
+     * 
+     * @param palettePixmap
+     * 
+     * @return true if the palette Pixmap was updated; otherwise false.
+     */
+    public boolean updatePalettePixmap(Pixmap palettePixmap) {
+        return pixelData.updatePalettePixmap(palettePixmap);
+    }
 
+    /**
+     * Returns whether the VIC chip has completed a frame that differs from the last one
+     * shown. If not, the screen textures don't need to be updated.
+     * 
+     * @return true if there is a new frame to show; otherwise false.
+     */
     public boolean hasNewFrame() {
-        return true;
+        return pixelData.hasNewFrame();
     }
         
     /**
@@ -278,6 +330,31 @@ public abstract class JVicRunner {
     public String getPerformanceStatsText() {
         return "";
     }
+
+    /**
+     * Returns whether this platform supports capturing the video and audio output to disk.
+     * 
+     * @return true if capturing is supported; otherwise false.
+     */
+    public boolean isCaptureSupported() {
+        return false;
+    }
+    
+    /**
+     * Starts capturing the video and audio output to disk, or stops the current capture.
+     * Does nothing if capturing isn't supported.
+     */
+    public void toggleCapture() {
+    }
+    
+    /**
+     * Returns whether the video and audio output is currently being captured.
+     * 
+     * @return true if a capture is in progress; otherwise false.
+     */
+    public boolean isCapturing() {
+        return false;
+    }
     
     public abstract void saveScreenshot(Pixmap screenPixmap, AppConfigItem appConfigItem);
 }
@@ -31,7 +31,7 @@ public abstract class KeyboardMatrix extends InputAdapter {
     /**
      * Data used to map VIC 20 keys to the appropriate keyboard col/row scan values.
      */
-    private static int keyConvMapArr[][] = {
+    private static final int keyConvMapArr[][] = {
             
         { VicKeys.DELETE, 1, 128 },
         { VicKeys.POUND, 1, 64 },
@@ -21,6 +21,8 @@ import emu.jvic.memory.RamType;
 import emu.jvic.memory.Vic20Memory;
 import emu.jvic.snap.PcvSnapshot;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 import emu.jvic.sound.SoundGenerator;
 import emu.jvic.sound.libgdx.GdxSoundGenerator;
 import emu.jvic.video.Vic;
@@ -36,6 +38,17 @@ import emu.jvic.video.Vic6561;
  */
 public class Machine {
 
+    /**
+     * Identifies the start of a native JVic save state, i.e. "JVSS".
+     */
+    private static final int STATE_MAGIC = 0x4A565353;
+
+    /**
+     * The version of the native save state format. This is incremented whenever the 
+     * state saved by any of the chips changes.
+     */
+    private static final int STATE_VERSION = 1;
+
     public interface ResetDiskHandler {
 
         void onResetComplete();
@@ -49,6 +62,9 @@ public class Machine {
     private Via6522 via1;
     private Via6522 via2;
     private Cpu6502 cpu;
+    
+    // Lazily catches up the chips that don't need to be emulated every cycle.
+    private ChipScheduler scheduler;
 
     // Peripherals.
     private Keyboard keyboard;
@@ -56,6 +72,9 @@ public class Machine {
     private SerialBus serialBus;
     private C1541Drive c1541Drive;
     private C1530Datasette datasette;
+    
+    // The devices that can pull the serial bus lines down, in the order they are saved.
+    private Object[] serialBusDevices;
 
     // Platform specific component.
     private KeyboardMatrix keyboardMatrix;
@@ -69,6 +88,16 @@ public class Machine {
     private boolean hasMountedDisk;
 
     private MachineType machineType;
+    private RamType ramType;
+    
+    // Boot state cache, and the key to capture the boot state under, if it was missed.
+    private BootStateCache bootStateCache;
+    private String bootCaptureKey;
+    
+    // The number of frames run since the reset while the boot state is being captured, or
+    // the number of boot frames that were skipped if the boot state was restored.
+    private int bootFrameCount;
+    private boolean bootStateRestored;
     
     /**
      * Constructor for Machine.
@@ -171,6 +200,26 @@ public class Machine {
             }
         }
 
+        this.ramType = ramType;
+
+        // If this setup has booted before, then we can restore the state it had when BASIC
+        // was ready rather than booting it again. Cartridges take over the boot, and 
+        // snapshots bring their own state.
+        boolean mountDisk = shouldMountDisk(programType, appConfigItem, mountedDiskImageData);
+        String bootKey = null;
+        BootStateCache.BootState bootState = null;
+        bootCaptureKey = null;
+        bootFrameCount = 0;
+        bootStateRestored = false;
+        if ((bootStateCache != null) && (snapshot == null) && !"CART".equals(programType)) {
+            boolean writeProtected = mountDisk && (appConfigItem != null) 
+                    && (appConfigItem.getDiskWriteMode() == AppConfigItem.DiskWriteMode.OFF);
+            boolean hasTape = "TAPE".equals(programType) && (programData != null) && (programData.length > 0);
+            bootKey = BootStateCache.createKey(machineType, ramType, palette, basicRom, kernalRom, 
+                    charRom, dos1541Rom, mountDisk, writeProtected, hasTape);
+            bootState = bootStateCache.get(bootKey);
+        }
+
         // Create the microprocessor.
         cpu = new Cpu6502(snapshot);
 
@@ -196,6 +245,7 @@ public class Machine {
         // Create two instances of the VIA chip; one for VIA1 and one for VIA2.
         via1 = new Via1(cpu, keyboard, joystick, serialBus, datasette, snapshot);
         via2 = new Via2(cpu, keyboard, joystick, serialBus, datasette, snapshot);
+        serialBusDevices = new Object[] { via1, via2, c1541Drive.getSerialBusDevice() };
         
         // Now we create the memory, which will include mapping the VIC chip,
         // the VIA chips, and the creation of RAM chips and ROM chips.
@@ -203,13 +253,20 @@ public class Machine {
                 basicRom, kernalRom, charRom, snapshot);
 
         // Initialise the sound generator.
-        soundGenerator.init(memory.getMemoryArray(), machineType);
+        soundGenerator.init(memory, machineType);
+        
+        // The VIAs and sound generator are only emulated when they have something to do, 
+        // or when the CPU accesses them. The VIC chip syncs when sound registers change.
+        scheduler = new ChipScheduler(via1, via2, soundGenerator);
+        via1.setScheduler(scheduler);
+        via2.setScheduler(scheduler);
+        vic.setScheduler(scheduler);
 
         activeDiskPersistenceSession = null;
         activeDiskWriteProtected = false;
         hasMountedDisk = false;
 
-        if (shouldMountDisk(programType, appConfigItem, mountedDiskImageData)) {
+        if (mountDisk) {
             AppConfigItem.DiskWriteMode diskWriteMode = (appConfigItem != null)
                     ? appConfigItem.getDiskWriteMode()
                     : AppConfigItem.DiskWriteMode.DEFAULT;
@@ -219,7 +276,8 @@ public class Machine {
                 persistenceSession = new NoOpDiskImagePersistenceSession(mountedDiskImageData);
             }
             byte[] startupDiskImage = persistenceSession.getStartupDiskImage();
-            c1541Drive.insertDisk(startupDiskImage, true, persistenceSession, writeProtected);
+            // The drive doesn't need warming up if its state is about to be restored.
+            c1541Drive.insertDisk(startupDiskImage, (bootState == null), persistenceSession, writeProtected);
             activeDiskPersistenceSession = persistenceSession;
             activeDiskWriteProtected = writeProtected;
             hasMountedDisk = true;
@@ -270,9 +328,15 @@ public class Machine {
         }
 
         // If the state of the machine was not loaded from a snapshot file, then we
-        // begin with a reset.
+        // begin with a reset, unless we have the boot state for this setup already.
         if (snapshot == null) {
-            cpu.reset();
+            if ((bootState != null) && loadState(new StateReader(bootState.getState()))) {
+                bootFrameCount = bootState.getFrameCount();
+                bootStateRestored = true;
+            } else {
+                cpu.reset();
+                bootCaptureKey = bootKey;
+            }
         }
         
         return autoLoadRunnable;
@@ -305,11 +369,23 @@ public class Machine {
         do {
             frameComplete |= vic.emulateCycle();
             cpu.emulateCycle();
-            via1.emulateCycle();
-            via2.emulateCycle();
+            scheduler.emulateCycle();
             c1541Drive.emulateCycle();
-            soundGenerator.emulateCycle();
         } while (!frameComplete);
+        
+        // Bring all chips up to date at the end of the frame.
+        scheduler.sync();
+        
+        // Capture the boot state once BASIC is ready, before anything is typed in.
+        if (bootCaptureKey != null) {
+            bootFrameCount++;
+            if ((memory.peek(0xD1) == 110) && (memory.peek(0xC6) == 0)) {
+                StateWriter out = new StateWriter();
+                saveState(out);
+                bootStateCache.put(bootCaptureKey, new BootStateCache.BootState(out.toByteArray(), bootFrameCount));
+                bootCaptureKey = null;
+            }
+        }
     }
 
     /**
@@ -320,13 +396,74 @@ public class Machine {
     public boolean emulateCycle() {
         boolean render = vic.emulateCycle();
         cpu.emulateCycle();
-        via1.emulateCycle();
-        via2.emulateCycle();
+        scheduler.emulateCycle();
         c1541Drive.emulateCycle();
-        soundGenerator.emulateCycle();
         return render;
     }
     
+    /**
+     * Writes the complete state of the machine, i.e. every chip, the memory, the disk
+     * drive and the datasette, to the given StateWriter in the native JVic save state 
+     * format. The writer is not reset first, so that the caller can choose whether to
+     * reuse it. Once the writer has grown to the size of the state, saving allocates 
+     * nothing, so it is cheap enough to do every frame.
+     * 
+     * @param out The StateWriter to write the machine state to.
+     */
+    public void saveState(StateWriter out) {
+        // Bring the lazily emulated chips up to date, so the saved state is consistent.
+        scheduler.sync();
+
+        out.writeInt(STATE_MAGIC);
+        out.writeInt(STATE_VERSION);
+        out.writeInt(machineType.ordinal());
+        out.writeInt(ramType.ordinal());
+        out.writeBoolean(c1541Drive.hasDisk());
+        out.writeBoolean(datasette.hasTape());
+
+        cpu.saveState(out);
+        vic.saveState(out);
+        via1.saveState(out);
+        via2.saveState(out);
+        scheduler.saveState(out);
+        soundGenerator.saveState(out);
+        memory.saveState(out);
+        serialBus.saveState(out, serialBusDevices);
+        c1541Drive.saveState(out);
+        datasette.saveState(out);
+    }
+
+    /**
+     * Restores the complete state of the machine from the given StateReader. The state
+     * can only be loaded into a Machine that was initialised with the same MachineType,
+     * RamType, ROMs, cartridge, disk and tape as the one it was saved from, since these 
+     * aren't part of the state. If the header of the state doesn't match this Machine,
+     * then nothing is changed.
+     * 
+     * @param in The StateReader to read the machine state from.
+     * 
+     * @return true if the state was loaded; otherwise false.
+     */
+    public boolean loadState(StateReader in) {
+        if ((in.readInt() != STATE_MAGIC) || (in.readInt() != STATE_VERSION)
+                || (in.readInt() != machineType.ordinal()) || (in.readInt() != ramType.ordinal())
+                || (in.readBoolean() != c1541Drive.hasDisk()) || (in.readBoolean() != datasette.hasTape())) {
+            return false;
+        }
+
+        cpu.loadState(in);
+        vic.loadState(in);
+        via1.loadState(in);
+        via2.loadState(in);
+        scheduler.loadState(in);
+        soundGenerator.loadState(in);
+        memory.loadState(in);
+        serialBus.loadState(in, serialBusDevices);
+        c1541Drive.loadState(in);
+        datasette.loadState(in);
+        return true;
+    }
+    
     /**
      * Pauses and resumes the Machine.
      * 
@@ -385,6 +522,37 @@ public class Machine {
         return machineType;
     }
 
+    /**
+     * Gets the RamType of this Machine, after any auto detection has been applied.
+     * 
+     * @return The RamType of this Machine.
+     */
+    public RamType getRamType() {
+        return ramType;
+    }
+
+    /**
+     * Sets the BootStateCache that this Machine uses to skip booting BASIC when it is 
+     * initialised with a setup that has booted before. This must be called before init
+     * for it to apply.
+     * 
+     * @param bootStateCache The BootStateCache to use, or null to always boot.
+     */
+    public void setBootStateCache(BootStateCache bootStateCache) {
+        this.bootStateCache = bootStateCache;
+    }
+
+    /**
+     * Gets the number of boot frames that were skipped by restoring the boot state from
+     * the BootStateCache, i.e. the number of frames that a Machine with the same setup
+     * would have run from the reset to get to the state that this Machine started in.
+     * 
+     * @return The number of skipped boot frames, or 0 if this Machine booted from reset.
+     */
+    public int getSkippedBootFrameCount() {
+        return (bootStateRestored? bootFrameCount : 0);
+    }
+
     /**
      * Gets the Keyboard of this Machine.
      * 
@@ -412,6 +580,33 @@ public class Machine {
         return cpu;
     }
 
+    /**
+     * Gets the VIA1 chip of this Machine.
+     *
+     * @return The VIA1 chip of this Machine.
+     */
+    public Via6522 getVia1() {
+        return via1;
+    }
+
+    /**
+     * Gets the VIA2 chip of this Machine.
+     *
+     * @return The VIA2 chip of this Machine.
+     */
+    public Via6522 getVia2() {
+        return via2;
+    }
+
+    /**
+     * Gets the C1541Drive attached to this Machine's serial bus.
+     *
+     * @return The C1541Drive attached to this Machine's serial bus.
+     */
+    public C1541Drive getC1541Drive() {
+        return c1541Drive;
+    }
+
     /**
      * Gets the VIC chip of this Machine.
      * 
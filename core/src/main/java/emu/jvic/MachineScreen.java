@@ -81,6 +81,45 @@ public class MachineScreen implements Screen {
             + "    gl_FragColor = v_color * mix(nearestColor, linearColor, u_softness);\n"
             + "}\n";
 
+    // Applies the palette to the colour indexes in the alpha channel of the screen texture. 
+    // The LINEAR filter is applied to the palette colours, not the indexes, so it is done 
+    // in the shader, and then blended with the NEAREST colour as for the SOFT filter.
+    private static final String PALETTE_FRAGMENT_SHADER = "#ifdef GL_ES\n"
+            + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+            + "precision highp float;\n"
+            + "#else\n"
+            + "precision mediump float;\n"
+            + "#endif\n"
+            + "#endif\n"
+            + "\n"
+            + "varying vec4 v_color;\n"
+            + "varying vec2 v_texCoords;\n"
+            + "uniform sampler2D u_texture;\n"
+            + "uniform sampler2D u_palette;\n"
+            + "uniform vec2 u_textureSize;\n"
+            + "uniform float u_softness;\n"
+            + "\n"
+            + "vec4 lookupColor(vec2 texel) {\n"
+            + "    texel = clamp(texel, vec2(0.0), u_textureSize - 1.0);\n"
+            + "    float colourIndex = texture2D(u_texture, (texel + 0.5) / u_textureSize).a;\n"
+            + "    return texture2D(u_palette, vec2(((colourIndex * 255.0) + 0.5) / 256.0, 0.5));\n"
+            + "}\n"
+            + "\n"
+            + "void main() {\n"
+            + "    vec2 position = v_texCoords * u_textureSize;\n"
+            + "    vec4 nearestColor = lookupColor(floor(position));\n"
+            + "    vec4 linearColor = nearestColor;\n"
+            + "    if (u_softness > 0.0) {\n"
+            + "        vec2 topLeft = floor(position - 0.5);\n"
+            + "        vec2 weight = (position - 0.5) - topLeft;\n"
+            + "        linearColor = mix(\n"
+            + "                mix(lookupColor(topLeft), lookupColor(topLeft + vec2(1.0, 0.0)), weight.x),\n"
+            + "                mix(lookupColor(topLeft + vec2(0.0, 1.0)), lookupColor(topLeft + vec2(1.0, 1.0)), weight.x),\n"
+            + "                weight.y);\n"
+            + "    }\n"
+            + "    gl_FragColor = v_color * mix(nearestColor, linearColor, u_softness);\n"
+            + "}\n";
+
     /**
      * The Game object for JVic. Allows us to easily change screens.
      */
@@ -121,12 +160,22 @@ public class MachineScreen implements Screen {
     private ScreenFilterMode screenFilterMode = ScreenFilterMode.NEAREST;
     private float softFilterBlend = SOFT_FILTER_BLEND;
     private ShaderProgram softFilterShader;
+    
+    // When the platform supports it, the VIC screen is uploaded as one byte colour indexes
+    // and the palette shader applies the palette, rather than uploading RGBA8888 pixels.
+    private ShaderProgram paletteShader;
+    private Pixmap palettePixmap;
+    private Texture paletteTexture;
+    private Pixmap indexPixmap;
+    private Texture[] indexScreens;
 
     // Screen resources for each MachineType.
     private Map<MachineType, Pixmap> machineTypePixmaps;
     private Map<MachineType, Camera> machineTypeCameras;
     private Map<MachineType, ExtendViewport> machineTypeViewports;
     private Map<MachineType, Texture[]> machineTypeTextures;
+    private Map<MachineType, Pixmap> machineTypeIndexPixmaps;
+    private Map<MachineType, Texture[]> machineTypeIndexTextures;
 
     // UI components.
     private Texture screenSizeIcon;
@@ -192,21 +241,27 @@ public class MachineScreen implements Screen {
         // what the default is.
         this.machineType = MachineType.PAL;
         
-        jvicRunner.init(this, machineType.getTotalScreenWidth(), machineType.getTotalScreenHeight());
+        jvicRunner.init(this, machineType);
         
         batch = new SpriteBatch();
         softFilterShader = createSoftFilterShader();
+        if (jvicRunner.isIndexPixmapSupported()) {
+            paletteShader = createPaletteShader();
+        }
+        if (paletteShader != null) {
+            palettePixmap = new Pixmap(PixelData.PALETTE_SIZE, 1, Pixmap.Format.RGBA8888);
+            palettePixmap.setBlending(Pixmap.Blending.None);
+            paletteTexture = new Texture(palettePixmap, Pixmap.Format.RGBA8888, false);
+            paletteTexture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+        }
 
         machineTypePixmaps = new HashMap<MachineType, Pixmap>();
         machineTypeTextures = new HashMap<MachineType, Texture[]>();
+        machineTypeIndexPixmaps = new HashMap<MachineType, Pixmap>();
+        machineTypeIndexTextures = new HashMap<MachineType, Texture[]>();
         machineTypeViewports = new HashMap<MachineType, ExtendViewport>();
         machineTypeCameras = new HashMap<MachineType, Camera>();
 
-        createScreenResourcesForMachineType(MachineType.PAL);
-        createScreenResourcesForMachineType(MachineType.NTSC);
-        createScreenResourcesForMachineType(MachineType.VIC44);
-        createScreenResourcesForMachineType(MachineType.VIC44K);
-
         // TeaVM can deliver resize callbacks before a program selection has bound the
         // active machine resources, so keep a safe default viewport/camera/screen live.
         activateScreenResources(MachineType.PAL);
@@ -306,10 +361,11 @@ public class MachineScreen implements Screen {
         activateScreenResources(selectedMachineType);
 
         // Reinitialise the platform pixel buffer to the active machine dimensions.
-        jvicRunner.init(this, selectedMachineType.getTotalScreenWidth(), selectedMachineType.getTotalScreenHeight());
+        jvicRunner.init(this, selectedMachineType);
 
         drawScreen = 1;
         updateScreen = 0;
+        skippedFrameCount = 0;
 
         setTextureFilterMode(appConfigItem.getTextureFilter());
         clearActiveScreenBuffers();
@@ -329,23 +385,19 @@ public class MachineScreen implements Screen {
     }
 
     private void ensureScreenResources(MachineType machineType) {
-        Pixmap activeScreenPixmap = machineTypePixmaps.get(machineType);
-        Texture[] activeScreens = machineTypeTextures.get(machineType);
-        Camera activeCamera = machineTypeCameras.get(machineType);
-        ExtendViewport activeViewport = machineTypeViewports.get(machineType);
-
-        if ((activeScreenPixmap == null) || (activeScreens == null) || (activeCamera == null) || (activeViewport == null)) {
+        if (!machineTypePixmaps.containsKey(machineType)) {
+            // Only the MachineType in use holds a Pixmap and Textures, so those of the 
+            // previous MachineType are freed before creating the new ones.
+            disposeScreens();
             createScreenResourcesForMachineType(machineType);
-            activeScreenPixmap = machineTypePixmaps.get(machineType);
-            activeScreens = machineTypeTextures.get(machineType);
-            activeCamera = machineTypeCameras.get(machineType);
-            activeViewport = machineTypeViewports.get(machineType);
         }
 
-        this.screenPixmap = activeScreenPixmap;
-        this.screens = activeScreens;
-        this.camera = activeCamera;
-        this.viewport = activeViewport;
+        this.screenPixmap = machineTypePixmaps.get(machineType);
+        this.screens = machineTypeTextures.get(machineType);
+        this.camera = machineTypeCameras.get(machineType);
+        this.viewport = machineTypeViewports.get(machineType);
+        this.indexPixmap = machineTypeIndexPixmaps.get(machineType);
+        this.indexScreens = machineTypeIndexTextures.get(machineType);
     }
 
     /**
@@ -355,36 +407,57 @@ public class MachineScreen implements Screen {
      */
     private void createScreenResourcesForMachineType(MachineType machineType) {
         // Create the libGDX screen resources used by the VIC 20 screen to the size
-        // required by the MachineType.
-        Pixmap screenPixmap = new Pixmap(machineType.getTotalScreenWidth(), machineType.getTotalScreenHeight(),
+        // required by the MachineType. Only the visible part of the screen is stored
+        // and uploaded. The blanking areas are never seen.
+        Pixmap screenPixmap = new Pixmap(machineType.getVisibleScreenWidth(), machineType.getVisibleScreenHeight(),
                 Pixmap.Format.RGBA8888);
-        Texture[] screens = new Texture[6];
-        screens[0] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[0].setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
-        screens[1] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[1].setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
-        screens[2] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[2].setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
-        screens[3] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[3].setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-        screens[4] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[4].setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-        screens[5] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
-        screens[5].setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-
-        Camera camera = new OrthographicCamera();
-        ExtendViewport viewport = new ExtendViewport(
-                (machineType.getVisibleScreenHeight() / 3) * 4,
-                machineType.getVisibleScreenHeight(), 
-                camera);
+        Texture[] screens;
+        if (paletteShader != null) {
+            // The screen Pixmap is then only used for screenshots.
+            screens = new Texture[0];
+        } else {
+            screens = new Texture[6];
+            for (int i = 0; i < screens.length; i++) {
+                Texture.TextureFilter filter = (i < 3? Texture.TextureFilter.Nearest : Texture.TextureFilter.Linear);
+                screens[i] = new Texture(screenPixmap, Pixmap.Format.RGBA8888, false);
+                screens[i].setFilter(filter, filter);
+            }
+        }
+
+        if (!machineTypeCameras.containsKey(machineType)) {
+            Camera camera = new OrthographicCamera();
+            ExtendViewport viewport = new ExtendViewport(
+                    (machineType.getVisibleScreenHeight() / 3) * 4,
+                    machineType.getVisibleScreenHeight(), 
+                    camera);
+            machineTypeCameras.put(machineType, camera);
+            machineTypeViewports.put(machineType, viewport);
+        }
 
         machineTypePixmaps.put(machineType, screenPixmap);
         machineTypeTextures.put(machineType, screens);
-        machineTypeCameras.put(machineType, camera);
-        machineTypeViewports.put(machineType, viewport);
+        
+        if (paletteShader != null) {
+            // One byte colour index per pixel. The palette shader does all filtering.
+            Pixmap indexPixmap = new Pixmap(machineType.getVisibleScreenWidth(), machineType.getVisibleScreenHeight(),
+                    Pixmap.Format.Alpha);
+            Texture[] indexScreens = new Texture[3];
+            for (int i = 0; i < indexScreens.length; i++) {
+                indexScreens[i] = new Texture(indexPixmap, Pixmap.Format.Alpha, false);
+                indexScreens[i].setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+            }
+            machineTypeIndexPixmaps.put(machineType, indexPixmap);
+            machineTypeIndexTextures.put(machineType, indexScreens);
+        }
     }
 
     private long renderCount;
+    
+    // The number of renders for which the VIC screen was unchanged, so nothing was uploaded.
+    private long skippedFrameCount;
+    
+    // The number of consecutive new frames still to be saved as screenshots.
+    private int screenshotFramesRemaining;
 
     @Override
     public void render(float delta) {
@@ -412,6 +485,15 @@ public class MachineScreen implements Screen {
         } else {
             if (jvicRunner.hasNewFrame()) {
                 copyPixels();
+                if (screenshotFramesRemaining > 0) {
+                    screenshotFramesRemaining--;
+                    saveScreenshot();
+                }
+            } else {
+                // Nothing has changed since the last upload, so we draw the most recently
+                // uploaded texture rather than one of the older ones.
+                drawScreen = (updateScreen + 2) % 3;
+                skippedFrameCount++;
             }
             draw = true;
         }
@@ -428,14 +510,24 @@ public class MachineScreen implements Screen {
     
     public boolean copyPixels() {
         ensureActiveScreenResources();
-        jvicRunner.updatePixmap(screenPixmap);
-        ScreenFilterMode activeFilterMode = getActiveScreenFilterMode();
-        screens[updateScreen + getTextureOffset(activeFilterMode)].draw(screenPixmap, 0, 0);
-        if (activeFilterMode == ScreenFilterMode.SOFT) {
-            // The SOFT filter mode is a blend between the NEAREST and LINEAR filter 
-            // modes, so we need to update both the NEAREST and LINEAR textures with 
-            // the new screen pixels. The percentage value then determines the blend.
-            screens[updateScreen + getTextureOffset(ScreenFilterMode.LINEAR)].draw(screenPixmap, 0, 0);
+        if (paletteShader != null) {
+            // Only the colour indexes are uploaded, whatever the filter mode. The palette
+            // is uploaded separately, and only when it changes.
+            jvicRunner.updateIndexPixmap(indexPixmap);
+            indexScreens[updateScreen].draw(indexPixmap, 0, 0);
+            if (jvicRunner.updatePalettePixmap(palettePixmap)) {
+                paletteTexture.draw(palettePixmap, 0, 0);
+            }
+        } else {
+            jvicRunner.updatePixmap(screenPixmap);
+            ScreenFilterMode activeFilterMode = getActiveScreenFilterMode();
+            screens[updateScreen + getTextureOffset(activeFilterMode)].draw(screenPixmap, 0, 0);
+            if (activeFilterMode == ScreenFilterMode.SOFT) {
+                // The SOFT filter mode is a blend between the NEAREST and LINEAR filter 
+                // modes, so we need to update both the NEAREST and LINEAR textures with 
+                // the new screen pixels. The percentage value then determines the blend.
+                screens[updateScreen + getTextureOffset(ScreenFilterMode.LINEAR)].draw(screenPixmap, 0, 0);
+            }
         }
         updateScreen = (updateScreen + 1) % 3;
         drawScreen = (drawScreen + 1) % 3;
@@ -449,6 +541,14 @@ public class MachineScreen implements Screen {
         for (Texture screen : screens) {
             screen.draw(screenPixmap, 0, 0);
         }
+        if (indexScreens != null) {
+            // Colour index 0 is transparent black.
+            indexPixmap.setColor(0, 0, 0, 0);
+            indexPixmap.fill();
+            for (Texture indexScreen : indexScreens) {
+                indexScreen.draw(indexPixmap, 0, 0);
+            }
+        }
     }
     
     private void draw(float delta) {
@@ -512,30 +612,46 @@ public class MachineScreen implements Screen {
         batch.setProjectionMatrix(camera.combined);
         batch.disableBlending();
         ScreenFilterMode activeFilterMode = getActiveScreenFilterMode();
-        if (activeFilterMode == ScreenFilterMode.SOFT) {
-            batch.setShader(softFilterShader);
+        ShaderProgram screenShader = null;
+        if (paletteShader != null) {
+            screenShader = paletteShader;
+        } else if (activeFilterMode == ScreenFilterMode.SOFT) {
+            screenShader = softFilterShader;
+        }
+        if (screenShader != null) {
+            batch.setShader(screenShader);
         }
         batch.begin();
         Color c = batch.getColor();
         batch.setColor(c.r, c.g, c.b, 1f);
-        if (activeFilterMode == ScreenFilterMode.SOFT) {
-            Texture linearScreen = screens[drawScreen + getTextureOffset(ScreenFilterMode.LINEAR)];
-            linearScreen.bind(1);
-            softFilterShader.setUniformi("u_textureLinear", 1);
-            softFilterShader.setUniformf("u_textureSize", (float) linearScreen.getWidth(), (float) linearScreen.getHeight());
-            softFilterShader.setUniformf("u_softness", softFilterBlend);
+        Texture screen;
+        if (paletteShader != null) {
+            screen = indexScreens[drawScreen];
+            paletteTexture.bind(1);
+            paletteShader.setUniformi("u_palette", 1);
+            paletteShader.setUniformf("u_textureSize", (float) screen.getWidth(), (float) screen.getHeight());
+            paletteShader.setUniformf("u_softness", getSoftness(activeFilterMode));
             Gdx.gl.glActiveTexture(GL20.GL_TEXTURE0);
+        } else {
+            screen = screens[drawScreen + getTextureOffset(activeFilterMode)];
+            if (activeFilterMode == ScreenFilterMode.SOFT) {
+                Texture linearScreen = screens[drawScreen + getTextureOffset(ScreenFilterMode.LINEAR)];
+                linearScreen.bind(1);
+                softFilterShader.setUniformi("u_textureLinear", 1);
+                softFilterShader.setUniformf("u_textureSize", (float) linearScreen.getWidth(), (float) linearScreen.getHeight());
+                softFilterShader.setUniformf("u_softness", softFilterBlend);
+                Gdx.gl.glActiveTexture(GL20.GL_TEXTURE0);
+            }
         }
         
         // Texture isn't always drawn to match physical pixels.
         batch.draw(
-                screens[drawScreen + getTextureOffset(activeFilterMode)], 
+                screen, 
                 0, 0, renderWidth, renderHeight,
-                machineType.getHorizontalOffset(), machineType.getVerticalOffset(), 
-                machineType.getVisibleScreenWidth(), machineType.getVisibleScreenHeight(), 
+                0, 0, machineType.getVisibleScreenWidth(), machineType.getVisibleScreenHeight(), 
                 false, false);
         batch.end();
-        if (activeFilterMode == ScreenFilterMode.SOFT) {
+        if (screenShader != null) {
             batch.setShader(null);
         }
 
@@ -616,6 +732,8 @@ public class MachineScreen implements Screen {
 
         if (showFPS) {
             StringBuilder overlayText = new StringBuilder();
+            overlayText.append("Skipped frames: ");
+            overlayText.append(skippedFrameCount);
             
             String performanceStats = jvicRunner.getPerformanceStatsText();
             if ((performanceStats != null) && !performanceStats.isEmpty()) {
@@ -862,10 +980,26 @@ public class MachineScreen implements Screen {
         showFPS = !showFPS;
     }
 
+    /**
+     * Saves screenshots of the given number of consecutive frames, starting with the
+     * next new frame. The frames are copied as they are rendered, and then saved in 
+     * the background, so the emulation isn't held up.
+     * 
+     * @param frameCount The number of consecutive frames to save.
+     */
+    public void saveScreenshots(int frameCount) {
+        screenshotFramesRemaining = frameCount;
+    }
+
     /**
      * Saves a screenshot of the machine's current screen contents.
      */
     public void saveScreenshot() {
+        if (paletteShader != null) {
+            // The screen Pixmap isn't updated each frame when the palette shader is used,
+            // so it is updated from the frame that was just uploaded to the index Pixmap.
+            jvicRunner.updateCurrentPixmap(screenPixmap);
+        }
         jvicRunner.saveScreenshot(screenPixmap, appConfigItem);
     }
 
@@ -950,6 +1084,11 @@ public class MachineScreen implements Screen {
         if (softFilterShader != null) {
             softFilterShader.dispose();
         }
+        if (paletteShader != null) {
+            paletteShader.dispose();
+            palettePixmap.dispose();
+            paletteTexture.dispose();
+        }
         batch.dispose();
         jvicRunner.stop();
         disposeScreens();
@@ -963,13 +1102,22 @@ public class MachineScreen implements Screen {
             pixmap.dispose();
         }
         for (Texture[] screens : machineTypeTextures.values()) {
-            screens[0].dispose();
-            screens[1].dispose();
-            screens[2].dispose();
-            screens[3].dispose();
-            screens[4].dispose();
-            screens[5].dispose();
+            for (Texture screen : screens) {
+                screen.dispose();
+            }
+        }
+        for (Pixmap indexPixmap : machineTypeIndexPixmaps.values()) {
+            indexPixmap.dispose();
+        }
+        for (Texture[] indexScreens : machineTypeIndexTextures.values()) {
+            for (Texture indexScreen : indexScreens) {
+                indexScreen.dispose();
+            }
         }
+        machineTypePixmaps.clear();
+        machineTypeTextures.clear();
+        machineTypeIndexPixmaps.clear();
+        machineTypeIndexTextures.clear();
     }
 
     /**
@@ -1032,6 +1180,17 @@ public class MachineScreen implements Screen {
         return (filterMode == ScreenFilterMode.LINEAR) ? 3 : 0;
     }
 
+    private float getSoftness(ScreenFilterMode filterMode) {
+        switch (filterMode) {
+            case LINEAR:
+                return 1.0f;
+            case SOFT:
+                return softFilterBlend;
+            default:
+                return 0.0f;
+        }
+    }
+
     private ShaderProgram createSoftFilterShader() {
         ShaderProgram shader = new ShaderProgram(SOFT_FILTER_VERTEX_SHADER, SOFT_FILTER_FRAGMENT_SHADER);
         if (!shader.isCompiled()) {
@@ -1042,6 +1201,16 @@ public class MachineScreen implements Screen {
         return shader;
     }
 
+    private ShaderProgram createPaletteShader() {
+        ShaderProgram shader = new ShaderProgram(SOFT_FILTER_VERTEX_SHADER, PALETTE_FRAGMENT_SHADER);
+        if (!shader.isCompiled()) {
+            Gdx.app.error("MachineScreen", "Unable to compile palette shader: " + shader.getLog());
+            shader.dispose();
+            return null;
+        }
+        return shader;
+    }
+
     /**
      * Gets the JVicRunner implementation instance that is running the VIC game.
      * 
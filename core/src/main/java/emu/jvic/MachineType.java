@@ -7,13 +7,13 @@ package emu.jvic;
  */
 public enum MachineType {
 
-    PAL(1108405, 284, 312, 220, 272, 55, 34, 50),
+    PAL(1108405, 284, 312, 220, 272, 55, 34, 50, 22152),
 
-    NTSC(1022727, 260, 263, 199, 234, 49, 26, 60),
+    NTSC(1022727, 260, 263, 199, 234, 49, 26, 60, 16965),
     
-    VIC44(1108405, 568, 312, 440, 272, 103, 31, 50),
+    VIC44(1108405, 568, 312, 440, 272, 103, 31, 50, 22152),
     
-    VIC44K(1108405, 568, 312, 440, 272, 103, 31, 50);
+    VIC44K(1108405, 568, 312, 440, 272, 103, 31, 50, 22152);
 
     private int cyclesPerSecond;
     private int totalScreenWidth;
@@ -37,10 +37,12 @@ public enum MachineType {
      * @param visibleScreenHeight
      * @param horizontalOffset
      * @param verticalOffset
-     * @param framesPerSecond
+     * @param framesPerSecond The nominal number of frames per second, e.g. 50 for PAL.
+     * @param cyclesPerFrame The exact number of cycles in each frame output by the VIC chip.
      */
     MachineType(int cyclesPerSecond, int totalScreenWidth, int totalScreenHeight, int visibleScreenWidth,
-            int visibleScreenHeight, int horizontalOffset, int verticalOffset, int framesPerSecond) {
+            int visibleScreenHeight, int horizontalOffset, int verticalOffset, int framesPerSecond,
+            int cyclesPerFrame) {
         this.cyclesPerSecond = cyclesPerSecond;
         this.totalScreenWidth = totalScreenWidth;
         this.totalScreenHeight = totalScreenHeight;
@@ -50,7 +52,7 @@ public enum MachineType {
         this.verticalOffset = verticalOffset;
         this.framesPerSecond = framesPerSecond;
         this.frameDuration = 1000 / framesPerSecond;
-        this.cyclesPerFrame = cyclesPerSecond / framesPerSecond;
+        this.cyclesPerFrame = cyclesPerFrame;
         this.cyclesPerLine = totalScreenWidth / 4;
     }
 
@@ -132,6 +134,10 @@ public enum MachineType {
     }
 
     /**
+     * Gets the exact number of cycles in each frame that the VIC chip outputs. The exact
+     * frame rate is cyclesPerSecond / cyclesPerFrame, e.g. about 50.04 for PAL and 60.28
+     * for NTSC, rather than the nominal framesPerSecond.
+     * 
      * @return the cyclesPerFrame
      */
     public int getCyclesPerFrame() {
@@ -3,43 +3,223 @@ package emu.jvic;
 import com.badlogic.gdx.graphics.Pixmap;
 
 /**
- * An Interface for plotting individual pixels. The desktop, mobile, and HTML 
+ * An Interface for plotting individual pixels. The desktop, mobile, and HTML
  * platforms will implement this in their own way. The HTML platform in particular
- * is a bit different and needs to be handled in a platform specific way, which is 
- * the primary reason this interface exists. All platforms use the same colour
- * format though, i.e. RGBA8888, which makes things a little easier. For both
- * HTML5, where the Pixmap is a wrapper around an HTML5 canvas, and for Desktop
- * and Android, the colours are updated via a byte array where the RGBA components
- * are stored in the order R, G, B, A.
+ * is a bit different and needs to be handled in a platform specific way, which is
+ * the primary reason this interface exists.
+ *
+ * Pixels are stored as a one byte index into a palette of RGBA8888 colours, which
+ * the VIC chip sets up when it is created. This keeps the work done for each pixel
+ * in the emulation thread down to a single byte write. The palette is only applied
+ * once per frame, when the Pixmap is updated. All platforms use the same colour
+ * format for the Pixmap, i.e. RGBA8888, where the RGBA components are stored in the
+ * order R, G, B, A.
+ *
+ * Palette entry 0 is reserved for transparent black, which is what cleared pixels,
+ * and pixels that are never drawn (e.g. during blanking), are shown as.
+ *
+ * Platforms that can upload the colour indexes directly to the GPU also support an
+ * index Pixmap, with one byte per pixel, which is combined with a palette Pixmap in
+ * a shader. This avoids applying the palette on the CPU at all.
  */
 public abstract class PixelData {
 
     /**
-     * Initialises the PixelData implementation with the given width and height.
-     * 
+     * The number of entries in the palette, i.e. the number of distinct colour indexes.
+     */
+    public static final int PALETTE_SIZE = 256;
+
+    /**
+     * The RGBA8888 colour for each colour index.
+     */
+    protected int[] palette = new int[PALETTE_SIZE];
+
+    // The width of the whole screen, including the blanking areas, i.e. the number of
+    // pixel indexes per line.
+    protected int screenWidth;
+
+    // The visible part of the screen. Only this area is copied to the Pixmaps.
+    protected int visibleLeft;
+    protected int visibleTop;
+    protected int visibleWidth;
+    protected int visibleHeight;
+
+    // Incremented whenever the palette is changed, so that the palette Pixmap is only
+    // updated when it needs to be.
+    private volatile int paletteVersion;
+    private int palettePixmapVersion = -1;
+
+    // Incremented whenever a frame is completed that differs from the previous frame,
+    // or the palette changes, so that unchanged frames don't need to be uploaded.
+    private volatile int changedFrameCount = 1;
+    private int lastConsumedChangedFrameCount;
+
+    /**
+     * Initialises the PixelData for the given MachineType. Pixels are put using their
+     * index within the whole screen, but only the visible area of the screen is copied
+     * to the Pixmaps, which must be the size of the visible area.
+     *
+     * @param machineType The MachineType whose screen the pixel data is for.
+     */
+    public void init(MachineType machineType) {
+        screenWidth = machineType.getTotalScreenWidth();
+        visibleLeft = machineType.getHorizontalOffset();
+        visibleTop = machineType.getVerticalOffset();
+        visibleWidth = machineType.getVisibleScreenWidth();
+        visibleHeight = machineType.getVisibleScreenHeight();
+        init(machineType.getTotalScreenWidth(), machineType.getTotalScreenHeight());
+    }
+
+    /**
+     * Initialises the PixelData implementation with the given width and height. When
+     * invoked via init(MachineType), the visible area has already been set.
+     *
      * @param width The width of the pixel data.
      * @param height The height of the pixel data.
      */
     public abstract void init(int width, int height);
-    
+
+    /**
+     * Sets a range of palette entries, starting at the given colour index, to the
+     * given RGBA8888 colours.
+     *
+     * @param firstColourIndex The colour index of the first palette entry to set. Must be greater than 0.
+     * @param rgba8888Colours The RGBA8888 colours to set the palette entries to.
+     */
+    public void setPalette(int firstColourIndex, int[] rgba8888Colours) {
+        System.arraycopy(rgba8888Colours, 0, palette, firstColourIndex, rgba8888Colours.length);
+        paletteVersion++;
+        changedFrameCount++;
+    }
+
+    /**
+     * Invoked by the VIC chip when it completes a frame in which at least one pixel is
+     * different from the previous frame.
+     */
+    public void frameChanged() {
+        changedFrameCount++;
+    }
+
+    /**
+     * Returns whether a changed frame has been completed since this method last returned
+     * true, i.e. whether the Pixmap needs to be updated and uploaded again.
+     *
+     * @return true if there is a new frame to show; otherwise false.
+     */
+    public boolean hasNewFrame() {
+        int count = changedFrameCount;
+        if (count == lastConsumedChangedFrameCount) {
+            return false;
+        }
+        lastConsumedChangedFrameCount = count;
+        return true;
+    }
+
     /**
      * Puts a single pixel into the pixel data using an index position.
-     * 
-     * @param index AGI screen position (i.e. (y * 320) + x
-     * @param rgba8888Colour
+     *
+     * @param index Screen position (i.e. (y * width) + x
+     * @param colourIndex The index of the pixel's colour in the palette.
      */
-    public abstract void putPixel(int index, int rgba8888Colour);
-    
+    public abstract void putPixel(int index, int colourIndex);
+
     /**
-     * Clears all pixels, i.e. sets to black.
+     * Clears all pixels, i.e. sets to transparent black.
      */
     public abstract void clearPixels();
-    
+
     /**
-     * Updates Pixmap with the latest local changes. 
-     * 
-     * @param pixmap 
+     * Updates Pixmap with the visible area of the latest local changes, applying the 
+     * palette.
+     *
+     * @param pixmap
      */
     public abstract void updatePixmap(Pixmap pixmap);
-    
-}
\ No newline at end of file
+
+    /**
+     * Updates Pixmap with the visible area of the frame that the last call to updatePixmap
+     * or updateIndexPixmap used, applying the palette. Unlike updatePixmap, this never
+     * moves on to a newer frame, so it can be used to save the frame that is being shown.
+     *
+     * @param pixmap
+     */
+    public void updateCurrentPixmap(Pixmap pixmap) {
+        updatePixmap(pixmap);
+    }
+
+    /**
+     * Returns whether this PixelData supports updating an index Pixmap, i.e. whether the
+     * palette can be applied by a shader rather than by updatePixmap.
+     *
+     * @return true if updateIndexPixmap is supported; otherwise false.
+     */
+    public boolean isIndexPixmapSupported() {
+        return false;
+    }
+
+    /**
+     * Updates the given Alpha format Pixmap with the colour index of each pixel. Only
+     * supported if isIndexPixmapSupported returns true.
+     *
+     * @param indexPixmap The Alpha format Pixmap to update, the same size as the visible area.
+     */
+    public void updateIndexPixmap(Pixmap indexPixmap) {
+    }
+
+    /**
+     * Updates the given RGBA8888 Pixmap, which is PALETTE_SIZE pixels wide and one pixel
+     * high, with the palette, if the palette has changed since it was last updated.
+     *
+     * @param palettePixmap The palette Pixmap to update.
+     *
+     * @return true if the palette Pixmap was updated; otherwise false.
+     */
+    public boolean updatePalettePixmap(Pixmap palettePixmap) {
+        int version = paletteVersion;
+        if (version == palettePixmapVersion) {
+            return false;
+        }
+        for (int colourIndex = 0; colourIndex < PALETTE_SIZE; colourIndex++) {
+            palettePixmap.drawPixel(colourIndex, 0, palette[colourIndex]);
+        }
+        palettePixmapVersion = version;
+        return true;
+    }
+
+    /**
+     * Copies the colour indexes of the visible area from the given whole screen array
+     * into the given array, which is visibleWidth * visibleHeight in size.
+     *
+     * @param colourIndexes The colour indexes of the whole screen.
+     * @param visibleColourIndexes The array to copy the visible colour indexes into.
+     */
+    protected void copyVisibleColourIndexes(byte[] colourIndexes, byte[] visibleColourIndexes) {
+        int screenIndex = (visibleTop * screenWidth) + visibleLeft;
+        for (int index = 0; index < visibleColourIndexes.length; index += visibleWidth) {
+            System.arraycopy(colourIndexes, screenIndex, visibleColourIndexes, index, visibleWidth);
+            screenIndex += screenWidth;
+        }
+    }
+
+    /**
+     * Applies the palette to the colour indexes of the visible area from the given whole
+     * screen array, storing the RGBA8888 colour of each pixel in the given byte array in
+     * R, G, B, A order, which is visibleWidth * visibleHeight * 4 in size.
+     *
+     * @param colourIndexes The colour indexes of the whole screen.
+     * @param imageData The array to store the R, G, B, A bytes of the visible pixels in.
+     */
+    protected void expandVisiblePixels(byte[] colourIndexes, byte[] imageData) {
+        int index = 0;
+        for (int y = 0; y < visibleHeight; y++) {
+            int screenIndex = ((visibleTop + y) * screenWidth) + visibleLeft;
+            for (int x = 0; x < visibleWidth; x++, index += 4) {
+                int rgba8888Colour = palette[colourIndexes[screenIndex++] & 0xFF];
+                imageData[index + 0] = (byte)((rgba8888Colour >> 24) & 0xFF);
+                imageData[index + 1] = (byte)((rgba8888Colour >> 16) & 0xFF);
+                imageData[index + 2] = (byte)((rgba8888Colour >>  8) & 0xFF);
+                imageData[index + 3] = (byte)((rgba8888Colour >>  0) & 0xFF);
+            }
+        }
+    }
+}
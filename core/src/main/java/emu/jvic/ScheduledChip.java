@@ -0,0 +1,32 @@
+package emu.jvic;
+
+/**
+ * Implemented by chips that do not need to be emulated on every cycle. Such a chip keeps 
+ * track of the cycle up to which it has been emulated, and is only caught up by the 
+ * ChipScheduler when its next externally visible event is due, or when one of its 
+ * registers is about to be accessed.
+ * 
+ * All cycle values are int machine cycle counts that are allowed to wrap around, so they
+ * must only ever be compared by subtracting one from the other.
+ * 
+ * @author Lance Ewing
+ */
+public interface ScheduledChip {
+
+    /**
+     * Gets the cycle at which this chip next needs to be emulated for real, i.e. the 
+     * cycle of its next externally visible event. If this is the same as the cycle 
+     * that the chip has been caught up to, then it needs to be emulated every cycle.
+     * 
+     * @return The cycle of the next externally visible event.
+     */
+    int getNextEventCycle();
+    
+    /**
+     * Emulates all cycles up to, but not including, the given cycle.
+     * 
+     * @param cycle The cycle to catch up to.
+     */
+    void catchUp(int cycle);
+    
+}
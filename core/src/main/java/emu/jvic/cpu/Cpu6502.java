@@ -6,12 +6,19 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 
 import emu.jvic.BaseChip;
+import emu.jvic.memory.Memory;
+import emu.jvic.memory.MemoryMappedChip;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 import emu.jvic.util.StringUtils;
 
 /**
  * This class emulates a 6502 CPU. It emulates at the machine cycle level
  * so that it can be run interleaved with I/O, video, etc. operations.
+ * Instructions that don't touch any I/O chips are executed in one go by a
+ * fast path, with their remaining cycles then counted off, so that the timing
+ * seen by the other chips is the same.
  *
  * @author Lance Ewing
  */
@@ -195,7 +202,7 @@ public class Cpu6502 extends BaseChip {
      * number of cycles since each item of an instruction array represents the
      * action to take for a particular cycle. T0 is always the fetch.
      */
-    private static int INSTRUCTION_DECODE_MATRIX[][] = {
+    private static final int INSTRUCTION_DECODE_MATRIX[][] = {
         // 00 (0)
         {BRK, FETCH_INC_PC, STORE_PCH_SP, STORE_PCL_SP, STORE_P_SP, FETCH_ADL_FFFE, FETCH_ADH_FFFF, EXECUTE_LAST}, // BRK
         {ORA, FETCH_BAL_PC, FETCH_DIS_BAL_X, FETCH_ADL_BAL, FETCH_ADH_BAL, FETCH_DATA_EA, EXECUTE_LAST}, // ORA - (Indirect, X)
@@ -529,6 +536,122 @@ public class Cpu6502 extends BaseChip {
         NMI, FETCH_DIS_PC, FETCH_DIS_PC, STORE_PCH_SP, STORE_PCL_SP, STORE_P_SP, FETCH_ADL_FFFA, FETCH_ADH_FFFB, EXECUTE_LAST
     };
 
+    // Fast path addressing mode constants.
+    private static final int FP_NONE = 0; // Always emulated one cycle at a time.
+    private static final int FP_IMPLIED = 1;
+    private static final int FP_IMMEDIATE = 2;
+    private static final int FP_ZERO_PAGE = 3;
+    private static final int FP_ZERO_PAGE_X = 4;
+    private static final int FP_ZERO_PAGE_Y = 5;
+    private static final int FP_ABSOLUTE = 6;
+    private static final int FP_ABSOLUTE_X = 7;
+    private static final int FP_ABSOLUTE_Y = 8;
+    private static final int FP_INDIRECT_X = 9;
+    private static final int FP_INDIRECT_Y = 10;
+    private static final int FP_BRANCH = 11;
+    private static final int FP_PUSH = 12;
+    private static final int FP_PULL = 13;
+    private static final int FP_JMP = 14;
+    private static final int FP_JMP_INDIRECT = 15;
+    private static final int FP_JSR = 16;
+    private static final int FP_RTS = 17;
+    private static final int FP_RTI = 18;
+
+    // Fast path operation constants.
+    private static final int FP_READ = 0;
+    private static final int FP_STORE = 1;
+    private static final int FP_MODIFY = 2; // Read-modify-write
+
+    /**
+     * The instruction step patterns that the fast path knows how to execute in one
+     * go. The first two items are the fast path addressing mode and operation, and
+     * the rest must match the instruction steps that follow T0 in the decode matrix.
+     * Anything that doesn't match one of these, e.g. BRK and the illegal op codes with
+     * unusual steps, is always emulated one cycle at a time.
+     */
+    private static final int FAST_PATH_PATTERNS[][] = {
+        {FP_IMPLIED, FP_READ, EXECUTE_DIS},
+        {FP_IMMEDIATE, FP_READ, FETCH_DATA_PC, EXECUTE_LAST},
+        {FP_ZERO_PAGE, FP_READ, FETCH_ADL_PC, FETCH_DATA_ADL, EXECUTE_LAST},
+        {FP_ZERO_PAGE_X, FP_READ, FETCH_BAL_PC, FETCH_DIS_BAL_X, FETCH_DATA_BAL, EXECUTE_LAST},
+        {FP_ZERO_PAGE_Y, FP_READ, FETCH_BAL_PC, FETCH_DIS_BAL_Y, FETCH_DATA_BAL, EXECUTE_LAST},
+        {FP_ABSOLUTE, FP_READ, FETCH_ADL_PC, FETCH_ADH_PC, FETCH_DATA_EA, EXECUTE_LAST},
+        {FP_ABSOLUTE_X, FP_READ, FETCH_BAL_PC, FETCH_BAH_PC, FETCH_DATA_BA_X, FETCH_DATA_BA, EXECUTE_LAST},
+        {FP_ABSOLUTE_Y, FP_READ, FETCH_BAL_PC, FETCH_BAH_PC, FETCH_DATA_BA_Y, FETCH_DATA_BA, EXECUTE_LAST},
+        {FP_INDIRECT_X, FP_READ, FETCH_BAL_PC, FETCH_DIS_BAL_X, FETCH_ADL_BAL, FETCH_ADH_BAL, FETCH_DATA_EA, EXECUTE_LAST},
+        {FP_INDIRECT_Y, FP_READ, FETCH_IAL_PC, FETCH_BAL_IAL, FETCH_BAH_IAL, FETCH_DATA_BA_Y, FETCH_DATA_BA, EXECUTE_LAST},
+        {FP_ZERO_PAGE, FP_STORE, FETCH_ADL_PC, EXECUTE_STORE_ADL},
+        {FP_ZERO_PAGE_X, FP_STORE, FETCH_BAL_PC, FETCH_DIS_BAL_X, EXECUTE_STORE_BAL},
+        {FP_ZERO_PAGE_Y, FP_STORE, FETCH_BAL_PC, FETCH_DIS_BAL_Y, EXECUTE_STORE_BAL},
+        {FP_ABSOLUTE, FP_STORE, FETCH_ADL_PC, FETCH_ADH_PC, EXECUTE_STORE_EA},
+        {FP_ABSOLUTE_X, FP_STORE, FETCH_BAL_PC, FETCH_BAH_PC, FETCH_DIS_BA_X, EXECUTE_STORE_BA},
+        {FP_ABSOLUTE_Y, FP_STORE, FETCH_BAL_PC, FETCH_BAH_PC, FETCH_DIS_BA_Y, EXECUTE_STORE_BA},
+        {FP_INDIRECT_X, FP_STORE, FETCH_BAL_PC, FETCH_DIS_BAL_X, FETCH_ADL_BAL, FETCH_ADH_BAL, EXECUTE_STORE_EA},
+        {FP_INDIRECT_Y, FP_STORE, FETCH_IAL_PC, FETCH_BAL_IAL, FETCH_BAH_IAL, FETCH_DIS_BA_Y, EXECUTE_STORE_BA},
+        {FP_ZERO_PAGE, FP_MODIFY, FETCH_ADL_PC, FETCH_DATA_ADL, EXECUTE_MID_ADL, STORE_DATA_ADL},
+        {FP_ZERO_PAGE_X, FP_MODIFY, FETCH_BAL_PC, FETCH_DIS_BAL_X, FETCH_DATA_BAL, EXECUTE_MID_BAL, STORE_DATA_BAL},
+        {FP_ABSOLUTE, FP_MODIFY, FETCH_ADL_PC, FETCH_ADH_PC, FETCH_DATA_EA, EXECUTE_MID_EA, STORE_DATA_EA},
+        {FP_ABSOLUTE_X, FP_MODIFY, FETCH_BAL_PC, FETCH_BAH_PC, FETCH_DIS_BA_X, FETCH_DATA_BA, EXECUTE_MID_BA, STORE_DATA_BA},
+        {FP_BRANCH, FP_READ, EXECUTE_BRANCH, BRANCH_DIS_NEXT, BRANCH_DIS_OFFSET},
+        {FP_PUSH, FP_STORE, EXECUTE_DIS, STORE_DATA_SP},
+        {FP_PULL, FP_READ, FETCH_DIS_PC, FETCH_DIS_SP, FETCH_DATA_SP, EXECUTE_LAST},
+        {FP_JMP, FP_READ, FETCH_ADL_PC, FETCH_ADH_PC, EXECUTE_LAST},
+        {FP_JMP_INDIRECT, FP_READ, FETCH_IAL_PC, FETCH_IAH_PC, FETCH_ADL_IA, FETCH_ADH_IA, EXECUTE_LAST},
+        {FP_JSR, FP_STORE, FETCH_ADL_PC, FETCH_DIS_SP, STORE_PCH_SP, STORE_PCL_SP, FETCH_ADH_PC, EXECUTE_LAST},
+        {FP_RTS, FP_READ, FETCH_DIS_PC, FETCH_DIS_SP, FETCH_PCL_SP, FETCH_PCH_SP, FETCH_DATA_PC},
+        {FP_RTI, FP_READ, FETCH_DIS_PC, FETCH_DIS_SP, FETCH_P_SP, FETCH_PCL_SP, FETCH_PCH_SP, EXECUTE_LAST}
+    };
+
+    /**
+     * The fast path addressing mode for each op code, derived from the decode matrix.
+     */
+    private static final int FAST_PATH_MODES[] = new int[INSTRUCTION_DECODE_MATRIX.length];
+
+    /**
+     * The fast path operation for each op code, derived from the decode matrix.
+     */
+    private static final int FAST_PATH_OPERATIONS[] = new int[INSTRUCTION_DECODE_MATRIX.length];
+
+    /**
+     * Whether each op code reads or writes the overflow flag.
+     */
+    private static final boolean USES_OVERFLOW_FLAG[] = new boolean[INSTRUCTION_DECODE_MATRIX.length];
+
+    static {
+        for (int opCode = 0; opCode < INSTRUCTION_DECODE_MATRIX.length; opCode++) {
+            int steps[] = INSTRUCTION_DECODE_MATRIX[opCode];
+            if ((steps.length == 0) || (steps[0] == TRAP)) {
+                continue;
+            }
+            switch (steps[0]) {
+                case ADC:
+                case SBC:
+                case BIT:
+                case BVC:
+                case BVS:
+                case CLV:
+                case PHP:
+                case PLP:
+                case RTI:
+                case ISC:
+                case RRA:
+                    USES_OVERFLOW_FLAG[opCode] = true;
+                    break;
+            }
+            for (int pattern[] : FAST_PATH_PATTERNS) {
+                boolean matches = (pattern.length == steps.length + 1);
+                for (int i = 1; matches && (i < steps.length); i++) {
+                    matches = (pattern[i + 1] == steps[i]);
+                }
+                if (matches) {
+                    FAST_PATH_MODES[opCode] = pattern[0];
+                    FAST_PATH_OPERATIONS[opCode] = pattern[1];
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * The vector for RESET signals.
      */
@@ -654,6 +777,45 @@ public class Cpu6502 extends BaseChip {
      * The address to branch to for a branch instruction.
      */
     private int branchAddress;
+
+    /**
+     * The bus access mode of each page of memory, used to decide whether the fast
+     * path can execute an instruction in one go.
+     */
+    private byte busAccessModes[];
+
+    /**
+     * The number of cycles of an instruction executed by the fast path that are being
+     * counted off by emulateCycle, or 0 if there isn't one.
+     */
+    private int fastPathCycles;
+
+    /**
+     * The cycle of the fast path instruction that has most recently been counted off.
+     */
+    private int fastPathCycle;
+
+    /**
+     * Bit mask of the fast path instruction cycles that have a memory access to replay.
+     */
+    private int replayMask;
+
+    /**
+     * The addresses of the memory accesses to replay, indexed by instruction cycle.
+     */
+    private int replayAddresses[] = new int[8];
+
+    /**
+     * The values to write for the memory accesses to replay, or -1 for reads.
+     */
+    private int replayValues[] = new int[8];
+
+    /**
+     * Whether something external sets the overflow flag, e.g. the 1541's byte ready
+     * signal on the SO pin. Instructions that use the flag then have to be emulated
+     * one cycle at a time, so that they see it change on the right cycle.
+     */
+    private boolean overflowPinConnected;
   
     /**
      * Constructor for CPU6502.
@@ -713,6 +875,139 @@ public class Cpu6502 extends BaseChip {
         indirectAddressHigh = 0;
         indirectAddressLow = 0;
         currentInstructionStep = 0;
+        fastPathCycles = 0;
+    }
+
+    /**
+     * Sets the Memory that this CPU accesses.
+     * 
+     * @param memory The Memory that this CPU accesses.
+     */
+    public void setMemory(Memory memory) {
+        super.setMemory(memory);
+        this.busAccessModes = memory.getBusAccessModes();
+    }
+
+    /**
+     * Writes the complete state of the CPU, including any partly executed instruction
+     * and fast path replay, to the given StateWriter.
+     *
+     * @param out The StateWriter to write the CPU state to.
+     */
+    public void saveState(StateWriter out) {
+        // Registers and flags. The flags are saved separately from the status register,
+        // since the two are only kept in step when the status register is used.
+        out.writeInt(accumulator);
+        out.writeInt(indexRegisterX);
+        out.writeInt(indexRegisterY);
+        out.writeInt(stackPointer);
+        out.writeInt(programCounter);
+        out.writeInt(processorStatusRegister);
+        out.writeBoolean(negativeResultFlag);
+        out.writeBoolean(overflowFlag);
+        out.writeBoolean(decimalModeFlag);
+        out.writeBoolean(interruptDisableFlag);
+        out.writeBoolean(zeroResultFlag);
+        out.writeBoolean(carryFlag);
+        out.writeInt(interruptStatus);
+        out.writeBoolean(delayInterruptOneCycle);
+        out.writeBoolean(overflowPinConnected);
+
+        // Instruction decoding. The steps array is always one of the static tables, so
+        // only which table it is needs to be saved.
+        out.writeInt(instructionRegister);
+        if (instructionSteps == null) {
+            out.writeByte(0);
+        } else if (instructionSteps == IRQ_STEPS) {
+            out.writeByte(2);
+        } else if (instructionSteps == NMI_STEPS) {
+            out.writeByte(3);
+        } else {
+            out.writeByte(1);
+        }
+        out.writeInt(inputDataLatch);
+        out.writeInt(dataBusBuffer);
+        out.writeInt(currentInstructionStep);
+        out.writeInt(numOfInstructionSteps);
+        out.writeInt(effectiveAddressLow);
+        out.writeInt(effectiveAddressHigh);
+        out.writeInt(baseAddressLow);
+        out.writeInt(baseAddressHigh);
+        out.writeInt(indirectAddressLow);
+        out.writeInt(indirectAddressHigh);
+        out.writeBoolean(branchFlag);
+        out.writeInt(branchAddress);
+
+        // Fast path replay.
+        out.writeInt(fastPathCycles);
+        out.writeInt(fastPathCycle);
+        out.writeInt(replayMask);
+        out.writeInts(replayAddresses);
+        out.writeInts(replayValues);
+
+        out.writeLong(totalCycles);
+    }
+
+    /**
+     * Restores the complete state of the CPU from the given StateReader.
+     *
+     * @param in The StateReader to read the CPU state from.
+     */
+    public void loadState(StateReader in) {
+        // Registers and flags.
+        accumulator = in.readInt();
+        indexRegisterX = in.readInt();
+        indexRegisterY = in.readInt();
+        stackPointer = in.readInt();
+        programCounter = in.readInt();
+        processorStatusRegister = in.readInt();
+        negativeResultFlag = in.readBoolean();
+        overflowFlag = in.readBoolean();
+        decimalModeFlag = in.readBoolean();
+        interruptDisableFlag = in.readBoolean();
+        zeroResultFlag = in.readBoolean();
+        carryFlag = in.readBoolean();
+        interruptStatus = in.readInt();
+        delayInterruptOneCycle = in.readBoolean();
+        overflowPinConnected = in.readBoolean();
+
+        // Instruction decoding.
+        instructionRegister = in.readInt();
+        switch (in.readByte()) {
+            case 1:
+                instructionSteps = INSTRUCTION_DECODE_MATRIX[instructionRegister];
+                break;
+            case 2:
+                instructionSteps = IRQ_STEPS;
+                break;
+            case 3:
+                instructionSteps = NMI_STEPS;
+                break;
+            default:
+                instructionSteps = null;
+                break;
+        }
+        inputDataLatch = in.readInt();
+        dataBusBuffer = in.readInt();
+        currentInstructionStep = in.readInt();
+        numOfInstructionSteps = in.readInt();
+        effectiveAddressLow = in.readInt();
+        effectiveAddressHigh = in.readInt();
+        baseAddressLow = in.readInt();
+        baseAddressHigh = in.readInt();
+        indirectAddressLow = in.readInt();
+        indirectAddressHigh = in.readInt();
+        branchFlag = in.readBoolean();
+        branchAddress = in.readInt();
+
+        // Fast path replay.
+        fastPathCycles = in.readInt();
+        fastPathCycle = in.readInt();
+        replayMask = in.readInt();
+        in.readInts(replayAddresses);
+        in.readInts(replayValues);
+
+        totalCycles = in.readLong();
     }
 
     /**
@@ -795,6 +1090,15 @@ public class Cpu6502 extends BaseChip {
         this.interruptStatus &= ~irqSignalCode;
     }
 
+    /**
+     * Gets the interrupt signals that are currently active.
+     *
+     * @return The active interrupt signals, i.e. a combination of S_IRQ and S_NMI.
+     */
+    public int getInterruptStatus() {
+        return interruptStatus;
+    }
+
     /**
      * Registers a trap routine with this Cpu6502. When the PC is at the given
      * address, it will execute the given Runnable routine.
@@ -1358,6 +1662,23 @@ public class Cpu6502 extends BaseChip {
 
         totalCycles++;
 
+        if (fastPathCycles != 0) {
+            // The fast path has already executed this instruction, so we count off its
+            // cycles, replaying any memory accesses that have to happen on the exact cycle.
+            fastPathCycle++;
+            if ((replayMask & (1 << fastPathCycle)) != 0) {
+                if (replayValues[fastPathCycle] < 0) {
+                    memory.readMemory(replayAddresses[fastPathCycle]);
+                } else {
+                    memory.writeMemory(replayAddresses[fastPathCycle], replayValues[fastPathCycle]);
+                }
+            }
+            if (fastPathCycle == fastPathCycles) {
+                fastPathCycles = 0;
+            }
+            return;
+        }
+
         if (currentInstructionStep < numOfInstructionSteps) {
             // Get the action for the current cycle of the instruction.
             action = instructionSteps[currentInstructionStep];
@@ -1422,6 +1743,7 @@ public class Cpu6502 extends BaseChip {
                         programCounter++;
                         instructionSteps = INSTRUCTION_DECODE_MATRIX[instructionRegister];
                         delayInterruptOneCycle = false;
+                        startFastPath();
                     } else {
                         // An interrupt occurred.
                         instructionSteps = ((interruptStatus & S_NMI) == 0 ? IRQ_STEPS : NMI_STEPS);
@@ -1761,6 +2083,7 @@ public class Cpu6502 extends BaseChip {
                 programCounter++;
                 instructionSteps = INSTRUCTION_DECODE_MATRIX[instructionRegister];
                 delayInterruptOneCycle = false;
+                startFastPath();
             } else {
                 // An interrupt occurred.
                 instructionSteps = ((interruptStatus & S_NMI) == 0 ? IRQ_STEPS : NMI_STEPS);
@@ -1774,6 +2097,330 @@ public class Cpu6502 extends BaseChip {
                 System.out.println(StringUtils.format("Unknown instruction: {0}", instructionRegister));
         }
     }
+
+    /**
+     * Attempts to execute the instruction that has just been fetched in one go, rather
+     * than one cycle at a time. If successful, the remaining cycles of the instruction
+     * are then counted off by the following calls to emulateCycle, so that the timing
+     * of the other chips is unchanged.
+     */
+    private void startFastPath() {
+        int cycles = executeFastPath();
+        if (cycles > 0) {
+            fastPathCycles = cycles;
+            fastPathCycle = 0;
+            // Skip all micro-steps, so that the cycle after the last one fetches the next op code.
+            currentInstructionStep = instructionSteps.length;
+        }
+    }
+
+    /**
+     * Executes the whole of the instruction that has just been fetched, if every address
+     * that its micro-steps would access is either plain RAM/ROM, which only the CPU can
+     * see, or shared memory that has no side effects but that the VIC chip can see. The
+     * shared accesses are recorded so that they can be replayed on their exact cycle.
+     * Instructions that access an I/O chip are left to the micro-steps.
+     * 
+     * @return The number of cycles before the next op code fetch, or 0 if the instruction
+     *         has to be emulated one cycle at a time.
+     */
+    private int executeFastPath() {
+        int mode = FAST_PATH_MODES[instructionRegister];
+        int operation = FAST_PATH_OPERATIONS[instructionRegister];
+        int pc = programCounter;
+        int nextPc = pc;
+        int address = 0;
+        int cycle = 0;
+        int low = 0;
+        int high = 0;
+        int pointer = 0;
+        boolean indexed = false;
+
+        if ((mode == FP_NONE) || (pc > 0xFFFD)
+                || (overflowPinConnected && USES_OVERFLOW_FLAG[instructionRegister])) {
+            return 0;
+        }
+
+        replayMask = 0;
+
+        // Work out the effective address and the cycle on which its data is accessed.
+        switch (mode) {
+            case FP_IMPLIED:
+                executeInstruction();
+                return 1;
+
+            case FP_IMMEDIATE:
+                if (!fastRead(1, pc)) return 0;
+                inputDataLatch = (mem[pc] & 0xFF);
+                programCounter = pc + 1;
+                executeInstruction();
+                return 1;
+
+            case FP_ZERO_PAGE:
+                if (!fastRead(1, pc)) return 0;
+                address = (mem[pc] & 0xFF);
+                nextPc = pc + 1;
+                cycle = 2;
+                break;
+
+            case FP_ZERO_PAGE_X:
+            case FP_ZERO_PAGE_Y:
+                if (!fastRead(1, pc)) return 0;
+                address = (((mem[pc] & 0xFF) + (mode == FP_ZERO_PAGE_X ? indexRegisterX : indexRegisterY)) & 0xFF);
+                nextPc = pc + 1;
+                cycle = 3;
+                break;
+
+            case FP_ABSOLUTE:
+                if (!fastRead(1, pc) || !fastRead(2, pc + 1)) return 0;
+                address = ((mem[pc] & 0xFF) | ((mem[pc + 1] & 0xFF) << 8));
+                nextPc = pc + 2;
+                cycle = 3;
+                break;
+
+            case FP_ABSOLUTE_X:
+            case FP_ABSOLUTE_Y:
+                if (!fastRead(1, pc) || !fastRead(2, pc + 1)) return 0;
+                low = (mem[pc] & 0xFF) + (mode == FP_ABSOLUTE_X ? indexRegisterX : indexRegisterY);
+                high = ((mem[pc + 1] & 0xFF) << 8);
+                nextPc = pc + 2;
+                indexed = true;
+                cycle = 3;
+                break;
+
+            case FP_INDIRECT_X:
+                if (!fastRead(1, pc)) return 0;
+                pointer = (((mem[pc] & 0xFF) + indexRegisterX) & 0xFF);
+                if (!fastRead(3, pointer) || !fastRead(4, (pointer + 1) & 0xFF)) return 0;
+                address = ((mem[pointer] & 0xFF) | ((mem[(pointer + 1) & 0xFF] & 0xFF) << 8));
+                nextPc = pc + 1;
+                cycle = 5;
+                break;
+
+            case FP_INDIRECT_Y:
+                if (!fastRead(1, pc)) return 0;
+                pointer = (mem[pc] & 0xFF);
+                if (!fastRead(2, pointer) || !fastRead(3, (pointer + 1) & 0xFF)) return 0;
+                low = (mem[pointer] & 0xFF) + indexRegisterY;
+                high = ((mem[(pointer + 1) & 0xFF] & 0xFF) << 8);
+                nextPc = pc + 1;
+                indexed = true;
+                cycle = 4;
+                break;
+
+            case FP_BRANCH:
+                if (!fastRead(1, pc)) return 0;
+                inputDataLatch = (mem[pc] & 0xFF);
+                programCounter = pc + 1;
+                executeInstruction();
+                if (!branchFlag) {
+                    return 1;
+                }
+                inputDataLatch = ((inputDataLatch & 0x80) == 0 ? inputDataLatch : inputDataLatch - 0x100);
+                branchAddress = ((programCounter + inputDataLatch) & 0xFFFF);
+                if ((programCounter & 0xFF00) == (branchAddress & 0xFF00)) {
+                    // See EXECUTE_BRANCH for why a taken branch within the page delays interrupts.
+                    programCounter = branchAddress;
+                    delayInterruptOneCycle = true;
+                    return 2;
+                } else {
+                    programCounter = branchAddress;
+                    return 3;
+                }
+
+            case FP_PUSH:
+                address = stackPointer + 0x100;
+                if (!canFastWrite(address)) return 0;
+                executeInstruction();
+                fastWrite(2, address, dataBusBuffer);
+                stackPointer = ((stackPointer - 1) & 0xFF);
+                return 2;
+
+            case FP_PULL:
+                address = ((stackPointer + 1) & 0xFF) + 0x100;
+                if (!fastRead(3, address)) return 0;
+                stackPointer = (address & 0xFF);
+                inputDataLatch = (mem[address] & 0xFF);
+                executeInstruction();
+                return 3;
+
+            case FP_JMP:
+                if (!fastRead(1, pc) || !fastRead(2, pc + 1)) return 0;
+                effectiveAddressLow = (mem[pc] & 0xFF);
+                effectiveAddressHigh = ((mem[pc + 1] & 0xFF) << 8);
+                executeInstruction();
+                return 2;
+
+            case FP_JMP_INDIRECT:
+                if (!fastRead(1, pc) || !fastRead(2, pc + 1)) return 0;
+                low = (mem[pc] & 0xFF);
+                high = ((mem[pc + 1] & 0xFF) << 8);
+                // Well known NMOS 6502 bug: the indirect address wraps within its page.
+                if (!fastRead(3, high | low) || !fastRead(4, high | ((low + 1) & 0xFF))) return 0;
+                effectiveAddressLow = (mem[high | low] & 0xFF);
+                effectiveAddressHigh = ((mem[high | ((low + 1) & 0xFF)] & 0xFF) << 8);
+                indirectAddressLow = ((low + 1) & 0xFF);
+                indirectAddressHigh = high;
+                executeInstruction();
+                return 4;
+
+            case FP_JSR:
+                low = stackPointer + 0x100;
+                high = ((stackPointer - 1) & 0xFF) + 0x100;
+                // The high byte of the target is fetched after the return address has been
+                // pushed, so code running in the stack page is left to the micro-steps.
+                if (((pc + 1) & 0xFF00) == 0x100) return 0;
+                if (!fastRead(1, pc) || !fastRead(5, pc + 1) || !canFastWrite(low) || !canFastWrite(high)) return 0;
+                effectiveAddressLow = (mem[pc] & 0xFF);
+                effectiveAddressHigh = ((mem[pc + 1] & 0xFF) << 8);
+                fastWrite(3, low, ((pc + 1) >> 8));
+                fastWrite(4, high, ((pc + 1) & 0xFF));
+                stackPointer = ((stackPointer - 2) & 0xFF);
+                executeInstruction();
+                return 5;
+
+            case FP_RTS:
+                low = ((stackPointer + 1) & 0xFF) + 0x100;
+                high = ((stackPointer + 2) & 0xFF) + 0x100;
+                if (!fastRead(3, low) || !fastRead(4, high)) return 0;
+                address = ((mem[low] & 0xFF) | ((mem[high] & 0xFF) << 8));
+                if (!fastRead(5, address)) return 0;
+                stackPointer = ((stackPointer + 2) & 0xFF);
+                inputDataLatch = (mem[address] & 0xFF);
+                programCounter = address + 1;
+                return 5;
+
+            case FP_RTI:
+                address = ((stackPointer + 1) & 0xFF) + 0x100;
+                low = ((stackPointer + 2) & 0xFF) + 0x100;
+                high = ((stackPointer + 3) & 0xFF) + 0x100;
+                if (!fastRead(3, address) || !fastRead(4, low) || !fastRead(5, high)) return 0;
+                stackPointer = ((stackPointer + 3) & 0xFF);
+                processorStatusRegister = (mem[address] & 0xFF);
+                unpackPSR();
+                programCounter = ((mem[low] & 0xFF) | ((mem[high] & 0xFF) << 8));
+                return 5;
+
+            default:
+                return 0;
+        }
+
+        if (indexed) {
+            // The first access uses the un-fixed high byte. This is a dummy read if the index
+            // crossed a page boundary, and always happens for stores and read-modify-writes.
+            int unfixedAddress = (high | (low & 0xFF));
+            address = ((low & 0x100) != 0 ? (((high + 0x100) & 0xFF00) | (low & 0xFF)) : unfixedAddress);
+            if ((operation != FP_READ) || ((low & 0x100) != 0)) {
+                if (!fastRead(cycle, unfixedAddress)) return 0;
+                cycle++;
+            }
+        }
+
+        if ((operation == FP_STORE) ? !canFastWrite(address) : !fastRead(cycle, address)) {
+            return 0;
+        }
+
+        // Nothing has been changed up to this point. Leave the address latches as the
+        // micro-steps would have, since some illegal op codes rely on their old values.
+        programCounter = nextPc;
+        switch (mode) {
+            case FP_ZERO_PAGE:
+                effectiveAddressLow = address;
+                break;
+            case FP_ZERO_PAGE_X:
+            case FP_ZERO_PAGE_Y:
+                baseAddressLow = address;
+                break;
+            case FP_ABSOLUTE:
+                effectiveAddressLow = (address & 0xFF);
+                effectiveAddressHigh = (address & 0xFF00);
+                break;
+            case FP_INDIRECT_X:
+                effectiveAddressLow = (address & 0xFF);
+                effectiveAddressHigh = (address & 0xFF00);
+                baseAddressLow = ((pointer + 1) & 0xFF);
+                break;
+            case FP_INDIRECT_Y:
+                indirectAddressLow = ((pointer + 1) & 0xFF);
+                baseAddressLow = (low & 0xFF);
+                baseAddressHigh = (address & 0xFF00);
+                break;
+            default:
+                // Absolute, X and Absolute, Y
+                baseAddressLow = (low & 0xFF);
+                baseAddressHigh = (address & 0xFF00);
+                break;
+        }
+
+        switch (operation) {
+            case FP_READ:
+                inputDataLatch = (mem[address] & 0xFF);
+                executeInstruction();
+                return cycle;
+
+            case FP_STORE:
+                executeInstruction();
+                fastWrite(cycle, address, dataBusBuffer);
+                return cycle;
+
+            default:
+                // Read-modify-write, which writes the unmodified data back first.
+                inputDataLatch = (mem[address] & 0xFF);
+                fastWrite(cycle + 1, address, inputDataLatch);
+                executeInstruction();
+                fastWrite(cycle + 2, address, dataBusBuffer);
+                return cycle + 2;
+        }
+    }
+
+    /**
+     * Checks whether the fast path can read the given address, which is then read
+     * directly from the mem array. If the address is shared memory then the read is
+     * recorded so that it can be replayed on the given cycle of the instruction.
+     * 
+     * @param cycle   The cycle of the instruction that the read happens on.
+     * @param address The address to read.
+     * 
+     * @return true if the fast path can read the address; otherwise false.
+     */
+    private boolean fastRead(int cycle, int address) {
+        int busAccessMode = busAccessModes[address >> 8];
+        if (busAccessMode == MemoryMappedChip.BUS_ACCESS_SHARED) {
+            replayMask |= (1 << cycle);
+            replayAddresses[cycle] = address;
+            replayValues[cycle] = -1;
+        }
+        return (busAccessMode != MemoryMappedChip.BUS_ACCESS_IO);
+    }
+
+    /**
+     * Checks whether the fast path can write to the given address.
+     * 
+     * @param address The address to write to.
+     * 
+     * @return true if the fast path can write to the address; otherwise false.
+     */
+    private boolean canFastWrite(int address) {
+        return (busAccessModes[address >> 8] != MemoryMappedChip.BUS_ACCESS_IO);
+    }
+
+    /**
+     * Performs a write for the fast path. Writes to plain RAM happen immediately, but
+     * writes to shared memory are recorded so that they happen on the given cycle.
+     * 
+     * @param cycle   The cycle of the instruction that the write happens on.
+     * @param address The address to write to.
+     * @param value   The value to write.
+     */
+    private void fastWrite(int cycle, int address, int value) {
+        if (busAccessModes[address >> 8] == MemoryMappedChip.BUS_ACCESS_SHARED) {
+            replayMask |= (1 << cycle);
+            replayAddresses[cycle] = address;
+            replayValues[cycle] = value;
+        } else {
+            memory.writeMemory(address, value);
+        }
+    }
   
     ///////////////////////////////// DEBUG /////////////////////////////////////////
     
@@ -1801,7 +2448,7 @@ public class Cpu6502 extends BaseChip {
     /**
      * Instruction names for use with debugging monitor.
      */
-    private static String instructionNames[]= {
+    private static final String instructionNames[]= {
         "ADC ","AND ","ASL ","BCC ","BCS ","BEQ ","BIT ","BMI ",
         "BNE ","BPL ","BRK","BVC ","BVS ","CLC","CLD","CLI",
         "CLV","CMP ","CPX ","CPY ","DEC ","DEX","DEY","INX",
@@ -1815,7 +2462,7 @@ public class Cpu6502 extends BaseChip {
      * Instruction set name and addressing mode lookup table for use with
      * debugging monitor.
      */
-    private static int instructionInfo[] = {
+    private static final int instructionInfo[] = {
         10,Il, 34,Ix, No,No, No,No, No,No, 34,Zp,  2,Zp, No,No,
         36,Il, 34,Im,  2,Ac, No,No, No,No, 34,Ab,  2,Ab, No,No,
          9,Rl, 34,Iy, No,No, No,No, No,No, 34,Zx,  2,Zx, No,No,
@@ -2007,7 +2654,7 @@ public class Cpu6502 extends BaseChip {
             if (i < 0xFF) {
                 stackBuf.append(",");
             }
-            stackBuf.append(addLeadingZeroes(Integer.toHexString(mem[i + 0x0100]), 2));
+            stackBuf.append(addLeadingZeroes(Integer.toHexString(mem[i + 0x0100] & 0xFF), 2));
         }
 
         return (stackBuf.toString());
@@ -2118,6 +2765,7 @@ public class Cpu6502 extends BaseChip {
 
     public void setOverflowFlag(boolean value) {
         overflowFlag = value;
+        overflowPinConnected = true;
     }
 
     public boolean getDecimalModeFlag() {
@@ -2137,17 +2785,17 @@ public class Cpu6502 extends BaseChip {
     }
 
     public void stackPush(int value) {
-        mem[stackPointer + 0x100] = value;
+        mem[stackPointer + 0x100] = (byte) value;
         stackPointer = ((stackPointer - 1) & 0xFF);
     }
 
     public int stackPeek() {
-        return mem[0x100 + stackPointer + 1];
+        return (mem[0x100 + stackPointer + 1] & 0xFF);
     }
 
     public int stackPop() {
         stackPointer = ((stackPointer + 1) & 0xFF);
-        return mem[stackPointer + 0x100];
+        return (mem[stackPointer + 0x100] & 0xFF);
     }
 
     public boolean isNmiAsserted() {
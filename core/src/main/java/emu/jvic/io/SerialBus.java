@@ -2,6 +2,9 @@ package emu.jvic.io;
 
 import java.util.HashSet;
 
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
 /**
  * This class emulates the Commodore IEC serial bus.
  * 
@@ -94,6 +97,46 @@ public class SerialBus {
         clockPullDowns.clear();
     }
 
+    /**
+     * Writes which of the given devices are pulling each of the lines down to the
+     * given StateWriter.
+     * 
+     * @param out     The StateWriter to write the serial bus state to.
+     * @param devices The devices connected to the bus, in a fixed order.
+     */
+    public void saveState(StateWriter out, Object[] devices) {
+        for (int i = 0; i < devices.length; i++) {
+            Object device = devices[i];
+            out.writeByte((attentionPullDowns.contains(device) ? 0x04 : 0x00)
+                    | (clockPullDowns.contains(device) ? 0x02 : 0x00)
+                    | (dataPullDowns.contains(device) ? 0x01 : 0x00));
+        }
+    }
+
+    /**
+     * Restores which of the given devices are pulling each of the lines down from
+     * the given StateReader. The devices must be in the same order as when saved.
+     * 
+     * @param in      The StateReader to read the serial bus state from.
+     * @param devices The devices connected to the bus, in a fixed order.
+     */
+    public void loadState(StateReader in, Object[] devices) {
+        reset();
+        for (int i = 0; i < devices.length; i++) {
+            Object device = devices[i];
+            int lines = in.readByte();
+            if ((lines & 0x04) != 0) {
+                attentionPullDowns.add(device);
+            }
+            if ((lines & 0x02) != 0) {
+                clockPullDowns.add(device);
+            }
+            if ((lines & 0x01) != 0) {
+                dataPullDowns.add(device);
+            }
+        }
+    }
+
     public void pullDownAtn(Object device) {
         attentionPullDowns.add(device);
     }
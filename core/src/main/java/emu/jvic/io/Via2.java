@@ -164,6 +164,14 @@ public class Via2 extends Via6522 {
         }
     }
     
+    /**
+     * Reading CA1 advances the tape, so it can't be polled. Instead, CA1 is quiet if
+     * the tape motor is off and there is no pulse still to complete.
+     */
+    protected boolean hasQuietControlInputs() {
+        return (!datasette.isMotorOn() && (ca1 == 0) && (getCb1() == cb1));
+    }
+    
     /**
      * CA1 on VIA #2 handles the incoming tape data. 
      */
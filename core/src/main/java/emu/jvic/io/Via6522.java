@@ -1,13 +1,17 @@
 package emu.jvic.io;
 
+import emu.jvic.ChipScheduler;
+import emu.jvic.ScheduledChip;
 import emu.jvic.memory.MemoryMappedChip;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * This class emulates a 6522 VIA IO/timer chip.
  * 
  * @author Lance Ewing
  */
-public class Via6522 extends MemoryMappedChip {
+public class Via6522 extends MemoryMappedChip implements ScheduledChip {
 
   // Constants for the 16 internal memory mapped registers.
   private static final int VIA_REG_0 = 0;
@@ -167,6 +171,12 @@ public class Via6522 extends MemoryMappedChip {
    */
   private boolean autoResetIrq;
   
+  /**
+   * When lazily emulated by a ChipScheduler, this is the machine cycle that the VIA
+   * has been caught up to.
+   */
+  private int syncedCycle;
+  
   /**
    * Constructor for Via6522.
    * 
@@ -175,7 +185,138 @@ public class Via6522 extends MemoryMappedChip {
   public Via6522(boolean autoResetIrq) {
     this.autoResetIrq = autoResetIrq;
   }
-  
+
+  /**
+   * Writes the state of the VIA to the given StateWriter. The state of the devices
+   * connected to the ports is saved by those devices.
+   *
+   * @param out The StateWriter to write the VIA state to.
+   */
+  public void saveState(StateWriter out) {
+    // Ports.
+    out.writeInt(outputRegisterB);
+    out.writeInt(inputRegisterB);
+    out.writeInt(portBPins);
+    out.writeInt(dataDirectionRegisterB);
+    out.writeInt(outputRegisterA);
+    out.writeInt(inputRegisterA);
+    out.writeInt(portAPins);
+    out.writeInt(dataDirectionRegisterA);
+
+    // Timers.
+    out.writeInt(timer1Counter);
+    out.writeInt(timer1Latch);
+    out.writeBoolean(timer1Loaded);
+    out.writeInt(timer1Pb7);
+    out.writeInt(timer2Counter);
+    out.writeInt(timer2Latch);
+    out.writeBoolean(timer2Loaded);
+    out.writeBoolean(timer1HasShot);
+    out.writeBoolean(timer2HasShot);
+    out.writeBoolean(pb7DelayedPulseStart);
+
+    // Shift register.
+    out.writeInt(shiftRegister);
+    out.writeInt(shiftClock);
+    out.writeInt(shiftCounter);
+    out.writeBoolean(shiftingOut);
+    out.writeBoolean(timer2Shift);
+    out.writeBoolean(externalClockShift);
+    out.writeBoolean(systemClockShift);
+    out.writeBoolean(shiftRegisterWrite);
+
+    // Control registers and the modes decoded from them.
+    out.writeInt(auxiliaryControlRegister);
+    out.writeInt(peripheralControlRegister);
+    out.writeInt(interruptFlagRegister);
+    out.writeInt(interruptEnableRegister);
+    out.writeInt(timer1PB7Mode);
+    out.writeInt(timer1Mode);
+    out.writeInt(timer2Mode);
+    out.writeInt(shiftRegisterMode);
+    out.writeInt(portALatchMode);
+    out.writeInt(portBLatchMode);
+
+    // Control lines.
+    out.writeInt(ca1ControlMode);
+    out.writeInt(ca2ControlMode);
+    out.writeInt(cb1ControlMode);
+    out.writeInt(cb2ControlMode);
+    out.writeInt(ca1);
+    out.writeInt(ca2);
+    out.writeInt(cb1);
+    out.writeInt(cb2);
+    out.writeInt(ca2PulseModeCount);
+    out.writeInt(cb2PulseModeCount);
+
+    out.writeInt(syncedCycle);
+  }
+
+  /**
+   * Restores the state of the VIA from the given StateReader.
+   *
+   * @param in The StateReader to read the VIA state from.
+   */
+  public void loadState(StateReader in) {
+    // Ports.
+    outputRegisterB = in.readInt();
+    inputRegisterB = in.readInt();
+    portBPins = in.readInt();
+    dataDirectionRegisterB = in.readInt();
+    outputRegisterA = in.readInt();
+    inputRegisterA = in.readInt();
+    portAPins = in.readInt();
+    dataDirectionRegisterA = in.readInt();
+
+    // Timers.
+    timer1Counter = in.readInt();
+    timer1Latch = in.readInt();
+    timer1Loaded = in.readBoolean();
+    timer1Pb7 = in.readInt();
+    timer2Counter = in.readInt();
+    timer2Latch = in.readInt();
+    timer2Loaded = in.readBoolean();
+    timer1HasShot = in.readBoolean();
+    timer2HasShot = in.readBoolean();
+    pb7DelayedPulseStart = in.readBoolean();
+
+    // Shift register.
+    shiftRegister = in.readInt();
+    shiftClock = in.readInt();
+    shiftCounter = in.readInt();
+    shiftingOut = in.readBoolean();
+    timer2Shift = in.readBoolean();
+    externalClockShift = in.readBoolean();
+    systemClockShift = in.readBoolean();
+    shiftRegisterWrite = in.readBoolean();
+
+    // Control registers and the modes decoded from them.
+    auxiliaryControlRegister = in.readInt();
+    peripheralControlRegister = in.readInt();
+    interruptFlagRegister = in.readInt();
+    interruptEnableRegister = in.readInt();
+    timer1PB7Mode = in.readInt();
+    timer1Mode = in.readInt();
+    timer2Mode = in.readInt();
+    shiftRegisterMode = in.readInt();
+    portALatchMode = in.readInt();
+    portBLatchMode = in.readInt();
+
+    // Control lines.
+    ca1ControlMode = in.readInt();
+    ca2ControlMode = in.readInt();
+    cb1ControlMode = in.readInt();
+    cb2ControlMode = in.readInt();
+    ca1 = in.readInt();
+    ca2 = in.readInt();
+    cb1 = in.readInt();
+    cb2 = in.readInt();
+    ca2PulseModeCount = in.readInt();
+    cb2PulseModeCount = in.readInt();
+
+    syncedCycle = in.readInt();
+  }
+
   /**
    * Writes a byte into one of the 16 VIA registers.
    * 
@@ -183,6 +324,10 @@ public class Via6522 extends MemoryMappedChip {
    * @param value The byte to write into the address.
    */
   public void writeMemory(int address, int value) {
+    if (scheduler != null) {
+      scheduler.sync();
+    }
+    
     memory.setLastBusData(value);
       
     switch (address & 0x000F) {
@@ -417,6 +562,10 @@ public class Via6522 extends MemoryMappedChip {
    */
   public int readMemory(int address) {
     int value = 0;
+    
+    if (scheduler != null) {
+      scheduler.sync();
+    }
 
     switch (address & 0x000F) {
       case VIA_REG_0: // ORB/IRB
@@ -787,6 +936,139 @@ public class Via6522 extends MemoryMappedChip {
     shiftRegisterWrite = false;
   }
   
+  /**
+   * Sets the ChipScheduler that lazily emulates this VIA. From this point on, the VIA
+   * should be caught up via the scheduler rather than by calling emulateCycle directly.
+   * 
+   * @param scheduler The ChipScheduler that lazily emulates this VIA.
+   */
+  public void setScheduler(ChipScheduler scheduler) {
+    super.setScheduler(scheduler);
+    syncedCycle = scheduler.getCurrentCycle();
+  }
+  
+  /**
+   * Gets the cycle at which this VIA next does something that is visible outside of
+   * the chip, such as raising an interrupt. While the VIA is in a state where only 
+   * the timers are counting down, it can skip cycles up to that point. In any other 
+   * state, it has to be emulated cycle by cycle.
+   * 
+   * @return The cycle at which the VIA next needs to be emulated for real.
+   */
+  public int getNextEventCycle() {
+    return syncedCycle + getCyclesToNextEvent();
+  }
+  
+  /**
+   * Gets the number of cycles that can be skipped, with skipCycles, before the VIA 
+   * next does something that is visible outside of the chip. This is 0 if the VIA is 
+   * not quiet.
+   * 
+   * @return The number of cycles until the next externally visible event.
+   */
+  public int getCyclesToNextEvent() {
+    if (!isQuiet()) {
+      return 0;
+    }
+    
+    int cyclesToEvent = ChipScheduler.MAX_CYCLES_BETWEEN_EVENTS;
+    
+    // Timer 1 has an event when it reaches 0xFFFF, unless it is a one shot that has 
+    // already fired, in which case the wrap to 0xFFFE is the same as a decrement, or
+    // it is free running and the reload can't change the IFR, IRQ pin or PB7.
+    if (timer1Mode == ONE_SHOT? !timer1HasShot : !isTimer1ReloadQuiet()) {
+      cyclesToEvent = ((timer1Counter + 1) & 0xFFFF);
+    }
+    
+    // Timer 2 has an event when it reaches 0, if it hasn't already fired.
+    if ((timer2Mode == ONE_SHOT) && !timer2HasShot && (timer2Counter < cyclesToEvent)) {
+      cyclesToEvent = timer2Counter;
+    }
+    
+    return cyclesToEvent;
+  }
+  
+  /**
+   * Catches the VIA up to the given cycle, skipping over idle cycles where possible.
+   * 
+   * @param cycle The cycle to catch up to.
+   */
+  public void catchUp(int cycle) {
+    while ((cycle - syncedCycle) > 0) {
+      int eventCycle = getNextEventCycle();
+      if ((eventCycle - syncedCycle) > 0) {
+        // Nothing visible happens before the event, so skip straight to it.
+        int skipToCycle = ((cycle - eventCycle) < 0? cycle : eventCycle);
+        skipCycles(skipToCycle - syncedCycle);
+        syncedCycle = skipToCycle;
+      } else {
+        emulateCycle();
+        syncedCycle++;
+      }
+    }
+  }
+  
+  /**
+   * Returns true if the only thing the VIA would do on the next cycle is count its
+   * timers down, i.e. no shifting, no pulses, no reloads, and no changes on the 
+   * control line inputs.
+   * 
+   * @return true if the VIA is quiet; otherwise false.
+   */
+  private boolean isQuiet() {
+    return (!timer1Loaded && !timer2Loaded && !timer2Shift && !shiftRegisterWrite 
+        && !pb7DelayedPulseStart 
+        && ((ca2ControlMode != OUTPUT_MODE_PULSE) || (ca2PulseModeCount == 0))
+        && ((shiftRegisterMode == SHIFT_DISABLED) || ((interruptFlagRegister & SHIFT_SET) != 0))
+        && hasQuietControlInputs());
+  }
+  
+  /**
+   * Emulates the given number of quiet cycles in one go. Must only be used for cycles
+   * before the next event cycle.
+   * 
+   * @param cycles The number of cycles to skip.
+   */
+  public void skipCycles(int cycles) {
+    int cyclesToReload = ((timer1Counter + 1) & 0xFFFF);
+    if ((timer1Mode == ONE_SHOT) || (cycles <= cyclesToReload)) {
+      timer1Counter = ((timer1Counter - cycles) & 0xFFFF);
+    } else {
+      // Free running with quiet reloads. The counter goes from the latch value down 
+      // to 0xFFFF, then reloads, so it repeats every latch + 2 cycles.
+      int cyclesSinceReload = ((cycles - cyclesToReload - 1) % (timer1Latch + 2));
+      timer1Counter = ((timer1Latch - cyclesSinceReload) & 0xFFFF);
+    }
+    if (timer2Mode == ONE_SHOT) {
+      timer2Counter = ((timer2Counter - cycles) & 0xFFFF);
+    }
+  }
+  
+  /**
+   * Returns true if a free running timer 1 reload would not be visible outside of the
+   * chip, i.e. the T1 IFR flag is already set, the IRQ is not active, and PB7 isn't 
+   * being toggled.
+   * 
+   * @return true if a timer 1 reload would not be visible; otherwise false.
+   */
+  private boolean isTimer1ReloadQuiet() {
+    return (timer1HasShot && (timer1PB7Mode == 0) 
+        && ((interruptFlagRegister & TIMER1_SET) != 0)
+        && ((interruptFlagRegister & interruptEnableRegister & 0x7F) == 0));
+  }
+  
+  /**
+   * Template method for subclasses to say whether the CA1 and CB1 inputs will stay as 
+   * they are. The default implementation compares the current inputs with the last 
+   * values seen, so subclasses whose getCa1 or getCb1 have side effects must override
+   * this.
+   * 
+   * @return true if the CA1 and CB1 inputs are not about to change; otherwise false.
+   */
+  protected boolean hasQuietControlInputs() {
+    return ((getCa1() == ca1) && (getCb1() == cb1));
+  }
+  
   /**
    * Updates the state of the Port A pins based on the current values of the 
    * ORA and DDRA.
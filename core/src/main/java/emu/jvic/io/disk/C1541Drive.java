@@ -9,6 +9,8 @@ import emu.jvic.memory.Memory;
 import emu.jvic.memory.RamChip;
 import emu.jvic.memory.RomChip;
 import emu.jvic.memory.UnconnectedMemory;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * Emulates the Commodore 1541 disk drive. This is a whole machine in and of
@@ -21,6 +23,35 @@ import emu.jvic.memory.UnconnectedMemory;
  */
 public class C1541Drive {
 
+    /**
+     * The address of the start of the DOS main loop. When the DOS has nothing to do, it
+     * spins around this loop waiting for the ATN interrupt to set the command pending 
+     * flag.
+     */
+    private static final int IDLE_LOOP_ADDRESS = 0xEBFF;
+
+    /**
+     * The address of the JMP at the end of the DOS main loop.
+     */
+    private static final int IDLE_LOOP_JMP_ADDRESS = 0xEC9B;
+
+    /**
+     * Zero page flag that is set by the ATN interrupt handler when a command from the
+     * serial bus is pending.
+     */
+    private static final int ATN_PENDING_FLAG = 0x7C;
+
+    /**
+     * Counter used by the DOS main loop to blink the activity LED after an error.
+     */
+    private static final int ERROR_LED_BLINK_COUNTER = 0x026C;
+
+    /**
+     * Minimum number of cycles worth going to sleep for. Anything shorter than this
+     * costs more to set up than it saves.
+     */
+    private static final int MIN_SLEEP_CYCLES = 64;
+
     /**
      * The 6502 CPU that executes the DOS ROM code, controlling everything in the 1541.
      */
@@ -36,6 +67,11 @@ public class C1541Drive {
      */
     private Via6522 via2;
 
+    /**
+     * The memory of the 1541 disk drive.
+     */
+    private Memory memory;
+
     /**
      * Holds all of the data of the currently loaded .d64 disk image.
      */
@@ -132,6 +168,37 @@ public class C1541Drive {
      */
     private DiskImagePersistenceSession diskPersistenceSession;
 
+    /**
+     * The address of the DOS idle loop, or -1 if the DOS ROM isn't the one that we know
+     * the idle loop of, in which case the drive never sleeps.
+     */
+    private int idleLoopAddress;
+
+    /**
+     * Whether the drive is currently sleeping. The drive goes to sleep when the DOS is
+     * sitting in its idle loop with nothing to do. While asleep, the CPU and VIAs are
+     * not emulated. The cycles are instead counted, and the VIA timers are fast
+     * forwarded in one go when the drive wakes up.
+     */
+    private boolean sleeping;
+
+    /**
+     * The number of cycles that the drive has been asleep for.
+     */
+    private int sleepCycles;
+
+    /**
+     * The maximum number of cycles that the drive can sleep for, i.e. the number of
+     * cycles until the next VIA event, such as a timer interrupt.
+     */
+    private int maxSleepCycles;
+
+    /**
+     * The state of the serial bus lines when the drive went to sleep. Any change to
+     * these wakes the drive up.
+     */
+    private int sleepSerialLines;
+
     /**
      * Constructor for C1541Drive.
      * 
@@ -142,8 +209,9 @@ public class C1541Drive {
         cpu = new Cpu6502(null);
         via1 = createVia1();
         via2 = createVia2();
-        createMemory(cpu, via1, via2, dos1541Rom);
+        memory = createMemory(cpu, via1, via2, dos1541Rom);
         this.serialBus = serialBus;
+        idleLoopAddress = (isKnownIdleLoop(dos1541Rom)? IDLE_LOOP_ADDRESS : -1);
         cpu.reset();
     }
 
@@ -183,6 +251,8 @@ public class C1541Drive {
             DiskImagePersistenceSession diskPersistenceSession,
             boolean writeProtected) {
 
+        wakeUp();
+
         disk = new GcrDiskImage(diskData);
         this.diskPersistenceSession = diskPersistenceSession;
 
@@ -204,6 +274,7 @@ public class C1541Drive {
      * Acts as if the disk has been ejected.
      */
     public void ejectDisk() {
+        wakeUp();
         if (diskPersistenceSession != null) {
             diskPersistenceSession.close();
             diskPersistenceSession = null;
@@ -211,11 +282,132 @@ public class C1541Drive {
         disk = null;
     }
 
+    /**
+     * Returns true if there is a disk in the drive.
+     *
+     * @return true if there is a disk in the drive; otherwise false.
+     */
+    public boolean hasDisk() {
+        return (disk != null);
+    }
+
+    /**
+     * Gets the device that the drive pulls the serial bus lines down as, i.e. the VIA
+     * that handles the serial communication.
+     *
+     * @return The device that the drive pulls the serial bus lines down as.
+     */
+    public Object getSerialBusDevice() {
+        return via1;
+    }
+
+    /**
+     * Writes the state of the 1541 disk drive, including its CPU, VIAs, RAM, head
+     * position and the inserted disk, to the given StateWriter. The serial bus lines
+     * are saved separately by the machine that owns the bus.
+     *
+     * @param out The StateWriter to write the drive state to.
+     */
+    public void saveState(StateWriter out) {
+        cpu.saveState(out);
+        via1.saveState(out);
+        via2.saveState(out);
+        memory.saveState(out);
+
+        // Head and disk state.
+        out.writeBoolean(disk != null);
+        if (disk != null) {
+            disk.saveState(out);
+            out.writeInt(currentSector.trackNum);
+            out.writeInt(currentSector.sectorNum);
+        }
+        out.writeInt(currentTrack);
+        out.writeInt(currentSectorOffset);
+        out.writeInt(currentTrackSize);
+        out.writeInt(currentHalfTrack);
+        out.writeBoolean(diskModeWrite);
+        out.writeBoolean(lastSync);
+        out.writeInt(bytesWritten);
+        if ((disk != null) && (bytesWritten > 0)) {
+            // Writes to the current sector are only committed when the head leaves it.
+            out.writeBytes(currentSector.gcrData, 0, GcrDiskImage.GCR_SECTOR_SIZE);
+        }
+        out.writeInt(currentByte);
+        out.writeBoolean(byteReady);
+        out.writeBoolean(motorOn);
+        out.writeBoolean(writeProtected);
+        out.writeLong(nextMoveForward);
+        out.writeLong(totalElapsedCycles);
+
+        // Sleep state. The drive is left asleep, so that saving doesn't change the timing.
+        out.writeBoolean(sleeping);
+        out.writeInt(sleepCycles);
+        out.writeInt(maxSleepCycles);
+        out.writeInt(sleepSerialLines);
+    }
+
+    /**
+     * Restores the state of the 1541 disk drive from the given StateReader. If the
+     * state has a disk in the drive, then the same disk must already be inserted.
+     *
+     * @param in The StateReader to read the drive state from.
+     */
+    public void loadState(StateReader in) {
+        cpu.loadState(in);
+        via1.loadState(in);
+        via2.loadState(in);
+        memory.loadState(in);
+
+        // Head and disk state.
+        boolean hasDisk = in.readBoolean();
+        if (hasDisk) {
+            if (bytesWritten > 0) {
+                currentSector.discardWrites();
+            }
+            if (disk.loadState(in) && (diskPersistenceSession != null)) {
+                diskPersistenceSession.onDiskChanged(disk.copyRawImage());
+            }
+            currentSector = disk.getSector(in.readInt(), in.readInt());
+        }
+        currentTrack = in.readInt();
+        currentSectorOffset = in.readInt();
+        currentTrackSize = in.readInt();
+        currentHalfTrack = in.readInt();
+        diskModeWrite = in.readBoolean();
+        lastSync = in.readBoolean();
+        bytesWritten = in.readInt();
+        if (hasDisk && (bytesWritten > 0)) {
+            in.readBytes(currentSector.gcrData, 0, GcrDiskImage.GCR_SECTOR_SIZE);
+        }
+        currentByte = in.readInt();
+        byteReady = in.readBoolean();
+        motorOn = in.readBoolean();
+        writeProtected = in.readBoolean();
+        nextMoveForward = in.readLong();
+        totalElapsedCycles = in.readLong();
+
+        // Sleep state.
+        sleeping = in.readBoolean();
+        sleepCycles = in.readInt();
+        maxSleepCycles = in.readInt();
+        sleepSerialLines = in.readInt();
+    }
+
     /**
      * Emulates a single cycle of the 1541 disk drive.
      */
     public void emulateCycle() {
         if (disk != null) {
+            if (sleeping) {
+                if ((sleepCycles < maxSleepCycles) && (getSerialLines() == sleepSerialLines)) {
+                    // Still nothing for the drive to do.
+                    sleepCycles++;
+                    totalElapsedCycles++;
+                    return;
+                }
+                wakeUp();
+            }
+
             // CB2 of VIA#2 is used in Manual output mode and determines disk R/W mode (0 =
             // W, 1 = R)
             diskModeWrite = (via2.getCb2() == 0);
@@ -239,9 +431,72 @@ public class C1541Drive {
 
             // Increment total cycle count.
             totalElapsedCycles++;
+
+            // Check if the DOS has come back round to the start of its idle loop.
+            if (cpu.getProgramCounter() == idleLoopAddress) {
+                checkForSleep();
+            }
+        }
+    }
+
+    /**
+     * Puts the drive to sleep if the DOS has nothing to do, i.e. the motor is off, no
+     * command is pending, no error LED is blinking, and no interrupt is active. Each
+     * pass around the idle loop in that state does exactly the same thing, so the 
+     * drive can be paused there until either a serial line changes or one of the VIAs 
+     * has an event.
+     */
+    private void checkForSleep() {
+        if (!motorOn && (memory.peek(ATN_PENDING_FLAG) == 0) && (memory.peek(ERROR_LED_BLINK_COUNTER) == 0)
+                && (cpu.getInterruptStatus() == 0)) {
+            int cycles = Math.min(via1.getCyclesToNextEvent(), via2.getCyclesToNextEvent());
+            if (cycles >= MIN_SLEEP_CYCLES) {
+                sleeping = true;
+                sleepCycles = 0;
+                maxSleepCycles = cycles;
+                sleepSerialLines = getSerialLines();
+            }
         }
     }
 
+    /**
+     * Wakes the drive up, if it is sleeping, by fast forwarding the VIAs over the 
+     * cycles that were slept through.
+     */
+    private void wakeUp() {
+        if (sleeping) {
+            via1.skipCycles(sleepCycles);
+            via2.skipCycles(sleepCycles);
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Gets the current state of the serial bus lines as a bit mask.
+     * 
+     * @return The current state of the ATN, CLK and DATA lines.
+     */
+    private int getSerialLines() {
+        return ((serialBus.getAtn() ? 0x04 : 0x00) | (serialBus.getClock() ? 0x02 : 0x00)
+                | (serialBus.getData() ? 0x01 : 0x00));
+    }
+
+    /**
+     * Checks that the given DOS ROM ends its idle loop with the JMP back to the start
+     * of the loop that we expect, so that we know it is safe to sleep there.
+     * 
+     * @param dos1541Rom Byte array containing the DOS 1541 ROM.
+     * 
+     * @return true if the ROM has the known idle loop; otherwise false.
+     */
+    private boolean isKnownIdleLoop(byte[] dos1541Rom) {
+        int offset = IDLE_LOOP_JMP_ADDRESS - 0xC000;
+        return ((dos1541Rom != null) && (dos1541Rom.length == 0x4000)
+                && ((dos1541Rom[offset] & 0xFF) == 0x4C)
+                && ((dos1541Rom[offset + 1] & 0xFF) == (IDLE_LOOP_ADDRESS & 0xFF))
+                && ((dos1541Rom[offset + 2] & 0xFF) == (IDLE_LOOP_ADDRESS >> 8)));
+    }
+
     /**
      * Creates the memory of the 1541 disk drive.
      * 
@@ -290,12 +545,7 @@ public class C1541Drive {
                 mapChipToMemory(new RomChip(), 0x8000, 0xBFFF, 0x4000, dos1541Rom);
 
                 // Everything else is unmapped.
-                UnconnectedMemory unconnectedMemory = new UnconnectedMemory();
-                for (int address = 0; address <= 0xFFFF; address++) {
-                    if (memoryMap[address] == null) {
-                        memoryMap[address] = unconnectedMemory;
-                    }
-                }
+                mapChipToUnmappedMemory(new UnconnectedMemory());
             }
         };
     }
@@ -1,5 +1,8 @@
 package emu.jvic.io.disk;
 
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
 /**
  * This class represents a GCE encoded 1541 disk image. A 1541 disk stores the data 
  * using the Commodore GCR encoding scheme, but the .d64 disk image format contains
@@ -144,7 +147,18 @@ public class GcrDiskImage {
   /**
    * The original raw data from the .d64 disk image.
    */
-  private int[] rawImage;
+  private byte[] rawImage;
+  
+  /**
+   * A copy of the raw image as it was before the first write was committed to it, so
+   * that a save state from before the write can be restored. Null until then.
+   */
+  private byte[] originalImage;
+  
+  /**
+   * Whether any writes have been committed to the raw image.
+   */
+  private boolean modified;
   
   /**
    * Byte 1 of the disk ID, read from the BAM sector.
@@ -170,7 +184,8 @@ public class GcrDiskImage {
    * @param rawImage The raw unencoded .d64 disk image data to use.
    */
   public GcrDiskImage(byte[] rawImage) {
-    this.rawImage = convertByteArrayToIntArray(rawImage);
+    this.rawImage = new byte[rawImage.length];
+    System.arraycopy(rawImage, 0, this.rawImage, 0, rawImage.length);
     this.numOfTracks = 35;   // TODO: 40 track images.
     
     // Load all tracks. This is the raw data that is not GCR encoded. A d64
@@ -182,8 +197,8 @@ public class GcrDiskImage {
     
     // Read disk ID bytes from BAM sector. Needed for GCR encoding.
     Sector bam = allTracks[18][0];
-    this.diskID1 = bam.rawData[162];
-    this.diskID2 = bam.rawData[163];
+    this.diskID1 = (bam.rawData[162] & 0xFF);
+    this.diskID2 = (bam.rawData[163] & 0xFF);
     
     // Encode all tracks (uses disk ID bytes). We need to GCR encoded it so that 
     // the DOS gets the encoded data when it reads the sectors.
@@ -212,7 +227,7 @@ public class GcrDiskImage {
       sector.sectorNum = sectorNum;
       sector.sectorSize = 256;
       sector.rawDataOffset = trackStart + (sectorNum * 256);
-      sector.rawData = new int[256];
+      sector.rawData = new byte[256];
       System.arraycopy(rawImage, sector.rawDataOffset, sector.rawData, 0, 256);
       sectors[sector.sectorNum] = sector;
     }
@@ -232,21 +247,6 @@ public class GcrDiskImage {
     }
   }
   
-  /**
-   * Converts a byte array into an int array.
-   * 
-   * @param data The byte array to convert.
-   * 
-   * @return The int array.
-   */
-  private int[] convertByteArrayToIntArray(byte[] data) {
-    int[] convertedData = new int[data.length];
-    for (int i=0; i<data.length; i++) {
-      convertedData[i] = ((int)data[i]) & 0xFF;
-    }
-    return convertedData;
-  }
-  
   /**
    * Builds the Commodore GCR encoded data for a sector. We need to do this because the .d64
    * disk image is already decoded, but the DOS ROM code expects the data to be GCR encoded.
@@ -257,8 +257,8 @@ public class GcrDiskImage {
    * 
    * @return The GCR encoded sector data.
    */
-  private int[] buildGCRSectorData(int track, int sector, int[] rawData) {
-    int[] gcrData = new int[GCR_SECTOR_SIZE];
+  private byte[] buildGCRSectorData(int track, int sector, byte[] rawData) {
+    byte[] gcrData = new byte[GCR_SECTOR_SIZE];
     int pos = 0;
     int checkSum = 0;
 
@@ -268,7 +268,7 @@ public class GcrDiskImage {
     
     //       5           Sync Character (DOS writes out 5 0xFF chars, but only 2 is strictly needed)
     for (int i = 0; i < 5; i++) {
-      gcrData[pos++] = 0xff;
+      gcrData[pos++] = (byte) 0xff;
     }
     //       1           Header Block Identifier ($08)
     //       1           Header Block Checksum: The checksum is the XOR of C, S, T and ID
@@ -290,7 +290,7 @@ public class GcrDiskImage {
     
     //       -           Sync Character (not GCR encoded)
     for (int i = 0; i < 5; i++) {
-      gcrData[pos++] = 0xff;
+      gcrData[pos++] = (byte) 0xff;
     }
     
     //       1           Data Block Identifier ($07)
@@ -352,10 +352,10 @@ public class GcrDiskImage {
    * 
    * @return The checksum value for the 4 bytes.
    */
-  private int gcrEncode4Bytes(int[] gcrEncodedData, int pos, int b1, int b2, int b3, int b4) {
+  private int gcrEncode4Bytes(byte[] gcrEncodedData, int pos, int b1, int b2, int b3, int b4) {
     long gcrCodes = (gcrEncode(b1) << 30) | (gcrEncode(b2) << 20) | (gcrEncode(b3) << 10) | gcrEncode(b4);
     for (int i = 0, bits = 32; i < 5; i++, bits -= 8) {
-      gcrEncodedData[pos++] = (int)((gcrCodes >> bits) & 0xff);
+      gcrEncodedData[pos++] = (byte)((gcrCodes >> bits) & 0xff);
     }
     return (b1 ^ b2 ^ b3 ^ b4);
   }
@@ -368,7 +368,7 @@ public class GcrDiskImage {
    * 
    * @return The 4 decoded bytes.
    */
-  private int[] gcrDecode4Bytes(int[] gcrEncodedData, int pos) {
+  private int[] gcrDecode4Bytes(byte[] gcrEncodedData, int pos) {
     long gcrCodes = 0;
     int[] decodedBytes = new int[4];
 
@@ -415,12 +415,56 @@ public class GcrDiskImage {
    */
   public byte[] copyRawImage() {
     byte[] copy = new byte[rawImage.length];
-    for (int i = 0; i < rawImage.length; i++) {
-      copy[i] = (byte)(rawImage[i] & 0xff);
-    }
+    System.arraycopy(rawImage, 0, copy, 0, rawImage.length);
     return copy;
   }
   
+  /**
+   * Writes the state of the disk image to the given StateWriter. The raw image is only 
+   * written if it has been written to, since otherwise it is the same as the image that
+   * was inserted.
+   * 
+   * @param out The StateWriter to write the disk image state to.
+   */
+  public void saveState(StateWriter out) {
+    out.writeBoolean(modified);
+    if (modified) {
+      out.writeBytes(rawImage, 0, rawImage.length);
+    }
+  }
+  
+  /**
+   * Restores the state of the disk image from the given StateReader. This disk image 
+   * must have been created from the same .d64 image as the one the state was saved from.
+   * Only the sectors whose data has changed are GCR encoded again.
+   * 
+   * @param in The StateReader to read the disk image state from.
+   * 
+   * @return true if the content of the disk image was changed; otherwise false.
+   */
+  public boolean loadState(StateReader in) {
+    if (in.readBoolean()) {
+      if (!modified) {
+        originalImage = copyRawImage();
+        modified = true;
+      }
+      in.readBytes(rawImage, 0, rawImage.length);
+    } else if (modified) {
+      System.arraycopy(originalImage, 0, rawImage, 0, rawImage.length);
+      modified = false;
+    } else {
+      return false;
+    }
+    
+    boolean changed = false;
+    for (int track=1; track <= numOfTracks; track++) {
+      for (Sector sector : allTracks[track]) {
+        changed |= sector.reloadRawData();
+      }
+    }
+    return changed;
+  }
+  
   /**
    * This class represents a Sector within the GCR disk image. It stores details such as the
    * absolute sector num, offset of the data for the sector, and the track where  the sector 
@@ -433,9 +477,9 @@ public class GcrDiskImage {
     int trackNum;       // This is the track that the sector is on.
     int sectorNum;      // This is the sector number within the track.
     int sectorSize;     // Should be the same for every sector on the disk. Raw unencoded sector size.
-    int[] rawData;      // The unencoded raw data from the .d64 disk image.
+    byte[] rawData;     // The unencoded raw data from the .d64 disk image.
     int rawDataOffset;  // Offset to the start of the sector within the raw image data.
-    int[] gcrData;      // GCR encoded data for the sector.
+    byte[] gcrData;     // GCR encoded data for the sector.
     
     /**
      * Reads a byte from this Sector from the given position. The position is an index into
@@ -446,7 +490,7 @@ public class GcrDiskImage {
      * @return The byte from the given sector position in this Sector.
      */
     public int read(int sectorPos) {
-      int value = gcrData[sectorPos];
+      int value = (gcrData[sectorPos] & 0xFF);
       return value;
     }
 
@@ -460,23 +504,52 @@ public class GcrDiskImage {
 
       int[] firstDecodedBytes = gcrDecode4Bytes(gcrData, DATA_BLOCK_OFFSET);
       for (int i = 1; i < 4; i++) {
-        rawData[rawDataPos++] = firstDecodedBytes[i];
+        rawData[rawDataPos++] = (byte) firstDecodedBytes[i];
       }
 
       for (int pos = DATA_BLOCK_OFFSET + 5; pos < (DATA_BLOCK_OFFSET + DATA_BLOCK_LENGTH - 5); pos += 5) {
         int[] decodedBytes = gcrDecode4Bytes(gcrData, pos);
         for (int i = 0; i < 4; i++) {
-          rawData[rawDataPos++] = decodedBytes[i];
+          rawData[rawDataPos++] = (byte) decodedBytes[i];
         }
       }
 
       int[] finalDecodedBytes = gcrDecode4Bytes(gcrData, DATA_BLOCK_OFFSET + DATA_BLOCK_LENGTH - 5);
-      rawData[rawDataPos++] = finalDecodedBytes[0];
+      rawData[rawDataPos++] = (byte) finalDecodedBytes[0];
 
+      if (!modified) {
+        originalImage = copyRawImage();
+        modified = true;
+      }
       System.arraycopy(rawData, 0, rawImage, rawDataOffset, sectorSize);
       gcrData = buildGCRSectorData(trackNum, sectorNum, rawData);
     }
 
+    /**
+     * Throws away any writes to the GCR data that have not been committed, by GCR 
+     * encoding the raw sector bytes again.
+     */
+    public void discardWrites() {
+      gcrData = buildGCRSectorData(trackNum, sectorNum, rawData);
+    }
+
+    /**
+     * Reloads the raw sector bytes from the raw disk image, and GCR encodes them again
+     * if they have changed.
+     * 
+     * @return true if the raw sector bytes had changed; otherwise false.
+     */
+    boolean reloadRawData() {
+      for (int i = 0; i < sectorSize; i++) {
+        if (rawData[i] != rawImage[rawDataOffset + i]) {
+          System.arraycopy(rawImage, rawDataOffset, rawData, 0, sectorSize);
+          gcrData = buildGCRSectorData(trackNum, sectorNum, rawData);
+          return true;
+        }
+      }
+      return false;
+    }
+
     /**
      * Writes a byte to the given position of this Sector. The position is an index into 
      * the GCR encoded sector data.
@@ -486,7 +559,7 @@ public class GcrDiskImage {
      */
     public void write(int sectorPos, int data) {
       // TODO: This is just updating an array in memory. Need to add writing back to disk at some point.
-      gcrData[sectorPos] = data;
+      gcrData[sectorPos] = (byte) data;
     }
   }
 }
\ No newline at end of file
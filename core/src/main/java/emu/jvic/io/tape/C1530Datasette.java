@@ -1,5 +1,8 @@
 package emu.jvic.io.tape;
 
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
 /**
  * Emulates the Commodore 1530 datasette (tape drive). Currently, this is only a very
  * simple emulation, providing only what is needed to read a .TAP file, for the purposes
@@ -94,6 +97,54 @@ public class C1530Datasette {
         tape = null;
     }
 
+    /**
+     * Returns true if there is a tape in the datasette.
+     * 
+     * @return true if there is a tape in the datasette; otherwise false.
+     */
+    public boolean hasTape() {
+        return (tape != null);
+    }
+    
+    /**
+     * Writes the state of the datasette, and the position within the inserted tape, to
+     * the given StateWriter.
+     * 
+     * @param out The StateWriter to write the datasette state to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeBoolean(motorOn);
+        out.writeInt(motorTimeToLive);
+        out.writeBoolean(cassetteSwitchSense);
+        out.writeBoolean(cassetteMotorControl);
+        out.writeInt(stepSpeed);
+        out.writeInt(currentTime);
+        out.writeInt(timeOfNextPulse);
+        out.writeBoolean(tape != null);
+        if (tape != null) {
+            tape.saveState(out);
+        }
+    }
+    
+    /**
+     * Restores the state of the datasette from the given StateReader. If the state has
+     * a tape in the datasette, then the same tape must already be inserted.
+     * 
+     * @param in The StateReader to read the datasette state from.
+     */
+    public void loadState(StateReader in) {
+        motorOn = in.readBoolean();
+        motorTimeToLive = in.readInt();
+        cassetteSwitchSense = in.readBoolean();
+        cassetteMotorControl = in.readBoolean();
+        stepSpeed = in.readInt();
+        currentTime = in.readInt();
+        timeOfNextPulse = in.readInt();
+        if (in.readBoolean()) {
+            tape.loadState(in);
+        }
+    }
+    
     /**
      * Returns true if the motor is currently on; otherwise false.
      * 
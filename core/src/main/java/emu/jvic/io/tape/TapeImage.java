@@ -1,5 +1,8 @@
 package emu.jvic.io.tape;
 
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
 /**
  * This class holds the data for a .TAP image file.
  */
@@ -76,6 +79,26 @@ public class TapeImage {
         position = 0;
     }
     
+    /**
+     * Writes the position within the tape data to the given StateWriter.
+     * 
+     * @param out The StateWriter to write the tape position to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(position);
+        out.writeBoolean(endOfInput);
+    }
+    
+    /**
+     * Restores the position within the tape data from the given StateReader.
+     * 
+     * @param in The StateReader to read the tape position from.
+     */
+    public void loadState(StateReader in) {
+        position = in.readInt();
+        endOfInput = in.readBoolean();
+    }
+    
     /**
      * Returns whether the end of the tape data has been reached.
      * 
@@ -1,28 +1,56 @@
 package emu.jvic.memory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import emu.jvic.cpu.Cpu6502;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * This class emulates the memory of a 6502 machine.
  * 
+ * The chips are mapped into memory using a table of 256 pages. Most pages have the 
+ * same chip at every address, in which case the page table holds that chip and the
+ * page flags of the chip say whether the page can be read or written directly from
+ * the mem array. Only pages that are shared by more than one chip, such as the I/O 
+ * area, keep a separate chip for each address.
+ * 
  * @author Lance Ewing
  */
 public class Memory {
 
     /**
-     * Holds the machines memory.
+     * Holds the machines memory, one byte per address.
+     */
+    protected byte mem[];
+
+    /**
+     * Holds the chip mapped to each 256 byte page of memory, or null if the page is
+     * shared by more than one chip.
+     */
+    protected MemoryMappedChip pageChips[];
+
+    /**
+     * Holds the chip mapped to each address for pages that are shared by more than
+     * one chip. This is null for every other page.
+     */
+    protected MemoryMappedChip pageMaps[][];
+
+    /**
+     * Holds the page flags for each page, i.e. whether the page can be read from or 
+     * written to directly. Pages shared by more than one chip always have no flags 
+     * set, so that accesses are dispatched to the chip at the address.
      */
-    protected int mem[];
+    protected byte pageFlags[];
 
     /**
-     * Holds an array of references to instances of MemoryMappedChip where each
-     * instance determines the behaviour of reading or writing to the given memory
-     * address.
+     * Holds the bus access mode of the chip mapped to each page, so that the CPU can
+     * quickly tell whether an address can be accessed outside of its normal cycle by
+     * cycle emulation. Pages shared by more than one chip are treated as I/O.
      */
-    protected MemoryMappedChip memoryMap[];
+    protected byte busAccessModes[];
 
     /**
      * Holds reference to the CPU, mainly to get access to data bus buffer.
@@ -51,11 +79,14 @@ public class Memory {
      */
     public Memory(Cpu6502 cpu, Snapshot snapshot, boolean allRam) {
         if (snapshot != null) {
-            this.mem = snapshot.getMemoryArray();
+            this.mem = convertIntArrayToByteArray(snapshot.getMemoryArray());
         } else {
-            this.mem = new int[65536];
+            this.mem = new byte[65536];
         }
-        this.memoryMap = new MemoryMappedChip[65536];
+        this.pageChips = new MemoryMappedChip[256];
+        this.pageMaps = new MemoryMappedChip[256][];
+        this.pageFlags = new byte[256];
+        this.busAccessModes = new byte[256];
         this.cpu = cpu;
         cpu.setMemory(this);
         if (allRam) {
@@ -121,17 +152,83 @@ public class Memory {
         for (int mirrorBase : mirrorBases) {
             statePos = 0;
             for (int i = startAddress; i <= endAddress; i++) {
-                memoryMap[mirrorBase + i] = chip;
+                mapChipToAddress(chip, mirrorBase + i);
                 if (state != null) {
                     // Load the initial state into memory if provided. Only works for ROM.
-                    mem[mirrorBase + i] = (state[statePos++] & 0xFF);
+                    mem[mirrorBase + i] = state[statePos++];
                 }
             }
+            updatePages((mirrorBase + startAddress) >> 8, (mirrorBase + endAddress) >> 8);
         }
 
         chip.setMemory(this);
     }
 
+    /**
+     * Maps the given chip to every address that doesn't yet have a chip mapped to it.
+     * 
+     * @param chip The chip to map to the unmapped addresses.
+     */
+    protected void mapChipToUnmappedMemory(MemoryMappedChip chip) {
+        for (int address = 0; address <= 0xFFFF; address++) {
+            if (getChip(address) == null) {
+                mapChipToAddress(chip, address);
+            }
+        }
+        updatePages(0x00, 0xFF);
+        chip.setMemory(this);
+    }
+
+    /**
+     * Maps the given chip to a single address. The page that the address is in must
+     * be updated with updatePages once all addresses have been mapped.
+     * 
+     * @param chip    The chip to map.
+     * @param address The address to map the chip to.
+     */
+    private void mapChipToAddress(MemoryMappedChip chip, int address) {
+        int page = (address >> 8);
+        MemoryMappedChip[] pageMap = pageMaps[page];
+        if (pageMap == null) {
+            if (pageChips[page] == chip) {
+                return;
+            }
+            // Page needs to be split up into individual addresses.
+            pageMap = pageMaps[page] = new MemoryMappedChip[256];
+            Arrays.fill(pageMap, pageChips[page]);
+        }
+        pageMap[address & 0xFF] = chip;
+    }
+
+    /**
+     * Updates the page table entries for the given range of pages. Any page that has 
+     * ended up with the same chip at every address is collapsed back into a single
+     * entry, which allows its page flags to be used.
+     * 
+     * @param startPage The first page to update.
+     * @param endPage   The last page to update.
+     */
+    private void updatePages(int startPage, int endPage) {
+        for (int page = startPage; page <= endPage; page++) {
+            MemoryMappedChip[] pageMap = pageMaps[page];
+            if (pageMap != null) {
+                MemoryMappedChip chip = pageMap[0];
+                for (int i = 1; (i < 256) && (chip != null); i++) {
+                    if (pageMap[i] != chip) {
+                        chip = null;
+                    }
+                }
+                pageChips[page] = chip;
+                if (chip != null) {
+                    pageMaps[page] = null;
+                }
+            }
+            MemoryMappedChip chip = pageChips[page];
+            pageFlags[page] = (byte) (chip != null ? chip.getPageFlags() : 0);
+            busAccessModes[page] = (byte) (chip != null ? chip.getBusAccessMode() : MemoryMappedChip.BUS_ACCESS_IO);
+        }
+    }
+
     /**
      * Builds a List of mirror base addresses for the given mirror mask.
      * 
@@ -152,11 +249,12 @@ public class Memory {
     }
 
     /**
-     * Gets the int array that represents the VIC 20s memory.
+     * Gets the byte array that represents the VIC 20s memory. This is intended for
+     * the chips. Everything else should use peek and poke.
      * 
-     * @return an int array represents the VIC 20 memory.
+     * @return a byte array that represents the VIC 20 memory.
      */
-    public int[] getMemoryArray() {
+    public byte[] getMemoryArray() {
         return mem;
     }
 
@@ -178,12 +276,24 @@ public class Memory {
     }
 
     /**
-     * Gets the array of memory mapped devices.
+     * Gets the chip that is mapped to the given address.
      * 
-     * @return The array of memory mapped devices.
+     * @param address The address to get the chip for.
+     * 
+     * @return The chip mapped to the address, or null if nothing is mapped there.
      */
-    public MemoryMappedChip[] getMemoryMap() {
-        return memoryMap;
+    public MemoryMappedChip getChip(int address) {
+        MemoryMappedChip[] pageMap = pageMaps[address >> 8];
+        return (pageMap != null ? pageMap[address & 0xFF] : pageChips[address >> 8]);
+    }
+
+    /**
+     * Gets the bus access mode of the chip mapped to each page of memory.
+     * 
+     * @return The array of bus access modes, one for each 256 byte page.
+     */
+    public byte[] getBusAccessModes() {
+        return busAccessModes;
     }
 
     /**
@@ -194,7 +304,17 @@ public class Memory {
      * @return The contents of the memory address.
      */
     public int readMemory(int address) {
-        return memoryMap[address].readMemory(address);
+        int page = (address >> 8);
+        int flags = pageFlags[page];
+        if ((flags & MemoryMappedChip.PAGE_READ) != 0) {
+            int value = (mem[address] & 0xFF);
+            if ((flags & MemoryMappedChip.PAGE_BUS_DATA) != 0) {
+                lastBusData = value;
+            }
+            return value;
+        }
+        MemoryMappedChip[] pageMap = pageMaps[page];
+        return (pageMap != null ? pageMap[address & 0xFF] : pageChips[page]).readMemory(address);
     }
 
     /**
@@ -204,7 +324,19 @@ public class Memory {
      * @param value   The value to write to the given address.
      */
     public void writeMemory(int address, int value) {
-        memoryMap[address].writeMemory(address, value);
+        int page = (address >> 8);
+        int flags = pageFlags[page];
+        if ((flags & MemoryMappedChip.PAGE_WRITE) != 0) {
+            if ((flags & MemoryMappedChip.PAGE_WRITE_IGNORED) == 0) {
+                mem[address] = (byte) value;
+            }
+            if ((flags & MemoryMappedChip.PAGE_BUS_DATA) != 0) {
+                lastBusData = value;
+            }
+            return;
+        }
+        MemoryMappedChip[] pageMap = pageMaps[page];
+        (pageMap != null ? pageMap[address & 0xFF] : pageChips[page]).writeMemory(address, value);
     }
 
     /**
@@ -215,20 +347,75 @@ public class Memory {
      * @param value   The value to write to the given address.
      */
     public void forceWrite(int address, int value) {
-        mem[address] = value;
+        mem[address] = (byte) value;
+    }
+
+    /**
+     * Reads the value stored at the given address, without the side effects of a real
+     * memory access, i.e. no chip is called and the bus is left as it is.
+     * 
+     * @param address The address to read the value of.
+     * 
+     * @return The value stored at the address.
+     */
+    public int peek(int address) {
+        return (mem[address] & 0xFF);
+    }
+
+    /**
+     * Stores the value at the given address, without the side effects of a real memory
+     * access. This is intended for things such as pushing characters into the keyboard
+     * buffer.
+     * 
+     * @param address The address to store the value at.
+     * @param value   The value to store.
+     */
+    public void poke(int address, int value) {
+        mem[address] = (byte) value;
+    }
+
+    /**
+     * Writes the contents of memory to the given StateWriter. Pages that can't be
+     * written to, such as the ROMs, are skipped, since they will already hold the same
+     * data in the Memory that the state is loaded into.
+     *
+     * @param out The StateWriter to write the memory contents to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(lastBusData);
+        for (int page = 0; page < 256; page++) {
+            if ((pageFlags[page] & MemoryMappedChip.PAGE_WRITE_IGNORED) == 0) {
+                out.writeBytes(mem, page << 8, 256);
+            }
+        }
+    }
+
+    /**
+     * Restores the contents of memory from the given StateReader. This Memory must
+     * have the same memory map as the Memory that the state was saved from.
+     *
+     * @param in The StateReader to read the memory contents from.
+     */
+    public void loadState(StateReader in) {
+        lastBusData = in.readInt();
+        for (int page = 0; page < 256; page++) {
+            if ((pageFlags[page] & MemoryMappedChip.PAGE_WRITE_IGNORED) == 0) {
+                in.readBytes(mem, page << 8, 256);
+            }
+        }
     }
 
     /**
-     * Converts a byte array into an int array.
+     * Converts an int array, such as the memory of a snapshot, into a byte array.
      * 
-     * @param data The byte array to convert.
+     * @param data The int array to convert.
      * 
-     * @return The int array.
+     * @return The byte array.
      */
-    protected int[] convertByteArrayToIntArray(byte[] data) {
-        int[] convertedData = new int[data.length];
+    protected byte[] convertIntArrayToByteArray(int[] data) {
+        byte[] convertedData = new byte[data.length];
         for (int i = 0; i < data.length; i++) {
-            convertedData[i] = ((int) data[i]) & 0xFF;
+            convertedData[i] = (byte) data[i];
         }
         return convertedData;
     }
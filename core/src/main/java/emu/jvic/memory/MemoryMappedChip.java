@@ -1,6 +1,7 @@
 package emu.jvic.memory;
 
 import emu.jvic.BaseChip;
+import emu.jvic.ChipScheduler;
 
 /**
  * This interface is used by chips that are memory mapped, such as RAM
@@ -10,6 +11,63 @@ import emu.jvic.BaseChip;
  */
 public abstract class MemoryMappedChip extends BaseChip {
 
+    /**
+     * Bus access mode for chips where a read or write can have side effects, such as
+     * the I/O chips. These must be accessed on the exact cycle by the CPU.
+     */
+    public static final int BUS_ACCESS_IO = 0;
+
+    /**
+     * Bus access mode for memory that the CPU can read directly from the mem array,
+     * but which the VIC chip can also see, either by fetching from it or via the last
+     * data left on the bus. The CPU can read these early, but the access itself still
+     * needs to happen on the exact cycle.
+     */
+    public static final int BUS_ACCESS_SHARED = 1;
+
+    /**
+     * Bus access mode for memory that only the CPU can see, and that can be read
+     * directly from the mem array, i.e. plain RAM and ROM. The CPU can access these at
+     * any point during an instruction.
+     */
+    public static final int BUS_ACCESS_PLAIN = 2;
+
+    /**
+     * Page flag that says reads can come directly from the mem array.
+     */
+    public static final int PAGE_READ = 0x01;
+
+    /**
+     * Page flag that says writes can be handled directly by Memory, i.e. they go 
+     * directly into the mem array, unless PAGE_WRITE_IGNORED is also set.
+     */
+    public static final int PAGE_WRITE = 0x02;
+
+    /**
+     * Page flag that says writes have no effect on the mem array, i.e. ROM.
+     */
+    public static final int PAGE_WRITE_IGNORED = 0x04;
+
+    /**
+     * Page flag that says the data of each read and write is left on the VIC bus.
+     */
+    public static final int PAGE_BUS_DATA = 0x08;
+
+    /**
+     * The scheduler to sync with before a register access, if this chip is lazily 
+     * emulated, or shares state with a chip that is. Null otherwise.
+     */
+    protected ChipScheduler scheduler;
+    
+    /**
+     * Sets the ChipScheduler that this chip should sync with before a register access.
+     * 
+     * @param scheduler The ChipScheduler to sync with.
+     */
+    public void setScheduler(ChipScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     /**
      * Reads the value of the given memory address.
      *
@@ -26,4 +84,25 @@ public abstract class MemoryMappedChip extends BaseChip {
      * @param value the value to write to the given address.
      */
     public abstract void writeMemory(int address, int value);
+
+    /**
+     * Gets the bus access mode of this chip, which tells the CPU whether it can access
+     * this chip outside of its normal cycle by cycle emulation.
+     *
+     * @return One of the BUS_ACCESS constants.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_IO;
+    }
+
+    /**
+     * Gets the page flags of this chip, which tell Memory which accesses it can handle
+     * directly rather than calling the chip. The default is to call the chip for every
+     * access.
+     *
+     * @return A combination of the PAGE flag constants.
+     */
+    public int getPageFlags() {
+        return 0;
+    }
 }
@@ -15,7 +15,7 @@ public class NibbleRamChip extends MemoryMappedChip {
      * @return the contents of the memory address.
      */
     public int readMemory(int address) {
-        int value = mem[address];
+        int value = (mem[address] & 0xFF);
         memory.setLastBusData(value);
         return value;
     }
@@ -28,6 +28,26 @@ public class NibbleRamChip extends MemoryMappedChip {
      */
     public void writeMemory(int address, int value) {
         memory.setLastBusData(value);
-        mem[address] = (value & 0x0F);
+        mem[address] = (byte) (value & 0x0F);
+    }
+
+    /**
+     * Gets the bus access mode of this chip. The VIC chip can see this memory, so the
+     * CPU's accesses must still happen on the exact cycle.
+     *
+     * @return The bus access mode of this chip.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_SHARED;
+    }
+
+    /**
+     * Gets the page flags of this chip. Writes have to go to the chip, as only the bottom
+     * four bits are stored.
+     *
+     * @return The page flags of this chip.
+     */
+    public int getPageFlags() {
+        return (PAGE_READ | PAGE_BUS_DATA);
     }
 }
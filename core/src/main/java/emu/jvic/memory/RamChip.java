@@ -15,7 +15,7 @@ public class RamChip extends MemoryMappedChip {
      * @return the contents of the memory address.
      */
     public int readMemory(int address) {
-        return mem[address];
+        return (mem[address] & 0xFF);
     }
 
     /**
@@ -25,6 +25,24 @@ public class RamChip extends MemoryMappedChip {
      * @param value   the value to write to the given address.
      */
     public void writeMemory(int address, int value) {
-        mem[address] = value;
+        mem[address] = (byte) value;
+    }
+
+    /**
+     * Gets the bus access mode of this chip.
+     *
+     * @return The bus access mode of this chip.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_PLAIN;
+    }
+
+    /**
+     * Gets the page flags of this chip.
+     *
+     * @return The page flags of this chip.
+     */
+    public int getPageFlags() {
+        return (PAGE_READ | PAGE_WRITE);
     }
 }
@@ -15,7 +15,7 @@ public class RomChip extends MemoryMappedChip {
      * @return the contents of the memory address.
      */
     public int readMemory(int address) {
-        return mem[address];
+        return (mem[address] & 0xFF);
     }
 
     /**
@@ -27,4 +27,22 @@ public class RomChip extends MemoryMappedChip {
     public void writeMemory(int address, int value) {
         // Has no effect.
     }
+
+    /**
+     * Gets the bus access mode of this chip.
+     *
+     * @return The bus access mode of this chip.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_PLAIN;
+    }
+
+    /**
+     * Gets the page flags of this chip.
+     *
+     * @return The page flags of this chip.
+     */
+    public int getPageFlags() {
+        return (PAGE_READ | PAGE_WRITE | PAGE_WRITE_IGNORED);
+    }
 }
@@ -257,14 +257,14 @@ public class Vic20Memory extends Memory {
             public Queue<char[]> call() {
                 // Start by loading the program data in to the VIC 20's memory.
                 for (int i = 2; i < programData.length; i++) {
-                    mem[startAddress + (i - 2)] = (programData[i] & 0xFF);
+                    mem[startAddress + (i - 2)] = programData[i];
                 }
 
                 // We now need to adjust the BASIC pointers to simulate a BASIC program load.
-                mem[0x2b] = mem[0xac] = (startAddress & 0xff);
-                mem[0x2c] = mem[0xad] = (startAddress >> 8);
-                mem[0x2d] = mem[0x2f] = mem[0x31] = mem[0xae] = (endAddress & 0xff);
-                mem[0x2e] = mem[0x30] = mem[0x32] = mem[0xaf] = (endAddress >> 8);
+                mem[0x2b] = mem[0xac] = (byte) (startAddress & 0xff);
+                mem[0x2c] = mem[0xad] = (byte) (startAddress >> 8);
+                mem[0x2d] = mem[0x2f] = mem[0x31] = mem[0xae] = (byte) (endAddress & 0xff);
+                mem[0x2e] = mem[0x30] = mem[0x32] = mem[0xaf] = (byte) (endAddress >> 8);
                 
                 // Add RUN command to the autorun cmd queue.
                 Queue<char[]> autoRunCmds = new LinkedList<char[]>();
@@ -15,7 +15,7 @@ public class VicBusRamChip extends RamChip {
      * @return the contents of the memory address.
      */
     public int readMemory(int address) {
-        int value = mem[address];
+        int value = (mem[address] & 0xFF);
         memory.setLastBusData(value);
         return value;
     }
@@ -27,7 +27,26 @@ public class VicBusRamChip extends RamChip {
      * @param value   the value to write to the given address.
      */
     public void writeMemory(int address, int value) {
-        mem[address] = value;
+        mem[address] = (byte) value;
         memory.setLastBusData(value);
     }
+
+    /**
+     * Gets the bus access mode of this chip. The VIC chip can see this memory, so the
+     * CPU's accesses must still happen on the exact cycle.
+     *
+     * @return The bus access mode of this chip.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_SHARED;
+    }
+
+    /**
+     * Gets the page flags of this chip. Accesses leave their data on the VIC bus.
+     *
+     * @return The page flags of this chip.
+     */
+    public int getPageFlags() {
+        return (PAGE_READ | PAGE_WRITE | PAGE_BUS_DATA);
+    }
 }
@@ -15,7 +15,7 @@ public class VicBusRomChip extends RomChip {
      * @return the contents of the memory address.
      */
     public int readMemory(int address) {
-        int value = mem[address];
+        int value = (mem[address] & 0xFF);
         memory.setLastBusData(value);
         return value;
     }
@@ -30,4 +30,23 @@ public class VicBusRomChip extends RomChip {
         // Has no effect.
         memory.setLastBusData(value);
     }
+
+    /**
+     * Gets the bus access mode of this chip. The VIC chip can see this memory, so the
+     * CPU's accesses must still happen on the exact cycle.
+     *
+     * @return The bus access mode of this chip.
+     */
+    public int getBusAccessMode() {
+        return BUS_ACCESS_SHARED;
+    }
+
+    /**
+     * Gets the page flags of this chip. Accesses leave their data on the VIC bus.
+     *
+     * @return The page flags of this chip.
+     */
+    public int getPageFlags() {
+        return (PAGE_READ | PAGE_WRITE | PAGE_WRITE_IGNORED | PAGE_BUS_DATA);
+    }
 }
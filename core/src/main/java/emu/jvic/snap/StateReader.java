@@ -0,0 +1,150 @@
+package emu.jvic.snap;
+
+/**
+ * Reads the native JVic save state format written by the StateWriter. The values
+ * must be read back in exactly the same order that they were written.
+ *
+ * @author Lance Ewing
+ */
+public class StateReader {
+
+    /**
+     * Holds the state data being read.
+     */
+    private byte[] data;
+
+    /**
+     * The number of valid bytes in the data array.
+     */
+    private int size;
+
+    /**
+     * The position of the next byte to read.
+     */
+    private int position;
+
+    /**
+     * Constructor for StateReader.
+     *
+     * @param data The state data to read.
+     */
+    public StateReader(byte[] data) {
+        this(data, data.length);
+    }
+
+    /**
+     * Constructor for StateReader.
+     *
+     * @param data The state data to read.
+     * @param size The number of valid bytes in the data array.
+     */
+    public StateReader(byte[] data, int size) {
+        reset(data, size);
+    }
+
+    /**
+     * Points this reader at new state data, so that the reader can be reused without
+     * allocating a new one.
+     *
+     * @param data The state data to read.
+     * @param size The number of valid bytes in the data array.
+     */
+    public void reset(byte[] data, int size) {
+        this.data = data;
+        this.size = size;
+        this.position = 0;
+    }
+
+    /**
+     * Reads an unsigned 8 bit value.
+     *
+     * @return The value read, in the range 0-255.
+     */
+    public int readByte() {
+        return (data[position++] & 0xFF);
+    }
+
+    /**
+     * Reads a boolean value stored as a single byte.
+     *
+     * @return The value read.
+     */
+    public boolean readBoolean() {
+        return (data[position++] != 0);
+    }
+
+    /**
+     * Reads a 32 bit int value.
+     *
+     * @return The value read.
+     */
+    public int readInt() {
+        int value = ((data[position] & 0xFF) << 24) |
+                    ((data[position + 1] & 0xFF) << 16) |
+                    ((data[position + 2] & 0xFF) << 8) |
+                    (data[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    /**
+     * Reads a 64 bit long value.
+     *
+     * @return The value read.
+     */
+    public long readLong() {
+        long high = readInt();
+        long low = readInt() & 0xFFFFFFFFL;
+        return ((high << 32) | low);
+    }
+
+    /**
+     * Reads bytes into the given range of a byte array.
+     *
+     * @param bytes The byte array to read into.
+     * @param offset The offset of the first byte to read into.
+     * @param length The number of bytes to read.
+     */
+    public void readBytes(byte[] bytes, int offset, int length) {
+        System.arraycopy(data, position, bytes, offset, length);
+        position += length;
+    }
+
+    /**
+     * Reads values into every element of the given int array.
+     *
+     * @param values The int array to read into.
+     */
+    public void readInts(int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readInt();
+        }
+    }
+
+    /**
+     * Skips over the given number of bytes.
+     *
+     * @param count The number of bytes to skip.
+     */
+    public void skip(int count) {
+        position += count;
+    }
+
+    /**
+     * Returns true if there is any state data left to read.
+     *
+     * @return true if there is any state data left to read; otherwise false.
+     */
+    public boolean hasRemaining() {
+        return (position < size);
+    }
+
+    /**
+     * Returns the position of the next byte to read.
+     *
+     * @return The position of the next byte to read.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
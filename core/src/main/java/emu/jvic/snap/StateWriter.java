@@ -0,0 +1,170 @@
+package emu.jvic.snap;
+
+/**
+ * Writes the native JVic save state format. The state of each chip is written as a
+ * simple sequence of big endian values into a byte array that grows as needed and is
+ * reused between saves, so that once it has reached its working size, saving the
+ * state of the machine does not allocate any memory. This is what allows the save
+ * state to be used for things like rewind and run-ahead, where the state is saved
+ * every frame.
+ *
+ * @author Lance Ewing
+ */
+public class StateWriter {
+
+    /**
+     * The initial size of the data array. This is enough for an unexpanded machine
+     * with a disk drive, without needing to grow.
+     */
+    private static final int INITIAL_SIZE = 128 * 1024;
+
+    /**
+     * Holds the state data written so far.
+     */
+    private byte[] data;
+
+    /**
+     * The number of bytes of state data written so far.
+     */
+    private int size;
+
+    /**
+     * Constructor for StateWriter.
+     */
+    public StateWriter() {
+        this(INITIAL_SIZE);
+    }
+
+    /**
+     * Constructor for StateWriter.
+     *
+     * @param initialSize The initial size of the data array.
+     */
+    public StateWriter(int initialSize) {
+        data = new byte[Math.max(initialSize, 16)];
+    }
+
+    /**
+     * Discards the state data written so far, so that the writer can be reused for
+     * the next save without allocating a new data array.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Makes sure that the data array has room for the given number of extra bytes.
+     *
+     * @param count The number of bytes about to be written.
+     */
+    private void ensureCapacity(int count) {
+        if ((size + count) > data.length) {
+            int newLength = data.length * 2;
+            while (newLength < (size + count)) {
+                newLength *= 2;
+            }
+            byte[] newData = new byte[newLength];
+            System.arraycopy(data, 0, newData, 0, size);
+            data = newData;
+        }
+    }
+
+    /**
+     * Writes the bottom 8 bits of the given value.
+     *
+     * @param value The value to write.
+     */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        data[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a boolean value as a single byte.
+     *
+     * @param value The value to write.
+     */
+    public void writeBoolean(boolean value) {
+        ensureCapacity(1);
+        data[size++] = (byte) (value ? 1 : 0);
+    }
+
+    /**
+     * Writes a 32 bit int value.
+     *
+     * @param value The value to write.
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        data[size++] = (byte) (value >> 24);
+        data[size++] = (byte) (value >> 16);
+        data[size++] = (byte) (value >> 8);
+        data[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a 64 bit long value.
+     *
+     * @param value The value to write.
+     */
+    public void writeLong(long value) {
+        writeInt((int) (value >> 32));
+        writeInt((int) value);
+    }
+
+    /**
+     * Writes the given range of a byte array.
+     *
+     * @param bytes The byte array to write from.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, data, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes every value in the given int array. The length is not written, since
+     * the reader is expected to already know it.
+     *
+     * @param values The int values to write.
+     */
+    public void writeInts(int[] values) {
+        ensureCapacity(values.length * 4);
+        for (int i = 0; i < values.length; i++) {
+            writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Returns the data array that the state has been written into. Only the first
+     * getSize() bytes are valid. The array is reused by the next save.
+     *
+     * @return The data array that the state has been written into.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the number of bytes of state data written so far.
+     *
+     * @return The number of bytes of state data written so far.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the state data written so far, e.g. for storing to a file.
+     *
+     * @return A copy of the state data written so far.
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[size];
+        System.arraycopy(data, 0, copy, 0, size);
+        return copy;
+    }
+}
@@ -0,0 +1,149 @@
+package emu.jvic.sound;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes samples from the machine thread to the audio device on a dedicated audio
+ * thread, for platforms with real threads. The machine thread pushes each block of
+ * samples to a SampleRingBuffer, and the audio thread pops them and writes them to a
+ * SampleSink, which is the only thing that ever blocks on the audio device. So the
+ * machine thread is never blocked by the audio device.
+ *
+ * The audio thread is started once, and is kept running for every machine that is run,
+ * until it is stopped. This class is excluded from the GWT build, as the web platforms
+ * have no threads. They use the SharedQueue and AudioWorklet instead.
+ *
+ * @author Lance Ewing
+ */
+public class AudioOutputThread {
+
+    /**
+     * Writes samples to the audio device.
+     */
+    public interface SampleSink {
+
+        /**
+         * Writes a block of samples to the audio device, blocking until the device has
+         * accepted them all. Invoked only on the audio thread. The sample array is reused
+         * for the next block.
+         *
+         * @param samples The 16 bit PCM samples.
+         * @param sampleCount The number of samples in the block.
+         */
+        void writeAudioSamples(short[] samples, int sampleCount);
+    }
+
+    // The ring buffer holds up to 250ms of samples, to ride out the audio device blocking.
+    private static final int RING_BUFFER_MS = 250;
+
+    // The audio thread waits at most this long for more samples to be pushed.
+    private static final long AUDIO_THREAD_PARK_NANOS = 5000000;
+
+    private final SampleRingBuffer sampleRingBuffer;
+    private final SampleSink sampleSink;
+    private final int sampleBlockSize;
+    private final Thread audioThread;
+    private volatile boolean audioThreadRunning;
+
+    /**
+     * Constructor for AudioOutputThread.
+     *
+     * @param sampleRate The number of samples per second.
+     * @param sampleBlockSize The maximum number of samples to write to the SampleSink at a time.
+     * @param sampleSink The SampleSink that writes the samples to the audio device.
+     */
+    public AudioOutputThread(int sampleRate, int sampleBlockSize, SampleSink sampleSink) {
+        this.sampleRingBuffer = new SampleRingBuffer((sampleRate * RING_BUFFER_MS) / 1000);
+        this.sampleSink = sampleSink;
+        this.sampleBlockSize = sampleBlockSize;
+        this.audioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeSamples();
+            }
+        }, "jvic-audio");
+        this.audioThread.setDaemon(true);
+        this.audioThread.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Starts the audio thread. Invoked once, when the audio device has been opened.
+     */
+    public void start() {
+        audioThreadRunning = true;
+        audioThread.start();
+    }
+
+    /**
+     * Asks the audio thread to stop once it has finished writing the current block, if it
+     * is writing one. If it is blocked by the audio device, then the audio device has to
+     * be stopped or flushed to release it, before calling join.
+     */
+    public void stop() {
+        audioThreadRunning = false;
+        LockSupport.unpark(audioThread);
+    }
+
+    /**
+     * Waits up to a second for the audio thread to stop, after stop has been invoked.
+     */
+    public void join() {
+        try {
+            audioThread.join(1000);
+        } catch (InterruptedException e) {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Pushes samples to the ring buffer, for the audio thread to write out. Invoked only on
+     * the machine thread. Samples that don't fit in the ring buffer are dropped.
+     *
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples to push.
+     *
+     * @return The number of samples pushed to the ring buffer.
+     */
+    public int push(short[] samples, int sampleCount) {
+        int pushedCount = sampleRingBuffer.push(samples, sampleCount);
+        LockSupport.unpark(audioThread);
+        return pushedCount;
+    }
+
+    /**
+     * Pops samples from the ring buffer and writes them to the SampleSink, until the audio
+     * thread is stopped. Runs on the audio thread.
+     */
+    private void writeSamples() {
+        short[] samples = new short[sampleBlockSize];
+
+        while (audioThreadRunning) {
+            int sampleCount = sampleRingBuffer.pop(samples, sampleBlockSize);
+            if (sampleCount == 0) {
+                LockSupport.parkNanos(AUDIO_THREAD_PARK_NANOS);
+                continue;
+            }
+
+            sampleSink.writeAudioSamples(samples, sampleCount);
+        }
+    }
+
+    /**
+     * Gets the number of samples in the ring buffer that the audio thread has yet to write
+     * to the audio device.
+     *
+     * @return The number of samples in the ring buffer.
+     */
+    public int getRingBufferSampleCount() {
+        return sampleRingBuffer.availableRead();
+    }
+
+    /**
+     * Gets the number of samples that were dropped because the ring buffer was full.
+     *
+     * @return The number of overrun samples.
+     */
+    public long getOverrunSampleCount() {
+        return sampleRingBuffer.getOverrunSampleCount();
+    }
+}
@@ -0,0 +1,177 @@
+package emu.jvic.sound;
+
+/**
+ * Band-limited step synthesis (BLEP) of a waveform made up of level changes at arbitrary
+ * machine cycles. Rather than sampling the waveform on every cycle, each level change is
+ * added as a band-limited step, i.e. a precomputed windowed sinc step response, into the
+ * few output samples around the time of the change. The output samples are then simply
+ * the running sum of those steps, so the cost is proportional to the number of level
+ * changes plus the number of output samples, rather than the number of cycles.
+ *
+ * Time is tracked exactly as a whole number of samples plus a remainder in units of
+ * 1/clockRate of a sample, so the output doesn't drift however the clock rate divides
+ * into the sample rate.
+ *
+ * @author Lance Ewing
+ */
+final class BandLimitedSynth {
+
+    // The number of output samples that each step is spread over.
+    private static final int STEP_WIDTH = 16;
+    private static final int HALF_STEP_WIDTH = STEP_WIDTH / 2;
+
+    // The number of sub-sample positions that the step response is computed for.
+    private static final int STEP_PHASES = 32;
+
+    // Cutoff of the step's low-pass filter, as a fraction of the sample rate.
+    private static final double CUTOFF = 0.45;
+
+    // Must be a power of two greater than the span of samples that are awaiting output.
+    private static final int DELTA_BUFFER_SIZE = 64;
+    private static final int DELTA_BUFFER_MASK = DELTA_BUFFER_SIZE - 1;
+
+    // For each step phase, the amount that the step adds to each of the samples it covers.
+    private static final float[][] STEP_DELTAS = createStepDeltas();
+
+    private final int sampleRate;
+    private int clockRate;
+
+    // The number of samples actually output per second of machine cycles, which differs
+    // from the sample rate while the output is being resampled.
+    private int outputRate;
+
+    // The amount that each sample changes by, indexed by sample number.
+    private final double[] deltaBuffer = new double[DELTA_BUFFER_SIZE];
+
+    // The current time, as a sample number and the remainder in 1/clockRate samples.
+    private long sampleNumber;
+    private long sampleRemainder;
+
+    // The next sample number to output, and its value before its delta is added.
+    private long nextOutputSample;
+    private double level;
+
+    /**
+     * Constructor for BandLimitedSynth.
+     *
+     * @param sampleRate The number of samples per second to output.
+     */
+    BandLimitedSynth(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Resets the synth to a level of zero at time zero.
+     *
+     * @param clockRate The number of machine cycles per second.
+     */
+    void reset(int clockRate) {
+        this.clockRate = clockRate;
+        this.outputRate = sampleRate;
+        for (int i = 0; i < DELTA_BUFFER_SIZE; i++) {
+            deltaBuffer[i] = 0.0;
+        }
+        sampleNumber = 0;
+        sampleRemainder = 0;
+        nextOutputSample = 0;
+        level = 0.0;
+    }
+
+    /**
+     * Sets the number of samples to output per second of machine cycles, so that the
+     * output can be resampled slightly faster or slower than the sample rate. The step
+     * filter is designed for the sample rate, so this should stay close to it.
+     *
+     * @param outputRate The number of samples to output per second.
+     */
+    void setOutputRate(int outputRate) {
+        this.outputRate = outputRate;
+    }
+
+    /**
+     * Adds a band-limited step at the current time.
+     *
+     * @param delta The amount that the level changes by.
+     */
+    void addStep(int delta) {
+        float[] stepDeltas = STEP_DELTAS[(int)((sampleRemainder * STEP_PHASES) / clockRate)];
+        long firstSample = sampleNumber - HALF_STEP_WIDTH + 1;
+        for (int i = 0; i < STEP_WIDTH; i++) {
+            deltaBuffer[(int)((firstSample + i) & DELTA_BUFFER_MASK)] += delta * stepDeltas[i];
+        }
+    }
+
+    /**
+     * Advances the current time by the given number of cycles.
+     *
+     * @param cycles The number of cycles to advance by.
+     */
+    void advance(int cycles) {
+        long remainder = sampleRemainder + ((long)cycles * outputRate);
+        sampleNumber += remainder / clockRate;
+        sampleRemainder = remainder % clockRate;
+    }
+
+    /**
+     * Returns whether the next output sample is complete, i.e. whether the current time
+     * is far enough past it that no further step can change it.
+     *
+     * @return true if the next sample can be read; otherwise false.
+     */
+    boolean isSampleReady() {
+        return (nextOutputSample <= (sampleNumber - HALF_STEP_WIDTH));
+    }
+
+    /**
+     * Reads the next output sample. Should only be invoked when isSampleReady is true.
+     *
+     * @return The value of the next output sample.
+     */
+    float readSample() {
+        int index = (int)(nextOutputSample & DELTA_BUFFER_MASK);
+        level += deltaBuffer[index];
+        deltaBuffer[index] = 0.0;
+        nextOutputSample++;
+        return (float)level;
+    }
+
+    /**
+     * Creates the table of step deltas. The step response is the integral of a Blackman
+     * windowed sinc, and each sample's delta is the difference between the step response
+     * at that sample and the one before it. Each phase's deltas are normalised to add up to
+     * exactly one, so that a step always ends at exactly the new level.
+     *
+     * @return The step deltas for each step phase.
+     */
+    private static float[][] createStepDeltas() {
+        // The step response at every phase of every sample that a step covers.
+        int points = STEP_WIDTH * STEP_PHASES;
+        double[] stepResponse = new double[points + 1];
+        double sum = 0.0;
+        for (int i = 0; i < points; i++) {
+            double x = ((i + 0.5) / STEP_PHASES) - HALF_STEP_WIDTH;
+            double t = 2.0 * CUTOFF * x;
+            double sinc = (t == 0.0 ? 1.0 : Math.sin(Math.PI * t) / (Math.PI * t));
+            double window = 0.42 + (0.5 * Math.cos((Math.PI * x) / HALF_STEP_WIDTH))
+                    + (0.08 * Math.cos((2.0 * Math.PI * x) / HALF_STEP_WIDTH));
+            sum += sinc * window;
+            stepResponse[i + 1] = sum;
+        }
+
+        float[][] stepDeltas = new float[STEP_PHASES][STEP_WIDTH];
+        for (int phase = 0; phase < STEP_PHASES; phase++) {
+            double[] deltas = new double[STEP_WIDTH];
+            double total = 0.0;
+            for (int i = 0; i < STEP_WIDTH; i++) {
+                double end = stepResponse[((i + 1) * STEP_PHASES) - phase];
+                double start = stepResponse[Math.max((i * STEP_PHASES) - phase, 0)];
+                deltas[i] = end - start;
+                total += deltas[i];
+            }
+            for (int i = 0; i < STEP_WIDTH; i++) {
+                stepDeltas[phase][i] = (float)(deltas[i] / total);
+            }
+        }
+        return stepDeltas;
+    }
+}
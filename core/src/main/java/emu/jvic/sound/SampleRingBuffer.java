@@ -0,0 +1,140 @@
+package emu.jvic.sound;
+
+/**
+ * A wait-free single producer, single consumer ring buffer of 16 bit PCM samples. It is
+ * the equivalent, for platforms with real threads, of the SharedQueue that the web
+ * platforms use to pass samples from the web worker to the AudioWorklet. The machine
+ * thread pushes samples, and the AudioOutputThread pops them and writes them to the
+ * audio device, so that the machine thread is never blocked by the audio device.
+ *
+ * As with the SharedQueue, the storage has one extra slot, so that a full buffer can be
+ * told apart from an empty one. The samples are published by the volatile write of the
+ * write position, and the space is freed by the volatile write of the read position, so
+ * no locks are needed.
+ *
+ * @author Lance Ewing
+ */
+public class SampleRingBuffer {
+
+    private final short[] storage;
+
+    // Only written by the producer.
+    private volatile int writePosition;
+    private volatile long overrunSampleCount;
+
+    // Only written by the consumer.
+    private volatile int readPosition;
+
+    /**
+     * Constructor for SampleRingBuffer.
+     *
+     * @param capacity The number of samples that the ring buffer will be able to hold.
+     */
+    public SampleRingBuffer(int capacity) {
+        this.storage = new short[capacity + 1];
+    }
+
+    /**
+     * Pushes samples to the ring buffer. Invoked only by the producer. If there isn't
+     * enough space for all of the samples, then the samples that don't fit are dropped,
+     * and counted as overrun samples.
+     *
+     * @param samples The samples to push.
+     * @param sampleCount The number of samples to push from the start of the array.
+     *
+     * @return The number of samples written to the ring buffer.
+     */
+    public int push(short[] samples, int sampleCount) {
+        int rd = readPosition;
+        int wr = writePosition;
+
+        int toWrite = Math.min(availableWrite(rd, wr), sampleCount);
+        int firstPart = Math.min(storage.length - wr, toWrite);
+        int secondPart = toWrite - firstPart;
+
+        // Handles wrapping around in the buffer.
+        System.arraycopy(samples, 0, storage, wr, firstPart);
+        System.arraycopy(samples, firstPart, storage, 0, secondPart);
+
+        // Publish the samples to the consumer.
+        writePosition = (wr + toWrite) % storage.length;
+
+        if (toWrite < sampleCount) {
+            overrunSampleCount += (sampleCount - toWrite);
+        }
+
+        return toWrite;
+    }
+
+    /**
+     * Pops up to the given number of samples from the ring buffer. Invoked only by the
+     * consumer.
+     *
+     * @param samples The array to copy the samples in to.
+     * @param sampleCount The maximum number of samples to pop.
+     *
+     * @return The number of samples popped from the ring buffer.
+     */
+    public int pop(short[] samples, int sampleCount) {
+        int rd = readPosition;
+        int wr = writePosition;
+
+        int toRead = Math.min(availableRead(rd, wr), sampleCount);
+        int firstPart = Math.min(storage.length - rd, toRead);
+        int secondPart = toRead - firstPart;
+
+        System.arraycopy(storage, rd, samples, 0, firstPart);
+        System.arraycopy(storage, 0, samples, firstPart, secondPart);
+
+        // Free up the space for the producer.
+        readPosition = (rd + toRead) % storage.length;
+
+        return toRead;
+    }
+
+    /**
+     * Returns whether the ring buffer is empty. This can be late on the consumer side, i.e.
+     * it can return true even if something has just been pushed.
+     *
+     * @return true if the ring buffer is empty; otherwise false.
+     */
+    public boolean isEmpty() {
+        return (writePosition == readPosition);
+    }
+
+    /**
+     * Gets the number of samples that the ring buffer can hold.
+     *
+     * @return The capacity of the ring buffer.
+     */
+    public int capacity() {
+        return storage.length - 1;
+    }
+
+    /**
+     * Gets the number of samples available for reading, i.e. the fill level. This can be
+     * late, when something has just been pushed or popped.
+     *
+     * @return The number of samples available for reading.
+     */
+    public int availableRead() {
+        return availableRead(readPosition, writePosition);
+    }
+
+    /**
+     * Gets the number of samples that have been dropped because the ring buffer was full.
+     *
+     * @return The number of overrun samples.
+     */
+    public long getOverrunSampleCount() {
+        return overrunSampleCount;
+    }
+
+    private int availableRead(int rd, int wr) {
+        return (wr + storage.length - rd) % storage.length;
+    }
+
+    private int availableWrite(int rd, int wr) {
+        return capacity() - availableRead(rd, wr);
+    }
+}
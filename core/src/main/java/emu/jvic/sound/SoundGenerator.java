@@ -1,6 +1,10 @@
 package emu.jvic.sound;
 
 import emu.jvic.MachineType;
+import emu.jvic.ScheduledChip;
+import emu.jvic.memory.Memory;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * Interface defining the operations required of an VIC sound generator implementation. 
@@ -9,18 +13,104 @@ import emu.jvic.MachineType;
  * 
  * @author Lance Ewing
  */
-public abstract class SoundGenerator {
+public abstract class SoundGenerator implements ScheduledChip {
 
-    protected int[] mem;
+    /**
+     * The maximum number of cycles that the sound generator is allowed to fall behind 
+     * by. Sound has no externally visible events, but the samples need to reach the 
+     * audio output regularly.
+     */
+    private static final int MAX_CYCLES_BEHIND = 1024;
     
-    public void init(int[] mem, MachineType machineType) {
-        this.mem = mem;
+    /**
+     * The number of ints in the saved voice state, i.e. the clock divider counter, 
+     * the four voice counters, the four voice shift registers, and the two noise LFSR
+     * values. This is fixed so that a save state can be loaded on any platform.
+     */
+    protected static final int VOICE_STATE_INTS = 11;
+    
+    /**
+     * The memory that the VIC sound registers are read from.
+     */
+    protected Memory memory;
+    
+    /**
+     * The machine cycle that the sound generator has been caught up to.
+     */
+    private int syncedCycle;
+    
+    public void init(Memory memory, MachineType machineType) {
+        this.memory = memory;
+        this.syncedCycle = 0;
         this.initSound(machineType);
     }
     
+    @Override
+    public int getNextEventCycle() {
+        return syncedCycle + MAX_CYCLES_BEHIND;
+    }
+    
+    @Override
+    public void catchUp(int cycle) {
+        int cycles = cycle - syncedCycle;
+        if (cycles > 0) {
+            syncedCycle = cycle;
+            emulateCycles(cycles);
+        }
+    }
+    
+    /**
+     * Writes the state of the sound generator to the given StateWriter.
+     * 
+     * @param out The StateWriter to write the sound state to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(syncedCycle);
+        saveVoiceState(out);
+    }
+    
+    /**
+     * Restores the state of the sound generator from the given StateReader.
+     * 
+     * @param in The StateReader to read the sound state from.
+     */
+    public void loadState(StateReader in) {
+        syncedCycle = in.readInt();
+        loadVoiceState(in);
+    }
+    
+    /**
+     * Writes the VOICE_STATE_INTS ints of voice state. Implementations that don't
+     * emulate the voices write zeroes.
+     * 
+     * @param out The StateWriter to write the voice state to.
+     */
+    protected void saveVoiceState(StateWriter out) {
+        for (int i = 0; i < VOICE_STATE_INTS; i++) {
+            out.writeInt(0);
+        }
+    }
+    
+    /**
+     * Reads the VOICE_STATE_INTS ints of voice state. Implementations that don't
+     * emulate the voices skip over them.
+     * 
+     * @param in The StateReader to read the voice state from.
+     */
+    protected void loadVoiceState(StateReader in) {
+        in.skip(VOICE_STATE_INTS * 4);
+    }
+    
     public abstract void initSound(MachineType machineType);
     
-    public abstract void emulateCycle();
+    /**
+     * Emulates the given number of cycles as a single block. The sound registers can't
+     * change within a block, since the ChipScheduler catches the sound generator up 
+     * before any of them are written.
+     * 
+     * @param cycles The number of cycles to emulate.
+     */
+    public abstract void emulateCycles(int cycles);
     
     public abstract void pauseSound();
     
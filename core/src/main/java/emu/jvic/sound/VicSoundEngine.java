@@ -0,0 +1,596 @@
+package emu.jvic.sound;
+
+import emu.jvic.MachineType;
+import emu.jvic.memory.Memory;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+
+/**
+ * Emulates the sound part of the VIC chip, i.e. the three tone voices, the noise voice,
+ * the master volume, and the output coupling capacitor, and renders the result as 16 bit
+ * PCM samples. This is shared by all of the platform SoundGenerators, which only need to
+ * push the finished blocks of samples to their audio device.
+ *
+ * The engine is run for a block of cycles at a time. The ChipScheduler catches the
+ * SoundGenerator up to the current cycle before any of the VIC sound registers are
+ * written, so the register values can't change within a block. They are therefore only
+ * read once per block, rather than on every cycle. Within a block, the mixed output can
+ * only change when a voice counter wraps around, so the engine steps directly from one
+ * wrap to the next, rather than emulating every cycle.
+ *
+ * There are two ways of turning the mixed output into samples. AVERAGED takes the
+ * average of the mixed output over the whole number of cycles in each sample.
+ * BAND_LIMITED adds a band-limited step to the output wherever the mixed output changes,
+ * which has much less aliasing, and keeps exact time at any sample rate. It is intended
+ * for sample rates of 44100 and 48000.
+ *
+ * @author Lance Ewing
+ */
+public class VicSoundEngine {
+
+    /**
+     * Receives each block of samples as soon as it has been filled.
+     */
+    public interface SampleBlockHandler {
+
+        /**
+         * Invoked when a block of samples is ready to be output. The sample array is
+         * reused for the next block, so the samples must be consumed or copied before
+         * returning.
+         *
+         * @param samples The 16 bit PCM samples.
+         * @param sampleCount The number of samples in the block.
+         */
+        void writeSamples(short[] samples, int sampleCount);
+    }
+
+    /**
+     * The method used to turn the mixed output of the voices into samples.
+     */
+    public enum Synthesis {
+        AVERAGED, BAND_LIMITED
+    }
+
+    // Small baseline level that remains when voices are effectively silent.
+    // Rapid volume writes can modulate this into audible 4-bit digi output.
+    private static final int VOLUME_DAC_BIAS = 192;
+    private static final float HIGH_PASS_CUTOFF_HZ = 120.0f;
+
+    // The number of cycles between each clock of voices 0 to 3.
+    private static final int[] VOICE_CLOCK_PERIODS = { 16, 8, 4, 2 };
+
+    private final int sampleRate;
+    private final SampleBlockHandler sampleBlockHandler;
+
+    // Only used for BAND_LIMITED synthesis; otherwise null.
+    private final BandLimitedSynth bandLimitedSynth;
+
+    private Memory memory;
+    private int vicReg10;
+    private int vicReg14;
+
+    // The values of the four voice control registers, read at the start of each block.
+    private final int[] voiceControls = new int[4];
+
+    // The block of samples currently being filled.
+    private final short[] sampleBlock;
+    private int sampleBlockOffset;
+
+    private int cyclesPerSample;
+    private int cyclesToNextSample;
+
+    // The voice state. The voice counters are held as the number of cycles until each
+    // counter next wraps around, and are only converted back to counter values when the
+    // state is saved.
+    private int soundClockDividerCounter;
+    private int[] cyclesToVoiceWrap = new int[4];
+    private int[] voiceShiftRegisters = new int[4];
+    private int noiseLFSR = 0xFFFF;
+    private int lastNoiseLFSR0 = 0x1;
+
+    // Holds the cycles to wrap of the settled voices, while the block is being rendered.
+    private final int[] settledCyclesToWrap = new int[4];
+
+    // The mixed output at the end of the last block.
+    private int mixedOutput;
+
+    // The sum of the mixed output of each cycle since the last sample.
+    private long accumulatedSample;
+    private int accumulatedCycles;
+
+    private float highPassAlpha;
+    private float highPassLastInput;
+    private float highPassLastOutput;
+
+    /**
+     * Constructor for VicSoundEngine that uses AVERAGED synthesis.
+     *
+     * @param sampleRate The number of samples per second to render.
+     * @param blockSize The number of samples in each block passed to the SampleBlockHandler.
+     * @param sampleBlockHandler The SampleBlockHandler to pass each block of samples to.
+     */
+    public VicSoundEngine(int sampleRate, int blockSize, SampleBlockHandler sampleBlockHandler) {
+        this(sampleRate, blockSize, sampleBlockHandler, Synthesis.AVERAGED);
+    }
+
+    /**
+     * Constructor for VicSoundEngine.
+     *
+     * @param sampleRate The number of samples per second to render.
+     * @param blockSize The number of samples in each block passed to the SampleBlockHandler.
+     * @param sampleBlockHandler The SampleBlockHandler to pass each block of samples to.
+     * @param synthesis The method used to turn the mixed output into samples.
+     */
+    public VicSoundEngine(int sampleRate, int blockSize, SampleBlockHandler sampleBlockHandler,
+            Synthesis synthesis) {
+        this.sampleRate = sampleRate;
+        this.sampleBlock = new short[blockSize];
+        this.sampleBlockHandler = sampleBlockHandler;
+        this.bandLimitedSynth = (synthesis == Synthesis.BAND_LIMITED ? new BandLimitedSynth(sampleRate) : null);
+    }
+
+    /**
+     * Resets the engine, ready to emulate the sound of the given MachineType.
+     *
+     * @param memory The memory that the VIC sound registers are read from.
+     * @param machineType The MachineType whose sound is being emulated.
+     */
+    public void init(Memory memory, MachineType machineType) {
+        this.memory = memory;
+
+        if (machineType.isVIC44K()) {
+            vicReg10 = 0xBC0A;
+            vicReg14 = 0xBC0E;
+        } else {
+            vicReg10 = 0x900A;
+            vicReg14 = 0x900E;
+        }
+
+        cyclesPerSample = (machineType.getCyclesPerSecond() / sampleRate);
+        cyclesToNextSample = cyclesPerSample;
+        sampleBlockOffset = 0;
+
+        soundClockDividerCounter = 0;
+        for (int i = 0; i < 4; i++) {
+            cyclesToVoiceWrap[i] = getCyclesToVoiceWrap(i, 0);
+            voiceShiftRegisters[i] = 0;
+        }
+        noiseLFSR = 0xFFFF;
+        lastNoiseLFSR0 = 0x1;
+        mixedOutput = 0;
+
+        if (bandLimitedSynth != null) {
+            bandLimitedSynth.reset(machineType.getCyclesPerSecond());
+        }
+
+        float dt = 1.0f / sampleRate;
+        float rc = (float)(1.0 / (2.0 * Math.PI * HIGH_PASS_CUTOFF_HZ));
+        highPassAlpha = rc / (rc + dt);
+        highPassLastInput = 0.0f;
+        highPassLastOutput = 0.0f;
+        accumulatedSample = 0;
+        accumulatedCycles = 0;
+    }
+
+    /**
+     * Emulates the given number of cycles, passing each block of samples to the
+     * SampleBlockHandler as it is filled.
+     *
+     * @param cycles The number of cycles to emulate.
+     */
+    public void render(int cycles) {
+        // The registers can't change during the block, so are read only once.
+        int[] voiceControls = this.voiceControls;
+        for (int i = 0; i < 4; i++) {
+            voiceControls[i] = memory.peek(vicReg10 + i);
+        }
+        int masterVolume = (memory.peek(vicReg14) & 0x0F);
+
+        // A register write or loaded state since the last block may have changed the output.
+        int mixedOutput = getMixedOutput(voiceControls, masterVolume);
+        if ((bandLimitedSynth != null) && (mixedOutput != this.mixedOutput)) {
+            bandLimitedSynth.addStep(mixedOutput - this.mixedOutput);
+        }
+
+        int[] cyclesToVoiceWrap = this.cyclesToVoiceWrap;
+        soundClockDividerCounter = ((soundClockDividerCounter + cycles) & 0xF);
+
+        if (masterVolume == 0) {
+            // Silent, so the output can't change during the block. The voices still have
+            // to be caught up, so that they are in the right state when the volume is
+            // turned up again.
+            output(mixedOutput, cycles);
+            for (int i = 0; i < 3; i++) {
+                advanceToneVoice(i, cycles);
+            }
+            advanceNoiseVoice(cycles);
+            this.mixedOutput = mixedOutput;
+            return;
+        }
+
+        // Voices whose wraps can't change anything are caught up now, and are kept out of
+        // the loop below by making it look as if they never wrap.
+        int settledVoices = 0;
+        for (int i = 0; i < 4; i++) {
+            if (isVoiceSettled(i)) {
+                advanceVoiceCounter(i, cycles);
+                settledVoices |= (1 << i);
+            }
+        }
+        if (settledVoices == 0xF) {
+            output(mixedOutput, cycles);
+            this.mixedOutput = mixedOutput;
+            return;
+        }
+        int[] settledCyclesToWrap = this.settledCyclesToWrap;
+        for (int i = 0; i < 4; i++) {
+            if ((settledVoices & (1 << i)) != 0) {
+                settledCyclesToWrap[i] = cyclesToVoiceWrap[i];
+                cyclesToVoiceWrap[i] = Integer.MAX_VALUE;
+            }
+        }
+
+        while (true) {
+            int cyclesToWrap = Math.min(Math.min(cyclesToVoiceWrap[0], cyclesToVoiceWrap[1]),
+                    Math.min(cyclesToVoiceWrap[2], cyclesToVoiceWrap[3]));
+
+            if (cyclesToWrap > cycles) {
+                // No voice counter wraps around in the rest of the block.
+                output(mixedOutput, cycles);
+                for (int i = 0; i < 4; i++) {
+                    cyclesToVoiceWrap[i] -= cycles;
+                }
+                break;
+            }
+
+            // The output doesn't change until the cycle in which the counter wraps.
+            output(mixedOutput, cyclesToWrap - 1);
+            cycles -= cyclesToWrap;
+
+            boolean shifted = false;
+            for (int i = 0; i < 4; i++) {
+                if ((cyclesToVoiceWrap[i] -= cyclesToWrap) == 0) {
+                    shifted |= (i == 3 ? wrapNoiseVoice() : wrapToneVoice(i));
+                }
+            }
+
+            // The mixed output only changes when a voice shift register changes.
+            if (shifted) {
+                int newMixedOutput = getMixedOutput(voiceControls, masterVolume);
+                if ((bandLimitedSynth != null) && (newMixedOutput != mixedOutput)) {
+                    bandLimitedSynth.addStep(newMixedOutput - mixedOutput);
+                }
+                mixedOutput = newMixedOutput;
+            }
+
+            output(mixedOutput, 1);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            if ((settledVoices & (1 << i)) != 0) {
+                cyclesToVoiceWrap[i] = settledCyclesToWrap[i];
+            }
+        }
+
+        this.mixedOutput = mixedOutput;
+    }
+
+    /**
+     * Returns whether a voice is settled, i.e. whether its counter wrapping around would
+     * not change anything other than the counter. This is the case for a disabled tone
+     * voice once zeroes have been shifted all the way through its shift register, and for
+     * the disabled noise voice once ones have been shifted all the way through its LFSR.
+     *
+     * @param voice The voice, from 0 to 3.
+     *
+     * @return true if the voice is settled; otherwise false.
+     */
+    private boolean isVoiceSettled(int voice) {
+        if ((voiceControls[voice] & 0x80) != 0) {
+            return false;
+        }
+        if (voice == 3) {
+            return (noiseLFSR == 0xFFFF) && (lastNoiseLFSR0 == 1);
+        }
+        return (voiceShiftRegisters[voice] == 0);
+    }
+
+    /**
+     * Advances a voice counter by the given number of cycles, without doing anything when
+     * it wraps around.
+     *
+     * @param voice The voice, from 0 to 3.
+     * @param cycles The number of cycles to advance by.
+     *
+     * @return The number of times that the voice counter wrapped around.
+     */
+    private int advanceVoiceCounter(int voice, int cycles) {
+        int cyclesToWrap = cyclesToVoiceWrap[voice];
+        if (cycles < cyclesToWrap) {
+            cyclesToVoiceWrap[voice] = cyclesToWrap - cycles;
+            return 0;
+        }
+        int wrapCycles = (0x80 - (voiceControls[voice] & 0x7F)) * VOICE_CLOCK_PERIODS[voice];
+        int cyclesAfterWrap = cycles - cyclesToWrap;
+        cyclesToVoiceWrap[voice] = wrapCycles - (cyclesAfterWrap % wrapCycles);
+        return 1 + (cyclesAfterWrap / wrapCycles);
+    }
+
+    /**
+     * Advances a tone voice by the given number of cycles, working out the state of the
+     * voice shift register directly from the number of times it is shifted. When the
+     * voice is enabled, the shift register is inverted after every 8 shifts, so repeats
+     * every 16 shifts. When disabled, it is cleared after 8 shifts.
+     *
+     * @param voice The voice, from 0 to 2.
+     * @param cycles The number of cycles to advance by.
+     */
+    private void advanceToneVoice(int voice, int cycles) {
+        int shifts = advanceVoiceCounter(voice, cycles);
+        if (shifts == 0) {
+            return;
+        }
+        int voiceControl = voiceControls[voice];
+        int shiftRegister = voiceShiftRegisters[voice];
+        if ((voiceControl & 0x80) == 0) {
+            shiftRegister = (shifts >= 8 ? 0 : ((shiftRegister << shifts) & 0xFF));
+        } else {
+            shifts &= 0xF;
+            if (shifts >= 8) {
+                shiftRegister = (~shiftRegister & 0xFF);
+                shifts -= 8;
+            }
+            for (; shifts > 0; shifts--) {
+                shiftRegister = shiftVoice(shiftRegister, voiceControl);
+            }
+        }
+        voiceShiftRegisters[voice] = shiftRegister;
+    }
+
+    /**
+     * Advances the noise voice by the given number of cycles. The LFSR has to be clocked
+     * for each wrap, until the voice is settled.
+     *
+     * @param cycles The number of cycles to advance by.
+     */
+    private void advanceNoiseVoice(int cycles) {
+        int[] cyclesToVoiceWrap = this.cyclesToVoiceWrap;
+        while (cycles >= cyclesToVoiceWrap[3]) {
+            if (isVoiceSettled(3)) {
+                break;
+            }
+            cycles -= cyclesToVoiceWrap[3];
+            wrapNoiseVoice();
+        }
+        advanceVoiceCounter(3, cycles);
+    }
+
+    /**
+     * Handles a tone voice counter wrapping around. The counter is reloaded from the
+     * voice's control register, and the voice shift register is shifted.
+     *
+     * @param voice The voice whose counter has wrapped around, from 0 to 2.
+     *
+     * @return true, as the voice shift register is always shifted.
+     */
+    private boolean wrapToneVoice(int voice) {
+        int voiceControl = voiceControls[voice];
+        cyclesToVoiceWrap[voice] = (0x80 - (voiceControl & 0x7F)) * VOICE_CLOCK_PERIODS[voice];
+        voiceShiftRegisters[voice] = shiftVoice(voiceShiftRegisters[voice], voiceControl);
+        return true;
+    }
+
+    /**
+     * Handles the noise voice counter wrapping around. The counter is reloaded from the
+     * voice's control register, and the LFSR is shifted. The voice shift register is only
+     * shifted when LFSR bit 0 changes from LOW to HIGH, i.e. on the positive edge.
+     *
+     * @return true if the voice shift register was shifted; otherwise false.
+     */
+    private boolean wrapNoiseVoice() {
+        int voiceControl = voiceControls[3];
+        cyclesToVoiceWrap[3] = (0x80 - (voiceControl & 0x7F)) * VOICE_CLOCK_PERIODS[3];
+
+        boolean shifted = false;
+        if ((lastNoiseLFSR0 == 0) && (noiseLFSR & 0x0001) > 0) {
+            voiceShiftRegisters[3] = shiftVoice(voiceShiftRegisters[3], voiceControl);
+            shifted = true;
+        }
+
+        // The LFSR taps are bits 3, 12, 14 and 15.
+        int bit3 = (noiseLFSR >> 3) & 1;
+        int bit12 = (noiseLFSR >> 12) & 1;
+        int bit14 = (noiseLFSR >> 14) & 1;
+        int bit15 = (noiseLFSR >> 15) & 1;
+        int feedback = (((bit3 ^ bit12) ^ (bit14 ^ bit15)) ^ 1);
+        lastNoiseLFSR0 = (noiseLFSR & 0x1);
+        noiseLFSR = (((noiseLFSR << 1) | (((feedback & ((voiceControl & 0x80) >> 7)) ^ 1) & 0x1)) & 0xFFFF);
+
+        return shifted;
+    }
+
+    /**
+     * Shifts a voice shift register. If the voice is enabled, the inverse of the bit
+     * shifted out of the top is shifted in at the bottom; otherwise zero is shifted in.
+     *
+     * @param shiftRegister The current value of the voice shift register.
+     * @param voiceControl The value of the voice's control register.
+     *
+     * @return The new value of the voice shift register.
+     */
+    private static int shiftVoice(int shiftRegister, int voiceControl) {
+        return (((shiftRegister & 0x7F) << 1)
+                | ((voiceControl & 0x80) > 0 ? (((shiftRegister & 0x80) >> 7) ^ 1) : 0));
+    }
+
+    /**
+     * Gets the number of cycles until a voice counter next wraps around. The clock divider
+     * counter is incremented on every cycle, and the voice is clocked on the cycles where
+     * the divider's bits below the voice's clock period are all zero.
+     *
+     * @param voice The voice, from 0 to 3.
+     * @param voiceCounter The current value of the 7-bit voice counter.
+     *
+     * @return The number of cycles until the counter wraps around to zero.
+     */
+    private int getCyclesToVoiceWrap(int voice, int voiceCounter) {
+        int clockPeriod = VOICE_CLOCK_PERIODS[voice];
+        int cyclesToClock = clockPeriod - (soundClockDividerCounter & (clockPeriod - 1));
+        return cyclesToClock + ((0x7F - voiceCounter) * clockPeriod);
+    }
+
+    /**
+     * Gets the current value of a voice counter. This is the inverse of getCyclesToVoiceWrap.
+     *
+     * @param voice The voice, from 0 to 3.
+     *
+     * @return The current value of the 7-bit voice counter.
+     */
+    private int getVoiceCounter(int voice) {
+        int clockPeriod = VOICE_CLOCK_PERIODS[voice];
+        int cyclesToClock = clockPeriod - (soundClockDividerCounter & (clockPeriod - 1));
+        return 0x7F - ((cyclesToVoiceWrap[voice] - cyclesToClock) / clockPeriod);
+    }
+
+    private int getMixedOutput(int[] voiceControls, int masterVolume) {
+        int mixedVoices = 0;
+
+        for (int i = 0; i < 4; i++) {
+            if ((voiceControls[i] & 0x80) > 0) {
+                // Voice enabled. First bit of SR goes out.
+                mixedVoices += ((voiceShiftRegisters[i] & 0x01) << 11);
+            }
+        }
+
+        int sample = (((mixedVoices >> 2) + VOLUME_DAC_BIAS) * masterVolume);
+        return Math.min(sample, 0x7FFF);
+    }
+
+    /**
+     * Outputs the given number of cycles of the mixed output, writing each sample that is
+     * completed by those cycles.
+     *
+     * @param mixedOutput The mixed output for each of the cycles.
+     * @param cycles The number of cycles.
+     */
+    private void output(int mixedOutput, int cycles) {
+        if (bandLimitedSynth != null) {
+            // The level changes have already been added as steps.
+            bandLimitedSynth.advance(cycles);
+            while (bandLimitedSynth.isSampleReady()) {
+                writeSample(bandLimitedSynth.readSample());
+            }
+            return;
+        }
+
+        // If enough cycles have elapsed since the last sample, then output another.
+        while (cycles >= cyclesToNextSample) {
+            accumulatedSample += (long)mixedOutput * cyclesToNextSample;
+            accumulatedCycles += cyclesToNextSample;
+            cycles -= cyclesToNextSample;
+            cyclesToNextSample = cyclesPerSample;
+
+            // The sample is the average of the mixed output since the last sample.
+            writeSample((float)((double)accumulatedSample / accumulatedCycles));
+            accumulatedSample = 0;
+            accumulatedCycles = 0;
+        }
+
+        accumulatedSample += (long)mixedOutput * cycles;
+        accumulatedCycles += cycles;
+        cyclesToNextSample -= cycles;
+    }
+
+    /**
+     * Writes a single sample to the sample block, after passing it through the output
+     * high-pass filter. If the block is full after writing the sample, then it is passed
+     * to the SampleBlockHandler.
+     *
+     * @param sample The unfiltered sample.
+     */
+    private void writeSample(float sample) {
+        // Model the output coupling capacitor with a one-pole high-pass filter,
+        // so fast volume-register changes become audible digi output.
+        float filtered = highPassAlpha * (highPassLastOutput + sample - highPassLastInput);
+        highPassLastInput = sample;
+        highPassLastOutput = filtered;
+
+        int filteredSample = Math.round(filtered);
+        if (filteredSample > 32767) {
+            filteredSample = 32767;
+        } else if (filteredSample < -32768) {
+            filteredSample = -32768;
+        }
+
+        sampleBlock[sampleBlockOffset++] = (short)filteredSample;
+
+        if (sampleBlockOffset == sampleBlock.length) {
+            sampleBlockHandler.writeSamples(sampleBlock, sampleBlockOffset);
+            sampleBlockOffset = 0;
+        }
+    }
+
+    /**
+     * Resamples the output slightly faster or slower than the sample rate, e.g. so that
+     * the samples are consumed at the same rate as they are output, even though the audio
+     * device's clock is not exactly in step with the emulation. This is only supported by
+     * BAND_LIMITED synthesis, and is ignored otherwise.
+     *
+     * @param rateAdjustment The fraction to adjust the output rate by, e.g. 0.001 outputs 0.1% more samples.
+     */
+    public void setRateAdjustment(double rateAdjustment) {
+        if (bandLimitedSynth != null) {
+            bandLimitedSynth.setOutputRate((int)Math.round(sampleRate * (1.0 + rateAdjustment)));
+        }
+    }
+
+    /**
+     * Gets the number of machine cycles per sample. For BAND_LIMITED synthesis, this is
+     * rounded down to a whole number of cycles.
+     *
+     * @return The number of cycles per sample.
+     */
+    public int getCyclesPerSample() {
+        return cyclesPerSample;
+    }
+
+    /**
+     * Gets the number of samples rendered per second.
+     *
+     * @return The sample rate.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Writes the SoundGenerator.VOICE_STATE_INTS ints of voice state to the given
+     * StateWriter.
+     *
+     * @param out The StateWriter to write the voice state to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(soundClockDividerCounter);
+        for (int i = 0; i < 4; i++) {
+            out.writeInt(getVoiceCounter(i));
+        }
+        out.writeInts(voiceShiftRegisters);
+        out.writeInt(noiseLFSR);
+        out.writeInt(lastNoiseLFSR0);
+    }
+
+    /**
+     * Restores the voice state from the given StateReader.
+     *
+     * @param in The StateReader to read the voice state from.
+     */
+    public void loadState(StateReader in) {
+        soundClockDividerCounter = in.readInt();
+        for (int i = 0; i < 4; i++) {
+            cyclesToVoiceWrap[i] = getCyclesToVoiceWrap(i, in.readInt());
+        }
+        in.readInts(voiceShiftRegisters);
+        noiseLFSR = in.readInt();
+        lastNoiseLFSR0 = in.readInt();
+    }
+}
@@ -71,6 +71,11 @@ public class MachineInputProcessor extends InputAdapter {
      */
     private static final int MAX_SIMULTANEOUS_TOUCH_EVENTS = 5;
 
+    /**
+     * The number of consecutive frames saved as screenshots by ALT-U.
+     */
+    private static final int SCREENSHOT_BURST_FRAMES = 50;
+
     /**
      * Array of current touches indexed by touch pointer ID. This Map allows us to
      * keep drag of active dragging. If a drag happens to start within a keyboard
@@ -165,6 +170,16 @@ public class MachineInputProcessor extends InputAdapter {
                         machineScreen.saveScreenshot();
                     }
                     return true;
+                case Keys.U:
+                    if (!Gdx.app.getType().equals(ApplicationType.WebGL)) {
+                        machineScreen.saveScreenshots(SCREENSHOT_BURST_FRAMES);
+                    }
+                    return true;
+                case Keys.R:
+                    if (machineScreen.getJvicRunner().isCaptureSupported()) {
+                        machineScreen.getJvicRunner().toggleCapture();
+                    }
+                    return true;
                 case Keys.Z:
                     handleDiskReset();
                     return true;
@@ -4,6 +4,8 @@ import emu.jvic.MachineType;
 import emu.jvic.PixelData;
 import emu.jvic.memory.MemoryMappedChip;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * This class emulates the VIC chip. The emulation is very similar to the PIVIC firmware code,
@@ -85,6 +87,12 @@ public abstract class Vic extends MemoryMappedChip {
     protected static final int FETCH_CHAR_DATA = 9;
     protected static final int FETCH_MATRIX_END = 10;
     
+    /**
+     * The number of frames skipped after each rendered frame in warp speed mode, where
+     * the machine runs many times faster than the display can show. 
+     */
+    public static final int WARP_SPEED_FRAME_SKIP = 9;
+    
     // These are to make it easier to copy the PIVIC code in an out.
     protected static final int CVBS_PIO = 0;
     protected static final int CVBS_SM = 0;
@@ -99,10 +107,44 @@ public abstract class Vic extends MemoryMappedChip {
      */
     protected int pixelCounter;
     
+    /**
+     * Rolling hash of the colour indexes of the visible pixels output so far in the
+     * current frame. Compared with the hash of the previous frame to determine whether
+     * the frame has changed, so that unchanged frames don't need to be uploaded.
+     */
+    private int frameHash;
+    
+    /**
+     * The frameHash of the last completed frame.
+     */
+    private int lastFrameHash;
+    
+    /**
+     * The number of frames to skip after each rendered frame, e.g. in warp speed mode. 
+     * Skipped frames advance all of the counters and the timing as normal, but no pixels
+     * are output.
+     */
+    private int frameSkip;
+    
+    /**
+     * The number of frames skipped since the last rendered frame.
+     */
+    private int skippedFrames;
+    
+    /**
+     * Whether the pixels of the current frame are being output.
+     */
+    private boolean renderFrame = true;
+    
     /**
      * The type of machine that this Vic chip is in, i.e. either PAL or NTSC.
      */
     protected MachineType machineType;
+    
+    /**
+     * The video timing of this Vic chip, i.e. where the blanking and sync fall.
+     */
+    protected VicTiming timing;
 
     
     //
@@ -156,6 +198,30 @@ public abstract class Vic extends MemoryMappedChip {
     // Temporary variables, not a core part of the state.
     protected int charDataOffset = 0;
     
+    // Expressions to access different parts of control registers. These are decoded by
+    // decodeRegisters, which only needs to happen when a VIC register has been written.
+    protected int border_colour_index;
+    protected int background_colour_index;
+    protected int auxiliary_colour_index;
+    protected int non_reverse_mode;
+    protected int interlaced_mode;
+    protected int screen_origin_x;
+    protected int screen_origin_y;
+    protected int num_of_columns;
+    protected int num_of_rows;
+    protected int double_height_mode;
+    protected int last_line_of_cell;
+    protected int char_size_shift;
+    protected int screen_mem_start;
+    protected int char_mem_start;
+    protected int colour_mem_start;
+    
+    /**
+     * Set whenever a VIC register is written to, so that the control register expressions
+     * are decoded again before the next cycle is emulated.
+     */
+    protected boolean registersChanged = true;
+    
     /**
      * Constructor for VIC.
      * 
@@ -166,6 +232,7 @@ public abstract class Vic extends MemoryMappedChip {
     public Vic(PixelData pixelData, MachineType machineType, Snapshot snapshot) {
         this.pixelData = pixelData;
         this.machineType = machineType;
+        this.timing = VicTiming.forMachineType(machineType);
 
         buildMemTable();
         initRegNumbers();
@@ -219,6 +286,7 @@ public abstract class Vic extends MemoryMappedChip {
      * @param machineType The type of VIC 20 machine that is being emulated.
      */
     public void reset() {
+        registersChanged = true;
         prevHorizontalCounter = horizontalCounter = 0;
         verticalCounter = 0;
         pixelCounter = 0;
@@ -242,6 +310,86 @@ public abstract class Vic extends MemoryMappedChip {
         multiColourTable[3] = 0;
     }
 
+    /**
+     * Writes the state of the VIC chip to the given StateWriter. The VIC registers
+     * themselves are held in memory, so are saved along with the rest of memory.
+     *
+     * @param out The StateWriter to write the VIC state to.
+     */
+    public void saveState(StateWriter out) {
+        out.writeInt(pixelCounter);
+
+        // Counters.
+        out.writeInt(videoMatrixCounter);
+        out.writeInt(videoMatrixLatch);
+        out.writeInt(verticalCounter);
+        out.writeInt(horizontalCounter);
+        out.writeInt(prevHorizontalCounter);
+        out.writeInt(horizontalCellCounter);
+        out.writeInt(verticalCellCounter);
+        out.writeInt(cellDepthCounter);
+        out.writeInt(halfLineCounter);
+
+        // Fetched values and pixel output.
+        out.writeInt(cellIndex);
+        out.writeInt(charData);
+        out.writeInt(charDataLatch);
+        out.writeInt(colourData);
+        out.writeBoolean(hiresMode);
+        out.writeInt(borderColour);
+        out.writeInts(multiColourTable);
+        out.writeInt(pixel1);
+        out.writeInt(pixel2);
+        out.writeInt(pixel3);
+        out.writeInt(pixel4);
+        out.writeInt(pixel5);
+        out.writeInt(pixel6);
+        out.writeInt(pixel7);
+        out.writeInt(pixel8);
+        out.writeInt(fetchState);
+        out.writeInt(charDataOffset);
+    }
+
+    /**
+     * Restores the state of the VIC chip from the given StateReader.
+     *
+     * @param in The StateReader to read the VIC state from.
+     */
+    public void loadState(StateReader in) {
+        registersChanged = true;
+        pixelCounter = in.readInt();
+
+        // Counters.
+        videoMatrixCounter = in.readInt();
+        videoMatrixLatch = in.readInt();
+        verticalCounter = in.readInt();
+        horizontalCounter = in.readInt();
+        prevHorizontalCounter = in.readInt();
+        horizontalCellCounter = in.readInt();
+        verticalCellCounter = in.readInt();
+        cellDepthCounter = in.readInt();
+        halfLineCounter = in.readInt();
+
+        // Fetched values and pixel output.
+        cellIndex = in.readInt();
+        charData = in.readInt();
+        charDataLatch = in.readInt();
+        colourData = in.readInt();
+        hiresMode = in.readBoolean();
+        borderColour = in.readInt();
+        in.readInts(multiColourTable);
+        pixel1 = in.readInt();
+        pixel2 = in.readInt();
+        pixel3 = in.readInt();
+        pixel4 = in.readInt();
+        pixel5 = in.readInt();
+        pixel6 = in.readInt();
+        pixel7 = in.readInt();
+        pixel8 = in.readInt();
+        fetchState = in.readInt();
+        charDataOffset = in.readInt();
+    }
+
     /**
      * Reads a value from VIC memory.
      * 
@@ -254,7 +402,7 @@ public abstract class Vic extends MemoryMappedChip {
 
         // Handle all VIC chip memory address ranges, including undocumented ones.
         address = (address & 0xFF0F);
-        value = mem[address];
+        value = (mem[address] & 0xFF);
         memory.setLastBusData(value);
         
         return value;
@@ -279,14 +427,125 @@ public abstract class Vic extends MemoryMappedChip {
             case 8:
             case 9:
                 break;
+            case 10:
+            case 11:
+            case 12:
+            case 13:
+            case 14:
+                // The sound generator is caught up lazily, so it must be brought up to
+                // date before a sound register changes.
+                if (scheduler != null) {
+                    scheduler.sync();
+                }
+                mem[address] = (byte) value;
+                registersChanged = true;
+                break;
             default:
-                mem[address] = value;
+                mem[address] = (byte) value;
+                registersChanged = true;
                 break;
         }
     }
 
-    protected final void putVisiblePixel(int pixel) {
-        pixelData.putPixel(pixelCounter++, pixel);
+    /**
+     * Decodes the control register expressions from the current VIC register values. The
+     * raster line bits of registers 3 and 4, which the VIC chip updates itself, are not
+     * used by any of the expressions.
+     */
+    protected final void decodeRegisters() {
+        int reg0 = (mem[VIC_REG_0] & 0xFF);
+        int reg1 = (mem[VIC_REG_1] & 0xFF);
+        int reg2 = (mem[VIC_REG_2] & 0xFF);
+        int reg3 = (mem[VIC_REG_3] & 0xFF);
+        int reg5 = (mem[VIC_REG_5] & 0xFF);
+        int reg14 = (mem[VIC_REG_14] & 0xFF);
+        int reg15 = (mem[VIC_REG_15] & 0xFF);
+        
+        border_colour_index = (reg15 & 0x07);
+        background_colour_index = (reg15 >> 4);
+        auxiliary_colour_index = (reg14 >> 4);
+        non_reverse_mode = (reg15 & 0x08);
+        interlaced_mode = (reg0 & 0x80);
+        screen_origin_x = (reg0 & 0x7F);
+        screen_origin_y = reg1;
+        num_of_columns = (reg2 & 0x7F);
+        num_of_rows = ((reg3 & 0x7E) >> 1);
+        double_height_mode = (reg3 & 0x01);
+        last_line_of_cell = (7 | (double_height_mode << 3));
+        char_size_shift = (3 + double_height_mode);
+        screen_mem_start = (((reg5 & 0xF0) << 6) | ((reg2 & 0x80) << 2));
+        char_mem_start = ((reg5 & 0x0F) << 10);
+        colour_mem_start = (0x9400 | ((reg2 & 0x80) << 2));
+        
+        registersChanged = false;
+    }
+
+    protected final void putVisiblePixel(int colourIndex) {
+        if (renderFrame) {
+            pixelData.putPixel(pixelCounter, colourIndex);
+            frameHash = (frameHash + colourIndex) * 0x01000193;
+        }
+        pixelCounter++;
+    }
+
+    /**
+     * Invoked when the last visible line of a frame has been output. Resets the pixel 
+     * counter for the next frame, and lets the PixelData know if any pixel differs from
+     * the previous frame.
+     */
+    protected final void completeFrame() {
+        pixelCounter = 0;
+        if (renderFrame && (frameHash != lastFrameHash)) {
+            lastFrameHash = frameHash;
+            pixelData.frameChanged();
+        }
+        frameHash = 0;
+        
+        // Decide whether the next frame will be rendered or skipped.
+        if (skippedFrames < frameSkip) {
+            skippedFrames++;
+            renderFrame = false;
+        } else {
+            skippedFrames = 0;
+            renderFrame = true;
+        }
+    }
+
+    /**
+     * Sets the number of frames to skip after each rendered frame. This is intended for
+     * warp speed mode, where most frames would never be shown. A change only takes effect
+     * from the next frame, so that the frame currently being output is never left half
+     * rendered.
+     * 
+     * @param frameSkip The number of frames to skip. 0 renders every frame.
+     */
+    public void setFrameSkip(int frameSkip) {
+        this.frameSkip = Math.max(0, frameSkip);
+    }
+
+    /**
+     * Restarts the frame skip count, so that once the frame currently being output is
+     * complete, the given number of frames are skipped and then the next frame is rendered.
+     * Frame skipping then carries on as normal from that rendered frame. This is intended
+     * for lining the rendered frame up with the end of a batch of frames in warp speed
+     * mode, e.g. skipping batchFrames - 2 frames renders the last frame that completes in
+     * a batch of batchFrames frames. As with setFrameSkip, the frame currently being
+     * output is not affected.
+     *
+     * @param framesToSkip The number of frames to skip before the next rendered frame. At
+     *                     most frameSkip frames are skipped.
+     */
+    public void restartFrameSkip(int framesToSkip) {
+        skippedFrames = frameSkip - Math.min(Math.max(0, framesToSkip), frameSkip);
+    }
+
+    /**
+     * Gets the number of frames skipped after each rendered frame.
+     * 
+     * @return The number of frames to skip. 0 if every frame is rendered.
+     */
+    public int getFrameSkip() {
+        return frameSkip;
     }
 
     protected final void putBlankPixels(int count) {
@@ -300,17 +559,6 @@ public abstract class Vic extends MemoryMappedChip {
         //}
     }
 
-    protected void pio_sm_put(int pio, int sm, int pixel) {
-        if ((pixel & 0xFF) == 0xFF) {
-            // If alpha channel is set to 0xFF, then its a normal colour.
-            putVisiblePixel(pixel);
-        } else {
-            // Otherwise it is command that happens during blanking, e.g. hsync, col burst,
-            // front porch, back porch, etc., so we simply output transparent black.
-            putBlankPixels(pixel);
-        }
-    }
-    
     /**
      * Used by VIC44 modes.
      * 
@@ -3,48 +3,17 @@ package emu.jvic.video;
 import emu.jvic.MachineType;
 import emu.jvic.PixelData;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * This class emulates a special PIVIC44 mode where the pixels are output at twice the speed.
  */
 public class Vic44 extends Vic {
     
-    // Constants related to video timing for PAL.
-    private static final int PAL_HBLANK_END = 12;
-    private static final int PAL_HBLANK_START = 70;
-    private static final int PAL_VBLANK_START = 1;
-    private static final int PAL_VSYNC_START = 4;
-    private static final int PAL_VSYNC_END = 6;
-    private static final int PAL_VBLANK_END = 9;
-    private static final int PAL_LAST_LINE = 311;
-    
-    // PAL TIMING:
-    //
-    // Horiz Blanking - From: 70.915 To: 12.75 Len: 12.835 cycles (51.33 pixels)
-    //
-    // Made up of the following:
-    //
-    // Front Porch - From: 70.915 To: 1.75 Len: 1.835 cycles (7.33 pixels)
-    // Horiz Sync - From: 1.75 To: 6.75 Len: 5 cycles (20 pixels)
-    // Breezeway - From: 6.75 To: 7.5 Len: 0.75 cycles (3 pixels)
-    // Colour Burst - From: 7.5 To: 11.75 Len: 4.25 cycles (17 pixels)
-    // Back Porch - From: 11.75 To: 12.75 Len: 1 cycle (4 pixels)
-    //
-    // Visible pixels - From 12.75 to 70.915 Len: 58.165 cycles (232.66 pixels, i.e. approx. 233)
-    
-    private static final int PAL_FRONTPORCH_1 = (8 << 0);      // From 0 to 10 
-    private static final int PAL_FRONTPORCH_2 = (6 << 0);      // From 1 to 1.75
-    private static final int PAL_HSYNC = (40 << 0);            // From 1.75 to 6.75
-    private static final int PAL_BREEZEWAY = (6 << 0);         // From 6.75 to 7.5
-    private static final int PAL_COLBURST_O = (34 << 0);       // From 7.5 to 11.75
-    private static final int PAL_COLBURST_E = (34 << 0);       // From 7.5 to 11.75
-    private static final int PAL_BACKPORCH = (8 << 0);         // From 11.75 to 12.75
-    
-    // Vertical blanking and sync.
-    private static final int PAL_LONG_SYNC_L = (266 << 0);
-    private static final int PAL_LONG_SYNC_H = (18 << 0);
-    private static final int PAL_SHORT_SYNC_L = (18 << 0);
-    private static final int PAL_SHORT_SYNC_H = (266 << 0);
+    // The action for each cycle, indexed by vertical counter and then horizontal counter,
+    // as compiled from the PAL video timing by VicTiming.
+    private final int[][] cycleActions;
 
     private final static int palOddRGBA8888Colours[] = { 
             0x000000FF, // BLACK
@@ -84,12 +53,17 @@ public class Vic44 extends Vic {
             0xFFF2C2FF  // LIGHT YELLOW
     };
 
+    // Colour indexes of the first entries of the even and odd line palettes in the 
+    // PixelData palette. Index 0 is reserved for transparent black.
+    private static final int PAL_EVEN_PALETTE = 0x10;
+    private static final int PAL_ODD_PALETTE = 0x20;
+
     private int[] pal_palette_o = palOddRGBA8888Colours;
     private int[] pal_palette_e = palEvenRGBA8888Colours;
     
-    // Reference that alternates on each line between even and odd PAL palettes.
-    private int[] pal_palette = pal_palette_e;
-    private int[] pal_trunc_palette = pal_palette;
+    // Colour index offset that alternates on each line between even and odd PAL palettes.
+    private int pal_palette = PAL_EVEN_PALETTE;
+    private int pal_trunc_palette = pal_palette;
     
     private static final int VIC44_COLOUR_RAM_BASE_ADDRESS = 0x9400;
     private int colourRamBaseAddress;
@@ -118,7 +92,31 @@ public class Vic44 extends Vic {
      */
     public Vic44(PixelData pixelData, MachineType machineType, Snapshot snapshot, int colourRamBaseAddress) {
         super(pixelData, machineType, snapshot);
+        cycleActions = timing.getCycleActions();
         this.colourRamBaseAddress = colourRamBaseAddress;
+        pixelData.setPalette(PAL_EVEN_PALETTE, pal_palette_e);
+        pixelData.setPalette(PAL_ODD_PALETTE, pal_palette_o);
+    }
+
+    /**
+     * Writes the state of the VIC chip to the given StateWriter, including which of
+     * the odd and even line palettes is currently in use.
+     *
+     * @param out The StateWriter to write the VIC state to.
+     */
+    public void saveState(StateWriter out) {
+        super.saveState(out);
+        out.writeBoolean(pal_palette == PAL_ODD_PALETTE);
+    }
+
+    /**
+     * Restores the state of the VIC chip from the given StateReader.
+     *
+     * @param in The StateReader to read the VIC state from.
+     */
+    public void loadState(StateReader in) {
+        super.loadState(in);
+        pal_trunc_palette = pal_palette = (in.readBoolean() ? PAL_ODD_PALETTE : PAL_EVEN_PALETTE);
     }
     
     /**
@@ -129,28 +127,11 @@ public class Vic44 extends Vic {
     public boolean emulateCycle() {
         boolean frameRenderComplete = false;
 
-        int reg0 = mem[VIC_REG_0];
-        int reg1 = mem[VIC_REG_1];
-        int reg2 = mem[VIC_REG_2];
-        int reg3 = mem[VIC_REG_3];
-        int reg5 = mem[VIC_REG_5];
-        int reg14 = mem[VIC_REG_14];
-        int reg15 = mem[VIC_REG_15];
-        
-        // Expressions to access different parts of control registers.
-        int border_colour_index = (reg15 & 0x07);
-        int background_colour_index = (reg15 >> 4);
-        int auxiliary_colour_index = (reg14 >> 4);
-        int non_reverse_mode = (reg15 & 0x08);
-        int screen_origin_x = (reg0 & 0x7F);
-        int screen_origin_y = reg1;
-        int num_of_columns = (reg2 & 0x7F);
-        int num_of_rows = ((reg3 & 0x7E) >> 1);
-        int double_height_mode = (reg3 & 0x01);
-        int last_line_of_cell = (7 | (double_height_mode << 3));
-        int char_size_shift = (3 + double_height_mode);
-        int screen_mem_start = (((reg5 & 0xF0) << 6) | ((reg2 & 0x80) << 2));
-        int char_mem_start = ((reg5 & 0x0F) << 10);
+        // The control register expressions only change when a VIC register is written,
+        // which is rare compared to how often this method is called.
+        if (registersChanged) {
+            decodeRegisters();
+        }
 
         // VERTICAL TIMINGS:
         // Lines 1-9: Vertical blanking
@@ -163,10 +144,11 @@ public class Vic44 extends Vic {
         // before with the HC value from the previous cycle. This is why there are uses
         // of the prevHorizontalCounter variable in the logic.
 
-        switch (horizontalCounter) {
+        int cycleAction = cycleActions[verticalCounter][horizontalCounter];
+        switch (cycleAction) {
 
             // HC = 0 is handled in a single block for ALL lines.
-            case 0:
+            case VicTiming.CYCLE_HC_0:
                 
                 // Reset pixel output buffer to be all border colour at start of line.
                 pixel1 = pixel2 = pixel3 = pixel4 = pixel5 = pixel6 = pixel7 = pixel8 = 1;
@@ -224,7 +206,7 @@ public class Vic44 extends Vic {
             // is when the "new line" signal is seen by most components. It is also the cycle 
             // during which we queue the horiz blanking, horiz sync, colour burst, vertical
             // blanking and vsync, all up front for efficiency reasons.
-            case 1:
+            case VicTiming.CYCLE_HC_1:
     
                 // This needs to be checked before the vertical counter is updated.
                 if (fetchState == FETCH_OUTSIDE_MATRIX) {
@@ -242,7 +224,7 @@ public class Vic44 extends Vic {
     
                 // The Vertical Counter is incremented during HC=1, due to a deliberate 1 cycle
                 // delay between the HC reset and the VC increment.
-                if (verticalCounter == PAL_LAST_LINE) {
+                if (verticalCounter == timing.getLastLine()) {
                     // Previous cycle was end of last line, so reset VC.
                     verticalCounter = 0;
                     fetchState = FETCH_OUTSIDE_MATRIX;
@@ -253,59 +235,47 @@ public class Vic44 extends Vic {
                 }
     
                 // Update the raster line value stored in the VIC registers.
-                mem[VIC_REG_4] = (verticalCounter >> 1);
+                mem[VIC_REG_4] = (byte) (verticalCounter >> 1);
                 if ((verticalCounter & 0x01) == 0) {
                     mem[VIC_REG_3] &= 0x7F;
                 } else {
                     mem[VIC_REG_3] |= 0x80;
                 }
     
-                if ((verticalCounter == 0) || (verticalCounter > PAL_VBLANK_END)) {
-                    // In HC=1 for visible lines, we start with outputting the full sequence of CVBS
-                    // commands for horizontal blanking, including the hsync and colour burst.
-                    putBlankPixels(PAL_FRONTPORCH_2);
-                    putBlankPixels(PAL_HSYNC);
-                    putBlankPixels(PAL_BREEZEWAY);
-                    if ((verticalCounter & 1) == 1) {
-                        // Odd line. Switch colour palettes.
-                        pal_trunc_palette = pal_palette = pal_palette_o;
-                        putBlankPixels(PAL_COLBURST_O);
-                    } else {
-                        // Even line. Switch colour palettes.
-                        pal_trunc_palette = pal_palette = pal_palette_e;
-                        putBlankPixels(PAL_COLBURST_E);
-                    }
-                    putBlankPixels(PAL_BACKPORCH);
-                } else {
-                    // Last line was 0, which is the end of the visible lines.
-                    if (verticalCounter == 1) {
-                        pixelCounter = 0;
+                switch (timing.getLineType(verticalCounter)) {
+                    case VicTiming.LINE_VISIBLE:
+                        // In HC=1 for visible lines, we start with outputting the full sequence of CVBS
+                        // commands for horizontal blanking, including the hsync and colour burst.
+                        if ((verticalCounter & 1) == 1) {
+                            // Odd line. Switch colour palettes.
+                            pal_trunc_palette = pal_palette = PAL_ODD_PALETTE;
+                            putBlankPixels(timing.getLineStartBlankPixels(true));
+                        } else {
+                            // Even line. Switch colour palettes.
+                            pal_trunc_palette = pal_palette = PAL_EVEN_PALETTE;
+                            putBlankPixels(timing.getLineStartBlankPixels(false));
+                        }
+                        break;
+    
+                    case VicTiming.LINE_VBLANK_FIRST:
+                        // Last line was 0, which is the end of the visible lines.
+                        completeFrame();
                         frameRenderComplete = true;
-                    }
+                        putBlankPixels(timing.getVblankLinePixels());
+                        break;
     
-                    // Vertical blanking and sync - Lines 1-9.
-                    if (verticalCounter < PAL_VSYNC_START) {
-                        // Lines 1, 2, 3.
-                        putBlankPixels(PAL_SHORT_SYNC_L);
-                        putBlankPixels(PAL_SHORT_SYNC_H);
-                        putBlankPixels(PAL_SHORT_SYNC_L);
-                        putBlankPixels(PAL_SHORT_SYNC_H);
-                    } else if (verticalCounter <= PAL_VSYNC_END) {
+                    case VicTiming.LINE_VSYNC:
                         // Vertical sync, lines 4, 5, 6.
-                        putBlankPixels(PAL_LONG_SYNC_L);
-                        putBlankPixels(PAL_LONG_SYNC_H);
-                        putBlankPixels(PAL_LONG_SYNC_L);
-                        putBlankPixels(PAL_LONG_SYNC_H);
+                        putBlankPixels(timing.getVsyncLinePixels());
     
                         // Vertical sync is what resets the video matrix latch.
                         videoMatrixLatch = videoMatrixCounter = 0;
-                    } else {
-                        // Lines 7, 8, 9.
-                        putBlankPixels(PAL_SHORT_SYNC_L);
-                        putBlankPixels(PAL_SHORT_SYNC_H);
-                        putBlankPixels(PAL_SHORT_SYNC_L);
-                        putBlankPixels(PAL_SHORT_SYNC_H);
-                    }
+                        break;
+    
+                    default:
+                        // Vertical blanking, lines 2, 3, 7, 8, 9.
+                        putBlankPixels(timing.getVblankLinePixels());
+                        break;
                 }
     
                 // Due to the "new line" signal being generated by the Horizontal Counter Reset
@@ -378,7 +348,7 @@ public class Vic44 extends Vic {
     
             // HC = 2 is yet another special case, handled in a single block for ALL
             // lines. This is when the horizontal cell counter is loaded.
-            case 2:
+            case VicTiming.CYCLE_HC_2:
     
                 // Simplified state changes. We're in hblank, so its just the bare minimum.
                 switch (fetchState) {
@@ -434,7 +404,7 @@ public class Vic44 extends Vic {
     
             // HC = 3 is yet another special case, handled in a single block for ALL
             // lines. This is when the vertical cell counter is loaded
-            case 3:
+            case VicTiming.CYCLE_HC_3:
     
                 // Simplified state changes. We're in hblank, so its just the bare minimum.
                 switch (fetchState) {
@@ -482,528 +452,531 @@ public class Vic44 extends Vic {
                 prevHorizontalCounter = horizontalCounter++;
                 break;
     
-            // Covers HC=4 and above, up to HC=HBLANKSTART (e.g. HC=70 for PAL)
-            default:
-    
-                // Line 0, and Lines after 9, are "visible", i.e. not within the vertical blanking.
-                if ((verticalCounter == 0) || (verticalCounter > PAL_VBLANK_END)) {
-                    // Is the visible part of the line ending now and horizontal blanking starting?
-                    if (horizontalCounter == PAL_HBLANK_START) {
-                        // Horizontal blanking doesn't start until 3.66 pixels in. What exactly those
-                        // 3.66 pixels are depends on the fetch state.
-                        switch (fetchState) {
-                            case FETCH_OUTSIDE_MATRIX:
-                                if ((verticalCounter >> 1) == screen_origin_y) {
-                                    // This is the line the video matrix starts on. As in the real chip, we use
-                                    // a different state for the first part of the first video matrix line.
-                                    fetchState = FETCH_IN_MATRIX_Y;
-                                    
-                                    // Screen origin X can match in the same cycle as Y.
-                                    if (prevHorizontalCounter == screen_origin_x) {
-                                        fetchState = FETCH_MATRIX_DLY_1;
-                                    }
-                                }
-                                borderColour = border_colour_index;
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_trunc_palette[borderColour]);
-                                break;
+            // The cycle in which the visible part of the line ends and horizontal blanking
+            // starts, e.g. HC=70 for PAL.
+            case VicTiming.CYCLE_HBLANK_START:
+                // Horizontal blanking doesn't start until 3.66 pixels in. What exactly those
+                // 3.66 pixels are depends on the fetch state.
+                switch (fetchState) {
+                    case FETCH_OUTSIDE_MATRIX:
+                        if ((verticalCounter >> 1) == screen_origin_y) {
+                            // This is the line the video matrix starts on. As in the real chip, we use
+                            // a different state for the first part of the first video matrix line.
+                            fetchState = FETCH_IN_MATRIX_Y;
                             
-                            case FETCH_MATRIX_LINE:
-                                // Look up latest background, border and auxiliary colours.
-                                multiColourTable[0] = background_colour_index;
-                                multiColourTable[1] = borderColour = border_colour_index;
-                                multiColourTable[3] = auxiliary_colour_index;
-                                
-                                putVisiblePixel(pal_palette[multiColourTable[pixel2]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel3]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel4]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel5]]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_trunc_palette[borderColour]);
-                                break;
-        
-                            case FETCH_MATRIX_DLY_1:
-                            case FETCH_MATRIX_DLY_2:
-                            case FETCH_MATRIX_DLY_3:
-                                fetchState++;
-                            case FETCH_IN_MATRIX_Y:
-                                borderColour = border_colour_index;
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_palette[borderColour]);
-                                putVisiblePixel(pal_trunc_palette[borderColour]);
-                                break;
-        
-                            case FETCH_SCREEN_CODE:
-                                // Look up latest background, border and auxiliary colours.
-                                multiColourTable[0] = background_colour_index;
-                                multiColourTable[1] = border_colour_index;
-                                multiColourTable[3] = auxiliary_colour_index;
-        
-                                // First 3 whole pixels are from end of current character.
-                                putVisiblePixel(pal_palette[multiColourTable[pixel6]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel7]]);
-                                
-                                // We only need to calculate 8th & 1st pixel in this scenario. Hblanking is about to start.
-                                if (non_reverse_mode != 0) {
-                                    // New non-reversed mode value kicks in a pixel before new character.
-                                    if (hiresMode) {
-                                        pixel8 = ((charData & 0x01) > 0? 2 : 0);
-                                    } else {
-                                        pixel8 = (charData & 0x03);
-                                    }
-                                    
-                                    // Update the operating hires state and char data immediately prior to
-                                    // shifting out new character pixel.
-                                    hiresMode = ((colourData & 0x08) == 0);
-                                    charData = charDataLatch;
-                                    
-                                    // Pixel 1 should be same non-reversed mode but pick up the new hires mode.
-                                    if (hiresMode) {
-                                        pixel1 = ((charData & 0x80) > 0? 2 : 0);
-                                    } else {
-                                        pixel1 = ((charData >> 6) & 0x03);
-                                    }
-                                } else {
-                                    // New reversed mode value kicks in a pixel before new character.
-                                    if (hiresMode) {
-                                        pixel8 = ((charData & 0x01) > 0? 0 : 2);
-                                    } else {
-                                        pixel8 = (charData & 0x03);
-                                    }
-                                    
-                                    // Update the operating hires state and char data immediately prior to
-                                    // shifting out new character pixel.
-                                    hiresMode = ((colourData & 0x08) == 0);
-                                    charData = charDataLatch;
-                                    
-                                    // Pixel 1 should be same reversed mode but pick up the new hires mode.
-                                    if (hiresMode) {
-                                        pixel1 = ((charData & 0x80) > 0? 0 : 2);
-                                    } else {
-                                        pixel1 = ((charData >> 6) & 0x03);
-                                    }
-                                }
-                                
-                                // The 3rd pixel is from the previous character with new reverse mode applied (see above).
-                                putVisiblePixel(pal_palette[multiColourTable[pixel8]]);
-                                
-                                // Look up foreground colour before outputting first pixel of new character.
-                                multiColourTable[2] = (colourData & 0x07);
-                                
-                                // The 4th pixel is partial before horiz blanking kicks in.
-                                putVisiblePixel(pal_trunc_palette[multiColourTable[pixel1]]);
-                                
-                                fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
-        
-                            case FETCH_CHAR_DATA:
-                            case FETCH_MATRIX_END:
-                                // Look up latest background, border and auxiliary colours.
-                                multiColourTable[0] = background_colour_index;
-                                multiColourTable[1] = border_colour_index;
-                                multiColourTable[3] = auxiliary_colour_index;
-                                
-                                // Output the three whole pixels.
-                                putVisiblePixel(pal_palette[multiColourTable[pixel2]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel3]]);
-                                putVisiblePixel(pal_palette[multiColourTable[pixel4]]);
-                                
-                                // The 4th pixel is a partial pixel before horizontal blanking kicks in.
-                                putVisiblePixel(pal_trunc_palette[multiColourTable[pixel5]]);
-                                
-                                // If the matrix hasn't yet closed, then in the FETCH_CHAR_DATA
-                                // state, we need to keep incrementing the video matrix counter
-                                // until it is closed, which at the latest could be HC=1 on the
-                                // next line.
-                                
-                                if (fetchState == FETCH_MATRIX_END) {
-                                    // Leaving the matrix
-                                    fetchState = FETCH_MATRIX_LINE;
-                                } else {
-                                    // Increment the video matrix counter to next cell.
-                                    videoMatrixCounter++;
-                                    
-                                    // Toggle fetch state. For efficiency, HCC deliberately not checked here.
-                                    fetchState = FETCH_SCREEN_CODE;
-                                }
-                                break;
+                            // Screen origin X can match in the same cycle as Y.
+                            if (prevHorizontalCounter == screen_origin_x) {
+                                fetchState = FETCH_MATRIX_DLY_1;
+                            }
                         }
+                        borderColour = border_colour_index;
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_trunc_palette + borderColour);
+                        break;
+                    
+                    case FETCH_MATRIX_LINE:
+                        // Look up latest background, border and auxiliary colours.
+                        multiColourTable[0] = background_colour_index;
+                        multiColourTable[1] = borderColour = border_colour_index;
+                        multiColourTable[3] = auxiliary_colour_index;
+                        
+                        putVisiblePixel(pal_palette + multiColourTable[pixel2]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel3]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel4]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel5]);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_trunc_palette + borderColour);
+                        break;
+
+                    case FETCH_MATRIX_DLY_1:
+                    case FETCH_MATRIX_DLY_2:
+                    case FETCH_MATRIX_DLY_3:
+                        fetchState++;
+                    case FETCH_IN_MATRIX_Y:
+                        borderColour = border_colour_index;
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_palette + borderColour);
+                        putVisiblePixel(pal_trunc_palette + borderColour);
+                        break;
+
+                    case FETCH_SCREEN_CODE:
+                        // Look up latest background, border and auxiliary colours.
+                        multiColourTable[0] = background_colour_index;
+                        multiColourTable[1] = border_colour_index;
+                        multiColourTable[3] = auxiliary_colour_index;
+
+                        // First 3 whole pixels are from end of current character.
+                        putVisiblePixel(pal_palette + multiColourTable[pixel6]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel7]);
+                        
+                        // We only need to calculate 8th & 1st pixel in this scenario. Hblanking is about to start.
+                        if (non_reverse_mode != 0) {
+                            // New non-reversed mode value kicks in a pixel before new character.
+                            if (hiresMode) {
+                                pixel8 = ((charData & 0x01) > 0? 2 : 0);
+                            } else {
+                                pixel8 = (charData & 0x03);
+                            }
+                            
+                            // Update the operating hires state and char data immediately prior to
+                            // shifting out new character pixel.
+                            hiresMode = ((colourData & 0x08) == 0);
+                            charData = charDataLatch;
+                            
+                            // Pixel 1 should be same non-reversed mode but pick up the new hires mode.
+                            if (hiresMode) {
+                                pixel1 = ((charData & 0x80) > 0? 2 : 0);
+                            } else {
+                                pixel1 = ((charData >> 6) & 0x03);
+                            }
+                        } else {
+                            // New reversed mode value kicks in a pixel before new character.
+                            if (hiresMode) {
+                                pixel8 = ((charData & 0x01) > 0? 0 : 2);
+                            } else {
+                                pixel8 = (charData & 0x03);
+                            }
+                            
+                            // Update the operating hires state and char data immediately prior to
+                            // shifting out new character pixel.
+                            hiresMode = ((colourData & 0x08) == 0);
+                            charData = charDataLatch;
+                            
+                            // Pixel 1 should be same reversed mode but pick up the new hires mode.
+                            if (hiresMode) {
+                                pixel1 = ((charData & 0x80) > 0? 0 : 2);
+                            } else {
+                                pixel1 = ((charData >> 6) & 0x03);
+                            }
+                        }
+                        
+                        // The 3rd pixel is from the previous character with new reverse mode applied (see above).
+                        putVisiblePixel(pal_palette + multiColourTable[pixel8]);
+                        
+                        // Look up foreground colour before outputting first pixel of new character.
+                        multiColourTable[2] = (colourData & 0x07);
+                        
+                        // The 4th pixel is partial before horiz blanking kicks in.
+                        putVisiblePixel(pal_trunc_palette + multiColourTable[pixel1]);
+                        
+                        fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
+
+                    case FETCH_CHAR_DATA:
+                    case FETCH_MATRIX_END:
+                        // Look up latest background, border and auxiliary colours.
+                        multiColourTable[0] = background_colour_index;
+                        multiColourTable[1] = border_colour_index;
+                        multiColourTable[3] = auxiliary_colour_index;
+                        
+                        // Output the three whole pixels.
+                        putVisiblePixel(pal_palette + multiColourTable[pixel2]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel3]);
+                        putVisiblePixel(pal_palette + multiColourTable[pixel4]);
+                        
+                        // The 4th pixel is a partial pixel before horizontal blanking kicks in.
+                        putVisiblePixel(pal_trunc_palette + multiColourTable[pixel5]);
+                        
+                        // If the matrix hasn't yet closed, then in the FETCH_CHAR_DATA
+                        // state, we need to keep incrementing the video matrix counter
+                        // until it is closed, which at the latest could be HC=1 on the
+                        // next line.
+                        
+                        if (fetchState == FETCH_MATRIX_END) {
+                            // Leaving the matrix
+                            fetchState = FETCH_MATRIX_LINE;
+                        } else {
+                            // Increment the video matrix counter to next cell.
+                            videoMatrixCounter++;
+                            
+                            // Toggle fetch state. For efficiency, HCC deliberately not checked here.
+                            fetchState = FETCH_SCREEN_CODE;
+                        }
+                        break;
+                }
+
+                // After the 3.66 visible pixels, we now output the start of horiz blanking.
+                putBlankPixels(timing.getFrontPorchPixels());
     
-                        // After the 3.66 visible pixels, we now output the start of horiz blanking.
-                        putBlankPixels(PAL_FRONTPORCH_1);
+                // Reset HC to start a new line.
+                prevHorizontalCounter = horizontalCounter;
+                horizontalCounter = 0;
+                break;
     
-                        // Reset HC to start a new line.
-                        prevHorizontalCounter = horizontalCounter;
-                        horizontalCounter = 0;
-                    } else {
-                        // Covers visible line cycles from HC=4 to 1 cycle before HC=HBLANKSTART 
-                        // (e.g. HC=70 for PAL)
-                        switch (fetchState) {
-                        
-                            case FETCH_OUTSIDE_MATRIX:
-                                if ((verticalCounter >> 1) == screen_origin_y) {
-                                    // This is the line the video matrix starts on. As in the real chip, we use
-                                    // a different state for the first part of the first video matrix line.
-                                    fetchState = FETCH_IN_MATRIX_Y;
-                                    
-                                    // Screen origin X can match in the same cycle as Y.
-                                    if (prevHorizontalCounter == screen_origin_x) {
-                                        fetchState = FETCH_MATRIX_DLY_1;
-                                    }
-                                }
-                                if (horizontalCounter >= PAL_HBLANK_END) {
-                                    // Output four border pixels.
-                                    borderColour = border_colour_index;
-                                    
-                                    // Output only one visible border pixel for HC=12, as first three "pixels"
-                                    // are part of the horizontal blanking. Note that the third one is due
-                                    // to the switch delay in hblank turning off.
-                                    if (horizontalCounter > PAL_HBLANK_END) {
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                    }
-                                    putVisiblePixel(pal_palette[borderColour]);
-                                    putVisiblePixel(pal_palette[borderColour]);
-                                }
-                                break;
-        
-                            case FETCH_IN_MATRIX_Y:
-                            case FETCH_MATRIX_LINE:
-                                if (horizontalCounter >= PAL_HBLANK_END) {
-                                    
-                                    // Look up very latest background, border and auxiliary colour values.
-                                    multiColourTable[0] = background_colour_index;
-                                    multiColourTable[1] = border_colour_index;
-                                    multiColourTable[3] = auxiliary_colour_index;
-                    
-                                    if (horizontalCounter > PAL_HBLANK_END) {
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel6]]);
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel7]]);
-                                    }
-                    
-                                    // Handle the last pixel of the last char of the current matrix row.
-                                    if (hiresMode) {
-                                        if (non_reverse_mode != 0) {
-                                            pixel8 = ((charData & 0x01) > 0? 2 : 0);
-                                        } else {
-                                            pixel8 = ((charData & 0x01) > 0? 0 : 2);
-                                        }
-                                    } else {
-                                        pixel8 = (charData & 0x03);
-                                    }
-                                    
-                                    hiresMode = false;
-                                    colourData = 0x08;
-                                    charData = charDataLatch = 0x55;
-                                    pixel1 = ((charData >> 6) & 0x03);
-                                    
-                                    if (horizontalCounter > PAL_HBLANK_END) {
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel8]]);
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel1]]);
-                                    }
-                                    
-                                    pixel6 = pixel2 = pixel1;
-                                    pixel7 = pixel3 = ((charData >> 4) & 0x03);
-                                    pixel8 = pixel1 = pixel2 = pixel3 = pixel4 = pixel5 = 1;
-                                    
-                                    if (horizontalCounter > PAL_HBLANK_END) {
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel2]]);
-                                        putVisiblePixel(pal_palette[multiColourTable[pixel3]]);
-                                    }
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel4]]);
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel5]]);
-        
-                                    if (prevHorizontalCounter == screen_origin_x) {
-                                        fetchState = FETCH_MATRIX_DLY_1;
-                                    }
-                                } else if (prevHorizontalCounter == screen_origin_x) {
-                                    // Still in horizontal blanking, but we still need to prepare for the case
-                                    // where the next cycle isn't in horiz blanking, i.e. when HC=11 this cycle.
-                                    fetchState = FETCH_MATRIX_DLY_1;
-                                }
-                                break;
-                                
-                            case FETCH_MATRIX_DLY_1:
-                            case FETCH_MATRIX_DLY_2:
-                            case FETCH_MATRIX_DLY_3:
-                                if (horizontalCounter >= PAL_HBLANK_END) {
-                                    // Output four border pixels.
-                                    borderColour = border_colour_index;
-
-                                    // Output only one visible border pixel for HC=12, as first three "pixels"
-                                    // are part of the horizontal blanking. Note that the third one is due
-                                    // to the switch delay in hblank turning off.
-                                    if (horizontalCounter > PAL_HBLANK_END) {
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                        putVisiblePixel(pal_palette[borderColour]);
-                                    }
-                                    putVisiblePixel(pal_palette[borderColour]);
-                                    putVisiblePixel(pal_palette[borderColour]);
-                                }
-                                else {
-                                    pixel2 = pixel3 = pixel4 = pixel5 = pixel6 = pixel7 = pixel8 = 1;
-                                }
-        
-                                // Prime the pixel output queue with border pixels in multicolour
-                                // mode. Not quite what the real chip does but is functionally equivalent.
-                                hiresMode = false;
-                                colourData = 0x08;
-                                charDataLatch = 0x55;
-        
-                                fetchState++;
-                                break;
-        
-                            case FETCH_SCREEN_CODE:
-        
-                                // Look up very latest background, border and auxiliary colour values.
-                                multiColourTable[0] = background_colour_index;
-                                multiColourTable[1] = border_colour_index;
-                                multiColourTable[3] = auxiliary_colour_index;
-        
-                                // Output last 3 pixels of the last character. These had already left 
-                                // the shift register but in the delay path to the colour lookup.
-                                if (horizontalCounter > PAL_HBLANK_END) {
-                                    // Note: These 3 pixels are not output for HC=12, as first three "pixels"
-                                    // are part of the horizontal blanking. Note that the third one is due
-                                    // to the switch delay in hblank turning off.
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel6]]);
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel7]]);
-                                }
-        
-                                // Note that when we first enter this state, these variables are primed
-                                // to initially output border pixels while the process of fetching the 
-                                // first real character is taking place, which happens over the first two 
-                                // cycles.
+            // Covers visible line cycles from HC=4 to 1 cycle before HC=HBLANKSTART 
+            // (e.g. HC=70 for PAL). Line 0, and Lines after 9, are "visible", i.e. not 
+            // within the vertical blanking.
+            case VicTiming.CYCLE_HBLANK:
+            case VicTiming.CYCLE_HBLANK_END:
+            case VicTiming.CYCLE_DISPLAY:
+                switch (fetchState) {
+                
+                    case FETCH_OUTSIDE_MATRIX:
+                        if ((verticalCounter >> 1) == screen_origin_y) {
+                            // This is the line the video matrix starts on. As in the real chip, we use
+                            // a different state for the first part of the first video matrix line.
+                            fetchState = FETCH_IN_MATRIX_Y;
+                            
+                            // Screen origin X can match in the same cycle as Y.
+                            if (prevHorizontalCounter == screen_origin_x) {
+                                fetchState = FETCH_MATRIX_DLY_1;
+                            }
+                        }
+                        if (cycleAction >= VicTiming.CYCLE_HBLANK_END) {
+                            // Output four border pixels.
+                            borderColour = border_colour_index;
+                            
+                            // Output only one visible border pixel for HC=12, as first three "pixels"
+                            // are part of the horizontal blanking. Note that the third one is due
+                            // to the switch delay in hblank turning off.
+                            if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                            }
+                            putVisiblePixel(pal_palette + borderColour);
+                            putVisiblePixel(pal_palette + borderColour);
+                        }
+                        break;
 
+                    case FETCH_IN_MATRIX_Y:
+                    case FETCH_MATRIX_LINE:
+                        if (cycleAction >= VicTiming.CYCLE_HBLANK_END) {
+                            
+                            // Look up very latest background, border and auxiliary colour values.
+                            multiColourTable[0] = background_colour_index;
+                            multiColourTable[1] = border_colour_index;
+                            multiColourTable[3] = auxiliary_colour_index;
+            
+                            if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                                putVisiblePixel(pal_palette + multiColourTable[pixel6]);
+                                putVisiblePixel(pal_palette + multiColourTable[pixel7]);
+                            }
+            
+                            // Handle the last pixel of the last char of the current matrix row.
+                            if (hiresMode) {
                                 if (non_reverse_mode != 0) {
-                                    // New non-reversed mode value kicks in a pixel before new character.
-                                    if (hiresMode) {
-                                        pixel8 = ((charData & 0x01) > 0? 2 : 0);
-                                    } else {
-                                        pixel8 = (charData & 0x03);
-                                    }
-                                    
-                                    // Update the operating hires state and char data immediately prior to
-                                    // shifting out new character pixel.
-                                    hiresMode = ((colourData & 0x08) == 0);
-                                    charData = charDataLatch;
-                                    
-                                    // Pixel 1 should be same non-reversed mode but pick up the new hires mode.
-                                    if (hiresMode) {
-                                        pixel1 = ((charData & 0x80) > 0? 2 : 0);
-                                        pixel2 = ((charData & 0x40) > 0? 2 : 0);
-                                        pixel3 = ((charData & 0x20) > 0? 2 : 0);
-                                    } else {
-                                        pixel1 = pixel2 = ((charData >> 6) & 0x03);
-                                        pixel3 = ((charData >> 4) & 0x03);
-                                    }
+                                    pixel8 = ((charData & 0x01) > 0? 2 : 0);
                                 } else {
-                                    // New reversed mode value kicks in a pixel before new character.
-                                    if (hiresMode) {
-                                        pixel8 = ((charData & 0x01) > 0? 0 : 2);
-                                    } else {
-                                        pixel8 = (charData & 0x03);
-                                    }
-                                    
-                                    // Update the operating hires state and char data immediately prior to
-                                    // shifting out new character pixel.
-                                    hiresMode = ((colourData & 0x08) == 0);
-                                    charData = charDataLatch;
-                                    
-                                    // Pixel 1 should be same reversed mode but pick up the new hires mode.
-                                    if (hiresMode) {
-                                        pixel1 = ((charData & 0x80) > 0? 0 : 2);
-                                        pixel2 = ((charData & 0x40) > 0? 0 : 2);
-                                        pixel3 = ((charData & 0x20) > 0? 0 : 2);
-                                    } else {
-                                        pixel1 = pixel2 = ((charData >> 6) & 0x03);
-                                        pixel3 = ((charData >> 4) & 0x03);
-                                    }
-                                }
-                                
-                                if (horizontalCounter > PAL_HBLANK_END) {
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel8]]);
-                                }
-        
-                                // Look up foreground colour before outputting first pixel.
-                                multiColourTable[2] = (colourData & 0x07);
-        
-                                // Calculate address within video memory and fetch cell index.
-                                int screenAddress = screen_mem_start + videoMatrixCounter;
-                                
-                                switch ((screenAddress >> 10) & 0xF) {
-                                    case 0:
-                                    case 1:
-                                    case 2:
-                                    case 3:
-                                        // PIVIC has char ROM embedded. Not useful to have screen mem here though.
-                                        cellIndex = charRom[screenAddress];
-                                        break;
-                                    default:
-                                        // All other VIC chip read address go to main memory.
-                                        cellIndex = mem[VIC_MEM_TABLE[screenAddress & 0x3FFF]];
-                                        break;
-                                }
-                                
-                                // Due to the way the colour memory is wired up, the above fetch of the cell
-                                // index also happens to automatically fetch the foreground colour from the 
-                                // Colour Matrix via the top 4 lines of the data bus (DB8-DB11), which are 
-                                // wired directly from colour RAM in to the VIC chip.
-                                colourData = mem[colourRamBaseAddress + (screenAddress & 0x3ff)];
-        
-                                // Output the 1st pixel of next character. Note that this is not the character
-                                // that relates to the cell index and colour data fetched above.
-                                if (horizontalCounter > PAL_HBLANK_END) {
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel1]]);
-                                }
-        
-                                // Toggle fetch state. Close matrix if HCC hits zero.
-                                fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
-                                
-        
-                            case FETCH_CHAR_DATA:
-                            case FETCH_MATRIX_END:
-                                
-                                // Look up very latest background, border and auxiliary colour values.
-                                multiColourTable[0] = background_colour_index;
-                                multiColourTable[1] = border_colour_index;
-                                multiColourTable[3] = auxiliary_colour_index;
-        
-                                // Output only one visible pixel for HC=12, as first three "pixels"
-                                // are part of the horizontal blanking. Note that the third one is due
-                                // to the switch delay in hblank turning off. This is why we skip these
-                                // pixels for HC=12.
-                                if (horizontalCounter > PAL_HBLANK_END) {
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel2]]);
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel3]]);
-                                }
-        
-                                // Calculate offset of data.
-                                charDataOffset = char_mem_start + (cellIndex << char_size_shift) + cellDepthCounter;
-        
-                                switch ((charDataOffset >> 10) & 0xF) {
-                                    case 0:
-                                    case 1:
-                                    case 2:
-                                    case 3:
-                                        // PIVIC has char ROM embedded.
-                                        charDataLatch = charRom[charDataOffset];
-                                        break;
-                                    default:
-                                        // Fetch cell data, initially latched to the side until it is needed.
-                                        charDataLatch = mem[VIC_MEM_TABLE[(charDataOffset & 0x3FFF)]];
-                                        break;
-                                }
-        
-                                // Determine next character pixels.
-                                if (hiresMode) {
-                                    if (non_reverse_mode != 0) {
-                                        pixel4 = ((charData & 0x10) > 0? 2 : 0);
-                                        pixel5 = ((charData & 0x08) > 0? 2 : 0);
-                                        pixel6 = ((charData & 0x04) > 0? 2 : 0);
-                                        pixel7 = ((charData & 0x02) > 0? 2 : 0);
-                                    } else {
-                                        pixel4 = ((charData & 0x10) > 0? 0 : 2);
-                                        pixel5 = ((charData & 0x08) > 0? 0 : 2);
-                                        pixel6 = ((charData & 0x04) > 0? 0 : 2);
-                                        pixel7 = ((charData & 0x02) > 0? 0 : 2);
-                                    }
-                                } else {
-                                    // Multicolour graphics.
-                                    pixel4 = ((charData >> 4) & 0x03);
-                                    pixel5 = pixel6 = ((charData >> 2) & 0x03);
-                                    pixel7 = (charData & 0x03);
-                                }
-                                
-                                if (horizontalCounter >= PAL_HBLANK_END) {
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel4]]);
-                                    putVisiblePixel(pal_palette[multiColourTable[pixel5]]);
-                                }
-                                
-                                if (fetchState == FETCH_MATRIX_END) {
-                                    // Leaving the matrix
-                                    fetchState = FETCH_MATRIX_LINE;
-                                } else {
-                                    // Increment the video matrix counter to next cell.
-                                    videoMatrixCounter++;
-                                    
-                                    // Toggle fetch state. For efficiency, HCC deliberately not checked here.
-                                    fetchState = FETCH_SCREEN_CODE;
-                                }
-                                break;
-                        }
-    
-                        prevHorizontalCounter = horizontalCounter++;
-                    }
-                } else {
-                    // Inside vertical blanking. The CVBS commands for each line were already sent
-                    // during HC=0. In case the screen origin Y is set within the vertical blanking 
-                    // lines, we still need to update the fetch state, video matrix counter, and the
-                    // horizontal cell counter, even though we're not outputting character pixels. 
-                    // So for the rest of the line, it is a simplified version of the standard line,
-                    // except that we don't output any pixels.
-                    switch (fetchState) {
-                        case FETCH_OUTSIDE_MATRIX:
-                            if ((verticalCounter >> 1) == screen_origin_y) {
-                                // This is the line the video matrix starts on. As in the real chip, we use
-                                // a different state for the first part of the first video matrix line.
-                                fetchState = FETCH_IN_MATRIX_Y;
-                                
-                                // Screen origin X can match in the same cycle as Y.
-                                if (prevHorizontalCounter == screen_origin_x) {
-                                    fetchState = FETCH_MATRIX_DLY_1;
+                                    pixel8 = ((charData & 0x01) > 0? 0 : 2);
                                 }
+                            } else {
+                                pixel8 = (charData & 0x03);
+                            }
+                            
+                            hiresMode = false;
+                            colourData = 0x08;
+                            charData = charDataLatch = 0x55;
+                            pixel1 = ((charData >> 6) & 0x03);
+                            
+                            if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                                putVisiblePixel(pal_palette + multiColourTable[pixel8]);
+                                putVisiblePixel(pal_palette + multiColourTable[pixel1]);
+                            }
+                            
+                            pixel6 = pixel2 = pixel1;
+                            pixel7 = pixel3 = ((charData >> 4) & 0x03);
+                            pixel8 = pixel1 = pixel2 = pixel3 = pixel4 = pixel5 = 1;
+                            
+                            if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                                putVisiblePixel(pal_palette + multiColourTable[pixel2]);
+                                putVisiblePixel(pal_palette + multiColourTable[pixel3]);
                             }
-                            break;
-                        case FETCH_IN_MATRIX_Y:
-                        case FETCH_MATRIX_LINE:
+                            putVisiblePixel(pal_palette + multiColourTable[pixel4]);
+                            putVisiblePixel(pal_palette + multiColourTable[pixel5]);
+
                             if (prevHorizontalCounter == screen_origin_x) {
                                 fetchState = FETCH_MATRIX_DLY_1;
                             }
-                            break;
-                        case FETCH_MATRIX_DLY_1:
-                        case FETCH_MATRIX_DLY_2:
-                        case FETCH_MATRIX_DLY_3:
-                            fetchState++;
-                            break;
-                        case FETCH_SCREEN_CODE:
-                            fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
-                            break;
-                        case FETCH_CHAR_DATA:
+                        } else if (prevHorizontalCounter == screen_origin_x) {
+                            // Still in horizontal blanking, but we still need to prepare for the case
+                            // where the next cycle isn't in horiz blanking, i.e. when HC=11 this cycle.
+                            fetchState = FETCH_MATRIX_DLY_1;
+                        }
+                        break;
+                        
+                    case FETCH_MATRIX_DLY_1:
+                    case FETCH_MATRIX_DLY_2:
+                    case FETCH_MATRIX_DLY_3:
+                        if (cycleAction >= VicTiming.CYCLE_HBLANK_END) {
+                            // Output four border pixels.
+                            borderColour = border_colour_index;
+
+                            // Output only one visible border pixel for HC=12, as first three "pixels"
+                            // are part of the horizontal blanking. Note that the third one is due
+                            // to the switch delay in hblank turning off.
+                            if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                                putVisiblePixel(pal_palette + borderColour);
+                            }
+                            putVisiblePixel(pal_palette + borderColour);
+                            putVisiblePixel(pal_palette + borderColour);
+                        }
+                        else {
+                            pixel2 = pixel3 = pixel4 = pixel5 = pixel6 = pixel7 = pixel8 = 1;
+                        }
+
+                        // Prime the pixel output queue with border pixels in multicolour
+                        // mode. Not quite what the real chip does but is functionally equivalent.
+                        hiresMode = false;
+                        colourData = 0x08;
+                        charDataLatch = 0x55;
+
+                        fetchState++;
+                        break;
+
+                    case FETCH_SCREEN_CODE:
+
+                        // Look up very latest background, border and auxiliary colour values.
+                        multiColourTable[0] = background_colour_index;
+                        multiColourTable[1] = border_colour_index;
+                        multiColourTable[3] = auxiliary_colour_index;
+
+                        // Output last 3 pixels of the last character. These had already left 
+                        // the shift register but in the delay path to the colour lookup.
+                        if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                            // Note: These 3 pixels are not output for HC=12, as first three "pixels"
+                            // are part of the horizontal blanking. Note that the third one is due
+                            // to the switch delay in hblank turning off.
+                            putVisiblePixel(pal_palette + multiColourTable[pixel6]);
+                            putVisiblePixel(pal_palette + multiColourTable[pixel7]);
+                        }
+
+                        // Note that when we first enter this state, these variables are primed
+                        // to initially output border pixels while the process of fetching the 
+                        // first real character is taking place, which happens over the first two 
+                        // cycles.
+
+                        if (non_reverse_mode != 0) {
+                            // New non-reversed mode value kicks in a pixel before new character.
+                            if (hiresMode) {
+                                pixel8 = ((charData & 0x01) > 0? 2 : 0);
+                            } else {
+                                pixel8 = (charData & 0x03);
+                            }
+                            
+                            // Update the operating hires state and char data immediately prior to
+                            // shifting out new character pixel.
+                            hiresMode = ((colourData & 0x08) == 0);
+                            charData = charDataLatch;
+                            
+                            // Pixel 1 should be same non-reversed mode but pick up the new hires mode.
+                            if (hiresMode) {
+                                pixel1 = ((charData & 0x80) > 0? 2 : 0);
+                                pixel2 = ((charData & 0x40) > 0? 2 : 0);
+                                pixel3 = ((charData & 0x20) > 0? 2 : 0);
+                            } else {
+                                pixel1 = pixel2 = ((charData >> 6) & 0x03);
+                                pixel3 = ((charData >> 4) & 0x03);
+                            }
+                        } else {
+                            // New reversed mode value kicks in a pixel before new character.
+                            if (hiresMode) {
+                                pixel8 = ((charData & 0x01) > 0? 0 : 2);
+                            } else {
+                                pixel8 = (charData & 0x03);
+                            }
+                            
+                            // Update the operating hires state and char data immediately prior to
+                            // shifting out new character pixel.
+                            hiresMode = ((colourData & 0x08) == 0);
+                            charData = charDataLatch;
+                            
+                            // Pixel 1 should be same reversed mode but pick up the new hires mode.
+                            if (hiresMode) {
+                                pixel1 = ((charData & 0x80) > 0? 0 : 2);
+                                pixel2 = ((charData & 0x40) > 0? 0 : 2);
+                                pixel3 = ((charData & 0x20) > 0? 0 : 2);
+                            } else {
+                                pixel1 = pixel2 = ((charData >> 6) & 0x03);
+                                pixel3 = ((charData >> 4) & 0x03);
+                            }
+                        }
+                        
+                        if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                            putVisiblePixel(pal_palette + multiColourTable[pixel8]);
+                        }
+
+                        // Look up foreground colour before outputting first pixel.
+                        multiColourTable[2] = (colourData & 0x07);
+
+                        // Calculate address within video memory and fetch cell index.
+                        int screenAddress = screen_mem_start + videoMatrixCounter;
+                        
+                        switch ((screenAddress >> 10) & 0xF) {
+                            case 0:
+                            case 1:
+                            case 2:
+                            case 3:
+                                // PIVIC has char ROM embedded. Not useful to have screen mem here though.
+                                cellIndex = charRom[screenAddress];
+                                break;
+                            default:
+                                // All other VIC chip read address go to main memory.
+                                cellIndex = (mem[VIC_MEM_TABLE[screenAddress & 0x3FFF]] & 0xFF);
+                                break;
+                        }
+                        
+                        // Due to the way the colour memory is wired up, the above fetch of the cell
+                        // index also happens to automatically fetch the foreground colour from the 
+                        // Colour Matrix via the top 4 lines of the data bus (DB8-DB11), which are 
+                        // wired directly from colour RAM in to the VIC chip.
+                        colourData = (mem[colourRamBaseAddress + (screenAddress & 0x3ff)] & 0xFF);
+
+                        // Output the 1st pixel of next character. Note that this is not the character
+                        // that relates to the cell index and colour data fetched above.
+                        if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                            putVisiblePixel(pal_palette + multiColourTable[pixel1]);
+                        }
+
+                        // Toggle fetch state. Close matrix if HCC hits zero.
+                        fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
+                        
+
+                    case FETCH_CHAR_DATA:
+                    case FETCH_MATRIX_END:
+                        
+                        // Look up very latest background, border and auxiliary colour values.
+                        multiColourTable[0] = background_colour_index;
+                        multiColourTable[1] = border_colour_index;
+                        multiColourTable[3] = auxiliary_colour_index;
+
+                        // Output only one visible pixel for HC=12, as first three "pixels"
+                        // are part of the horizontal blanking. Note that the third one is due
+                        // to the switch delay in hblank turning off. This is why we skip these
+                        // pixels for HC=12.
+                        if (cycleAction == VicTiming.CYCLE_DISPLAY) {
+                            putVisiblePixel(pal_palette + multiColourTable[pixel2]);
+                            putVisiblePixel(pal_palette + multiColourTable[pixel3]);
+                        }
+
+                        // Calculate offset of data.
+                        charDataOffset = char_mem_start + (cellIndex << char_size_shift) + cellDepthCounter;
+
+                        switch ((charDataOffset >> 10) & 0xF) {
+                            case 0:
+                            case 1:
+                            case 2:
+                            case 3:
+                                // PIVIC has char ROM embedded.
+                                charDataLatch = charRom[charDataOffset];
+                                break;
+                            default:
+                                // Fetch cell data, initially latched to the side until it is needed.
+                                charDataLatch = (mem[VIC_MEM_TABLE[(charDataOffset & 0x3FFF)]] & 0xFF);
+                                break;
+                        }
+
+                        // Determine next character pixels.
+                        if (hiresMode) {
+                            if (non_reverse_mode != 0) {
+                                pixel4 = ((charData & 0x10) > 0? 2 : 0);
+                                pixel5 = ((charData & 0x08) > 0? 2 : 0);
+                                pixel6 = ((charData & 0x04) > 0? 2 : 0);
+                                pixel7 = ((charData & 0x02) > 0? 2 : 0);
+                            } else {
+                                pixel4 = ((charData & 0x10) > 0? 0 : 2);
+                                pixel5 = ((charData & 0x08) > 0? 0 : 2);
+                                pixel6 = ((charData & 0x04) > 0? 0 : 2);
+                                pixel7 = ((charData & 0x02) > 0? 0 : 2);
+                            }
+                        } else {
+                            // Multicolour graphics.
+                            pixel4 = ((charData >> 4) & 0x03);
+                            pixel5 = pixel6 = ((charData >> 2) & 0x03);
+                            pixel7 = (charData & 0x03);
+                        }
+                        
+                        if (cycleAction >= VicTiming.CYCLE_HBLANK_END) {
+                            putVisiblePixel(pal_palette + multiColourTable[pixel4]);
+                            putVisiblePixel(pal_palette + multiColourTable[pixel5]);
+                        }
+                        
+                        if (fetchState == FETCH_MATRIX_END) {
+                            // Leaving the matrix
+                            fetchState = FETCH_MATRIX_LINE;
+                        } else {
+                            // Increment the video matrix counter to next cell.
                             videoMatrixCounter++;
+                            
+                            // Toggle fetch state. For efficiency, HCC deliberately not checked here.
                             fetchState = FETCH_SCREEN_CODE;
-                            break;
-                        case FETCH_MATRIX_END:
-                            fetchState = FETCH_MATRIX_LINE;
-                            break;
-                    }
+                        }
+                        break;
+                }
+
+                prevHorizontalCounter = horizontalCounter++;
+                break;
     
-                    prevHorizontalCounter = horizontalCounter;
-                    if (horizontalCounter == PAL_HBLANK_START) {
-                        horizontalCounter = 0;
-                    } else {
-                        horizontalCounter++;
-                    }
+            // Covers HC=4 and above on lines within the vertical blanking.
+            case VicTiming.CYCLE_VBLANK:
+            case VicTiming.CYCLE_VBLANK_LINE_END:
+                // Inside vertical blanking. The CVBS commands for each line were already sent
+                // during HC=0. In case the screen origin Y is set within the vertical blanking 
+                // lines, we still need to update the fetch state, video matrix counter, and the
+                // horizontal cell counter, even though we're not outputting character pixels. 
+                // So for the rest of the line, it is a simplified version of the standard line,
+                // except that we don't output any pixels.
+                switch (fetchState) {
+                    case FETCH_OUTSIDE_MATRIX:
+                        if ((verticalCounter >> 1) == screen_origin_y) {
+                            // This is the line the video matrix starts on. As in the real chip, we use
+                            // a different state for the first part of the first video matrix line.
+                            fetchState = FETCH_IN_MATRIX_Y;
+                            
+                            // Screen origin X can match in the same cycle as Y.
+                            if (prevHorizontalCounter == screen_origin_x) {
+                                fetchState = FETCH_MATRIX_DLY_1;
+                            }
+                        }
+                        break;
+                    case FETCH_IN_MATRIX_Y:
+                    case FETCH_MATRIX_LINE:
+                        if (prevHorizontalCounter == screen_origin_x) {
+                            fetchState = FETCH_MATRIX_DLY_1;
+                        }
+                        break;
+                    case FETCH_MATRIX_DLY_1:
+                    case FETCH_MATRIX_DLY_2:
+                    case FETCH_MATRIX_DLY_3:
+                        fetchState++;
+                        break;
+                    case FETCH_SCREEN_CODE:
+                        fetchState = ((horizontalCellCounter-- > 0) ? FETCH_CHAR_DATA : FETCH_MATRIX_END);
+                        break;
+                    case FETCH_CHAR_DATA:
+                        videoMatrixCounter++;
+                        fetchState = FETCH_SCREEN_CODE;
+                        break;
+                    case FETCH_MATRIX_END:
+                        fetchState = FETCH_MATRIX_LINE;
+                        break;
+                }
+
+                prevHorizontalCounter = horizontalCounter;
+                if (cycleAction == VicTiming.CYCLE_VBLANK_LINE_END) {
+                    horizontalCounter = 0;
+                } else {
+                    horizontalCounter++;
                 }
                 break;
         }
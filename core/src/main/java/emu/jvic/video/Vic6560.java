@@ -3,6 +3,8 @@ package emu.jvic.video;
 import emu.jvic.MachineType;
 import emu.jvic.PixelData;
 import emu.jvic.snap.Snapshot;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 
 /**
  * This class emulates the NTSC VIC chip (6560).
@@ -20,25 +22,10 @@ public class Vic6560 extends Vic {
     private static final int NTSC_NORM_LAST_LINE = 261;
     private static final int NTSC_INTL_LAST_LINE = 262;
     
-    // Front porch split into two, to allow for change to vertical blanking after
-    // first part, if required.
-    private static final int NTSC_FRONTPORCH_1 = (12 << 0);
-    private static final int NTSC_FRONTPORCH_2 = (4 << 0);
-    private static final int NTSC_HSYNC = (20 << 0);
-    private static final int NTSC_BREEZEWAY = (2 << 0);
-    private static final int NTSC_BACKPORCH = (2 << 0);
-    private static final int NTSC_LONG_SYNC_L = (110 << 0);
-    private static final int NTSC_LONG_SYNC_H = (20 << 0);
-    private static final int NTSC_SHORT_SYNC_L = (20 << 0);
-    private static final int NTSC_SHORT_SYNC_H = (110 << 0);
-    private static final int NTSC_BLANKING = (200 << 0);
-
-    // Two NTSC burst methods available CMD_BURST or PIXEL_RUN CMD_BURST is more 
-    // experimental since it runs carrier cycles instead of dot clock cycles
-    // 17 carrier cycles => 19.5 dot clock cycles, syncs up as 20 dot clock cycles
-    private static final int NTSC_BURST_E = (20 << 0);
-    private static final int NTSC_BURST_O = (20 << 0);
-
+    // The number of pixels in each part of the CVBS blanking and sync output, i.e. the
+    // front porch, hsync, colour burst, and the vertical sync and equalising pulses, are 
+    // held by the VicTiming.
+    
     // TODO: Chane to actual NTSC palette.
     private final static int ntsc_palette[] = { 
             0x000000FF, // BLACK
@@ -69,6 +56,10 @@ public class Vic6560 extends Vic {
         ntsc_palette, ntsc_palette, ntsc_palette, ntsc_palette
     };
     
+    // Colour index of the first entry of each of the palettes above in the PixelData 
+    // palette. Index 0 is reserved for transparent black. Only the first 8 are used.
+    private int[] paletteOffset = new int[8];
+    
     // Used by NTSC to keep track of whether it is an odd or even line.
     protected boolean oddLine = true;
     
@@ -91,6 +82,38 @@ public class Vic6560 extends Vic {
      */
     public Vic6560(PixelData pixelData, MachineType machineType, Snapshot snapshot) {
         super(pixelData, machineType, snapshot);
+        
+        for (int i = 0; i < paletteOffset.length; i++) {
+            paletteOffset[i] = 0x10 + (i << 4);
+            pixelData.setPalette(paletteOffset[i], palette[i]);
+        }
+    }
+
+    /**
+     * Writes the state of the VIC chip to the given StateWriter, including the NTSC
+     * line and vertical blanking state.
+     *
+     * @param out The StateWriter to write the VIC state to.
+     */
+    public void saveState(StateWriter out) {
+        super.saveState(out);
+        out.writeInt(pIndex);
+        out.writeBoolean(oddLine);
+        out.writeBoolean(vblanking);
+        out.writeInt(do_vblank);
+    }
+
+    /**
+     * Restores the state of the VIC chip from the given StateReader.
+     *
+     * @param in The StateReader to read the VIC state from.
+     */
+    public void loadState(StateReader in) {
+        super.loadState(in);
+        pIndex = in.readInt();
+        oddLine = in.readBoolean();
+        vblanking = in.readBoolean();
+        do_vblank = in.readInt();
     }
  
     /**
@@ -101,30 +124,11 @@ public class Vic6560 extends Vic {
     public boolean emulateCycle() {
         boolean frameRenderComplete = false;
 
-        int reg0 = mem[VIC_REG_0];
-        int reg1 = mem[VIC_REG_1];
-        int reg2 = mem[VIC_REG_2];
-        int reg3 = mem[VIC_REG_3];
-        int reg5 = mem[VIC_REG_5];
-        int reg14 = mem[VIC_REG_14];
-        int reg15 = mem[VIC_REG_15];
-
-        // Expressions to access different parts of control registers.
-        int border_colour_index = (reg15 & 0x07);
-        int background_colour_index = (reg15 >> 4);
-        int auxiliary_colour_index = (reg14 >> 4);
-        int non_reverse_mode = (reg15 & 0x08);
-        int interlaced_mode = (reg0 & 0x80);
-        int screen_origin_x = (reg0 & 0x7F);
-        int screen_origin_y = reg1;
-        int num_of_columns = (reg2 & 0x7F);
-        int num_of_rows = ((reg3 & 0x7E) >> 1);
-        int double_height_mode = (reg3 & 0x01);
-        int last_line_of_cell = (7 | (double_height_mode << 3));
-        int char_size_shift = (3 + double_height_mode);
-        int screen_mem_start = (((reg5 & 0xF0) << 6) | ((reg2 & 0x80) << 2));
-        int char_mem_start = ((reg5 & 0x0F) << 10);
-        int colour_mem_start = (0x9400 | ((reg2 & 0x80) << 2));
+        // The control register expressions only change when a VIC register is written,
+        // which is rare compared to how often this method is called.
+        if (registersChanged) {
+            decodeRegisters();
+        }
 
         // VERTICAL TIMINGS:
         // The definition of a line is somewhat fuzzy in the NTSC 6560 chip.
@@ -216,7 +220,7 @@ public class Vic6560 extends Vic {
                 }
     
                 if (verticalCounter == 1) {
-                    pixelCounter = 0;
+                    completeFrame();
                     frameRenderComplete = true;
                 }
     
@@ -463,25 +467,16 @@ public class Vic6560 extends Vic {
     
                         if (verticalCounter < NTSC_VSYNC_START) {
                             // Lines 1, 2, 3.
-                            putBlankPixels(NTSC_SHORT_SYNC_L);
-                            putBlankPixels(NTSC_SHORT_SYNC_H);
-                            putBlankPixels(NTSC_SHORT_SYNC_L);
-                            putBlankPixels(NTSC_SHORT_SYNC_H);
+                            putBlankPixels(timing.getVblankLinePixels());
                         } else if (verticalCounter <= NTSC_VSYNC_END) {
                             // Vertical sync, lines 4, 5, 6.
-                            putBlankPixels(NTSC_LONG_SYNC_L);
-                            putBlankPixels(NTSC_LONG_SYNC_H);
-                            putBlankPixels(NTSC_LONG_SYNC_L);
-                            putBlankPixels(NTSC_LONG_SYNC_H);
+                            putBlankPixels(timing.getVsyncLinePixels());
     
                             // Vertical sync is what resets the video matrix latch.
                             videoMatrixLatch = videoMatrixCounter = 0;
                         } else {
                             // Lines 7, 8, 9.
-                            putBlankPixels(NTSC_SHORT_SYNC_L);
-                            putBlankPixels(NTSC_SHORT_SYNC_H);
-                            putBlankPixels(NTSC_SHORT_SYNC_L);
-                            putBlankPixels(NTSC_SHORT_SYNC_H);
+                            putBlankPixels(timing.getVblankLinePixels());
                         }
                     } else {
                         vblanking = false;
@@ -492,19 +487,9 @@ public class Vic6560 extends Vic {
                 // then we continue horizontal blanking commands instead, including hsync and colour 
                 // burst. It will end at HC=9
                 if (!vblanking) {
-                    putBlankPixels(NTSC_FRONTPORCH_2);
-                    putBlankPixels(NTSC_HSYNC);
-                    putBlankPixels(NTSC_BREEZEWAY);
-                    if (oddLine) {
-                        // Odd line. Switch palette starting offset.
-                        pIndex = 2;
-                        putBlankPixels(NTSC_BURST_O);
-                    } else {
-                        // Even line. Switch palette starting offset.
-                        pIndex = 6;
-                        putBlankPixels(NTSC_BURST_E);
-                    }
-                    putBlankPixels(NTSC_BACKPORCH);
+                    // Odd and even lines switch the palette starting offset.
+                    pIndex = (oddLine? 2 : 6);
+                    putBlankPixels(timing.getLineStartBlankPixels(oddLine));
                 }
                 oddLine = !oddLine;
     
@@ -625,7 +610,7 @@ public class Vic6560 extends Vic {
                 // correct for NTSC, i.e. the VIC control registers for the raster value do
                 // change at HC=29 (not at HC=1 like PAL does). It can also change at HC=62,
                 // if the VC is reset to 0 during that cycle.
-                mem[VIC_REG_4] = (verticalCounter >> 1);
+                mem[VIC_REG_4] = (byte) (verticalCounter >> 1);
                 if ((verticalCounter & 0x01) == 0) {
                     mem[VIC_REG_3] &= 0x7F;
                 } else {
@@ -720,7 +705,7 @@ public class Vic6560 extends Vic {
                         // of HC=62, where a decision is then made as to whether it will be horizontal
                         // blanking or vertical blanking. This is why there is a part 1 and 2 of the front
                         // porch.
-                        putBlankPixels(NTSC_FRONTPORCH_1);
+                        putBlankPixels(timing.getFrontPorchPixels());
     
                         // Unlike PAL, for NTSC hblank starts 6 cycles before the HC reset, so we increment.
                         prevHorizontalCounter = horizontalCounter++;
@@ -740,10 +725,10 @@ public class Vic6560 extends Vic {
                                 }
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
                                     borderColour = border_colour_index;
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
                                 }
                                 // Nothing to do otherwise. Still in blanking if below 12.
                                 break;
@@ -757,8 +742,8 @@ public class Vic6560 extends Vic {
                                     multiColourTable[1] = border_colour_index;
                                     multiColourTable[3] = auxiliary_colour_index;
                                     
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel6]]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel7]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel6]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel7]);
                                     
                                     // Handle the last pixel of the last char of the current matrix row.
                                     if (hiresMode) {
@@ -776,8 +761,8 @@ public class Vic6560 extends Vic {
                                     charData = charDataLatch = 0x55;
                                     pixel1 = ((charData >> 6) & 0x03);
                                     
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel8]]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel1]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel8]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel1]);
                                     
                                     pixel6 = pixel2 = pixel1;
                                     pixel7 = pixel3 = ((charData >> 4) & 0x03);
@@ -800,10 +785,10 @@ public class Vic6560 extends Vic {
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
                                     // Output border pixels.
                                     borderColour = border_colour_index;
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][borderColour]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + borderColour);
                                 }
                                 else {
                                     pixel2 = pixel3 = pixel4 = pixel5 = pixel6 = pixel7 = pixel8 = 1;
@@ -828,8 +813,8 @@ public class Vic6560 extends Vic {
                                 // Output last 3 pixels of the last character. These had already left 
                                 // the shift register but in the delay path to the colour lookup.
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel6]]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel7]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel6]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel7]);
                                 }
                                 
                                 if (non_reverse_mode != 0) {
@@ -880,7 +865,7 @@ public class Vic6560 extends Vic {
                               
                                 // The 3rd pixel is from the previous character with new reverse mode applied (see above).
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel8]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel8]);
                                 }
                                 
                                 // Look up foreground colour before outputting first pixel.
@@ -888,18 +873,18 @@ public class Vic6560 extends Vic {
 
                                 int screenAddress = screen_mem_start + videoMatrixCounter;
                                 // TODO: Replace with unconnected memory version.
-                                cellIndex = mem[VIC_MEM_TABLE[screenAddress & 0x3FFF]];
+                                cellIndex = (mem[VIC_MEM_TABLE[screenAddress & 0x3FFF]] & 0xFF);
 
                                 // Due to the way the colour memory is wired up, the above fetch of the cell index
                                 // also happens to automatically fetch the foreground colour from the Colour Matrix
                                 // via the top 4 lines of the data bus (DB8-DB11), which are wired directly from 
                                 // colour RAM in to the VIC chip.
-                                colourData = mem[colour_mem_start + videoMatrixCounter];
+                                colourData = (mem[colour_mem_start + videoMatrixCounter] & 0xFF);
 
                                 // Output the 1st pixel of next character. Note that this is not the character
                                 // that relates to the cell index and colour data fetched above.
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel1]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel1]);
                                 }
 
                                 // Toggle fetch state. Close matrix if HCC hits zero.
@@ -915,8 +900,8 @@ public class Vic6560 extends Vic {
                                 multiColourTable[3] = auxiliary_colour_index;
                                 
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel2]]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel3]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel2]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel3]);
                                 }
                                 
                                 // Calculate offset of data.
@@ -929,7 +914,7 @@ public class Vic6560 extends Vic {
                                 
                                 // TODO: Add unconnected memory check here.
                                 // Fetch cell data, initially latched to the side until it is needed.
-                                charDataLatch = mem[VIC_MEM_TABLE[(charDataOffset & 0x3FFF)]];
+                                charDataLatch = (mem[VIC_MEM_TABLE[(charDataOffset & 0x3FFF)]] & 0xFF);
                                 
                                 // Pixels 4-7 calculations are less complex, since the hires mode,
                                 // reverse mode and char data stay the same four all four pixels.
@@ -954,8 +939,8 @@ public class Vic6560 extends Vic {
                                 
                                 // Pixels 4 & 5 have to be output after the pixel var calculations above.
                                 if (horizontalCounter >= NTSC_HBLANK_END) {
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel4]]);
-                                    putVisiblePixel(palette[(pIndex++ & 0x7)][multiColourTable[pixel5]]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel4]);
+                                    putVisiblePixel(paletteOffset[(pIndex++ & 0x7)] + multiColourTable[pixel5]);
                                 }
 
                                 if (fetchState == FETCH_MATRIX_END) {
@@ -1019,17 +1004,11 @@ public class Vic6560 extends Vic {
 
                     // Delayed FIFO put to avoid overrun
                     if (do_vblank == DO_VBLANK_LONG){
-                        putBlankPixels(NTSC_LONG_SYNC_L);
-                        putBlankPixels(NTSC_LONG_SYNC_H);
-                        putBlankPixels(NTSC_LONG_SYNC_L);
-                        putBlankPixels(NTSC_LONG_SYNC_H);
+                        putBlankPixels(timing.getVsyncLinePixels());
                         do_vblank = 0;
                     }
                     if (do_vblank == DO_VBLANK_SHORT){
-                        putBlankPixels(NTSC_SHORT_SYNC_L);
-                        putBlankPixels(NTSC_SHORT_SYNC_H);
-                        putBlankPixels(NTSC_SHORT_SYNC_L);
-                        putBlankPixels(NTSC_SHORT_SYNC_H);
+                        putBlankPixels(timing.getVblankLinePixels());
                         do_vblank = 0;
                     }
     
@@ -0,0 +1,302 @@
+package emu.jvic.video;
+
+import emu.jvic.MachineType;
+
+/**
+ * Holds the video timing of a VIC chip variant, i.e. where the horizontal and vertical
+ * blanking and sync fall, and how many pixels each part of the CVBS output is made up
+ * of. The timing is compiled once per MachineType into lookup tables, so that the VIC
+ * chip's emulateCycle method can use a single table lookup to decide what kind of cycle
+ * it is in, rather than comparing the horizontal and vertical counters against each of
+ * the blanking and sync boundaries on every cycle.
+ *
+ * The cycle tables are indexed first by the vertical counter and then by the horizontal
+ * counter. All of the visible lines share one cycle array, and all of the vertical
+ * blanking lines share another.
+ *
+ * @author Lance Ewing
+ */
+public final class VicTiming {
+
+    // Cycle actions, as held in the cycle tables.
+
+    /** HC=0 on any line. */
+    public static final int CYCLE_HC_0 = 0;
+
+    /** HC=1 on any line. This is when the "new line" signal is seen. */
+    public static final int CYCLE_HC_1 = 1;
+
+    /** HC=2 on any line. This is when the horizontal cell counter is loaded. */
+    public static final int CYCLE_HC_2 = 2;
+
+    /** HC=3 on any line. This is when the vertical cell counter is loaded. */
+    public static final int CYCLE_HC_3 = 3;
+
+    /** From HC=4 to one cycle before horizontal blanking ends, on a visible line. */
+    public static final int CYCLE_HBLANK = 4;
+
+    /** The cycle in which horizontal blanking ends, which has only part of its pixels visible. */
+    public static final int CYCLE_HBLANK_END = 5;
+
+    /** A cycle in which all of the pixels are visible. */
+    public static final int CYCLE_DISPLAY = 6;
+
+    /** The cycle in which horizontal blanking starts and the HC resets, on a visible line. */
+    public static final int CYCLE_HBLANK_START = 7;
+
+    /** From HC=4 to one cycle before the end of the line, within vertical blanking. */
+    public static final int CYCLE_VBLANK = 8;
+
+    /** The last cycle of a line within vertical blanking, in which the HC resets. */
+    public static final int CYCLE_VBLANK_LINE_END = 9;
+
+    // Line types, as held in the line type table.
+
+    /** A line that is not within the vertical blanking. */
+    public static final int LINE_VISIBLE = 0;
+
+    /** The first line of vertical blanking, i.e. the line on which a frame is completed. */
+    public static final int LINE_VBLANK_FIRST = 1;
+
+    /** A line within the vertical blanking, outside of the vertical sync. */
+    public static final int LINE_VBLANK = 2;
+
+    /** A line within the vertical sync, which is what resets the video matrix latch. */
+    public static final int LINE_VSYNC = 3;
+
+    // The HC value of the first cycle that has visible pixels, and the HC value in which
+    // horizontal blanking starts.
+    private final int hblankEnd;
+    private final int hblankStart;
+
+    // The last value that the vertical counter reaches before it resets.
+    private final int lastLine;
+
+    // The number of blank pixels output when horizontal blanking starts.
+    private final int frontPorchPixels;
+
+    // The number of blank pixels output at the start of a visible line, i.e. the rest of
+    // the front porch, the horizontal sync, the breezeway, the colour burst and the back
+    // porch, for even and odd lines respectively.
+    private final int evenLineBlankPixels;
+    private final int oddLineBlankPixels;
+
+    // The number of blank pixels output for a whole vertical blanking or vertical sync line.
+    private final int vblankLinePixels;
+    private final int vsyncLinePixels;
+
+    // The line type for each vertical counter value.
+    private final int[] lineTypes;
+
+    // The cycle actions for each vertical counter value and then each horizontal counter value.
+    private final int[][] cycleActions;
+
+    /**
+     * Constructor for VicTiming.
+     *
+     * @param hblankEnd The HC value of the first cycle that has visible pixels.
+     * @param hblankStart The HC value in which horizontal blanking starts and the HC resets.
+     * @param lastLine The last value that the vertical counter reaches before it resets.
+     * @param vblankEnd The last line of the vertical blanking, which starts on line 1.
+     * @param vsyncStart The first line of the vertical sync.
+     * @param vsyncEnd The last line of the vertical sync.
+     * @param frontPorch1 Pixels in the part of the front porch output when horizontal blanking starts.
+     * @param frontPorch2 Pixels in the part of the front porch output at the start of the line.
+     * @param hsync Pixels in the horizontal sync.
+     * @param breezeway Pixels in the breezeway.
+     * @param colourBurstEven Pixels in the colour burst on even lines.
+     * @param colourBurstOdd Pixels in the colour burst on odd lines.
+     * @param backPorch Pixels in the back porch.
+     * @param shortSyncLow Pixels in the low part of a short (equalising) sync pulse.
+     * @param shortSyncHigh Pixels in the high part of a short (equalising) sync pulse.
+     * @param longSyncLow Pixels in the low part of a long (vertical) sync pulse.
+     * @param longSyncHigh Pixels in the high part of a long (vertical) sync pulse.
+     */
+    private VicTiming(int hblankEnd, int hblankStart, int lastLine, int vblankEnd,
+            int vsyncStart, int vsyncEnd, int frontPorch1, int frontPorch2, int hsync,
+            int breezeway, int colourBurstEven, int colourBurstOdd, int backPorch,
+            int shortSyncLow, int shortSyncHigh, int longSyncLow, int longSyncHigh) {
+
+        this.hblankEnd = hblankEnd;
+        this.hblankStart = hblankStart;
+        this.lastLine = lastLine;
+        this.frontPorchPixels = frontPorch1;
+        this.evenLineBlankPixels = frontPorch2 + hsync + breezeway + colourBurstEven + backPorch;
+        this.oddLineBlankPixels = frontPorch2 + hsync + breezeway + colourBurstOdd + backPorch;
+
+        // Each vertical blanking and sync line is made up of two pulses.
+        this.vblankLinePixels = (shortSyncLow + shortSyncHigh) * 2;
+        this.vsyncLinePixels = (longSyncLow + longSyncHigh) * 2;
+
+        int[] visibleLineCycles = new int[hblankStart + 1];
+        int[] vblankLineCycles = new int[hblankStart + 1];
+        for (int hc = 0; hc <= hblankStart; hc++) {
+            if (hc <= CYCLE_HC_3) {
+                visibleLineCycles[hc] = vblankLineCycles[hc] = hc;
+            } else if (hc < hblankStart) {
+                if (hc < hblankEnd) {
+                    visibleLineCycles[hc] = CYCLE_HBLANK;
+                } else if (hc == hblankEnd) {
+                    visibleLineCycles[hc] = CYCLE_HBLANK_END;
+                } else {
+                    visibleLineCycles[hc] = CYCLE_DISPLAY;
+                }
+                vblankLineCycles[hc] = CYCLE_VBLANK;
+            } else {
+                visibleLineCycles[hc] = CYCLE_HBLANK_START;
+                vblankLineCycles[hc] = CYCLE_VBLANK_LINE_END;
+            }
+        }
+
+        // Line 0, and lines after the vertical blanking, are visible. Line 0 is the last
+        // visible line of a frame.
+        lineTypes = new int[lastLine + 1];
+        cycleActions = new int[lastLine + 1][];
+        for (int line = 0; line <= lastLine; line++) {
+            if ((line == 0) || (line > vblankEnd)) {
+                lineTypes[line] = LINE_VISIBLE;
+                cycleActions[line] = visibleLineCycles;
+            } else {
+                if (line == 1) {
+                    lineTypes[line] = LINE_VBLANK_FIRST;
+                } else if ((line >= vsyncStart) && (line <= vsyncEnd)) {
+                    lineTypes[line] = LINE_VSYNC;
+                } else {
+                    lineTypes[line] = LINE_VBLANK;
+                }
+                cycleActions[line] = vblankLineCycles;
+            }
+        }
+    }
+
+    /**
+     * Creates the VicTiming for the given MachineType.
+     *
+     * The NTSC 6560 is not driven by the cycle tables, since its vertical counter changes
+     * part way along the line and its vertical blanking can start on either half of a line,
+     * depending on the interlaced mode. It uses only the blank pixel counts.
+     *
+     * @param machineType The MachineType to create the VicTiming for.
+     *
+     * @return The VicTiming for the given MachineType.
+     */
+    public static VicTiming forMachineType(MachineType machineType) {
+        switch (machineType) {
+            case NTSC:
+                // The colour burst is 17 carrier cycles, i.e. 19.5 dot clock cycles, which
+                // syncs up as 20 dot clock cycles. The front porch is split into two, to
+                // allow for the change to vertical blanking after the first part.
+                return new VicTiming(9, 59, 261, 9, 4, 6, 12, 4, 20, 2, 20, 20, 2, 20, 110, 110, 20);
+
+            case VIC44:
+            case VIC44K:
+                // Same as PAL, but the pixels are output at twice the speed.
+                return new VicTiming(12, 70, 311, 9, 4, 6, 8, 6, 40, 6, 34, 34, 8, 18, 266, 266, 18);
+
+            case PAL:
+            default:
+                // Horiz Blanking - From: 70.915 To: 12.75 Len: 12.835 cycles (51.33 pixels)
+                //
+                // Made up of the following:
+                //
+                // Front Porch - From: 70.915 To: 1.75 Len: 1.835 cycles (7.33 pixels)
+                // Horiz Sync - From: 1.75 To: 6.75 Len: 5 cycles (20 pixels)
+                // Breezeway - From: 6.75 To: 7.5 Len: 0.75 cycles (3 pixels)
+                // Colour Burst - From: 7.5 To: 11.75 Len: 4.25 cycles (17 pixels)
+                // Back Porch - From: 11.75 To: 12.75 Len: 1 cycle (4 pixels)
+                //
+                // Visible pixels - From 12.75 to 70.915 Len: 58.165 cycles (232.66 pixels, i.e. approx. 233)
+                //
+                // Vertical Blanking - Lines 1-9, with Vertical Sync on lines 4-6.
+                return new VicTiming(12, 70, 311, 9, 4, 6, 4, 3, 20, 3, 17, 17, 4, 9, 133, 133, 9);
+        }
+    }
+
+    /**
+     * Gets the cycle actions, indexed first by the vertical counter and then by the
+     * horizontal counter.
+     *
+     * @return The cycle actions.
+     */
+    public int[][] getCycleActions() {
+        return cycleActions;
+    }
+
+    /**
+     * Gets the line type of the given line.
+     *
+     * @param line The vertical counter value of the line.
+     *
+     * @return The line type, e.g. LINE_VISIBLE, LINE_VSYNC.
+     */
+    public int getLineType(int line) {
+        return lineTypes[line];
+    }
+
+    /**
+     * Gets the HC value of the first cycle that has visible pixels.
+     *
+     * @return The HC value at which horizontal blanking ends.
+     */
+    public int getHblankEnd() {
+        return hblankEnd;
+    }
+
+    /**
+     * Gets the HC value in which horizontal blanking starts.
+     *
+     * @return The HC value at which horizontal blanking starts.
+     */
+    public int getHblankStart() {
+        return hblankStart;
+    }
+
+    /**
+     * Gets the last value that the vertical counter reaches before it resets.
+     *
+     * @return The last line.
+     */
+    public int getLastLine() {
+        return lastLine;
+    }
+
+    /**
+     * Gets the number of blank pixels output when horizontal blanking starts.
+     *
+     * @return The number of front porch pixels.
+     */
+    public int getFrontPorchPixels() {
+        return frontPorchPixels;
+    }
+
+    /**
+     * Gets the number of blank pixels output at the start of a visible line, i.e. the
+     * rest of the front porch, the horizontal sync, the breezeway, the colour burst and
+     * the back porch.
+     *
+     * @param oddLine true if the line is an odd line; otherwise false.
+     *
+     * @return The number of horizontal blanking pixels at the start of the line.
+     */
+    public int getLineStartBlankPixels(boolean oddLine) {
+        return (oddLine? oddLineBlankPixels : evenLineBlankPixels);
+    }
+
+    /**
+     * Gets the number of blank pixels output for a whole vertical blanking line.
+     *
+     * @return The number of pixels in a vertical blanking line.
+     */
+    public int getVblankLinePixels() {
+        return vblankLinePixels;
+    }
+
+    /**
+     * Gets the number of blank pixels output for a whole vertical sync line.
+     *
+     * @return The number of pixels in a vertical sync line.
+     */
+    public int getVsyncLinePixels() {
+        return vsyncLinePixels;
+    }
+}
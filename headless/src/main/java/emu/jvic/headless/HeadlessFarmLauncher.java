@@ -0,0 +1,162 @@
+package emu.jvic.headless;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import emu.jvic.config.AppConfigItem;
+import emu.jvic.config.AppConfigItem.FileLocation;
+import emu.jvic.headless.farm.FarmJob;
+import emu.jvic.headless.farm.FarmJobProgress;
+import emu.jvic.headless.farm.MachineFarm;
+import emu.jvic.memory.Memory;
+
+/** 
+ * Launches a MachineFarm from the command line, to run many programs at once. Arguments 
+ * are given in name=value form:
+ * 
+ * <pre>
+ *   apps=all|NAME|...  Names of programs in data/programs.json to run, or all of them.
+ *   programs=DIR       Directory of program, cartridge, disk, tape or snapshot files to run.
+ *   machine=TYPE       PAL, NTSC, VIC44 or VIC44K, for files in the programs directory.
+ *   threads=N          Maximum number of Machines to run at once. Defaults to one per core.
+ *   virtual=true       Run each Machine on a virtual thread (requires Java 21+).
+ *   frames=N           Number of frames to run each Machine for. Defaults to 3000.
+ *   cycles=N           Number of CPU cycles to run each Machine for, instead of frames.
+ *   until=ADDR:VALUE   Stop a Machine early when the byte at ADDR equals VALUE (both in hex).
+ *   bootcache=true     Restore the BASIC-ready state, rather than booting, for machine setups
+ *                      that another Machine has already booted. Frames and cycles still count
+ *                      from the reset, but a Machine can't stop before BASIC is ready.
+ * </pre>
+ * 
+ * Progress is reported every second, followed by a line per program once all are done.
+ * The exit status is 0 if no programs failed, 1 if any failed, and 2 if the arguments 
+ * are invalid.
+ */
+public class HeadlessFarmLauncher {
+
+    private static final long DEFAULT_FRAMES = 3000;
+    
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        
+        Map<String, String> argsMap = HeadlessLauncher.convertArgsToMap(args);
+        List<FarmJob> jobs = null;
+        int threads = 0;
+        
+        try {
+            jobs = buildJobs(argsMap);
+            threads = argsMap.containsKey("threads")? 
+                    HeadlessLauncher.parseInt(argsMap.get("threads"), 10, "threads") : 
+                    Runtime.getRuntime().availableProcessors();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        
+        boolean useVirtualThreads = Boolean.parseBoolean(argsMap.get("virtual"));
+        boolean useBootStateCache = Boolean.parseBoolean(argsMap.get("bootcache"));
+        MachineFarm farm = null;
+        try {
+            farm = new MachineFarm(threads, useVirtualThreads, useBootStateCache);
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        int failures = 0;
+        
+        try (MachineFarm machineFarm = farm) {
+            for (FarmJob job : jobs) {
+                machineFarm.submit(job);
+            }
+            
+            while (!machineFarm.awaitCompletion(1, TimeUnit.SECONDS)) {
+                int done = 0;
+                for (FarmJobProgress progress : machineFarm.getProgress()) {
+                    done += (progress.isDone()? 1 : 0);
+                }
+                System.out.println(String.format("%d/%d done, %.1f MHz", 
+                        done, jobs.size(), machineFarm.getAggregateMhz()));
+            }
+            
+            for (FarmJobProgress progress : machineFarm.getProgress()) {
+                System.out.println(String.format("%-9s frames=%d cycles=%d mhz=%.1f %s%s", 
+                        progress.getState(), progress.getFrames(), progress.getCycles(), 
+                        progress.getEmulatedMhz(), progress.getJob().getName(),
+                        (progress.getError() != null? " (" + progress.getError() + ")" : "")));
+                if (progress.getState() == FarmJobProgress.State.FAILED) {
+                    failures++;
+                }
+            }
+            System.out.println(String.format("%d programs, %d failed, %.1f MHz aggregate", 
+                    jobs.size(), failures, machineFarm.getAggregateMhz()));
+        }
+        
+        System.exit(failures > 0? 1 : 0);
+    }
+    
+    private static List<FarmJob> buildJobs(Map<String, String> argsMap) {
+        List<AppConfigItem> appConfigItems = new ArrayList<>();
+        
+        if (argsMap.containsKey("apps")) {
+            String apps = argsMap.get("apps");
+            List<String> names = Arrays.asList(apps.split("\\|"));
+            for (AppConfigItem appConfigItem : HeadlessLauncher.loadAppConfig().getApps()) {
+                if (apps.equalsIgnoreCase("all") || names.contains(appConfigItem.getName())) {
+                    appConfigItems.add(appConfigItem);
+                }
+            }
+        }
+        if (argsMap.containsKey("programs")) {
+            File[] files = new File(argsMap.get("programs")).listFiles();
+            if (files == null) {
+                throw new IllegalArgumentException("Not a directory: " + argsMap.get("programs"));
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    AppConfigItem appConfigItem = new AppConfigItem();
+                    appConfigItem.setName(file.getName());
+                    appConfigItem.setFilePath(file.getPath());
+                    appConfigItem.setFileLocation(FileLocation.ABSOLUTE);
+                    appConfigItem.setMachineType(argsMap.getOrDefault("machine", "PAL").toUpperCase());
+                    appConfigItems.add(appConfigItem);
+                }
+            }
+        }
+        if (appConfigItems.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Usage: HeadlessFarmLauncher [apps=all|NAME|...] [programs=DIR] [machine=TYPE]\n" +
+                    "         [threads=N] [virtual=true] [frames=N | cycles=N] [until=ADDR:VALUE]\n" +
+                    "         [bootcache=true]");
+        }
+        
+        FarmJob.BudgetUnit budgetUnit = FarmJob.BudgetUnit.FRAMES;
+        long budget = DEFAULT_FRAMES;
+        if (argsMap.containsKey("cycles")) {
+            budgetUnit = FarmJob.BudgetUnit.CYCLES;
+            budget = parseLong(argsMap.get("cycles"), "cycles");
+        } else if (argsMap.containsKey("frames")) {
+            budget = parseLong(argsMap.get("frames"), "frames");
+        }
+        Predicate<Memory> stopCondition = HeadlessLauncher.parseStopCondition(argsMap.get("until"));
+        
+        List<FarmJob> jobs = new ArrayList<>();
+        for (AppConfigItem appConfigItem : appConfigItems) {
+            jobs.add(new FarmJob(appConfigItem.getName(), appConfigItem, budgetUnit, budget, stopCondition));
+        }
+        return jobs;
+    }
+    
+    private static long parseLong(String text, String name) {
+        try {
+            return Long.parseLong(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + text);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package emu.jvic.headless;
+
+import emu.jvic.KeyboardMatrix;
+
+/**
+ * A KeyboardMatrix with no keys pressed, for running a Machine without any input.
+ */
+public class HeadlessKeyboardMatrix extends KeyboardMatrix {
+
+    private int[] keyMatrix = new int[513];
+    
+    @Override
+    public int getKeyMatrixRow(int row) {
+        return keyMatrix[row];
+    }
+
+    @Override
+    public void setKeyMatrixRow(int row, int value) {
+        keyMatrix[row] = value;
+    }
+}
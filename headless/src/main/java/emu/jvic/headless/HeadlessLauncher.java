@@ -0,0 +1,174 @@
+package emu.jvic.headless;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.badlogic.gdx.utils.Json;
+
+import emu.jvic.config.AppConfig;
+import emu.jvic.config.AppConfigItem;
+import emu.jvic.config.AppConfigItem.FileLocation;
+import emu.jvic.memory.Memory;
+
+/** 
+ * Launches the headless JVic runtime from the command line. Arguments are given in 
+ * the same name=value form as for the desktop launcher:
+ * 
+ * <pre>
+ *   app=NAME          Name of a program in data/programs.json to run.
+ *   program=PATH      Path of a program, cartridge, disk, tape or snapshot file to run.
+ *   machine=TYPE      PAL, NTSC, VIC44 or VIC44K. Overrides the app's machine type.
+ *   ram=TYPE          RAM_AUTO, RAM_UNEXPANDED, RAM_3K, etc. Overrides the app's RAM.
+ *   frames=N          Maximum number of frames to run. Defaults to 3000.
+ *   until=ADDR:VALUE  Stop early when the byte at ADDR equals VALUE (both in hex).
+ *   png=PATH          File to write the final frame to as a PNG image.
+ *   dump=PATH         File to write the final 64K memory image to.
+ * </pre>
+ * 
+ * The exit status is 0 on success, 1 if an until condition was given but was not met
+ * within the frame limit, and 2 if the arguments are invalid.
+ */
+public class HeadlessLauncher {
+
+    private static final int DEFAULT_MAX_FRAMES = 3000;
+    
+    public static void main(String[] args) {
+        // Make sure AWT, which is used only for writing PNG images, never looks for a display.
+        System.setProperty("java.awt.headless", "true");
+        
+        Map<String, String> argsMap = convertArgsToMap(args);
+        
+        try {
+            System.exit(run(argsMap));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Failed to write output: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    static Map<String, String> convertArgsToMap(String[] args) {
+        Map<String, String> argsMap = new HashMap<>();
+        if ((args != null) && (args.length > 0)) {
+            for (String arg : args) {
+                int equalsIndex = arg.indexOf('=');
+                if (equalsIndex != -1) {
+                    String name = arg.substring(0, equalsIndex);
+                    String value = arg.endsWith("=")? "" : arg.substring(equalsIndex + 1);
+                    argsMap.put(name, value);
+                }
+            }
+        }
+        return argsMap;
+    }
+    
+    private static int run(Map<String, String> argsMap) throws IOException {
+        AppConfigItem appConfigItem = buildAppConfigItem(argsMap);
+        int maxFrames = argsMap.containsKey("frames")? 
+                parseInt(argsMap.get("frames"), 10, "frames") : DEFAULT_MAX_FRAMES;
+        Predicate<Memory> stopCondition = parseStopCondition(argsMap.get("until"));
+        
+        HeadlessRunner headlessRunner = new HeadlessRunner();
+        headlessRunner.start(appConfigItem);
+        
+        long startTime = System.nanoTime();
+        boolean conditionMet = headlessRunner.run(maxFrames, stopCondition);
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        
+        if (argsMap.containsKey("png")) {
+            headlessRunner.writeScreenshot(Paths.get(argsMap.get("png")));
+        }
+        if (argsMap.containsKey("dump")) {
+            headlessRunner.writeMemoryDump(Paths.get(argsMap.get("dump")));
+        }
+        
+        int frameCount = headlessRunner.getFrameCount();
+        System.out.println(String.format("frames=%d ms=%d fps=%.1f%s", 
+                frameCount, elapsedMillis, (frameCount * 1000.0) / Math.max(elapsedMillis, 1), 
+                (stopCondition != null? (conditionMet? " until=met" : " until=not-met") : "")));
+        
+        return ((stopCondition == null) || conditionMet)? 0 : 1;
+    }
+    
+    private static AppConfigItem buildAppConfigItem(Map<String, String> argsMap) {
+        AppConfigItem appConfigItem = null;
+        
+        if (argsMap.containsKey("app")) {
+            appConfigItem = findApp(argsMap.get("app"));
+        } else {
+            appConfigItem = new AppConfigItem();
+            appConfigItem.setName("BASIC");
+            appConfigItem.setMachineType("PAL");
+            if (argsMap.containsKey("program")) {
+                appConfigItem.setName(argsMap.get("program"));
+                appConfigItem.setFilePath(argsMap.get("program"));
+                appConfigItem.setFileLocation(FileLocation.ABSOLUTE);
+            }
+        }
+        
+        if (argsMap.containsKey("machine")) {
+            appConfigItem.setMachineType(argsMap.get("machine").toUpperCase());
+        }
+        if (argsMap.containsKey("ram")) {
+            appConfigItem.setRam(argsMap.get("ram").toUpperCase());
+        }
+        
+        return appConfigItem;
+    }
+    
+    static AppConfig loadAppConfig() {
+        Json json = new Json();
+        String appConfigJson = new String(
+                HeadlessResources.loadResource("data/programs.json"), StandardCharsets.UTF_8);
+        return json.fromJson(AppConfig.class, appConfigJson);
+    }
+    
+    private static AppConfigItem findApp(String name) {
+        for (AppConfigItem appConfigItem : loadAppConfig().getApps()) {
+            if (appConfigItem.getName().equalsIgnoreCase(name)) {
+                return appConfigItem;
+            }
+        }
+        throw new IllegalArgumentException("Unknown app: " + name);
+    }
+    
+    static Predicate<Memory> parseStopCondition(String until) {
+        if (until == null) {
+            return null;
+        }
+        int colonIndex = until.indexOf(':');
+        if (colonIndex == -1) {
+            throw new IllegalArgumentException("Invalid until condition: " + until);
+        }
+        int address = parseInt(until.substring(0, colonIndex), 16, "until address");
+        int value = parseInt(until.substring(colonIndex + 1), 16, "until value");
+        if ((address > 0xFFFF) || (value > 0xFF)) {
+            throw new IllegalArgumentException("Invalid until condition: " + until);
+        }
+        return memory -> (memory.peek(address) == value);
+    }
+    
+    static int parseInt(String text, int radix, String name) {
+        try {
+            int value = Integer.parseInt(text.trim(), radix);
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + text);
+        }
+    }
+    
+    private static void printUsage() {
+        System.err.println("Usage: HeadlessLauncher [app=NAME | program=PATH] [machine=TYPE] [ram=TYPE]");
+        System.err.println("         [frames=N] [until=ADDR:VALUE] [png=PATH] [dump=PATH]");
+    }
+}
@@ -0,0 +1,55 @@
+package emu.jvic.headless;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.graphics.Pixmap;
+
+import emu.jvic.PixelData;
+
+/**
+ * A PixelData implementation that keeps the frame in a plain byte array of colour 
+ * indexes and never touches a Pixmap, so that the VIC chips can be run without a 
+ * libGDX backend.
+ */
+public class HeadlessPixelData extends PixelData {
+
+    private byte[] colourIndexes;
+    
+    // The RGBA8888 pixels, expanded from the colour indexes only when asked for.
+    private int[] pixels;
+    
+    @Override
+    public void init(int width, int height) {
+        colourIndexes = new byte[width * height];
+        pixels = new int[colourIndexes.length];
+    }
+
+    @Override
+    public void putPixel(int index, int colourIndex) {
+        colourIndexes[index] = (byte)colourIndex;
+    }
+
+    @Override
+    public void clearPixels() {
+        Arrays.fill(colourIndexes, (byte)0);
+    }
+
+    @Override
+    public void updatePixmap(Pixmap pixmap) {
+        // Nothing to do. There is no screen when running headless.
+    }
+    
+    /**
+     * Gets the raw RGBA8888 pixels of the most recently rendered frame. The palette is 
+     * applied to the colour indexes each time this is called, and the returned array
+     * is reused by the next call.
+     * 
+     * @return The raw RGBA8888 pixels.
+     */
+    public int[] getPixels() {
+        for (int i = 0; i < colourIndexes.length; i++) {
+            pixels[i] = palette[colourIndexes[i] & 0xFF];
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,116 @@
+package emu.jvic.headless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import emu.jvic.MachineType;
+
+/**
+ * Loads the ROMs and other data files from the assets folder that is placed on the
+ * classpath. The headless runtime has no libGDX backend, so Gdx.files is not available.
+ * 
+ * @author Lance Ewing
+ */
+public final class HeadlessResources {
+
+    private HeadlessResources() {
+    }
+    
+    /**
+     * Loads the KERNAL ROM for the given MachineType.
+     * 
+     * @param machineType The type of VIC 20 machine.
+     * 
+     * @return The KERNAL ROM data.
+     */
+    public static byte[] loadKernalRom(MachineType machineType) {
+        switch (machineType) {
+            case NTSC:
+                return loadResource("roms/kernal_ntsc.rom");
+            case VIC44:
+                return loadResource("roms/vic_44_kernal.rom");
+            case VIC44K:
+                return loadResource("roms/vic_44k_kernal.rom");
+            case PAL:
+            default:
+                return loadResource("roms/kernal_pal.rom");
+        }
+    }
+    
+    /**
+     * Loads the BASIC ROM for the given MachineType.
+     * 
+     * @param machineType The type of VIC 20 machine.
+     * 
+     * @return The BASIC ROM data.
+     */
+    public static byte[] loadBasicRom(MachineType machineType) {
+        switch (machineType) {
+            case VIC44:
+                return loadResource("roms/vic_44_basic.rom");
+            case VIC44K:
+                return loadResource("roms/vic_44k_basic.rom");
+            case NTSC:
+            case PAL:
+            default:
+                return loadResource("roms/basic.rom");
+        }
+    }
+    
+    /**
+     * Loads the character ROM.
+     * 
+     * @return The character ROM data.
+     */
+    public static byte[] loadCharRom() {
+        return loadResource("roms/char.rom");
+    }
+    
+    /**
+     * Loads the 1541 disk drive DOS ROM.
+     * 
+     * @return The 1541 DOS ROM data.
+     */
+    public static byte[] loadDos1541Rom() {
+        return loadResource("roms/dos1541.rom");
+    }
+    
+    /**
+     * Loads the blank .d64 disk image that is shipped with the assets.
+     * 
+     * @return The blank disk image data.
+     */
+    public static byte[] loadBlankDiskImage() {
+        return loadResource("data/blank.d64");
+    }
+    
+    /**
+     * Loads a file from the classpath.
+     * 
+     * @param path The classpath relative path of the file to load.
+     * 
+     * @return The file data.
+     */
+    public static byte[] loadResource(String path) {
+        try (InputStream in = HeadlessResources.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource: " + path);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Tests whether a file exists on the classpath.
+     * 
+     * @param path The classpath relative path of the file.
+     * 
+     * @return true if the file exists; otherwise false.
+     */
+    public static boolean hasResource(String path) {
+        return (HeadlessResources.class.getClassLoader().getResource(path) != null);
+    }
+}
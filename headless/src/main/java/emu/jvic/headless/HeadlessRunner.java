@@ -0,0 +1,275 @@
+package emu.jvic.headless;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+import javax.imageio.ImageIO;
+
+import emu.jvic.BootStateCache;
+import emu.jvic.Machine;
+import emu.jvic.MachineType;
+import emu.jvic.Program;
+import emu.jvic.config.AppConfigItem;
+import emu.jvic.memory.Memory;
+import emu.jvic.memory.RamType;
+
+/**
+ * Runs a VIC 20 Machine without a display, audio device or GL context. The Machine
+ * is run unthrottled, one frame at a time, until either a frame limit is reached or
+ * a condition on the state of memory holds. The final frame and memory can then be
+ * written out, which makes this suitable for regression and throughput testing on
+ * build servers.
+ * 
+ * @author Lance Ewing
+ */
+public class HeadlessRunner {
+
+    private HeadlessPixelData pixelData;
+    
+    private Machine machine;
+    
+    private MachineType machineType;
+    
+    /**
+     * Callable that loads the program once BASIC is ready, or null if there is nothing
+     * (or nothing more) to auto load.
+     */
+    private Callable<Queue<char[]>> autoLoadProgram;
+    
+    private Queue<char[]> autoRunCmdQueue;
+    
+    /**
+     * The number of frames that have been run since the Machine was reset, including any
+     * boot frames that were skipped by restoring the boot state.
+     */
+    private int frameCount;
+    
+    /**
+     * true if the boot state was restored, and the end of frame checks have not yet been
+     * made for the frame that it was captured at.
+     */
+    private boolean bootFramePending;
+    
+    /**
+     * The BootStateCache to restore BASIC-ready states from, or null to always boot.
+     */
+    private BootStateCache bootStateCache;
+    
+    /**
+     * Constructor for HeadlessRunner. Every Machine it starts boots from reset.
+     */
+    public HeadlessRunner() {
+        this(null);
+    }
+    
+    /**
+     * Constructor for HeadlessRunner. Machines that it starts with a setup that is already
+     * in the given BootStateCache skip booting BASIC. The frame count still counts from the
+     * reset, as it starts at the number of boot frames skipped, so a Machine reaches the same
+     * state at the same frame count either way. The exceptions are that a run can't end 
+     * before BASIC is ready, and the stop condition isn't tested during the skipped frames.
+     * 
+     * @param bootStateCache The BootStateCache to use. May be shared between runners.
+     */
+    public HeadlessRunner(BootStateCache bootStateCache) {
+        this.bootStateCache = bootStateCache;
+    }
+    
+    /**
+     * Boots a new Machine for the given AppConfigItem. If the AppConfigItem has a file
+     * path, then the program is fetched and will be auto loaded once BASIC is ready.
+     * 
+     * @param appConfigItem The AppConfigItem describing the program and machine to run.
+     */
+    public void start(AppConfigItem appConfigItem) {
+        HeadlessProgramLoader programLoader = new HeadlessProgramLoader();
+        
+        // The headless loader invokes the callback immediately, on this thread.
+        programLoader.fetchProgram(appConfigItem, p -> start(appConfigItem, p));
+    }
+    
+    private void start(AppConfigItem appConfigItem, Program program) {
+        if ((appConfigItem.getFilePath() != null) && !appConfigItem.getFilePath().isEmpty() && (program == null)) {
+            throw new IllegalArgumentException("Unable to load program: " + appConfigItem.getFilePath());
+        }
+        
+        machineType = MachineType.valueOf(
+                appConfigItem.getMachineType() != null? appConfigItem.getMachineType() : "PAL");
+        RamType ramType = RamType.valueOf(appConfigItem.getRam());
+        
+        pixelData = new HeadlessPixelData();
+        pixelData.init(machineType);
+        
+        machine = new Machine(new HeadlessSoundGenerator(), new HeadlessKeyboardMatrix(), pixelData);
+        machine.setBootStateCache(bootStateCache);
+        
+        // Disk images are never written back when running headless, so there is no
+        // persistence session. The Machine falls back to a no-op session.
+        byte[] mountedDiskImageData = null;
+        if ((program != null) && "DISK".equals(program.getProgramType())) {
+            mountedDiskImageData = program.getProgramData();
+        }
+        
+        autoLoadProgram = machine.init(
+                HeadlessResources.loadBasicRom(machineType), HeadlessResources.loadKernalRom(machineType), 
+                HeadlessResources.loadCharRom(), HeadlessResources.loadDos1541Rom(), 
+                program, appConfigItem, mountedDiskImageData, machineType, ramType, 
+                appConfigItem.getPalette(), null);
+        autoRunCmdQueue = null;
+        frameCount = machine.getSkippedBootFrameCount();
+        bootFramePending = (frameCount > 0);
+    }
+    
+    /**
+     * Runs the Machine, as fast as possible, until either the given number of frames
+     * have been run or the stop condition holds. The stop condition is tested after
+     * every frame.
+     * 
+     * @param maxFrames The maximum number of frames to run.
+     * @param stopCondition Condition on memory that stops the run early. May be null.
+     * 
+     * @return true if the stop condition was met; otherwise false.
+     */
+    public boolean run(int maxFrames, Predicate<Memory> stopCondition) {
+        Memory memory = machine.getMemory();
+        
+        // A booted Machine makes the end of frame checks on the frame that the boot state 
+        // is captured at, so a restored Machine makes them before running any more frames.
+        if (bootFramePending) {
+            bootFramePending = false;
+            if (endFrame(memory, stopCondition)) {
+                return true;
+            }
+        }
+        
+        for (int i = 0; i < maxFrames; i++) {
+            // Updates the Machine's state for a frame.
+            machine.update();
+            frameCount++;
+            
+            if (endFrame(memory, stopCondition)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    private boolean endFrame(Memory memory, Predicate<Memory> stopCondition) {
+        if (autoLoadProgram != null) {
+            checkAutoLoad(memory);
+        }
+        
+        return ((stopCondition != null) && stopCondition.test(memory));
+    }
+    
+    private void checkAutoLoad(Memory memory) {
+        // We need to wait for BASIC to boot up before loading the program.
+        // The simplest way to wait for BASIC to be ready is to check for
+        // the starting cursor position.
+        if (memory.peek(0xD1) == 110) {
+            // Now that the BASIC cursor is in the start position, let's load the
+            // program data in to memory.
+            try {
+                autoRunCmdQueue = autoLoadProgram.call();
+            } catch (Exception e) {}
+            
+            // If there is an auto run command, then run it.
+            runNextBasicCommand(autoRunCmdQueue, memory);
+            
+            if ((autoRunCmdQueue == null) || autoRunCmdQueue.isEmpty()) {
+                autoLoadProgram = null;
+            }
+        }
+        
+        // If it is a DISK, then we run two commands, the second being the RUN.
+        if (memory.peek(0xD1) == 220) {
+            runNextBasicCommand(autoRunCmdQueue, memory);
+            autoLoadProgram = null;
+        }
+    }
+    
+    private void runNextBasicCommand(Queue<char[]> cmdQueue, Memory memory) {
+        if ((cmdQueue != null) && (!cmdQueue.isEmpty())) {
+            // Keyboard buffer, 10 bytes (631 - 640)
+            char[] cmdChars = cmdQueue.remove();
+            int cmdCharPos = 0;
+            for (; cmdCharPos < cmdChars.length; cmdCharPos++) {
+                memory.poke(631 + cmdCharPos, cmdChars[cmdCharPos]);
+            }
+            memory.poke(631 + cmdCharPos, 0x0D);
+            
+            // Num of chars in keyboard buffer.
+            memory.poke(198, cmdCharPos + 1);
+        }
+    }
+    
+    /**
+     * Writes the visible part of the most recent frame out as a PNG image.
+     * 
+     * @param file The file to write the PNG image to.
+     * 
+     * @throws IOException If the image could not be written.
+     */
+    public void writeScreenshot(Path file) throws IOException {
+        int totalWidth = machineType.getTotalScreenWidth();
+        int width = machineType.getVisibleScreenWidth();
+        int height = machineType.getVisibleScreenHeight();
+        int left = machineType.getHorizontalOffset();
+        int top = machineType.getVerticalOffset();
+        int[] pixels = pixelData.getPixels();
+        
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            int index = ((y + top) * totalWidth) + left;
+            for (int x = 0; x < width; x++) {
+                // RGBA8888 to RGB888, i.e. drop the alpha byte.
+                image.setRGB(x, y, pixels[index++] >>> 8);
+            }
+        }
+        
+        if (!ImageIO.write(image, "png", file.toFile())) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+    
+    /**
+     * Writes the full 64K of the VIC 20's address space out as a raw binary file.
+     * 
+     * @param file The file to write the memory dump to.
+     * 
+     * @throws IOException If the memory dump could not be written.
+     */
+    public void writeMemoryDump(Path file) throws IOException {
+        Memory memory = machine.getMemory();
+        byte[] dump = new byte[0x10000];
+        for (int address = 0; address < dump.length; address++) {
+            dump[address] = (byte) memory.peek(address);
+        }
+        Files.write(file, dump);
+    }
+    
+    /**
+     * Gets the Machine that is being run.
+     * 
+     * @return The Machine that is being run.
+     */
+    public Machine getMachine() {
+        return machine;
+    }
+    
+    /**
+     * Gets the number of frames that have been run since the Machine was reset, including
+     * any boot frames that were skipped by restoring the boot state.
+     * 
+     * @return The number of frames run.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+}
@@ -0,0 +1,41 @@
+package emu.jvic.headless;
+
+import emu.jvic.MachineType;
+import emu.jvic.sound.SoundGenerator;
+
+/**
+ * A SoundGenerator that produces no sound. Used so that the headless runtime and the
+ * benchmarks never open an audio line on the host.
+ */
+public class HeadlessSoundGenerator extends SoundGenerator {
+
+    @Override
+    public void initSound(MachineType machineType) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void emulateCycles(int cycles) {
+        // Nothing to do.
+    }
+
+    @Override
+    public void pauseSound() {
+        // Nothing to do.
+    }
+
+    @Override
+    public void resumeSound() {
+        // Nothing to do.
+    }
+
+    @Override
+    public boolean isSoundOn() {
+        return false;
+    }
+
+    @Override
+    public void dispose() {
+        // Nothing to do.
+    }
+}
@@ -0,0 +1,98 @@
+package emu.jvic.headless.farm;
+
+import java.util.function.Predicate;
+
+import emu.jvic.config.AppConfigItem;
+import emu.jvic.memory.Memory;
+
+/**
+ * A single unit of work for the MachineFarm, i.e. a program to boot in its own 
+ * Machine and the budget of emulated time to run it for.
+ * 
+ * @author Lance Ewing
+ */
+public class FarmJob {
+
+    /**
+     * The unit that a FarmJob's budget is given in.
+     */
+    public enum BudgetUnit {
+        FRAMES, CYCLES
+    };
+    
+    private final String name;
+    
+    private final AppConfigItem appConfigItem;
+    
+    private final BudgetUnit budgetUnit;
+    
+    private final long budget;
+    
+    private final Predicate<Memory> stopCondition;
+    
+    /**
+     * Constructor for FarmJob.
+     * 
+     * @param name The name used to identify this job in progress reports.
+     * @param appConfigItem The AppConfigItem describing the program and machine to run.
+     * @param budgetUnit The unit that the budget is given in.
+     * @param budget The amount of emulated time to run for.
+     * @param stopCondition Condition on memory that stops the job early. May be null.
+     */
+    public FarmJob(String name, AppConfigItem appConfigItem, BudgetUnit budgetUnit, long budget, 
+            Predicate<Memory> stopCondition) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        }
+        this.name = name;
+        this.appConfigItem = appConfigItem;
+        this.budgetUnit = budgetUnit;
+        this.budget = budget;
+        this.stopCondition = stopCondition;
+    }
+    
+    /**
+     * Creates a FarmJob that runs for the given number of frames.
+     * 
+     * @param appConfigItem The AppConfigItem describing the program and machine to run.
+     * @param frames The number of frames to run.
+     * 
+     * @return The new FarmJob.
+     */
+    public static FarmJob forFrames(AppConfigItem appConfigItem, long frames) {
+        return new FarmJob(appConfigItem.getName(), appConfigItem, BudgetUnit.FRAMES, frames, null);
+    }
+    
+    /**
+     * Creates a FarmJob that runs for the given number of CPU cycles. The budget is
+     * checked at the end of each frame, so it will be overrun by at most one frame.
+     * 
+     * @param appConfigItem The AppConfigItem describing the program and machine to run.
+     * @param cycles The number of CPU cycles to run.
+     * 
+     * @return The new FarmJob.
+     */
+    public static FarmJob forCycles(AppConfigItem appConfigItem, long cycles) {
+        return new FarmJob(appConfigItem.getName(), appConfigItem, BudgetUnit.CYCLES, cycles, null);
+    }
+    
+    public String getName() {
+        return name;
+    }
+
+    public AppConfigItem getAppConfigItem() {
+        return appConfigItem;
+    }
+
+    public BudgetUnit getBudgetUnit() {
+        return budgetUnit;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public Predicate<Memory> getStopCondition() {
+        return stopCondition;
+    }
+}
@@ -0,0 +1,139 @@
+package emu.jvic.headless.farm;
+
+/**
+ * The progress of a single FarmJob. This is updated by the thread running the job,
+ * once per frame, and can be read from any other thread while the job is running.
+ * 
+ * @author Lance Ewing
+ */
+public class FarmJobProgress {
+
+    /**
+     * The states that a FarmJob passes through.
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, STOPPED, FAILED
+    };
+    
+    private final FarmJob job;
+    
+    private volatile State state = State.QUEUED;
+    
+    private volatile long frames;
+    
+    private volatile long cycles;
+    
+    private volatile long startCycles;
+    
+    private volatile long startTime;
+    
+    private volatile long endTime;
+    
+    private volatile Throwable error;
+    
+    /**
+     * Constructor for FarmJobProgress.
+     * 
+     * @param job The FarmJob whose progress this is.
+     */
+    FarmJobProgress(FarmJob job) {
+        this.job = job;
+    }
+    
+    void started() {
+        startTime = System.nanoTime();
+        state = State.RUNNING;
+    }
+    
+    void setStartCycles(long startCycles) {
+        this.startCycles = startCycles;
+        this.cycles = startCycles;
+    }
+    
+    void update(long frames, long cycles) {
+        this.frames = frames;
+        this.cycles = cycles;
+    }
+    
+    void finished(State state, Throwable error) {
+        this.error = error;
+        this.endTime = System.nanoTime();
+        this.state = state;
+    }
+    
+    public FarmJob getJob() {
+        return job;
+    }
+    
+    /**
+     * @return the current State of the job.
+     */
+    public State getState() {
+        return state;
+    }
+    
+    /**
+     * @return true if the job has completed, stopped or failed.
+     */
+    public boolean isDone() {
+        State currentState = state;
+        return ((currentState != State.QUEUED) && (currentState != State.RUNNING));
+    }
+    
+    /**
+     * @return the number of frames run since the reset, including any boot frames that were skipped.
+     */
+    public long getFrames() {
+        return frames;
+    }
+    
+    /**
+     * @return the number of CPU cycles run since the reset, including any boot cycles that were skipped.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+    
+    /**
+     * @return the number of CPU cycles emulated by this job, i.e. not including skipped boot cycles.
+     */
+    public long getEmulatedCycles() {
+        return cycles - startCycles;
+    }
+    
+    /**
+     * @return how far through its budget the job is, from 0.0 to 1.0.
+     */
+    public double getFractionComplete() {
+        if (isDone()) {
+            return 1.0;
+        }
+        long used = (job.getBudgetUnit() == FarmJob.BudgetUnit.FRAMES? frames : cycles);
+        return Math.min(1.0, (double)used / job.getBudget());
+    }
+    
+    /**
+     * @return the wall clock time that the job has been running for, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        if (startTime == 0) {
+            return 0;
+        }
+        return (isDone()? endTime : System.nanoTime()) - startTime;
+    }
+    
+    /**
+     * @return the emulated speed of this job, in MHz of emulated CPU clock.
+     */
+    public double getEmulatedMhz() {
+        long elapsedNanos = getElapsedNanos();
+        return (elapsedNanos > 0? (getEmulatedCycles() * 1000.0) / elapsedNanos : 0);
+    }
+    
+    /**
+     * @return the error that caused the job to fail, or null if it didn't fail.
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
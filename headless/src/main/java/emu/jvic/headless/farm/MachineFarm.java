@@ -0,0 +1,228 @@
+package emu.jvic.headless.farm;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import emu.jvic.BootStateCache;
+import emu.jvic.headless.HeadlessRunner;
+import emu.jvic.headless.farm.FarmJobProgress.State;
+
+/**
+ * Runs many independent VIC 20 Machines at once, each in its own HeadlessRunner, on
+ * a bounded number of threads. Every Machine owns all of its state, so jobs do not
+ * contend with each other and throughput scales with the number of cores.
+ * 
+ * @author Lance Ewing
+ */
+public class MachineFarm implements AutoCloseable {
+
+    private final ExecutorService executor;
+    
+    /**
+     * Limits the number of jobs running at once. A fixed platform thread pool bounds
+     * this already, but virtual threads are created per job.
+     */
+    private final Semaphore runningJobs;
+    
+    private final List<FarmJobProgress> progressList = Collections.synchronizedList(new ArrayList<>());
+    
+    /**
+     * Shared by every job, so that only the first job for each machine setup boots BASIC,
+     * or null if every job boots from reset.
+     */
+    private final BootStateCache bootStateCache;
+    
+    private volatile long startTime;
+    
+    private volatile long finishTime;
+    
+    /**
+     * Constructor for MachineFarm.
+     * 
+     * @param parallelism The maximum number of Machines to run at once.
+     * @param useVirtualThreads true to run each job on a virtual thread (Java 21+), false to use a platform thread pool.
+     * @param useBootStateCache true to restore the BASIC-ready state for machine setups that a job has already booted.
+     */
+    public MachineFarm(int parallelism, boolean useVirtualThreads, boolean useBootStateCache) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        runningJobs = new Semaphore(parallelism);
+        executor = (useVirtualThreads? createVirtualThreadExecutor() : 
+                Executors.newFixedThreadPool(parallelism, new FarmThreadFactory()));
+        bootStateCache = (useBootStateCache? new BootStateCache() : null);
+    }
+    
+    /**
+     * Constructor for MachineFarm. Every job boots from reset.
+     * 
+     * @param parallelism The maximum number of Machines to run at once.
+     * @param useVirtualThreads true to run each job on a virtual thread (Java 21+), false to use a platform thread pool.
+     */
+    public MachineFarm(int parallelism, boolean useVirtualThreads) {
+        this(parallelism, useVirtualThreads, false);
+    }
+    
+    /**
+     * Constructor for MachineFarm that runs one Machine per available processor.
+     */
+    public MachineFarm() {
+        this(Runtime.getRuntime().availableProcessors(), false);
+    }
+    
+    private static ExecutorService createVirtualThreadExecutor() {
+        // Looked up reflectively, as the project targets Java 11.
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+        }
+    }
+    
+    /**
+     * Submits a FarmJob to be run when a thread is free.
+     * 
+     * @param job The FarmJob to run.
+     * 
+     * @return The FarmJobProgress that tracks the job.
+     */
+    public FarmJobProgress submit(FarmJob job) {
+        FarmJobProgress progress = new FarmJobProgress(job);
+        if (startTime == 0) {
+            startTime = System.nanoTime();
+        }
+        progressList.add(progress);
+        executor.execute(() -> runJob(progress));
+        return progress;
+    }
+    
+    private void runJob(FarmJobProgress progress) {
+        FarmJob job = progress.getJob();
+        try {
+            runningJobs.acquire();
+        } catch (InterruptedException e) {
+            progress.finished(State.FAILED, e);
+            return;
+        }
+        
+        try {
+            progress.started();
+            
+            HeadlessRunner headlessRunner = new HeadlessRunner(bootStateCache);
+            headlessRunner.start(job.getAppConfigItem());
+            
+            // The frames and cycles count from the reset, even if the boot was skipped, but
+            // only the cycles emulated from here on count towards the emulated speed.
+            progress.setStartCycles(headlessRunner.getMachine().getCpu().getTotalCycles());
+            
+            boolean budgetInFrames = (job.getBudgetUnit() == FarmJob.BudgetUnit.FRAMES);
+            long frames = 0;
+            long cycles = 0;
+            boolean stopped = false;
+            
+            while ((budgetInFrames? frames : cycles) < job.getBudget()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                stopped = headlessRunner.run(1, job.getStopCondition());
+                frames = headlessRunner.getFrameCount();
+                cycles = headlessRunner.getMachine().getCpu().getTotalCycles();
+                progress.update(frames, cycles);
+                if (stopped) {
+                    break;
+                }
+            }
+            
+            progress.finished(stopped? State.STOPPED : State.COMPLETED, null);
+            
+        } catch (Throwable e) {
+            progress.finished(State.FAILED, e);
+        } finally {
+            runningJobs.release();
+        }
+    }
+    
+    /**
+     * Waits for all submitted jobs to finish. No further jobs can be submitted after this.
+     * 
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * 
+     * @return true if all jobs finished; false if the timeout elapsed first.
+     * 
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        boolean terminated = executor.awaitTermination(timeout, unit);
+        if (terminated) {
+            finishTime = System.nanoTime();
+        }
+        return terminated;
+    }
+    
+    /**
+     * Gets a snapshot of the progress of every job submitted so far.
+     * 
+     * @return The list of FarmJobProgress, in submission order.
+     */
+    public List<FarmJobProgress> getProgress() {
+        synchronized (progressList) {
+            return new ArrayList<>(progressList);
+        }
+    }
+    
+    /**
+     * Gets the total number of CPU cycles emulated by all jobs so far. This doesn't include
+     * the boot cycles that were skipped by restoring boot states.
+     * 
+     * @return The total number of CPU cycles emulated.
+     */
+    public long getTotalCycles() {
+        long totalCycles = 0;
+        for (FarmJobProgress progress : getProgress()) {
+            totalCycles += progress.getEmulatedCycles();
+        }
+        return totalCycles;
+    }
+    
+    /**
+     * Gets the combined emulated speed of all jobs since the first was submitted, in
+     * MHz of emulated CPU clock. A real VIC 20 runs at about 1.1 MHz.
+     * 
+     * @return The aggregate emulated MHz.
+     */
+    public double getAggregateMhz() {
+        long elapsedNanos = (finishTime != 0? finishTime : System.nanoTime()) - startTime;
+        return ((startTime != 0) && (elapsedNanos > 0)? (getTotalCycles() * 1000.0) / elapsedNanos : 0);
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Creates daemon threads, so that an unfinished farm doesn't stop the JVM exiting.
+     */
+    private static class FarmThreadFactory implements ThreadFactory {
+        
+        private final AtomicInteger threadCount = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jvic-farm-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
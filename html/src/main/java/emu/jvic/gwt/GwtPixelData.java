@@ -3,9 +3,7 @@ package emu.jvic.gwt;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.google.gwt.canvas.dom.client.Context2d;
 import com.google.gwt.core.client.JavaScriptObject;
-import com.google.gwt.typedarrays.shared.ArrayBufferView;
-import com.google.gwt.typedarrays.shared.Uint8ClampedArray;
-import com.google.gwt.typedarrays.shared.Uint32Array;
+import com.google.gwt.typedarrays.shared.Uint8Array;
 
 import emu.jvic.PixelData;
 
@@ -17,19 +15,25 @@ import emu.jvic.PixelData;
  * - It uses a canvas element, not a ByteBuffer, for the pixels.
  * - When the Pixmap is drawn to the Texture, it is directly from the canvas.
  * - Therefore, as long as the canvas is up to date, it will render to the Texture.
- * - And so the updatePixel method simply copies the pixelArray to the canvas image data.
+ * - And so the updatePixmap method simply applies the palette to the colour indexes
+ *   and puts the result in to the canvas image data.
  * 
  * Using a SharedArrayBuffer to store the pixel data means that the pixel array 
  * does not need to be transferred to the UI thread after each frame. That would
  * be the alternative approach. We don't really have to worry about synchronising 
  * the SharedArrayBuffer access with Atomics either, as one side is always reading
  * and will not modify.
+ * 
+ * The SharedArrayBuffer starts with the palette, as R, G, B, A bytes for each colour
+ * index, followed by the colour index of each pixel. The VIC chip in the web worker
+ * sets the palette, so it needs to be shared along with the pixels.
  */
 public class GwtPixelData extends PixelData {
     
-    private Uint8ClampedArray pixelArray;
-    private Uint32Array packedPixelArray;
-    private boolean packedPixelWritesSupported;
+    private static final int PALETTE_BYTES = PALETTE_SIZE * 4;
+    
+    private Uint8Array paletteArray;
+    private Uint8Array colourIndexArray;
     
     /**
      * Constructor for GwtPixelData (used by UI thread)
@@ -43,93 +47,94 @@ public class GwtPixelData extends PixelData {
      * @param sharedArrayBuffer The same SharedArrayBuffer used by the UI thread.
      */
     public GwtPixelData(JavaScriptObject sharedArrayBuffer) {
-        pixelArray = createPixelArray(sharedArrayBuffer);
-        packedPixelArray = createPackedPixelArray(sharedArrayBuffer);
-        packedPixelWritesSupported = isLittleEndian();
+        createArrays(sharedArrayBuffer);
     }
     
-    private native Uint8ClampedArray createPixelArray(JavaScriptObject sharedArrayBuffer)/*-{
-        return new Uint8ClampedArray(sharedArrayBuffer);
+    private void createArrays(JavaScriptObject sharedArrayBuffer) {
+        paletteArray = createUint8Array(sharedArrayBuffer, 0, PALETTE_BYTES);
+        colourIndexArray = createUint8Array(sharedArrayBuffer, PALETTE_BYTES);
+    }
+    
+    private native Uint8Array createUint8Array(JavaScriptObject sharedArrayBuffer, int byteOffset, int length)/*-{
+        return new Uint8Array(sharedArrayBuffer, byteOffset, length);
     }-*/;
 
-    private native Uint32Array createPackedPixelArray(JavaScriptObject sharedArrayBuffer)/*-{
-        return new Uint32Array(sharedArrayBuffer);
+    private native Uint8Array createUint8Array(JavaScriptObject sharedArrayBuffer, int byteOffset)/*-{
+        return new Uint8Array(sharedArrayBuffer, byteOffset);
     }-*/;
 
-    private native Uint8ClampedArray createPixelArray(int width, int height)/*-{
-        var sharedArrayBuffer = new SharedArrayBuffer(width * height * 4 * 2);
-        return new Uint8ClampedArray(sharedArrayBuffer);
+    private native JavaScriptObject createSharedArrayBuffer(int byteLength)/*-{
+        return new SharedArrayBuffer(byteLength);
     }-*/;
 
     public native JavaScriptObject getSharedArrayBuffer()/*-{
-        var pixelArray = this.@emu.jvic.gwt.GwtPixelData::pixelArray;
-        return pixelArray.buffer;
+        var colourIndexArray = this.@emu.jvic.gwt.GwtPixelData::colourIndexArray;
+        return colourIndexArray.buffer;
     }-*/;
     
     @Override
     public void init(int width, int height) {
         // The actual pixel array is created using a SharedArrayBuffer, so we need
         // to use a native method to do this.
-        pixelArray = createPixelArray(width, height);
-        packedPixelArray = createPackedPixelArray(getSharedArrayBuffer());
-        packedPixelWritesSupported = isLittleEndian();
+        createArrays(createSharedArrayBuffer(PALETTE_BYTES + (width * height)));
     }
 
     @Override
-    public void putPixel(int ulaIndex, int rgba8888Colour) {
-        if (packedPixelWritesSupported) {
-            packedPixelArray.set(ulaIndex, convertRgba8888ToPackedPixel(rgba8888Colour));
-        } else {
-            int index = (ulaIndex << 2);
-
-            // Adds RGBA8888 colour to byte array in expected R, G, B, A order.
-            pixelArray.set(index, (rgba8888Colour >> 24) & 0xFF);
-            pixelArray.set(index + 1, (rgba8888Colour >> 16) & 0xFF);
-            pixelArray.set(index + 2, (rgba8888Colour >> 8) & 0xFF);
-            pixelArray.set(index + 3, rgba8888Colour & 0xFF);
+    public void setPalette(int firstColourIndex, int[] rgba8888Colours) {
+        super.setPalette(firstColourIndex, rgba8888Colours);
+        
+        // Adds RGBA8888 colours to the shared palette in expected R, G, B, A order.
+        for (int i = 0; i < rgba8888Colours.length; i++) {
+            int index = ((firstColourIndex + i) << 2);
+            int rgba8888Colour = rgba8888Colours[i];
+            paletteArray.set(index, (rgba8888Colour >> 24) & 0xFF);
+            paletteArray.set(index + 1, (rgba8888Colour >> 16) & 0xFF);
+            paletteArray.set(index + 2, (rgba8888Colour >> 8) & 0xFF);
+            paletteArray.set(index + 3, rgba8888Colour & 0xFF);
         }
     }
 
+    @Override
+    public void putPixel(int ulaIndex, int colourIndex) {
+        colourIndexArray.set(ulaIndex, colourIndex);
+    }
+
     @Override
     public void clearPixels() {
-        if (packedPixelWritesSupported) {
-            for (int index = 0; index < packedPixelArray.length(); index++) {
-                packedPixelArray.set(index, 0);
-            }
-        } else {
-            for (int index = 0; index < pixelArray.length(); index++) {
-                pixelArray.set(index, 0);
-            }
+        for (int index = 0; index < colourIndexArray.length(); index++) {
+            colourIndexArray.set(index, 0);
         }
     }
 
+    @Override
+    public boolean hasNewFrame() {
+        // The VIC chip runs in the web worker, so changed frames are not seen by the
+        // UI thread's instance. The canvas is therefore updated on every render.
+        return true;
+    }
+
     @Override
     public void updatePixmap(Pixmap pixmap) {
-        setImageData(pixelArray, pixmap.getWidth(), pixmap.getHeight(), pixmap.getContext());
+        setImageData(getSharedArrayBuffer(), screenWidth, visibleLeft, visibleTop, 
+                visibleWidth, visibleHeight, pixmap.getContext());
     }
     
-    private native static void setImageData (ArrayBufferView pixels, int width, int height, Context2d ctx)/*-{
+    private native static void setImageData (JavaScriptObject sharedArrayBuffer, int screenWidth, 
+            int left, int top, int width, int height, Context2d ctx)/*-{
         var imgData = ctx.createImageData(width, height);
-        var data = imgData.data;
-    
-        for (var i = 0, len = width * height * 4; i < len; i++) {
-            data[i] = pixels[i] & 0xff;
+        
+        // Each palette entry is copied as a whole 32 bit value, which keeps its R, G, B, A
+        // byte order whatever the endianness of the platform.
+        var palette = new Uint32Array(sharedArrayBuffer, 0, 256);
+        var colourIndexes = new Uint8Array(sharedArrayBuffer, 1024);
+        var data = new Uint32Array(imgData.data.buffer);
+        
+        // Only the visible area of the screen is copied.
+        for (var y = 0, i = 0; y < height; y++) {
+            for (var x = 0, screenIndex = ((top + y) * screenWidth) + left; x < width; x++) {
+                data[i++] = palette[colourIndexes[screenIndex++]];
+            }
         }
         ctx.putImageData(imgData, 0, 0);
     }-*/;
-
-    private int convertRgba8888ToPackedPixel(int rgba8888Colour) {
-        return ((rgba8888Colour & 0x000000FF) << 24)
-                | ((rgba8888Colour & 0x0000FF00) << 8)
-                | ((rgba8888Colour & 0x00FF0000) >>> 8)
-                | ((rgba8888Colour & 0xFF000000) >>> 24);
-    }
-
-    private native boolean isLittleEndian()/*-{
-        var buffer = new ArrayBuffer(4);
-        var uint32 = new Uint32Array(buffer);
-        var uint8 = new Uint8Array(buffer);
-        uint32[0] = 0x01020304;
-        return uint8[0] === 0x04;
-    }-*/;
 }
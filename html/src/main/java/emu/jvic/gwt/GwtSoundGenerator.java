@@ -7,46 +7,33 @@ import com.google.gwt.typedarrays.shared.Float32Array;
 import com.google.gwt.typedarrays.shared.TypedArrays;
 
 import emu.jvic.MachineType;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
 import emu.jvic.sound.SoundGenerator;
+import emu.jvic.sound.VicSoundEngine;
 
 /**
  * GWT/HTML5/Web implementation of the VIC chip sound. Uses the Web Audio API, 
- * specifically an AudioWorklet.
+ * specifically an AudioWorklet. The sound is rendered by the shared VicSoundEngine.
  */
-public class GwtSoundGenerator extends SoundGenerator {
+public class GwtSoundGenerator extends SoundGenerator implements VicSoundEngine.SampleBlockHandler {
     
     public static final int SAMPLE_RATE = 22050;
 
     // Number of samples to queue before being output to the audio hardware.
     public static final int SAMPLE_LATENCY = 3072;
 
-    // Small baseline level that remains when voices are effectively silent.
-    // Rapid volume writes can modulate this into audible 4-bit digi output.
-    private static final int VOLUME_DAC_BIAS = 192;
-    private static final float HIGH_PASS_CUTOFF_HZ = 120.0f;
+    // The engine renders blocks of this many samples, which are converted and copied
+    // into the sample buffer.
+    private static final int SAMPLE_BLOCK_SIZE = 128;
     
-    private int VIC_REG_10 = 0x900A;
-    private int VIC_REG_14 = 0x900E;
-    
-    private int cyclesPerSample;
+    private VicSoundEngine soundEngine = new VicSoundEngine(SAMPLE_RATE, SAMPLE_BLOCK_SIZE, this);
     private AudioDevice audioDevice;
     private boolean soundPaused;
-    private int soundClockDividerCounter;
-    private int[] voiceClockDividerTriggers;
-    private int[] voiceCounters;
-    private int[] voiceShiftRegisters;
-    private int noiseLFSR = 0xFFFF;
-    private int lastNoiseLFSR0 = 0x1;
     
     private Float32Array sampleBuffer;
     private int sampleBufferOffset = 0;
-    private double cyclesToNextSample;
     private SharedQueue sampleSharedQueue;
-    private double accumulatedSample;
-    private int accumulatedCycles;
-    private float highPassAlpha;
-    private float highPassLastInput;
-    private float highPassLastOutput;
     
     // TODO: Remove these after debugging timing issue.
     private long cycleCount;
@@ -92,24 +79,7 @@ public class GwtSoundGenerator extends SoundGenerator {
      * @param machineType 
      */
     public void initSound(MachineType machineType) {
-        cyclesPerSample = (machineType.getCyclesPerSecond() / SAMPLE_RATE);
-        cyclesToNextSample = cyclesPerSample;
-
-        voiceCounters = new int[4];
-        voiceShiftRegisters = new int[4];
-        voiceClockDividerTriggers = new int[] { 0xF, 0x7, 0x3, 0x1 };
-
-        float dt = 1.0f / SAMPLE_RATE;
-        float rc = (float)(1.0 / (2.0 * Math.PI * HIGH_PASS_CUTOFF_HZ));
-        highPassAlpha = rc / (rc + dt);
-        resetSampleAccumulator();
-        highPassLastInput = 0.0f;
-        highPassLastOutput = 0.0f;
-        
-        if (machineType.isVIC44K()) {
-            VIC_REG_10 = 0xBC0A;
-            VIC_REG_14 = 0xBC0E;
-        }
+        soundEngine.init(memory, machineType);
     }
 
     /**
@@ -137,67 +107,13 @@ public class GwtSoundGenerator extends SoundGenerator {
     }
     
     /**
-     * Emulates a single cycle of activity for the VIC chip sound.
+     * Emulates the given number of cycles of activity for the VIC chip sound.
+     * 
+     * @param cycles The number of cycles to emulate.
      */
-    public void emulateCycle() {
-        cycleCount++;
-        
-        // 5-bit counter in the 6561, but only bottom 4 bits are used. Other bit might have been used for 6562/3.
-        soundClockDividerCounter = ((soundClockDividerCounter + 1) & 0xF);
-
-        for (int i = 0; i < 4; i++) {
-            if ((voiceClockDividerTriggers[i] & soundClockDividerCounter) == 0) {
-                voiceCounters[i] = (voiceCounters[i] + 1) & 0x7F;
-                if (voiceCounters[i] == 0) {
-                    // Reload the voice counter from the control register.
-                    voiceCounters[i] = (mem[VIC_REG_10 + i] & 0x7F);
-
-                    if (i == 3) {
-                        // For Noise voice, we perform a shift of the LFSR whenever the counter is
-                        // reloaded, and only shift the main voice shift register when LFSR bit 0 changes 
-                        // from LOW to HIGH, i.e. on the positive edge.
-                        if ((lastNoiseLFSR0 == 0) && (noiseLFSR & 0x0001) > 0) {
-                            voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                    | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                            : 0));
-                        }
-
-                        // The LFSR taps are bits 3, 12, 14 and 15.
-                        int bit3 = (noiseLFSR >> 3) & 1;
-                        int bit12 = (noiseLFSR >> 12) & 1;
-                        int bit14 = (noiseLFSR >> 14) & 1;
-                        int bit15 = (noiseLFSR >> 15) & 1;
-                        int feedback = (((bit3 ^ bit12) ^ (bit14 ^ bit15)) ^ 1);
-                        lastNoiseLFSR0 = (noiseLFSR & 0x1);
-                        noiseLFSR = (((noiseLFSR << 1) | (((feedback & ((mem[VIC_REG_10 + i] & 0x80) >> 7)) ^ 1) & 0x1))
-                                & 0xFFFF);
-
-                    } else {
-                        // For the three other voices, we shift the voice shift register whenever the
-                        // counter is reloaded.
-                        voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                        : 0));
-                    }
-                }
-            }
-        }
-
-        accumulatedSample += getCurrentMixedOutput();
-        accumulatedCycles++;
-
-        // If enough cycles have elapsed since the last sample, then output another.
-        if (--cyclesToNextSample <= 0) {
-            
-            cyclesToNextSample += cyclesPerSample;
-            
-            // No point writing samples until we know that the AudioWorklet is ready.
-            if (writeSamplesEnabled) {
-                writeSample();
-            } else {
-                resetSampleAccumulator();
-            }
-        }
+    public void emulateCycles(int cycles) {
+        cycleCount += cycles;
+        soundEngine.render(cycles);
     }
 
     /**
@@ -252,6 +168,20 @@ public class GwtSoundGenerator extends SoundGenerator {
         return audioWorklet.isRunning();
     }
 
+    /**
+     * Writes the state of the voices to the given StateWriter.
+     */
+    protected void saveVoiceState(StateWriter out) {
+        soundEngine.saveState(out);
+    }
+
+    /**
+     * Restores the state of the voices from the given StateReader.
+     */
+    protected void loadVoiceState(StateReader in) {
+        soundEngine.loadState(in);
+    }
+
     /**
      * Stops and closes the audio line.
      */
@@ -264,46 +194,42 @@ public class GwtSoundGenerator extends SoundGenerator {
     }
     
     /**
-     * Writes a single sample to the sample buffer. If the buffer is full after
-     * writing the sample, then the whole buffer is written out to the
-     * SourceDataLine.
+     * Writes a block of samples from the VicSoundEngine to the sample buffer. Whenever 
+     * the sample buffer is full, it is written out to the shared queue. The samples are
+     * discarded until the AudioWorklet is ready.
+     * 
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples in the block.
      */
-    public void writeSample() {
-        float sample = 0.0f;
-
-        if (accumulatedCycles > 0) {
-            sample = (float)(accumulatedSample / accumulatedCycles);
+    public void writeSamples(short[] samples, int sampleCount) {
+        if (!writeSamplesEnabled) {
+            return;
         }
-
-        resetSampleAccumulator();
-
-        // Model the output coupling capacitor with a one-pole high-pass filter,
-        // so fast volume-register changes become audible digi output.
-        float filtered = applyHighPass(sample);
-        float normalized = filtered / 16384.0f;
-        if (normalized > 1.0f) {
-            normalized = 1.0f;
-        } else if (normalized < -1.0f) {
-            normalized = -1.0f;
+        
+        for (int i = 0; i < sampleCount; i++) {
+            // Conversion to -1.0 to 1.0, which is what the AudioWorkletProcessor needs.
+            float normalized = samples[i] / 16384.0f;
+            if (normalized > 1.0f) {
+                normalized = 1.0f;
+            } else if (normalized < -1.0f) {
+                normalized = -1.0f;
+            }
+            sampleBuffer.set(sampleBufferOffset, normalized);
+            sampleBufferOffset++;
+            
+            // If the sample buffer is full, write it out to the shared queue.
+            if (sampleBufferOffset == sampleBuffer.length()) {
+                sampleSharedQueue.push(sampleBuffer);
+                sampleBufferOffset = 0;
+            }
         }
-
-        // Conversion to -1.0 to 1.0, which is what the AudioWorkletProcessor needs.
-        sampleBuffer.set(sampleBufferOffset, normalized);
         
         // Increment total sample count, so that we can keep in sync with cycle count.
-        sampleCount++;
-
-        sampleBufferOffset++;
-        
-        // If the sample buffer is full, write it out to the shared queue.
-        if (sampleBufferOffset == sampleBuffer.length()) {
-            sampleSharedQueue.push(sampleBuffer);
-            sampleBufferOffset = 0;
-        }
+        this.sampleCount += sampleCount;
     }
 
     public int getCyclesPerSample() {
-        return cyclesPerSample;
+        return soundEngine.getCyclesPerSample();
     }
     
     public SharedQueue getSampleSharedQueue() {
@@ -318,33 +244,6 @@ public class GwtSoundGenerator extends SoundGenerator {
         this.audioWorklet = new PSGAudioWorklet(sampleSharedQueue, gwtJVicRunner);
     }
 
-    private float getCurrentMixedOutput() {
-        int mixedVoices = 0;
-
-        for (int i = 0; i < 4; i++) {
-            if ((mem[VIC_REG_10 + i] & 0x80) > 0) {
-                // Voice enabled. First bit of SR goes out.
-                mixedVoices += ((voiceShiftRegisters[i] & 0x01) << 11);
-            }
-        }
-
-        int masterVolume = (mem[VIC_REG_14] & 0x0F);
-        int sample = (((mixedVoices >> 2) + VOLUME_DAC_BIAS) * masterVolume);
-        return Math.min(sample, 0x7FFF);
-    }
-
-    private float applyHighPass(float input) {
-        float output = highPassAlpha * (highPassLastOutput + input - highPassLastInput);
-        highPassLastInput = input;
-        highPassLastOutput = output;
-        return output;
-    }
-
-    private void resetSampleAccumulator() {
-        accumulatedSample = 0.0;
-        accumulatedCycles = 0;
-    }
-
     private final native void logToJSConsole(String message)/*-{
         console.log(message);
     }-*/;
@@ -9,6 +9,7 @@ import com.google.gwt.typedarrays.shared.TypedArrays;
 import com.google.gwt.typedarrays.shared.Uint8Array;
 import com.google.gwt.webworker.client.DedicatedWorkerEntryPoint;
 
+import emu.jvic.BootStateCache;
 import emu.jvic.Machine;
 import emu.jvic.MachineType;
 import emu.jvic.Program;
@@ -21,6 +22,7 @@ import emu.jvic.gwt.disk.GwtOpfsDiskImagePersistence;
 import emu.jvic.io.disk.persistence.DiskImagePersistence;
 import emu.jvic.io.disk.persistence.DiskImagePersistenceSession;
 import emu.jvic.io.disk.persistence.NoOpDiskImagePersistence;
+import emu.jvic.memory.Memory;
 import emu.jvic.memory.RamType;
 
 /**
@@ -44,6 +46,11 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
      */
     private Machine machine;
     
+    /**
+     * The BASIC-ready states of the machine setups this worker has booted so far.
+     */
+    private BootStateCache bootStateCache = new BootStateCache();
+    
     /**
      * The number of nanoseconds per frame.
      */
@@ -76,6 +83,9 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
     // Used by the current implementation.
     private double startTime = 0;
     private long cycleCount;
+    
+    // The number of cycles since the last frame was completed.
+    private long frameCycleCount;
 
     private double performanceWindowStartTime = -1;
     private long performanceWindowCycles;
@@ -271,6 +281,8 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
             AppConfigItem appConfigItem, DiskImagePersistenceSession persistenceSession,
             byte[] mountedDiskImageData) {
         machine = new Machine(soundGenerator, keyboardMatrix, pixelData);
+        machine.setBootStateCache(bootStateCache);
+        frameCycleCount = 0;
         autoLoadProgram = machine.init(basicRom, kernalRom, charRom, dos1541Rom,
                 program, appConfigItem, mountedDiskImageData, machineType, ramType,
                 appConfigItem.getPalette(), persistenceSession);
@@ -344,13 +356,13 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
             
             // Check for BASIC program auto-load
             if (autoLoadProgram != null) {
-                int[] mem = machine.getMemory().getMemoryArray();
+                Memory memory = machine.getMemory();
                 
                 // We need to wait for BASIC to boot up before loading the program.
                 // The simplest way to wait for BASIC to be ready is to check for
                 // the starting cursor position.
                 
-                if (mem[0xD1] == 110) {
+                if (memory.peek(0xD1) == 110) {
                     // Now that the BASIC cursor is in the start position, let's load the
                     // program data in to memory.
                     try {
@@ -358,7 +370,7 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
                     } catch (Exception e) {}
                     
                     // If there is an auto run command, then run it.
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     
                     if (autoRunCmdQueue.isEmpty()) {
                         autoLoadProgram = null;
@@ -366,19 +378,37 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
                 }
                 
                 // If it is a DISK, then we run two commands, the second being the RUN.
-                if (mem[0xD1] == 220) {
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                if (memory.peek(0xD1) == 220) {
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     autoLoadProgram = null;
                 }
             }
             
             // Emulate the required number of cycles.
+            // In warp speed, only the last frame of each batch has a chance of being shown, so
+            // the VIC skips rendering all of the others. The number of frames that complete in
+            // the batch depends on how far through a frame the machine is when it starts.
+            if (warpSpeed) {
+                long batchCycles = (expectedCycleCount - cycleCount) + 1;
+                int batchFrames = (int)((frameCycleCount + batchCycles) / 
+                        machine.getMachineType().getCyclesPerFrame());
+                machine.getVic().setFrameSkip(batchFrames - 1);
+                machine.getVic().restartFrameSkip(batchFrames - 2);
+            } else {
+                machine.getVic().setFrameSkip(0);
+            }
+
             long batchStartCycleCount = cycleCount;
             double batchStartTime = getPerformanceNowTimestamp();
+            long frameStartCycleCount = cycleCount - frameCycleCount;
             do {
-                machine.emulateCycle();
+                boolean frameComplete = machine.emulateCycle();
                 cycleCount++;
+                if (frameComplete) {
+                    frameStartCycleCount = cycleCount;
+                }
             } while (cycleCount <= expectedCycleCount);
+            frameCycleCount = cycleCount - frameStartCycleCount;
 
             double batchEndTime = getPerformanceNowTimestamp();
             int audioQueueSamples = (soundGenerator.isWriteSamplesEnabled() ?
@@ -441,18 +471,18 @@ public class JVicWebWorker extends DedicatedWorkerEntryPoint implements MessageH
         performanceWindowBatchCount = 0;
     }
     
-    private void runNextBasicCommand(Queue<char[]> cmdQueue, int[] mem) {
+    private void runNextBasicCommand(Queue<char[]> cmdQueue, Memory memory) {
         if ((cmdQueue != null) && (!cmdQueue.isEmpty())) {
             // Keyboard buffer, 10 bytes (631 - 640)
             char[] cmdChars = cmdQueue.remove();
             int cmdCharPos = 0;
             for (; cmdCharPos < cmdChars.length; cmdCharPos++) {
-                mem[631 + cmdCharPos] = cmdChars[cmdCharPos];
+                memory.poke(631 + cmdCharPos, cmdChars[cmdCharPos]);
             }
-            mem[631 + cmdCharPos] = 0x0D;
+            memory.poke(631 + cmdCharPos, 0x0D);
             
             // Num of chars in keyboard buffer.
-            mem[198] = cmdCharPos + 1;
+            memory.poke(198, cmdCharPos + 1);
         }
     }
     
@@ -1,12 +1,17 @@
 package emu.jvic.lwjgl3;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.badlogic.gdx.Application.ApplicationType;
 import com.badlogic.gdx.graphics.Pixmap;
@@ -14,7 +19,6 @@ import com.badlogic.gdx.graphics.PixmapIO;
 import com.badlogic.gdx.graphics.PixmapIO.PNG;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Base64Coder;
-import com.badlogic.gdx.utils.TimeUtils;
 
 import emu.jvic.JVic;
 import emu.jvic.JVicRunner;
@@ -28,10 +32,13 @@ import emu.jvic.cpu.Cpu6502;
 import emu.jvic.io.disk.persistence.DiskImagePersistence;
 import emu.jvic.io.disk.persistence.DiskImagePersistenceSession;
 import emu.jvic.io.disk.persistence.NoOpDiskImagePersistence;
+import emu.jvic.lwjgl3.capture.CaptureRecorder;
 import emu.jvic.lwjgl3.disk.DesktopDiskImagePersistence;
+import emu.jvic.memory.Memory;
 import emu.jvic.memory.RamType;
 import emu.jvic.sound.SoundGenerator;
 import emu.jvic.ui.MachineInputProcessor.ScreenSize;
+import emu.jvic.video.Vic;
 
 public class DesktopJVicRunner extends JVicRunner {
 
@@ -39,9 +46,33 @@ public class DesktopJVicRunner extends JVicRunner {
     private final Queue<Runnable> pendingMachineActions = new ConcurrentLinkedQueue<Runnable>();
     
     private Machine machine;
+    
+    // Screenshots are scaled, encoded and stored on this thread. It is a daemon thread, 
+    // so that it doesn't stop the JVM from exiting.
+    private final ExecutorService screenshotExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jvic-screenshot");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    // The time of the most recent screenshot, which is also used in its file name.
+    private volatile long latestScreenshotTime;
+    
+    // The app that is running, and the capture in progress, if there is one. The capture
+    // is only started and stopped on the machine thread.
+    private AppConfigItem runningAppConfigItem;
+    private volatile CaptureRecorder captureRecorder;
+    
+    // Paces the machine thread at the machine's real speed.
+    private final FramePacer framePacer;
 
     public DesktopJVicRunner(KeyboardMatrix keyboardMatrix, PixelData pixelData, SoundGenerator soundGenerator) {
         super(keyboardMatrix, pixelData, soundGenerator);
+        framePacer = new FramePacer(soundGenerator instanceof DesktopSoundGenerator ? 
+                (DesktopSoundGenerator) soundGenerator : null);
     }
 
     @Override
@@ -96,9 +127,11 @@ public class DesktopJVicRunner extends JVicRunner {
             DiskImagePersistenceSession persistenceSession, byte[] mountedDiskImageData) {
         MachineType machineType = MachineType.valueOf(appConfigItem.getMachineType());
         RamType ramType = RamType.valueOf(appConfigItem.getRam());
+        runningAppConfigItem = appConfigItem;
         
         // Create the Machine instance that will run the VIC 20 program.
         machine = new Machine(soundGenerator, keyboardMatrix, pixelData);
+        machine.setBootStateCache(bootStateCache);
         
         // Load the ROM files.
         byte[] basicRom = loadBasicRom(machineType);
@@ -112,9 +145,7 @@ public class DesktopJVicRunner extends JVicRunner {
             mountedDiskImageData, machineType, ramType, appConfigItem.getPalette(),
             persistenceSession);
         
-        final int NANOS_PER_FRAME = (1000000000 / machineType.getFramesPerSecond());
-        
-        long lastTime = TimeUtils.nanoTime();
+        framePacer.start(machineType.getFramesPerSecond());
 
         while (true) {
             processPendingMachineActions();
@@ -134,29 +165,38 @@ public class DesktopJVicRunner extends JVicRunner {
 
                     if (!exit) {
                         // An unknown amount of time will have passed. So reset timing.
-                        lastTime = TimeUtils.nanoTime();
+                        framePacer.resync();
                     }
                 }
             }
 
             if (exit) {
                 // Returning from the method will stop the thread cleanly.
+                stopCapture();
                 pixelData.clearPixels();
                 break;
             }
 
+            // In warp speed, most frames would never be shown, so the VIC skips rendering them,
+            // unless they're being captured.
+            machine.getVic().setFrameSkip((warpSpeed && (captureRecorder == null))? Vic.WARP_SPEED_FRAME_SKIP : 0);
+
             // Updates the Machine's state for a frame.
             machine.update();
             
+            if (captureRecorder != null) {
+                captureRecorder.captureFrame();
+            }
+            
             // Check for BASIC program auto-load
             if (autoLoadProgram != null) {
-                int[] mem = machine.getMemory().getMemoryArray();
+                Memory memory = machine.getMemory();
                 
                 // We need to wait for BASIC to boot up before loading the program.
                 // The simplest way to wait for BASIC to be ready is to check for
                 // the starting cursor position.
                 
-                if (mem[0xD1] == 110) {
+                if (memory.peek(0xD1) == 110) {
                     // Now that the BASIC cursor is in the start position, let's load the
                     // program data in to memory.
                     try {
@@ -164,7 +204,7 @@ public class DesktopJVicRunner extends JVicRunner {
                     } catch (Exception e) {}
                     
                     // If there is an auto run command, then run it.
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     
                     if (autoRunCmdQueue.isEmpty()) {
                         autoLoadProgram = null;
@@ -172,21 +212,17 @@ public class DesktopJVicRunner extends JVicRunner {
                 }
                 
                 // If it is a DISK, then we run two commands, the second being the RUN.
-                if (mem[0xD1] == 220) {
-                    runNextBasicCommand(autoRunCmdQueue, mem);
+                if (memory.peek(0xD1) == 220) {
+                    runNextBasicCommand(autoRunCmdQueue, memory);
                     autoLoadProgram = null;
                 }
             }
 
             if (!warpSpeed) {
-                // Throttle at expected FPS. Note that the PSG naturally throttles at 50 FPS
-                // without the yield.
-                while (TimeUtils.nanoTime() - lastTime <= 0L) {
-                    Thread.yield();
-                }
-                lastTime += NANOS_PER_FRAME;
+                // Throttle at expected FPS, paced by the audio line when the sound is on.
+                framePacer.waitForNextFrame();
             } else {
-                lastTime = TimeUtils.nanoTime();
+                framePacer.resync();
             }
         }
         
@@ -222,18 +258,18 @@ public class DesktopJVicRunner extends JVicRunner {
         return null;
     }
     
-    private void runNextBasicCommand(Queue<char[]> cmdQueue, int[] mem) {
+    private void runNextBasicCommand(Queue<char[]> cmdQueue, Memory memory) {
         if ((cmdQueue != null) && (!cmdQueue.isEmpty())) {
             // Keyboard buffer, 10 bytes (631 - 640)
             char[] cmdChars = cmdQueue.remove();
             int cmdCharPos = 0;
             for (; cmdCharPos < cmdChars.length; cmdCharPos++) {
-                mem[631 + cmdCharPos] = cmdChars[cmdCharPos];
+                memory.poke(631 + cmdCharPos, cmdChars[cmdCharPos]);
             }
-            mem[631 + cmdCharPos] = 0x0D;
+            memory.poke(631 + cmdCharPos, 0x0D);
             
             // Num of chars in keyboard buffer.
-            mem[198] = cmdCharPos + 1;
+            memory.poke(198, cmdCharPos + 1);
         }
     }
 
@@ -355,51 +391,236 @@ public class DesktopJVicRunner extends JVicRunner {
         }
     }
 
+    @Override
+    public boolean isCaptureSupported() {
+        return (pixelData instanceof DesktopPixelData) && (soundGenerator instanceof DesktopSoundGenerator);
+    }
+
+    @Override
+    public void toggleCapture() {
+        if (!isCaptureSupported()) {
+            return;
+        }
+        
+        // The capture is started and stopped between frames, on the machine thread.
+        enqueueMachineAction(new Runnable() {
+            @Override
+            public void run() {
+                if (captureRecorder == null) {
+                    startCapture();
+                } else {
+                    stopCapture();
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isCapturing() {
+        return (captureRecorder != null);
+    }
+    
+    /**
+     * Starts capturing the video and audio output to the jvic_captures folder. Invoked 
+     * on the machine thread.
+     */
+    private void startCapture() {
+        if ((machine == null) || (captureRecorder != null)) {
+            return;
+        }
+        
+        String friendlyAppName = runningAppConfigItem != null ? 
+                runningAppConfigItem.getName().replaceAll("[ ,\n/\\:;*?\"<>|!]", "_") : "capture";
+        StringBuilder filePath = new StringBuilder("jvic_captures/");
+        filePath.append(friendlyAppName);
+        filePath.append("_");
+        filePath.append(System.currentTimeMillis());
+        File frameStreamFile = Gdx.files.external(filePath + ".jvf").file();
+        File wavFile = Gdx.files.external(filePath + ".wav").file();
+        frameStreamFile.getParentFile().mkdirs();
+        
+        DesktopSoundGenerator desktopSoundGenerator = (DesktopSoundGenerator) soundGenerator;
+        try {
+            captureRecorder = new CaptureRecorder(
+                    (DesktopPixelData) pixelData, 
+                    machine.getMachineType().getCyclesPerSecond(), 
+                    machine.getMachineType().getCyclesPerFrame(), 
+                    desktopSoundGenerator.getSampleRate(), 
+                    frameStreamFile, wavFile);
+            desktopSoundGenerator.setCaptureRecorder(captureRecorder);
+        } catch (IOException e) {
+            Gdx.app.error("DesktopJVicRunner", "Unable to start capture: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stops the capture in progress, if there is one. The capture files are completed on 
+     * the capture thread. Invoked on the machine thread.
+     */
+    private void stopCapture() {
+        CaptureRecorder recorder = captureRecorder;
+        if (recorder == null) {
+            return;
+        }
+        
+        ((DesktopSoundGenerator) soundGenerator).setCaptureRecorder(null);
+        recorder.stop();
+        captureRecorder = null;
+        
+        if ((recorder.getDroppedFrameCount() > 0) || (recorder.getDroppedAudioBytes() > 0)) {
+            Gdx.app.log("DesktopJVicRunner", "Capture dropped " + recorder.getDroppedFrameCount() + 
+                    " frames and " + (recorder.getDroppedAudioBytes() / 2) + " audio samples");
+        }
+    }
+
+    @Override
+    public String getPerformanceStatsText() {
+        if (!(pixelData instanceof DesktopPixelData)) {
+            return "";
+        }
+        DesktopPixelData desktopPixelData = (DesktopPixelData) pixelData;
+        StringBuilder text = new StringBuilder();
+        text.append("Dropped frames: ");
+        text.append(desktopPixelData.getDroppedFrameCount());
+        text.append('\n');
+        text.append("Duplicated frames: ");
+        text.append(desktopPixelData.getDuplicatedFrameCount());
+        text.append('\n');
+        text.append("Pacing: ");
+        text.append(framePacer.isAudioPaced()? "audio" : "timer");
+        text.append(String.format(", error %.2f ms", framePacer.getPacingErrorMillis()));
+        if (framePacer.isAudioPaced()) {
+            text.append(String.format(", resample %+.3f%%", framePacer.getRateAdjustment() * 100));
+        }
+        if (soundGenerator instanceof DesktopSoundGenerator) {
+            DesktopSoundGenerator desktopSoundGenerator = (DesktopSoundGenerator) soundGenerator;
+            text.append('\n');
+            text.append(String.format("Audio ring: %.1f ms, underruns %d, overruns %d", 
+                    (desktopSoundGenerator.getRingBufferSampleCount() * 1000.0f) / desktopSoundGenerator.getSampleRate(),
+                    desktopSoundGenerator.getUnderrunCount(), desktopSoundGenerator.getOverrunSampleCount()));
+        }
+        text.append('\n');
+        text.append(String.format("Host CPU: %.0f%%", framePacer.getCpuUsage() * 100));
+        return text.toString();
+    }
+
     @Override
     public void saveScreenshot(Pixmap screenPixmap, AppConfigItem appConfigItem) {
         String friendlyAppName = appConfigItem != null ? appConfigItem.getName().replaceAll("[ ,\n/\\:;*?\"<>|!]", "_")
                 : "shot";
-        if (Gdx.app.getType().equals(ApplicationType.Desktop)) {
+        boolean saveToFile = Gdx.app.getType().equals(ApplicationType.Desktop);
+        boolean saveToStore = (appConfigItem != null);
+        
+        // Consecutive screenshots can be taken within the same millisecond, so the
+        // timestamp is bumped if necessary to keep the file names unique.
+        long screenshotTime = Math.max(System.currentTimeMillis(), latestScreenshotTime + 1);
+        latestScreenshotTime = screenshotTime;
+        
+        MachineType machineType = machineScreen.getMachineType();
+        ScreenSize currentScreenSize = machineScreen.getMachineInputProcessor().getScreenSize();
+        int renderWidth = currentScreenSize.getRenderWidth(machineType);
+        int renderHeight = currentScreenSize.getRenderHeight(machineType);
+        
+        // Only the copy of the frame is done on the render thread. Scaling, PNG encoding
+        // and storing are done on the screenshot thread, so that rendering isn't held up.
+        Pixmap framePixmap = copyPixmap(screenPixmap);
+        
+        screenshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (saveToFile) {
+                        writeScreenshotFile(framePixmap, friendlyAppName, screenshotTime, 
+                                renderWidth, renderHeight);
+                    }
+                    
+                    // When several screenshots are queued, e.g. for consecutive frames, 
+                    // only the most recent one is put in the screenshot store.
+                    if (saveToStore && (screenshotTime == latestScreenshotTime)) {
+                        storeScreenshot(framePixmap, friendlyAppName);
+                    }
+                } finally {
+                    framePixmap.dispose();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Creates a copy of the given Pixmap, by copying its pixels directly.
+     * 
+     * @param pixmap The Pixmap to copy.
+     * 
+     * @return The copy of the Pixmap.
+     */
+    private Pixmap copyPixmap(Pixmap pixmap) {
+        Pixmap copy = new Pixmap(pixmap.getWidth(), pixmap.getHeight(), pixmap.getFormat());
+        ByteBuffer sourcePixels = pixmap.getPixels().duplicate();
+        sourcePixels.clear();
+        ByteBuffer copyPixels = copy.getPixels();
+        copyPixels.clear();
+        copyPixels.put(sourcePixels);
+        copyPixels.clear();
+        return copy;
+    }
+    
+    /**
+     * Scales the given screenshot to the given render size and writes it as a PNG to 
+     * the jvic_screens folder. Invoked on the screenshot thread.
+     * 
+     * @param framePixmap The Pixmap holding the screenshot.
+     * @param friendlyAppName The name of the app, with unsafe file name characters replaced.
+     * @param screenshotTime The time that the screenshot was taken.
+     * @param renderWidth The width to scale the screenshot to.
+     * @param renderHeight The height to scale the screenshot to.
+     */
+    private void writeScreenshotFile(Pixmap framePixmap, String friendlyAppName, long screenshotTime, 
+            int renderWidth, int renderHeight) {
+        try {
+            StringBuilder filePath = new StringBuilder("jvic_screens/");
+            filePath.append(friendlyAppName);
+            filePath.append("_");
+            filePath.append(screenshotTime);
+            filePath.append(".png");
+            
+            Pixmap pixmap = new Pixmap(renderWidth, renderHeight, Pixmap.Format.RGBA8888);
             try {
-                StringBuilder filePath = new StringBuilder("jvic_screens/");
-                filePath.append(friendlyAppName);
-                filePath.append("_");
-                filePath.append(System.currentTimeMillis());
-                filePath.append(".png");
-                
-                MachineType machineType = machineScreen.getMachineType();
-                ScreenSize currentScreenSize = machineScreen.getMachineInputProcessor().getScreenSize();
-                int renderWidth = currentScreenSize.getRenderWidth(machineType);
-                int renderHeight = currentScreenSize.getRenderHeight(machineType);
-                Pixmap pixmap = new Pixmap(renderWidth, renderHeight, Pixmap.Format.RGBA8888);
                 pixmap.drawPixmap(
-                        screenPixmap, 
-                        machineType.getHorizontalOffset(), machineType.getVerticalOffset(),
-                        machineType.getVisibleScreenWidth(), machineType.getVisibleScreenHeight(),
+                        framePixmap, 
+                        0, 0, framePixmap.getWidth(), framePixmap.getHeight(),
                         0, 0, renderWidth, renderHeight);
                 
                 PixmapIO.writePNG(Gdx.files.external(filePath.toString()), pixmap);
-            } catch (Exception e) {
-                // Ignore.
+            } finally {
+                pixmap.dispose();
             }
+        } catch (Exception e) {
+            // Ignore.
         }
-        
-        if (appConfigItem != null) {
+    }
+    
+    /**
+     * Encodes the given screenshot as a PNG and puts it in the screenshot store for the
+     * given app. Invoked on the screenshot thread.
+     * 
+     * @param framePixmap The Pixmap holding the screenshot.
+     * @param friendlyAppName The name of the app, with unsafe file name characters replaced.
+     */
+    private void storeScreenshot(Pixmap framePixmap, String friendlyAppName) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PNG writer = new PNG((int) (framePixmap.getWidth() * framePixmap.getHeight() * 1.5f));
             try {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                PNG writer = new PNG((int) (screenPixmap.getWidth() * screenPixmap.getHeight() * 1.5f));
-                try {
-                    writer.setFlipY(false);
-                    writer.write(out, screenPixmap);
-                } finally {
-                    writer.dispose();
-                }
-                JVic jvic = machineScreen.getJVic();
-                jvic.getScreenshotStore().putString(friendlyAppName, new String(Base64Coder.encode(out.toByteArray())));
-                jvic.getScreenshotStore().flush();
-            } catch (IOException ex) {
-                // Ignore.
+                writer.setFlipY(false);
+                writer.write(out, framePixmap);
+            } finally {
+                writer.dispose();
             }
+            JVic jvic = machineScreen.getJVic();
+            jvic.getScreenshotStore().putString(friendlyAppName, new String(Base64Coder.encode(out.toByteArray())));
+            jvic.getScreenshotStore().flush();
+        } catch (IOException ex) {
+            // Ignore.
         }
     }
 }
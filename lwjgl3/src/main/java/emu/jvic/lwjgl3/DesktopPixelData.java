@@ -1,40 +1,219 @@
 package emu.jvic.lwjgl3;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.utils.BufferUtils;
 
 import emu.jvic.PixelData;
 
+/**
+ * Desktop implementation of PixelData. The machine thread and the render thread never
+ * use the same colour index buffer at the same time. There are three buffers. The VIC
+ * chip writes to one, the render thread reads from another, and the third holds the
+ * most recently completed frame. When the VIC chip completes a changed frame, its
+ * buffer is atomically swapped with the completed frame buffer. When the render thread
+ * updates a Pixmap, it swaps its buffer with the completed frame buffer, if there is a
+ * newer frame in it. Neither thread ever waits for the other.
+ */
 public class DesktopPixelData extends PixelData {
 
-    // This byte array is in exactly the format that we can copy into the Pixmap's buffer.
+    // Set in the readyFrame value when the buffer it refers to holds a frame that the
+    // render thread hasn't yet taken.
+    private static final int NEW_FRAME = 0x4;
+
+    // Mask for the buffer number in the readyFrame value.
+    private static final int BUFFER_MASK = 0x3;
+
+    // The three colour index buffers, each with one colour index per pixel, as output
+    // by the VIC chip.
+    private byte[][] colourIndexBuffers;
+
+    // The buffer that the VIC chip is writing to. Only used by the machine thread.
+    private byte[] colourIndexes;
+    private int writeBuffer;
+
+    // The buffer that the render thread is reading from. Only used by the render thread.
+    private int readBuffer;
+
+    // The buffer holding the last completed frame, plus the NEW_FRAME flag.
+    private AtomicInteger readyFrame = new AtomicInteger();
+
+    // The last completed frame, and the number of frames completed so far. Only used by
+    // the machine thread, e.g. for capturing frames. The last frame's buffer is never
+    // written to until after the next frame has been completed.
+    private byte[] lastFrame;
+    private long lastFrameNumber;
+
+    // Frames that were replaced by a newer frame before the render thread took them.
+    private volatile long droppedFrameCount;
+
+    // Pixmap updates for which there wasn't a newer frame, so the same frame was used again.
+    private volatile long duplicatedFrameCount;
+
+    // These byte arrays are in exactly the format that we can copy into the Pixmaps' buffers,
+    // holding only the visible area of the screen.
     private byte[] imageData;
-    
+    private byte[] visibleColourIndexes;
+
     @Override
     public void init(int width, int height) {
-        imageData = new byte[width * height * 4 * 2];
+        colourIndexBuffers = new byte[3][width * height];
+        writeBuffer = 0;
+        colourIndexes = colourIndexBuffers[writeBuffer];
+        readyFrame.set(1);
+        readBuffer = 2;
+        lastFrame = colourIndexBuffers[1];
+        lastFrameNumber = 0;
+        droppedFrameCount = 0;
+        duplicatedFrameCount = 0;
+        imageData = new byte[visibleWidth * visibleHeight * 4];
+        visibleColourIndexes = new byte[visibleWidth * visibleHeight];
     }
 
     @Override
-    public void putPixel(int ulaIndex, int rgba8888Colour) {
-        int index = (ulaIndex << 2);
-        
-        // Adds RGBA8888 colour to byte array in expected R, G, B, A order.
-        imageData[index + 0] = (byte)((rgba8888Colour >> 24) & 0xFF);
-        imageData[index + 1] = (byte)((rgba8888Colour >> 16) & 0xFF);
-        imageData[index + 2] = (byte)((rgba8888Colour >>  8) & 0xFF);
-        imageData[index + 3] = (byte)((rgba8888Colour >>  0) & 0xFF);
+    public void putPixel(int ulaIndex, int colourIndex) {
+        colourIndexes[ulaIndex] = (byte)colourIndex;
     }
 
     @Override
     public void clearPixels() {
-        Arrays.fill(imageData, (byte)0);
+        for (byte[] buffer : colourIndexBuffers) {
+            Arrays.fill(buffer, (byte)0);
+        }
+
+        // Makes sure that the render thread picks up the cleared frame.
+        frameChanged();
+    }
+
+    @Override
+    public void frameChanged() {
+        // Publish the completed frame and carry on writing to the previous ready buffer.
+        int previousFrame = readyFrame.getAndSet(writeBuffer | NEW_FRAME);
+        if ((previousFrame & NEW_FRAME) != 0) {
+            droppedFrameCount++;
+        }
+        lastFrame = colourIndexes;
+        lastFrameNumber++;
+        writeBuffer = (previousFrame & BUFFER_MASK);
+
+        // The buffer starts out holding an older frame, but every visible pixel will be
+        // written again, and the blanking pixels are never written.
+        colourIndexes = colourIndexBuffers[writeBuffer];
+
+        super.frameChanged();
+    }
+
+    /**
+     * Takes the most recently completed frame, if it is newer than the one that the
+     * render thread already has.
+     *
+     * @return The colour indexes of the latest frame.
+     */
+    private byte[] acquireFrame() {
+        if ((readyFrame.get() & NEW_FRAME) != 0) {
+            readBuffer = (readyFrame.getAndSet(readBuffer) & BUFFER_MASK);
+        } else {
+            duplicatedFrameCount++;
+        }
+        return colourIndexBuffers[readBuffer];
     }
 
     @Override
     public void updatePixmap(Pixmap pixmap) {
-        BufferUtils.copy(imageData, 0, pixmap.getPixels(), pixmap.getPixels().remaining());
+        copyToPixmap(acquireFrame(), pixmap);
+    }
+
+    @Override
+    public void updateCurrentPixmap(Pixmap pixmap) {
+        // The render thread's buffer still holds the frame that it last took.
+        copyToPixmap(colourIndexBuffers[readBuffer], pixmap);
+    }
+
+    private void copyToPixmap(byte[] frame, Pixmap pixmap) {
+        expandVisiblePixels(frame, imageData);
+        BufferUtils.copy(imageData, 0, pixmap.getPixels(), 
+                Math.min(imageData.length, pixmap.getPixels().remaining()));
+    }
+
+    @Override
+    public boolean isIndexPixmapSupported() {
+        return true;
+    }
+
+    @Override
+    public void updateIndexPixmap(Pixmap indexPixmap) {
+        copyVisibleColourIndexes(acquireFrame(), visibleColourIndexes);
+        BufferUtils.copy(visibleColourIndexes, 0, indexPixmap.getPixels(),
+                Math.min(visibleColourIndexes.length, indexPixmap.getPixels().remaining()));
+    }
+
+    /**
+     * Gets the number of the most recently completed changed frame. This only changes
+     * when a frame that is different from the previous frame is completed. Invoked on
+     * the machine thread.
+     *
+     * @return The changed frame number.
+     */
+    public long getChangedFrameNumber() {
+        return lastFrameNumber;
+    }
+
+    /**
+     * Copies the colour indexes of the visible area of the most recently completed frame.
+     * Invoked on the machine thread.
+     *
+     * @param visibleColourIndexes The array to copy the colour indexes into, which is visibleWidth * visibleHeight in size.
+     */
+    public void copyLastFrame(byte[] visibleColourIndexes) {
+        copyVisibleColourIndexes(lastFrame, visibleColourIndexes);
+    }
+
+    /**
+     * Copies the RGBA8888 colour for each colour index into the given array.
+     *
+     * @param rgba8888Colours The array to copy the palette into, which is PALETTE_SIZE in size.
+     */
+    public void copyPalette(int[] rgba8888Colours) {
+        System.arraycopy(palette, 0, rgba8888Colours, 0, PALETTE_SIZE);
+    }
+
+    /**
+     * Gets the width of the visible area of the screen.
+     *
+     * @return The visible width.
+     */
+    public int getVisibleWidth() {
+        return visibleWidth;
+    }
+
+    /**
+     * Gets the height of the visible area of the screen.
+     *
+     * @return The visible height.
+     */
+    public int getVisibleHeight() {
+        return visibleHeight;
+    }
+
+    /**
+     * Gets the number of completed frames that were replaced by a newer frame before the
+     * render thread took them, i.e. frames that were never shown.
+     *
+     * @return The number of dropped frames.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Gets the number of Pixmap updates for which no newer frame had been completed, so
+     * the previous frame was used again.
+     *
+     * @return The number of duplicated frames.
+     */
+    public long getDuplicatedFrameCount() {
+        return duplicatedFrameCount;
     }
 }
@@ -7,188 +7,217 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 
 import emu.jvic.MachineType;
+import emu.jvic.lwjgl3.capture.CaptureRecorder;
+import emu.jvic.snap.StateReader;
+import emu.jvic.snap.StateWriter;
+import emu.jvic.sound.AudioOutputThread;
 import emu.jvic.sound.SoundGenerator;
+import emu.jvic.sound.VicSoundEngine;
 
 /**
- * An emulation of the VIC 20 sound that is tailored for the Desktop platform.
+ * An emulation of the VIC 20 sound that is tailored for the Desktop platform. The sound
+ * is rendered by the shared VicSoundEngine on the machine thread, and each block of
+ * samples is passed to an AudioOutputThread, which writes them out to a Java Sound
+ * SourceDataLine, so that the machine thread is never blocked by the audio line.
  */
-public class DesktopSoundGenerator extends SoundGenerator {
-
-    private static final int SAMPLE_RATE = 22050;
-    private static final int VOLUME_DAC_BIAS = 192;
-    private static final float HIGH_PASS_CUTOFF_HZ = 120.0f;
-    
-    private int VIC_REG_10 = 0x900A;
-    private int VIC_REG_14 = 0x900E;
-    
-    private int cyclesPerSample;
-    private byte[] sampleBuffer;
-    private int sampleBufferOffset = 0;
-    private int cyclesToNextSample;
+public class DesktopSoundGenerator extends SoundGenerator 
+        implements VicSoundEngine.SampleBlockHandler, AudioOutputThread.SampleSink {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    // PCM SIGNED, 16 bit, mono, 2 bytes/frame, little-endian, 100ms buffer size. The
+    // FramePacer keeps about 40ms of samples queued, most of which are in the audio line.
+    private static final int AUDIO_BUFFER_SIZE = ((((SAMPLE_RATE / 10) * 2) / 10) * 10);
+
+    // The audio line is written to in blocks of a twentieth of its buffer size.
+    private static final int SAMPLE_BLOCK_SIZE = (AUDIO_BUFFER_SIZE / 20) / 2;
+
+    private VicSoundEngine soundEngine = new VicSoundEngine(SAMPLE_RATE, SAMPLE_BLOCK_SIZE, this,
+            VicSoundEngine.Synthesis.BAND_LIMITED);
+    private AudioOutputThread audioOutputThread = new AudioOutputThread(SAMPLE_RATE, SAMPLE_BLOCK_SIZE, this);
     private SourceDataLine audioLine;
-    private int soundClockDividerCounter;
-    private int[] voiceClockDividerTriggers;
-    private int[] voiceCounters;
-    private int[] voiceShiftRegisters;
-    private int noiseLFSR = 0xFFFF;
-    private int lastNoiseLFSR0 = 0x1;
-    private double accumulatedSample;
-    private int accumulatedCycles;
-    private float highPassAlpha;
-    private float highPassLastInput;
-    private float highPassLastOutput;
-    
+    private volatile boolean soundPaused;
+
+    // The total number of samples pushed to the ring buffer. Only used by the machine thread.
+    private long writtenSampleCount;
+
+    // Only used by the audio thread. The audio line starts off empty, which isn't counted
+    // as an underrun.
+    private byte[] sampleBuffer = new byte[SAMPLE_BLOCK_SIZE * 2];
+    private boolean firstAudioLineWrite = true;
+
+    // The number of times that the audio line ran out of samples. Only updated by the audio thread.
+    private volatile long underrunCount;
+
+    // If set, every sample that is output is also passed to this CaptureRecorder.
+    private volatile CaptureRecorder captureRecorder;
+
     @Override
     public void initSound(MachineType machineType) {
-        cyclesPerSample = (machineType.getCyclesPerSecond() / SAMPLE_RATE);
-        
-        try {
-            // PCM SIGNED, 16 bit, mono, 2 bytes/frame, little-endian, 50ms buffer size (i.e. delay)
-            int audioBufferSize = ((((SAMPLE_RATE/ 20) * 2) / 10) * 10);
-            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format, audioBufferSize);
-            audioLine = (SourceDataLine)AudioSystem.getLine(info);
-            audioLine.open();
-            audioLine.start();
-            
-            sampleBuffer = new byte[audioBufferSize / 10];
-            sampleBufferOffset = 0;
-            
-        } catch (LineUnavailableException lue) {
-            audioLine = null;
-        }
-        
-        voiceCounters = new int[4];
-        voiceShiftRegisters = new int[4];
-        voiceClockDividerTriggers = new int[] { 0xF, 0x7, 0x3, 0x1 };
-
-        float dt = 1.0f / SAMPLE_RATE;
-        float rc = (float)(1.0 / (2.0 * Math.PI * HIGH_PASS_CUTOFF_HZ));
-        highPassAlpha = rc / (rc + dt);
-        resetSampleAccumulator();
-        highPassLastInput = 0.0f;
-        highPassLastOutput = 0.0f;
-        
-        if (machineType.isVIC44K()) {
-            VIC_REG_10 = 0xBC0A;
-            VIC_REG_14 = 0xBC0E;
+        if (audioLine == null) {
+            try {
+                AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+                DataLine.Info info = new DataLine.Info(SourceDataLine.class, format, AUDIO_BUFFER_SIZE);
+                audioLine = (SourceDataLine)AudioSystem.getLine(info);
+                audioLine.open();
+                audioLine.start();
+                audioOutputThread.start();
+
+            } catch (LineUnavailableException lue) {
+                audioLine = null;
+            }
         }
+
+        soundEngine.init(memory, machineType);
     }
 
     @Override
-    public void emulateCycle() {
-        // 5-bit counter in the 6561, but only bottom 4 bits are used. Other bit might have been used for 6562/3.
-        soundClockDividerCounter = ((soundClockDividerCounter + 1) & 0xF);
-
-        for (int i = 0; i < 4; i++) {
-            if ((voiceClockDividerTriggers[i] & soundClockDividerCounter) == 0) {
-                voiceCounters[i] = (voiceCounters[i] + 1) & 0x7F;
-                if (voiceCounters[i] == 0) {
-                    // Reload the voice counter from the control register.
-                    voiceCounters[i] = (mem[VIC_REG_10 + i] & 0x7F);
-
-                    if (i == 3) {
-                        // For Noise voice, we perform a shift of the LFSR whenever the counter is
-                        // reloaded, and only shift the main voice shift register when LFSR bit 0 changes 
-                        // from LOW to HIGH, i.e. on the positive edge.
-                        if ((lastNoiseLFSR0 == 0) && (noiseLFSR & 0x0001) > 0) {
-                            voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                    | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                            : 0));
-                        }
-
-                        // The LFSR taps are bits 3, 12, 14 and 15.
-                        int bit3 = (noiseLFSR >> 3) & 1;
-                        int bit12 = (noiseLFSR >> 12) & 1;
-                        int bit14 = (noiseLFSR >> 14) & 1;
-                        int bit15 = (noiseLFSR >> 15) & 1;
-                        int feedback = (((bit3 ^ bit12) ^ (bit14 ^ bit15)) ^ 1);
-                        lastNoiseLFSR0 = (noiseLFSR & 0x1);
-                        noiseLFSR = (((noiseLFSR << 1) | (((feedback & ((mem[VIC_REG_10 + i] & 0x80) >> 7)) ^ 1) & 0x1))
-                                & 0xFFFF);
-
-                    } else {
-                        // For the three other voices, we shift the voice shift register whenever the
-                        // counter is reloaded.
-                        voiceShiftRegisters[i] = (((voiceShiftRegisters[i] & 0x7F) << 1)
-                                | ((mem[VIC_REG_10 + i] & 0x80) > 0 ? (((voiceShiftRegisters[i] & 0x80) >> 7) ^ 1)
-                                        : 0));
-                    }
-                }
-            }
-        }
+    public void emulateCycles(int cycles) {
+        soundEngine.render(cycles);
+    }
 
-        accumulatedSample += getCurrentMixedOutput();
-        accumulatedCycles++;
+    /**
+     * Pushes a block of samples from the VicSoundEngine to the AudioOutputThread, for the
+     * audio thread to write out to the audio line. Invoked on the machine thread.
+     *
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples in the block.
+     */
+    @Override
+    public void writeSamples(short[] samples, int sampleCount) {
+        CaptureRecorder recorder = captureRecorder;
+        if (recorder != null) {
+            recorder.addAudioSamples(samples, sampleCount);
+        }
 
-        // If enough cycles have elapsed since the last sample, then output another.
-        if (--cyclesToNextSample <= 0) {
-            writeSample();
-            cyclesToNextSample += cyclesPerSample;
+        // Nothing is pushed while the sound is paused, as the stopped line isn't being played.
+        if ((audioLine != null) && !soundPaused) {
+            writtenSampleCount += audioOutputThread.push(samples, sampleCount);
         }
     }
 
     /**
-     * Writes a single sample to the sample buffer. If the buffer is full after
-     * writing the sample, then the whole buffer is written out.
+     * Writes a block of samples out to the audio line. Invoked only on the audio thread,
+     * which is the only thread that writes to the audio line, so it is the only thread
+     * that can be blocked by it.
+     *
+     * @param samples The 16 bit PCM samples.
+     * @param sampleCount The number of samples in the block.
      */
-    public void writeSample() {
-        float sample = 0.0f;
+    @Override
+    public void writeAudioSamples(short[] samples, int sampleCount) {
+        // If the audio line has played everything since the last block, then it ran out.
+        if (!firstAudioLineWrite && (audioLine.available() >= audioLine.getBufferSize())) {
+            underrunCount++;
+        }
+        firstAudioLineWrite = false;
 
-        if (accumulatedCycles > 0) {
-            sample = (float)(accumulatedSample / accumulatedCycles);
+        for (int i = 0, offset = 0; i < sampleCount; i++, offset += 2) {
+            short pcmSample = samples[i];
+            sampleBuffer[offset + 0] = (byte)(pcmSample & 0x00FF);
+            sampleBuffer[offset + 1] = (byte)((pcmSample & 0xFF00) >> 8);
         }
 
-        resetSampleAccumulator();
+        audioLine.write(sampleBuffer, 0, sampleCount * 2);
+    }
 
-        float filtered = applyHighPass(sample);
-        int filteredSample = Math.round(filtered);
-        if (filteredSample > 32767) {
-            filteredSample = 32767;
-        } else if (filteredSample < -32768) {
-            filteredSample = -32768;
-        }
-        short pcmSample = (short)filteredSample;
-
-        sampleBuffer[sampleBufferOffset + 0] = (byte)(pcmSample & 0x00FF);
-        sampleBuffer[sampleBufferOffset + 1] = (byte)((pcmSample & 0xFF00) >> 8);
-        
-        // If the sample buffer is full, write it out to the audio line.
-        if ((sampleBufferOffset += 2) == sampleBuffer.length) {
-            audioLine.write(sampleBuffer, 0, sampleBuffer.length);
-            sampleBufferOffset = 0;
+    /**
+     * Returns whether the emulation can be paced by the audio line, i.e. whether there is
+     * an audio line and the sound is not paused.
+     *
+     * @return true if the emulation can be paced by the audio line; otherwise false.
+     */
+    public boolean isAudioPacingAvailable() {
+        return (audioLine != null) && !soundPaused;
+    }
+
+    /**
+     * Gets the number of samples that have been output but not yet played, whether they
+     * are still in the ring buffer or in the audio line. Invoked on the machine thread.
+     *
+     * @return The number of queued samples.
+     */
+    public int getQueuedSampleCount() {
+        if (audioLine == null) {
+            return 0;
         }
+        return (int)Math.max(writtenSampleCount - audioLine.getLongFramePosition(), 0);
     }
 
-    private int getCurrentMixedOutput() {
-        int mixedVoices = 0;
+    /**
+     * Gets the number of samples in the ring buffer that the audio thread has yet to write
+     * to the audio line.
+     *
+     * @return The number of samples in the ring buffer.
+     */
+    public int getRingBufferSampleCount() {
+        return audioOutputThread.getRingBufferSampleCount();
+    }
 
-        for (int i = 0; i < 4; i++) {
-            if ((mem[VIC_REG_10 + i] & 0x80) > 0) {
-                // Voice enabled. First bit of SR goes out.
-                mixedVoices += ((voiceShiftRegisters[i] & 0x01) << 11);
-            }
-        }
+    /**
+     * Gets the number of times that the audio line has run out of samples to play.
+     *
+     * @return The number of underruns.
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * Gets the number of samples that were dropped because the ring buffer was full.
+     *
+     * @return The number of overrun samples.
+     */
+    public long getOverrunSampleCount() {
+        return audioOutputThread.getOverrunSampleCount();
+    }
+
+    /**
+     * Resamples the output slightly faster or slower than the sample rate, so that the
+     * audio line's clock can be followed. This is ignored while a capture is being
+     * recorded, as the captured samples must be at exactly the sample rate.
+     *
+     * @param rateAdjustment The fraction to adjust the output rate by.
+     */
+    public void setRateAdjustment(double rateAdjustment) {
+        soundEngine.setRateAdjustment(captureRecorder != null ? 0 : rateAdjustment);
+    }
 
-        int masterVolume = (mem[VIC_REG_14] & 0x0F);
-        int sample = (((mixedVoices >> 2) + VOLUME_DAC_BIAS) * masterVolume);
-        return Math.min(sample, 0x7FFF);
+    /**
+     * Sets the CaptureRecorder that every output sample is passed to, or null to stop
+     * passing samples on. Invoked on the machine thread.
+     *
+     * @param captureRecorder The CaptureRecorder, or null.
+     */
+    public void setCaptureRecorder(CaptureRecorder captureRecorder) {
+        this.captureRecorder = captureRecorder;
+        if (captureRecorder != null) {
+            // The samples passed on from now on must not be resampled.
+            soundEngine.setRateAdjustment(0);
+        }
     }
 
-    private float applyHighPass(float input) {
-        float output = highPassAlpha * (highPassLastOutput + input - highPassLastInput);
-        highPassLastInput = input;
-        highPassLastOutput = output;
-        return output;
+    /**
+     * Returns whether a capture is being recorded, i.e. whether a CaptureRecorder is set.
+     *
+     * @return true if a capture is being recorded; otherwise false.
+     */
+    public boolean isCapturing() {
+        return (captureRecorder != null);
     }
 
-    private void resetSampleAccumulator() {
-        accumulatedSample = 0.0;
-        accumulatedCycles = 0;
+    /**
+     * Gets the number of samples output per second.
+     *
+     * @return The sample rate.
+     */
+    public int getSampleRate() {
+        return SAMPLE_RATE;
     }
-    
+
     @Override
     public void pauseSound() {
+        soundPaused = true;
         if (audioLine != null) {
             audioLine.stop();
         }
@@ -196,6 +225,7 @@ public class DesktopSoundGenerator extends SoundGenerator {
 
     @Override
     public void resumeSound() {
+        soundPaused = false;
         if (audioLine != null) {
             audioLine.start();
         }
@@ -210,10 +240,25 @@ public class DesktopSoundGenerator extends SoundGenerator {
         }
     }
 
+    @Override
+    protected void saveVoiceState(StateWriter out) {
+        soundEngine.saveState(out);
+    }
+
+    @Override
+    protected void loadVoiceState(StateReader in) {
+        soundEngine.loadState(in);
+    }
+
     @Override
     public void dispose() {
         if (audioLine != null) {
+            // Stopping and flushing the line releases the audio thread if it is blocked
+            // writing to it.
+            audioOutputThread.stop();
             audioLine.stop();
+            audioLine.flush();
+            audioOutputThread.join();
             audioLine.close();
         }
     }
@@ -0,0 +1,246 @@
+package emu.jvic.lwjgl3;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the machine thread so that the emulation runs at the machine's real speed.
+ *
+ * When the sound is on, the emulation is slaved to the audio line. The time at which the
+ * next frame should start is worked out from the number of samples still queued in the
+ * audio line, i.e. the next frame starts when the audio line has played enough of the
+ * queued samples to bring it down to the target latency. As the audio line only reports
+ * its position in coarse steps, the frame times are only pulled gradually towards that
+ * time. Any remaining difference between the queued samples and the target, e.g. because
+ * the audio device's clock doesn't quite match the host clock, is absorbed by resampling
+ * the sound output very slightly faster or slower. While a capture is being recorded,
+ * the sound output is not resampled, as the captured audio has to be exactly one
+ * emulated second per second of samples to stay in sync with the captured frames, and
+ * so the queued samples are held near the target by the frame times alone.
+ *
+ * When the sound is off, each frame simply starts a frame's time after the last one. In
+ * both cases, the machine thread sleeps with LockSupport.parkNanos, and only yields for
+ * the last fraction of a millisecond that parkNanos can't be relied on to wake up in time.
+ */
+public class FramePacer {
+
+    // The number of milliseconds of samples to keep queued in the audio line.
+    private static final int TARGET_AUDIO_LATENCY_MS = 40;
+
+    // How far the frame time is pulled towards the audio line's time on each frame.
+    private static final double AUDIO_TIME_CORRECTION = 0.125;
+
+    // The queued samples are brought back to the target over about this many seconds.
+    private static final double RESAMPLING_CORRECTION_SECONDS = 2.0;
+
+    // The output rate is never adjusted by more than this, so that the pitch change is inaudible.
+    private static final double MAX_RATE_ADJUSTMENT = 0.005;
+
+    // The number of frames that the pacing can fall behind by before it gives up catching up.
+    private static final int MAX_FRAMES_BEHIND = 5;
+
+    // The smoothing of the pacing error and CPU usage metrics.
+    private static final double METRIC_SMOOTHING = 0.05;
+
+    private static final long MIN_SPIN_NANOS = 50000;
+    private static final long MAX_SPIN_NANOS = 2000000;
+
+    private final DesktopSoundGenerator soundGenerator;
+    private final ThreadMXBean threadMXBean;
+
+    private long nanosPerFrame;
+    private int targetQueuedSamples;
+
+    // The time that the next frame should start at.
+    private long nextFrameTime;
+
+    // The smoothed difference between the queued samples and the target.
+    private double queuedSampleError;
+
+    // How late parkNanos has been waking up, which is how long the final yield loop runs for.
+    private long parkOvershootNanos = MIN_SPIN_NANOS;
+
+    // The machine thread's CPU time and the wall time when CPU usage was last measured.
+    private long lastCpuTime;
+    private long lastCpuWallTime;
+
+    // The metrics, which are read by the UI thread.
+    private volatile boolean audioPaced;
+    private volatile double pacingErrorNanos;
+    private volatile double cpuUsage;
+    private volatile double rateAdjustment;
+
+    /**
+     * Constructor for FramePacer.
+     *
+     * @param soundGenerator The DesktopSoundGenerator whose audio line to pace the emulation by, or null to only use the host clock.
+     */
+    public FramePacer(DesktopSoundGenerator soundGenerator) {
+        this.soundGenerator = soundGenerator;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        this.threadMXBean = (threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean : null);
+    }
+
+    /**
+     * Starts pacing frames at the given rate. Invoked on the machine thread.
+     *
+     * @param framesPerSecond The number of frames per second that the machine runs at.
+     */
+    public void start(int framesPerSecond) {
+        nanosPerFrame = (1000000000L / framesPerSecond);
+        if (soundGenerator != null) {
+            targetQueuedSamples = (soundGenerator.getSampleRate() * TARGET_AUDIO_LATENCY_MS) / 1000;
+        }
+        queuedSampleError = 0;
+        pacingErrorNanos = 0;
+        setRateAdjustment(0);
+        lastCpuTime = getCpuTime();
+        lastCpuWallTime = System.nanoTime();
+        resync();
+    }
+
+    /**
+     * Restarts the pacing from the current time, e.g. after the machine has been paused
+     * or has been running at warp speed. Invoked on the machine thread.
+     */
+    public void resync() {
+        nextFrameTime = System.nanoTime();
+    }
+
+    /**
+     * Waits until it is time to start the next frame. Invoked on the machine thread after
+     * each frame has been emulated.
+     */
+    public void waitForNextFrame() {
+        long now = System.nanoTime();
+        nextFrameTime += nanosPerFrame;
+
+        boolean audioPaced = (soundGenerator != null) && soundGenerator.isAudioPacingAvailable();
+        if (audioPaced) {
+            // The time at which the audio line will have played down to the target latency.
+            int queuedSamples = soundGenerator.getQueuedSampleCount();
+            long audioFrameTime = now + (((queuedSamples - targetQueuedSamples) * 1000000000L)
+                    / soundGenerator.getSampleRate());
+            long audioTimeError = audioFrameTime - nextFrameTime;
+            if (Math.abs(audioTimeError) > (nanosPerFrame * 2)) {
+                // Too far out to pull in gradually, e.g. the sound has just been turned on.
+                nextFrameTime = audioFrameTime;
+            } else {
+                nextFrameTime += (long)(audioTimeError * AUDIO_TIME_CORRECTION);
+            }
+        } else if (this.audioPaced) {
+            setRateAdjustment(0);
+        }
+        this.audioPaced = audioPaced;
+
+        if ((now - nextFrameTime) > (nanosPerFrame * MAX_FRAMES_BEHIND)) {
+            // Too far behind to catch up, e.g. the host was busy, so carry on from now.
+            nextFrameTime = now;
+        }
+
+        sleepUntil(nextFrameTime);
+
+        long wakeTime = System.nanoTime();
+        if (audioPaced) {
+            // At the start of the frame, the queued samples should be at the target.
+            int queuedSampleError = soundGenerator.getQueuedSampleCount() - targetQueuedSamples;
+            this.queuedSampleError += (queuedSampleError - this.queuedSampleError) * AUDIO_TIME_CORRECTION;
+            if (soundGenerator.isCapturing()) {
+                setRateAdjustment(0);
+            } else {
+                setRateAdjustment(-this.queuedSampleError / (soundGenerator.getSampleRate() * RESAMPLING_CORRECTION_SECONDS));
+            }
+            updatePacingError((queuedSampleError * 1000000000L) / soundGenerator.getSampleRate());
+        } else {
+            updatePacingError(wakeTime - nextFrameTime);
+        }
+        updateCpuUsage(wakeTime);
+    }
+
+    /**
+     * Sleeps until the given time. Most of the time is spent in LockSupport.parkNanos, and
+     * the thread then yields for the last part, which is sized to how late parkNanos has
+     * been waking up.
+     *
+     * @param wakeTime The System.nanoTime to sleep until.
+     */
+    private void sleepUntil(long wakeTime) {
+        long parkNanos = (wakeTime - System.nanoTime()) - parkOvershootNanos;
+        if (parkNanos > 0) {
+            long parkEndTime = System.nanoTime() + parkNanos;
+            LockSupport.parkNanos(parkNanos);
+            long overshootNanos = (System.nanoTime() - parkEndTime);
+            parkOvershootNanos += ((overshootNanos * 2) - parkOvershootNanos) / 8;
+            parkOvershootNanos = Math.max(MIN_SPIN_NANOS, Math.min(parkOvershootNanos, MAX_SPIN_NANOS));
+        }
+        while ((wakeTime - System.nanoTime()) > 0) {
+            Thread.yield();
+        }
+    }
+
+    private void setRateAdjustment(double rateAdjustment) {
+        rateAdjustment = Math.max(-MAX_RATE_ADJUSTMENT, Math.min(rateAdjustment, MAX_RATE_ADJUSTMENT));
+        this.rateAdjustment = rateAdjustment;
+        if (soundGenerator != null) {
+            soundGenerator.setRateAdjustment(rateAdjustment);
+        }
+    }
+
+    private void updatePacingError(long errorNanos) {
+        pacingErrorNanos += (Math.abs(errorNanos) - pacingErrorNanos) * METRIC_SMOOTHING;
+    }
+
+    private void updateCpuUsage(long wallTime) {
+        long cpuTime = getCpuTime();
+        long wallNanos = wallTime - lastCpuWallTime;
+        if ((cpuTime >= 0) && (wallNanos > 0)) {
+            double frameCpuUsage = (double)(cpuTime - lastCpuTime) / wallNanos;
+            cpuUsage += (frameCpuUsage - cpuUsage) * METRIC_SMOOTHING;
+        }
+        lastCpuTime = cpuTime;
+        lastCpuWallTime = wallTime;
+    }
+
+    private long getCpuTime() {
+        return (threadMXBean != null ? threadMXBean.getCurrentThreadCpuTime() : -1);
+    }
+
+    /**
+     * Returns whether the emulation is currently being paced by the audio line.
+     *
+     * @return true if paced by the audio line; false if paced by the host clock.
+     */
+    public boolean isAudioPaced() {
+        return audioPaced;
+    }
+
+    /**
+     * Gets the average pacing error. When paced by the audio line, this is how far the
+     * queued samples are from the target latency. Otherwise it is how late the frames
+     * start.
+     *
+     * @return The average pacing error in milliseconds.
+     */
+    public double getPacingErrorMillis() {
+        return pacingErrorNanos / 1000000.0;
+    }
+
+    /**
+     * Gets the average fraction of a host CPU core that the machine thread is using.
+     *
+     * @return The CPU usage, from 0.0 to 1.0, or 0.0 if it can't be measured.
+     */
+    public double getCpuUsage() {
+        return cpuUsage;
+    }
+
+    /**
+     * Gets the fraction that the sound output is currently being resampled by.
+     *
+     * @return The rate adjustment, e.g. 0.001 when outputting 0.1% more samples.
+     */
+    public double getRateAdjustment() {
+        return rateAdjustment;
+    }
+}
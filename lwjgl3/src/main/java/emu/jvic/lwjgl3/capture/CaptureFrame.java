@@ -0,0 +1,34 @@
+package emu.jvic.lwjgl3.capture;
+
+/**
+ * A single captured frame, as passed from the machine thread to the capture writer
+ * thread. CaptureFrames are pooled and reused, so that capturing doesn't allocate
+ * anything per frame.
+ */
+class CaptureFrame {
+
+    // The colour index of each visible pixel. Only filled in if the frame changed.
+    final byte[] colourIndexes;
+
+    // Whether the frame is different from the previous captured frame.
+    boolean changed;
+
+    // The number of frames before this one that were dropped because the writer thread
+    // had fallen behind. These are written out as repeats of the previous frame.
+    int droppedFramesBefore;
+
+    // The 16 bit little-endian PCM audio samples output during this frame.
+    byte[] audio;
+    int audioLength;
+
+    /**
+     * Constructor for CaptureFrame.
+     *
+     * @param pixelCount The number of visible pixels in each frame.
+     * @param audioCapacity The initial capacity of the audio buffer in bytes.
+     */
+    CaptureFrame(int pixelCount, int audioCapacity) {
+        colourIndexes = new byte[pixelCount];
+        audio = new byte[audioCapacity];
+    }
+}
@@ -0,0 +1,265 @@
+package emu.jvic.lwjgl3.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import emu.jvic.PixelData;
+import emu.jvic.lwjgl3.DesktopPixelData;
+
+/**
+ * Records a lossless capture of the emulator's video and audio output to disk. The video
+ * is written by a FrameStreamWriter as the VIC chip's colour indexes, along with the
+ * palette, and the audio is written to a WAV file as the exact PCM samples that are sent
+ * to the audio line.
+ *
+ * The machine thread only copies each frame and its audio samples into a CaptureFrame
+ * from a fixed size pool, and then hands it to the capture writer thread, which does the
+ * encoding and file writing. The machine thread never waits for the writer thread. If the
+ * writer thread falls behind and the pool runs out, then frames are dropped, and are
+ * written as repeats of the previous frame, so that the video stays in sync with the
+ * audio. The number of dropped frames is reported when the capture stops.
+ */
+public class CaptureRecorder {
+
+    // Enough for about 2.5 seconds of frames, in case the disk is slow for a while.
+    private static final int FRAME_POOL_SIZE = 128;
+
+    // Audio samples are held for at most this many seconds while waiting for a free frame.
+    private static final int MAX_STAGED_AUDIO_SECONDS = 1;
+
+    private final DesktopPixelData pixelData;
+
+    // Frames that are free for the machine thread to fill in.
+    private final BlockingQueue<CaptureFrame> freeFrames;
+
+    // Frames waiting to be written by the writer thread, plus the end of capture marker.
+    private final BlockingQueue<CaptureFrame> queuedFrames;
+
+    // Queued by stop() to tell the writer thread that there are no more frames.
+    private final CaptureFrame endOfCapture = new CaptureFrame(0, 0);
+
+    private final FrameStreamWriter frameStreamWriter;
+    private final WavFileWriter wavFileWriter;
+    private final Thread writerThread;
+
+    // The audio samples output since the last captured frame. Only used by the machine thread.
+    private final byte[] stagedAudio;
+    private int stagedAudioLength;
+
+    // The changed frame number of the last frame that was captured. Only used by the machine thread.
+    private long lastCapturedFrameNumber = -1;
+
+    // Frames dropped since the last frame that was queued. Only used by the machine thread.
+    private int pendingDroppedFrames;
+
+    private volatile long droppedFrameCount;
+    private volatile long droppedAudioBytes;
+    private volatile IOException writeError;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor for CaptureRecorder. Creates the capture files and starts the writer thread.
+     *
+     * @param pixelData The PixelData to capture the frames from.
+     * @param cyclesPerSecond The number of cycles per second that the machine runs at.
+     * @param cyclesPerFrame The exact number of cycles in each frame that the machine outputs.
+     * @param sampleRate The sample rate of the audio.
+     * @param frameStreamFile The file to write the frame stream to.
+     * @param wavFile The file to write the audio to.
+     *
+     * @throws IOException If the capture files can't be created.
+     */
+    public CaptureRecorder(DesktopPixelData pixelData, int cyclesPerSecond, int cyclesPerFrame, 
+            int sampleRate, File frameStreamFile, File wavFile) throws IOException {
+        this.pixelData = pixelData;
+
+        int[] palette = new int[PixelData.PALETTE_SIZE];
+        pixelData.copyPalette(palette);
+        int width = pixelData.getVisibleWidth();
+        int height = pixelData.getVisibleHeight();
+
+        frameStreamWriter = new FrameStreamWriter(frameStreamFile, width, height, 
+                cyclesPerSecond, cyclesPerFrame, palette);
+        try {
+            wavFileWriter = new WavFileWriter(wavFile, sampleRate);
+        } catch (IOException e) {
+            frameStreamWriter.close();
+            throw e;
+        }
+
+        // Allow for the samples per frame not being a whole number.
+        int audioBytesPerFrame = (int)((((long)sampleRate * cyclesPerFrame) / cyclesPerSecond) + 2) * 2;
+        freeFrames = new ArrayBlockingQueue<CaptureFrame>(FRAME_POOL_SIZE);
+        queuedFrames = new ArrayBlockingQueue<CaptureFrame>(FRAME_POOL_SIZE + 1);
+        for (int i = 0; i < FRAME_POOL_SIZE; i++) {
+            freeFrames.add(new CaptureFrame(width * height, audioBytesPerFrame));
+        }
+        stagedAudio = new byte[sampleRate * 2 * MAX_STAGED_AUDIO_SECONDS];
+
+        // This is deliberately not a daemon thread, so that the capture files are
+        // completed even if the application exits while capturing.
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "jvic-capture");
+        writerThread.start();
+    }
+
+    /**
+     * Stages a block of 16 bit PCM audio samples, to be written with the next captured
+     * frame. Invoked on the machine thread.
+     *
+     * @param samples The audio samples.
+     * @param sampleCount The number of samples to stage.
+     */
+    public void addAudioSamples(short[] samples, int sampleCount) {
+        for (int i = 0; i < sampleCount; i++) {
+            if (stagedAudioLength + 2 > stagedAudio.length) {
+                droppedAudioBytes += (sampleCount - i) * 2;
+                return;
+            }
+            short sample = samples[i];
+            stagedAudio[stagedAudioLength++] = (byte)(sample & 0x00FF);
+            stagedAudio[stagedAudioLength++] = (byte)((sample & 0xFF00) >> 8);
+        }
+    }
+
+    /**
+     * Captures the most recently completed frame, along with the audio samples output
+     * since the previous frame. Invoked on the machine thread after each frame has been
+     * emulated. If the writer thread has fallen behind, then the frame is dropped.
+     */
+    public void captureFrame() {
+        if (stopped) {
+            return;
+        }
+
+        CaptureFrame frame = freeFrames.poll();
+        if (frame == null) {
+            // The audio stays staged, so it will be written with the next frame.
+            pendingDroppedFrames++;
+            droppedFrameCount++;
+            return;
+        }
+
+        // Only changed frames are copied. The VIC chip doesn't publish a frame that is
+        // the same as the one before it.
+        long frameNumber = pixelData.getChangedFrameNumber();
+        frame.changed = (frameNumber != lastCapturedFrameNumber);
+        if (frame.changed) {
+            pixelData.copyLastFrame(frame.colourIndexes);
+            lastCapturedFrameNumber = frameNumber;
+        }
+
+        if (stagedAudioLength > frame.audio.length) {
+            frame.audio = new byte[stagedAudioLength];
+        }
+        System.arraycopy(stagedAudio, 0, frame.audio, 0, stagedAudioLength);
+        frame.audioLength = stagedAudioLength;
+        stagedAudioLength = 0;
+
+        frame.droppedFramesBefore = pendingDroppedFrames;
+        pendingDroppedFrames = 0;
+
+        queuedFrames.add(frame);
+    }
+
+    /**
+     * Stops the capture. The writer thread finishes writing the queued frames and then
+     * closes the capture files. Invoked on the machine thread.
+     */
+    public void stop() {
+        if (!stopped) {
+            stopped = true;
+            queuedFrames.add(endOfCapture);
+        }
+    }
+
+    /**
+     * Waits for the writer thread to finish writing the capture files.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        writerThread.join();
+    }
+
+    private void writeFrames() {
+        try {
+            while (true) {
+                CaptureFrame frame = queuedFrames.take();
+                if (frame == endOfCapture) {
+                    break;
+                }
+                if (writeError == null) {
+                    try {
+                        for (int i = 0; i < frame.droppedFramesBefore; i++) {
+                            frameStreamWriter.writeRepeatFrame();
+                        }
+                        if (frame.changed) {
+                            frameStreamWriter.writeFrame(frame.colourIndexes);
+                        } else {
+                            frameStreamWriter.writeRepeatFrame();
+                        }
+                        wavFileWriter.write(frame.audio, frame.audioLength);
+                    } catch (IOException e) {
+                        // Carry on taking frames, so that the machine thread isn't
+                        // left without any free frames.
+                        writeError = e;
+                    }
+                }
+                freeFrames.add(frame);
+            }
+        } catch (InterruptedException e) {
+            // Nothing to do. The files are closed below.
+        } finally {
+            try {
+                frameStreamWriter.close();
+            } catch (IOException e) {
+                if (writeError == null) {
+                    writeError = e;
+                }
+            }
+            try {
+                wavFileWriter.close();
+            } catch (IOException e) {
+                if (writeError == null) {
+                    writeError = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of frames that were dropped because the writer thread had fallen
+     * behind. These are written as repeats of the previous frame.
+     *
+     * @return The number of dropped frames.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Gets the number of bytes of audio that were dropped because the writer thread had
+     * fallen behind for too long.
+     *
+     * @return The number of dropped audio bytes.
+     */
+    public long getDroppedAudioBytes() {
+        return droppedAudioBytes;
+    }
+
+    /**
+     * Gets the error that stopped the capture files from being written, if there was one.
+     *
+     * @return The write error, or null if there wasn't one.
+     */
+    public IOException getWriteError() {
+        return writeError;
+    }
+}
@@ -0,0 +1,207 @@
+package emu.jvic.lwjgl3.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a lossless stream of VIC frames to a file. The format is deliberately simple,
+ * so that it is easy to decode with other tools. All values are big-endian.
+ *
+ * The header is made up of the following:
+ *
+ * - The 8 ASCII characters "JVICFRM2".
+ * - The width and height, each as a 32 bit int.
+ * - The frame rate as a fraction, i.e. the machine's cycles per second and the exact
+ *   number of cycles per frame, each as a 32 bit int. There is one frame per emulated
+ *   frame, so for example PAL is 1108405 / 22152, i.e. about 50.04 frames per second,
+ *   rather than exactly 50. The audio captured alongside is exactly one second of
+ *   samples per 1108405 cycles, so the two stay in sync for as long as they run.
+ * - The palette, as 256 RGBA8888 32 bit ints, indexed by colour index.
+ *
+ * It is followed by one record per frame, each starting with a type byte:
+ *
+ * - 'K' Key frame. A 32 bit length, then the PackBits encoded colour indexes.
+ * - 'D' Delta frame. A 32 bit length, then the PackBits encoded XOR of the colour
+ *   indexes with those of the previous frame.
+ * - 'E' Delta frame. As for 'D', but from the frame before the previous frame. The
+ *   NTSC colour phase alternates every frame, so NTSC frames usually match the frame
+ *   before the previous frame much more closely than the previous frame.
+ * - 'R' Repeat frame. The same as the previous frame.
+ *
+ * The colour indexes are one byte per pixel, row by row. Every KEY_FRAME_INTERVAL
+ * frames is a key frame, so that decoding can start part way through.
+ */
+class FrameStreamWriter {
+
+    private static final byte[] MAGIC = { 'J', 'V', 'I', 'C', 'F', 'R', 'M', '2' };
+
+    private static final int KEY_FRAME_INTERVAL = 50;
+
+    private DataOutputStream out;
+
+    // The colour indexes of the previous frame and of the frame before that, and the XOR
+    // of the current frame with one of them.
+    private byte[] previousFrame;
+    private byte[] olderFrame;
+    private byte[] deltaFrame;
+
+    // Holds the PackBits encoded frame. Big enough for the worst case.
+    private byte[] encodedFrame;
+
+    private int frameCount;
+
+    /**
+     * Constructor for FrameStreamWriter. Writes the header straight away.
+     *
+     * @param file The file to write the frame stream to.
+     * @param width The width of each frame.
+     * @param height The height of each frame.
+     * @param cyclesPerSecond The number of machine cycles per second.
+     * @param cyclesPerFrame The exact number of machine cycles per frame.
+     * @param palette The RGBA8888 colour for each colour index.
+     *
+     * @throws IOException If the file can't be created.
+     */
+    FrameStreamWriter(File file, int width, int height, int cyclesPerSecond, int cyclesPerFrame, 
+            int[] palette) throws IOException {
+        int pixelCount = width * height;
+        previousFrame = new byte[pixelCount];
+        olderFrame = new byte[pixelCount];
+        deltaFrame = new byte[pixelCount];
+        encodedFrame = new byte[pixelCount + (pixelCount / 128) + 2];
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        out.write(MAGIC);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(cyclesPerSecond);
+        out.writeInt(cyclesPerFrame);
+        for (int i = 0; i < palette.length; i++) {
+            out.writeInt(palette[i]);
+        }
+    }
+
+    /**
+     * Writes the given frame, either as a key frame or as a delta from the previous frame.
+     *
+     * @param colourIndexes The colour indexes of the frame's visible pixels.
+     *
+     * @throws IOException If the frame can't be written.
+     */
+    void writeFrame(byte[] colourIndexes) throws IOException {
+        if ((frameCount % KEY_FRAME_INTERVAL) == 0) {
+            writeEncodedFrame('K', colourIndexes);
+        } else {
+            // Fewer differences usually means a shorter encoding. The older frame can't be 
+            // used straight after a key frame, since the decoder might have started there.
+            boolean useOlderFrame = ((frameCount % KEY_FRAME_INTERVAL) > 1) && 
+                    (countDifferences(colourIndexes, olderFrame) < countDifferences(colourIndexes, previousFrame));
+            byte[] baseFrame = (useOlderFrame? olderFrame : previousFrame);
+            for (int i = 0; i < colourIndexes.length; i++) {
+                deltaFrame[i] = (byte)(colourIndexes[i] ^ baseFrame[i]);
+            }
+            writeEncodedFrame(useOlderFrame? 'E' : 'D', deltaFrame);
+        }
+        
+        // The older frame's array is reused for the new previous frame.
+        byte[] frame = olderFrame;
+        olderFrame = previousFrame;
+        previousFrame = frame;
+        System.arraycopy(colourIndexes, 0, previousFrame, 0, colourIndexes.length);
+        frameCount++;
+    }
+
+    /**
+     * Writes a frame that is the same as the previous frame. If a key frame is due, then
+     * the previous frame is written again as a key frame.
+     *
+     * @throws IOException If the frame can't be written.
+     */
+    void writeRepeatFrame() throws IOException {
+        if ((frameCount % KEY_FRAME_INTERVAL) == 0) {
+            writeEncodedFrame('K', previousFrame);
+        } else {
+            out.writeByte('R');
+        }
+        System.arraycopy(previousFrame, 0, olderFrame, 0, previousFrame.length);
+        frameCount++;
+    }
+    
+    private static int countDifferences(byte[] frame1, byte[] frame2) {
+        int differences = 0;
+        for (int i = 0; i < frame1.length; i++) {
+            if (frame1[i] != frame2[i]) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+
+    private void writeEncodedFrame(char type, byte[] data) throws IOException {
+        int length = packBits(data, data.length, encodedFrame);
+        out.writeByte(type);
+        out.writeInt(length);
+        out.write(encodedFrame, 0, length);
+    }
+
+    /**
+     * Gets the number of frames written so far.
+     *
+     * @return The number of frames written.
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Flushes and closes the frame stream.
+     *
+     * @throws IOException If the frame stream can't be closed.
+     */
+    void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Encodes the given data using PackBits run-length encoding. Each run starts with a
+     * control byte n. If n is from 0 to 127, then n + 1 literal bytes follow. If n is
+     * from -127 to -1, then the following byte is repeated 1 - n times.
+     *
+     * @param data The data to encode.
+     * @param length The number of bytes of data to encode.
+     * @param out The array to store the encoded data in. Must be at least length + (length / 128) + 2 in size.
+     *
+     * @return The number of encoded bytes.
+     */
+    static int packBits(byte[] data, int length, byte[] out) {
+        int inPos = 0;
+        int outPos = 0;
+        while (inPos < length) {
+            byte value = data[inPos];
+            int runLength = 1;
+            while ((inPos + runLength < length) && (runLength < 128) && (data[inPos + runLength] == value)) {
+                runLength++;
+            }
+            if (runLength >= 3) {
+                out[outPos++] = (byte)(1 - runLength);
+                out[outPos++] = value;
+                inPos += runLength;
+            } else {
+                // Literal bytes continue until there is a run of at least three.
+                int literalStart = inPos++;
+                while ((inPos < length) && (inPos - literalStart < 128) && !((inPos + 2 < length) &&
+                        (data[inPos] == data[inPos + 1]) && (data[inPos] == data[inPos + 2]))) {
+                    inPos++;
+                }
+                int literalLength = inPos - literalStart;
+                out[outPos++] = (byte)(literalLength - 1);
+                System.arraycopy(data, literalStart, out, outPos, literalLength);
+                outPos += literalLength;
+            }
+        }
+        return outPos;
+    }
+}
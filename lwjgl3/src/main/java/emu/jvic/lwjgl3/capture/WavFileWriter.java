@@ -0,0 +1,89 @@
+package emu.jvic.lwjgl3.capture;
+
+import java.io.IOException;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes 16 bit mono PCM audio to a WAV file. The sizes in the header aren't known until
+ * the file is closed, so they are filled in then.
+ */
+class WavFileWriter {
+
+    private static final int HEADER_SIZE = 44;
+
+    private RandomAccessFile file;
+
+    private long dataSize;
+
+    /**
+     * Constructor for WavFileWriter. Writes a header with the sizes left as zero.
+     *
+     * @param wavFile The WAV file to write.
+     * @param sampleRate The number of samples per second.
+     *
+     * @throws IOException If the file can't be created.
+     */
+    WavFileWriter(File wavFile, int sampleRate) throws IOException {
+        file = new RandomAccessFile(wavFile, "rw");
+        file.setLength(0);
+
+        byte[] header = new byte[HEADER_SIZE];
+        putAscii(header, 0, "RIFF");
+        putAscii(header, 8, "WAVE");
+        putAscii(header, 12, "fmt ");
+        putLittleEndian(header, 16, 16, 4);              // Size of fmt chunk
+        putLittleEndian(header, 20, 1, 2);               // PCM
+        putLittleEndian(header, 22, 1, 2);               // Mono
+        putLittleEndian(header, 24, sampleRate, 4);
+        putLittleEndian(header, 28, sampleRate * 2, 4);  // Bytes per second
+        putLittleEndian(header, 32, 2, 2);               // Bytes per sample frame
+        putLittleEndian(header, 34, 16, 2);              // Bits per sample
+        putAscii(header, 36, "data");
+        file.write(header);
+    }
+
+    /**
+     * Writes 16 bit little-endian PCM samples.
+     *
+     * @param samples The sample data.
+     * @param length The number of bytes of sample data to write.
+     *
+     * @throws IOException If the samples can't be written.
+     */
+    void write(byte[] samples, int length) throws IOException {
+        file.write(samples, 0, length);
+        dataSize += length;
+    }
+
+    /**
+     * Fills in the sizes in the header and closes the file.
+     *
+     * @throws IOException If the file can't be updated.
+     */
+    void close() throws IOException {
+        try {
+            byte[] size = new byte[4];
+            putLittleEndian(size, 0, (int)(dataSize + HEADER_SIZE - 8), 4);
+            file.seek(4);
+            file.write(size);
+            putLittleEndian(size, 0, (int)dataSize, 4);
+            file.seek(40);
+            file.write(size);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void putAscii(byte[] data, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            data[offset + i] = (byte)text.charAt(i);
+        }
+    }
+
+    private static void putLittleEndian(byte[] data, int offset, int value, int length) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = (byte)(value >> (i * 8));
+        }
+    }
+}
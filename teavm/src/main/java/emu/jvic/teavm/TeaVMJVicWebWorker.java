@@ -8,6 +8,7 @@ import org.teavm.jso.typedarrays.ArrayBuffer;
 import org.teavm.jso.typedarrays.SharedArrayBuffer;
 import org.teavm.jso.typedarrays.Uint8Array;
 
+import emu.jvic.BootStateCache;
 import emu.jvic.Machine;
 import emu.jvic.MachineType;
 import emu.jvic.Program;
@@ -16,6 +17,7 @@ import emu.jvic.cpu.Cpu6502;
 import emu.jvic.io.disk.persistence.DiskImagePersistence;
 import emu.jvic.io.disk.persistence.DiskImagePersistenceSession;
 import emu.jvic.io.disk.persistence.NoOpDiskImagePersistence;
+import emu.jvic.memory.Memory;
 import emu.jvic.memory.RamType;
 import emu.jvic.teavm.disk.TeaVMOpfsDiskImagePersistence;
 
@@ -28,12 +30,15 @@ public final class TeaVMJVicWebWorker {
     private TeaVMSoundGenerator soundGenerator;
     private TeaVMFrameCounter frameCounter;
     private Machine machine;
+    private BootStateCache bootStateCache = new BootStateCache();
     private boolean paused;
     private boolean warpSpeed;
     private Callable<Queue<char[]>> autoLoadProgram;
     private Queue<char[]> autoRunCmdQueue;
     private double startTime;
     private long cycleCount;
+    // The number of cycles since the last frame was completed.
+    private long frameCycleCount;
     private double performanceWindowStartTime = -1;
     private long performanceWindowCycles;
     private double performanceWindowWorkMillis;
@@ -245,6 +250,8 @@ public final class TeaVMJVicWebWorker {
             AppConfigItem appConfigItem, DiskImagePersistenceSession persistenceSession,
             byte[] mountedDiskImageData) {
         machine = new Machine(soundGenerator, keyboardMatrix, pixelData);
+        machine.setBootStateCache(bootStateCache);
+        frameCycleCount = 0;
         autoLoadProgram = machine.init(basicRom, kernalRom, charRom, dos1541Rom,
                 program, appConfigItem, mountedDiskImageData, machineType, ramType,
                 appConfigItem.getPalette(), persistenceSession);
@@ -293,14 +300,33 @@ public final class TeaVMJVicWebWorker {
 
             handleAutoLoad();
 
+            // In warp speed, only the last frame of each batch has a chance of being shown, so
+            // the VIC skips rendering all of the others. The number of frames that complete in
+            // the batch depends on how far through a frame the machine is when it starts.
+            if (warpSpeed) {
+                long batchCycles = (expectedCycleCount - cycleCount) + 1;
+                int batchFrames = (int)((frameCycleCount + batchCycles) / 
+                        machine.getMachineType().getCyclesPerFrame());
+                machine.getVic().setFrameSkip(batchFrames - 1);
+                machine.getVic().restartFrameSkip(batchFrames - 2);
+            } else {
+                machine.getVic().setFrameSkip(0);
+            }
+
             long batchStartCycleCount = cycleCount;
             double batchStartTime = TeaVMWorkerGlobalScope.getPerformanceNowTimestamp();
+            long frameStartCycleCount = cycleCount - frameCycleCount;
             do {
-                if (machine.emulateCycle() && (frameCounter != null)) {
-                    frameCounter.increment();
-                }
+                boolean frameComplete = machine.emulateCycle();
                 cycleCount++;
+                if (frameComplete) {
+                    frameStartCycleCount = cycleCount;
+                    if (frameCounter != null) {
+                        frameCounter.increment();
+                    }
+                }
             } while (cycleCount <= expectedCycleCount);
+            frameCycleCount = cycleCount - frameStartCycleCount;
 
             double batchEndTime = TeaVMWorkerGlobalScope.getPerformanceNowTimestamp();
             int audioQueueSamples = soundGenerator.isWriteSamplesEnabled()
@@ -319,8 +345,8 @@ public final class TeaVMJVicWebWorker {
             return;
         }
 
-        int[] mem = machine.getMemory().getMemoryArray();
-        int cursorState = mem[0xD1];
+        Memory memory = machine.getMemory();
+        int cursorState = memory.peek(0xD1);
         int previousCursorState = lastAutoLoadCursorState;
         if ((cursorState != previousCursorState)
                 && ((cursorState == 110) || (cursorState == 220) || !autoLoadStateLogged)) {
@@ -344,14 +370,14 @@ public final class TeaVMJVicWebWorker {
                 autoLoadProgram = null;
                 TeaVMWorkerGlobalScope.logToJSConsole("TeaVM worker: autoLoadProgram.call() failed: " + e.getMessage());
             }
-            runNextBasicCommand(autoRunCmdQueue, mem);
+            runNextBasicCommand(autoRunCmdQueue, memory);
         }
 
         if ((cursorState == 220) && (previousCursorState != 220)
                 && (autoRunCmdQueue != null) && !autoRunCmdQueue.isEmpty()) {
             TeaVMWorkerGlobalScope.logToJSConsole("TeaVM worker: issuing follow-up BASIC command: "
                     + describeCommandQueue(autoRunCmdQueue));
-            runNextBasicCommand(autoRunCmdQueue, mem);
+            runNextBasicCommand(autoRunCmdQueue, memory);
         }
     }
 
@@ -405,7 +431,7 @@ public final class TeaVMJVicWebWorker {
         performanceWindowBatchCount = 0;
     }
 
-    private void runNextBasicCommand(Queue<char[]> cmdQueue, int[] mem) {
+    private void runNextBasicCommand(Queue<char[]> cmdQueue, Memory memory) {
         if ((cmdQueue == null) || cmdQueue.isEmpty()) {
             TeaVMWorkerGlobalScope.logToJSConsole("TeaVM worker: runNextBasicCommand skipped, queue empty");
             return;
@@ -416,10 +442,10 @@ public final class TeaVMJVicWebWorker {
                 + new String(cmdChars) + "'");
         int cmdCharPos = 0;
         for (; cmdCharPos < cmdChars.length; cmdCharPos++) {
-            mem[631 + cmdCharPos] = cmdChars[cmdCharPos];
+            memory.poke(631 + cmdCharPos, cmdChars[cmdCharPos]);
         }
-        mem[631 + cmdCharPos] = 0x0D;
-        mem[198] = cmdCharPos + 1;
+        memory.poke(631 + cmdCharPos, 0x0D);
+        memory.poke(198, cmdCharPos + 1);
     }
 
     private void logProgramStart(AppConfigItem appConfigItem, Program program) {
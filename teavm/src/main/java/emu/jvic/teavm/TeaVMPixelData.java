@@ -4,92 +4,108 @@ import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.utils.BufferUtils;
 import org.teavm.jso.JSBody;
 import org.teavm.jso.typedarrays.SharedArrayBuffer;
-import org.teavm.jso.typedarrays.Uint32Array;
-import org.teavm.jso.typedarrays.Uint8ClampedArray;
+import org.teavm.jso.typedarrays.Uint8Array;
 
 import emu.jvic.PixelData;
 
+/**
+ * TeaVM implementation of the PixelData interface. The SharedArrayBuffer starts with 
+ * the palette, as R, G, B, A bytes for each colour index, followed by the colour index
+ * of each pixel. The VIC chip in the web worker sets the palette, so it needs to be 
+ * shared along with the pixels.
+ */
 public class TeaVMPixelData extends PixelData {
 
-    private Uint8ClampedArray pixelArray;
-    private Uint32Array packedPixelArray;
-    private boolean packedPixelWritesSupported;
-    private int activePixelByteLength;
-    private int activePackedPixelLength;
+    private static final int PALETTE_BYTES = PALETTE_SIZE * 4;
+    
+    private Uint8Array paletteArray;
+    private Uint8Array colourIndexArray;
+    private int activePixelCount;
+    private byte[] paletteData;
     private byte[] imageData;
 
     public TeaVMPixelData() {
     }
 
     public TeaVMPixelData(SharedArrayBuffer sharedArrayBuffer) {
-        pixelArray = Uint8ClampedArray.create(sharedArrayBuffer);
-        packedPixelArray = new Uint32Array(sharedArrayBuffer);
-        packedPixelWritesSupported = isLittleEndian();
-        initialiseActivePixelLengths(pixelArray.getLength() / 2);
+        createArrays(sharedArrayBuffer);
+        initialiseActivePixelCount(colourIndexArray.getLength());
     }
 
     SharedArrayBuffer getSharedArrayBuffer() {
-        return (SharedArrayBuffer)pixelArray.getBuffer();
+        return (SharedArrayBuffer)colourIndexArray.getBuffer();
     }
 
     @Override
     public void init(int width, int height) {
-        pixelArray = Uint8ClampedArray.create(createSharedArrayBuffer(width * height * 4 * 2));
-        packedPixelArray = new Uint32Array(getSharedArrayBuffer());
-        packedPixelWritesSupported = isLittleEndian();
-        initialiseActivePixelLengths(width * height * 4);
+        createArrays(createSharedArrayBuffer(PALETTE_BYTES + (width * height)));
+        initialiseActivePixelCount(width * height);
     }
 
     @Override
-    public void putPixel(int index, int rgba8888Colour) {
-        if (packedPixelWritesSupported) {
-            packedPixelArray.set(index, convertRgba8888ToPackedPixel(rgba8888Colour));
-        } else {
-            int offset = index << 2;
-            pixelArray.set(offset, (rgba8888Colour >> 24) & 0xFF);
-            pixelArray.set(offset + 1, (rgba8888Colour >> 16) & 0xFF);
-            pixelArray.set(offset + 2, (rgba8888Colour >> 8) & 0xFF);
-            pixelArray.set(offset + 3, rgba8888Colour & 0xFF);
+    public void setPalette(int firstColourIndex, int[] rgba8888Colours) {
+        super.setPalette(firstColourIndex, rgba8888Colours);
+        for (int i = 0; i < rgba8888Colours.length; i++) {
+            int offset = (firstColourIndex + i) << 2;
+            int rgba8888Colour = rgba8888Colours[i];
+            paletteArray.set(offset, (rgba8888Colour >> 24) & 0xFF);
+            paletteArray.set(offset + 1, (rgba8888Colour >> 16) & 0xFF);
+            paletteArray.set(offset + 2, (rgba8888Colour >> 8) & 0xFF);
+            paletteArray.set(offset + 3, rgba8888Colour & 0xFF);
         }
     }
 
+    @Override
+    public void putPixel(int index, int colourIndex) {
+        colourIndexArray.set(index, colourIndex);
+    }
+
     @Override
     public void clearPixels() {
-        if (packedPixelWritesSupported) {
-            for (int index = 0; index < activePackedPixelLength; index++) {
-                packedPixelArray.set(index, 0);
-            }
-        } else {
-            for (int index = 0; index < activePixelByteLength; index++) {
-                pixelArray.set(index, 0);
-            }
+        for (int index = 0; index < activePixelCount; index++) {
+            colourIndexArray.set(index, 0);
         }
     }
 
     @Override
     public void updatePixmap(Pixmap pixmap) {
-        for (int index = 0; index < activePixelByteLength; index++) {
-            imageData[index] = (byte)(pixelArray.get(index) & 0xFF);
+        // The palette is read once per frame, so that each pixel only reads its colour index.
+        for (int offset = 0; offset < PALETTE_BYTES; offset++) {
+            paletteData[offset] = (byte)paletteArray.get(offset);
         }
-        BufferUtils.copy(imageData, 0, pixmap.getPixels(), Math.min(activePixelByteLength, pixmap.getPixels().remaining()));
+        
+        // Only the visible area of the screen is copied.
+        for (int y = 0, offset = 0; y < visibleHeight; y++) {
+            int index = ((visibleTop + y) * screenWidth) + visibleLeft;
+            for (int x = 0; x < visibleWidth; x++, offset += 4) {
+                int paletteOffset = colourIndexArray.get(index++) << 2;
+                imageData[offset] = paletteData[paletteOffset];
+                imageData[offset + 1] = paletteData[paletteOffset + 1];
+                imageData[offset + 2] = paletteData[paletteOffset + 2];
+                imageData[offset + 3] = paletteData[paletteOffset + 3];
+            }
+        }
+        BufferUtils.copy(imageData, 0, pixmap.getPixels(), 
+                Math.min(imageData.length, pixmap.getPixels().remaining()));
     }
 
-    private void initialiseActivePixelLengths(int activePixelByteLength) {
-        this.activePixelByteLength = activePixelByteLength;
-        activePackedPixelLength = activePixelByteLength >> 2;
-        imageData = new byte[activePixelByteLength];
+    private void createArrays(SharedArrayBuffer sharedArrayBuffer) {
+        paletteArray = createUint8Array(sharedArrayBuffer, 0, PALETTE_BYTES);
+        colourIndexArray = createUint8Array(sharedArrayBuffer, PALETTE_BYTES);
     }
 
-    private int convertRgba8888ToPackedPixel(int rgba8888Colour) {
-        return ((rgba8888Colour & 0x000000FF) << 24)
-                | ((rgba8888Colour & 0x0000FF00) << 8)
-                | ((rgba8888Colour & 0x00FF0000) >>> 8)
-                | ((rgba8888Colour & 0xFF000000) >>> 24);
+    private void initialiseActivePixelCount(int activePixelCount) {
+        this.activePixelCount = activePixelCount;
+        paletteData = new byte[PALETTE_BYTES];
+        imageData = new byte[visibleWidth * visibleHeight * 4];
     }
 
+    @JSBody(params = { "sharedArrayBuffer", "byteOffset", "length" }, script = "return new Uint8Array(sharedArrayBuffer, byteOffset, length);")
+    private static native Uint8Array createUint8Array(SharedArrayBuffer sharedArrayBuffer, int byteOffset, int length);
+
+    @JSBody(params = { "sharedArrayBuffer", "byteOffset" }, script = "return new Uint8Array(sharedArrayBuffer, byteOffset);")
+    private static native Uint8Array createUint8Array(SharedArrayBuffer sharedArrayBuffer, int byteOffset);
+
     @JSBody(params = "byteLength", script = "return new SharedArrayBuffer(byteLength);")
     private static native SharedArrayBuffer createSharedArrayBuffer(int byteLength);
-
-    @JSBody(script = "var buffer = new ArrayBuffer(4); var uint32 = new Uint32Array(buffer); var uint8 = new Uint8Array(buffer); uint32[0] = 0x01020304; return uint8[0] === 0x04;")
-    private static native boolean isLittleEndian();
-}
\ No newline at end of file
+}